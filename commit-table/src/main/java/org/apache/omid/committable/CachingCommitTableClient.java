@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.omid.committable.CommitTable.CommitTimestamp;
+import org.apache.omid.committable.CommitTable.CommitTimestamp.Location;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.apache.omid.committable.CommitTable.INVALID_TRANSACTION_MARKER;
+
+/**
+ * Commit table client that remembers the commit timestamps found through the client it decorates, so the
+ * transactions read repeatedly before their shadow cells are written are looked up in the commit table only once.
+ *
+ * Only the results that can't change are kept: the commit timestamps of committed transactions and the invalidation
+ * of the transactions invalidated. A transaction not found in the commit table may still commit, so it is looked up
+ * again next time.
+ *
+ * The cache is bounded. It is a set associative cache of primitive longs, where each transaction can only be kept in
+ * the slots of the set its start timestamp maps to, and a new transaction replaces another one of its set, chosen by
+ * the eviction policy, when they are all in use.
+ */
+public class CachingCommitTableClient implements CommitTable.Client {
+
+    public enum EvictionPolicy {
+        /**
+         * Replaces the transaction that started first, as the most recent transactions are the ones most read before
+         * their shadow cells are written
+         */
+        OLDEST_TRANSACTION,
+        /**
+         * Replaces the transaction looked up least recently
+         */
+        LEAST_RECENTLY_USED
+    }
+
+    // Start timestamps are never negative
+    private static final long EMPTY_SLOT = -1L;
+    private static final long NOT_CACHED = Long.MIN_VALUE;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final CommitTable.Client client;
+    private final EvictionPolicy evictionPolicy;
+    private final int associativity;
+    private final int setMask;
+
+    // Slots of the cache, the slots of each set together
+    private final long[] startTimestamps;
+    private final long[] commitTimestamps;
+    // With LEAST_RECENTLY_USED, the value of the clock of the stripe of the slot when it was last used
+    private final long[] lastUses;
+
+    // Each set is guarded by the lock of its stripe, that also keeps the clock of the stripe
+    private final long[] clocks = new long[LOCK_STRIPES];
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * @param client the client to decorate
+     * @param maxEntries the maximum number of transactions kept, rounded up to a power of two sets
+     * @param associativity the number of slots of each set
+     * @param evictionPolicy the policy choosing the transaction replaced in a set with all its slots in use
+     */
+    public CachingCommitTableClient(CommitTable.Client client, int maxEntries, int associativity,
+                                    EvictionPolicy evictionPolicy) {
+        Preconditions.checkArgument(maxEntries > 0, "The cache must have room for some transactions");
+        Preconditions.checkArgument(associativity > 0 && associativity <= maxEntries,
+                                    "The associativity must be between 1 and the maximum number of entries");
+        this.client = client;
+        this.evictionPolicy = evictionPolicy;
+        this.associativity = associativity;
+        int minSets = (maxEntries + associativity - 1) / associativity;
+        int sets = minSets == 1 ? 1 : Integer.highestOneBit(minSets - 1) << 1;
+        this.setMask = sets - 1;
+        this.startTimestamps = new long[sets * associativity];
+        Arrays.fill(startTimestamps, EMPTY_SLOT);
+        this.commitTimestamps = new long[sets * associativity];
+        this.lastUses = evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED ? new long[sets * associativity] : null;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public ListenableFuture<Optional<CommitTimestamp>> getCommitTimestamp(final long startTimestamp) {
+
+        long commitTimestamp = get(startTimestamp);
+        if (commitTimestamp != NOT_CACHED) {
+            SettableFuture<Optional<CommitTimestamp>> f = SettableFuture.create();
+            f.set(Optional.of(toCommitTimestamp(commitTimestamp)));
+            return f;
+        }
+
+        return Futures.transform(client.getCommitTimestamp(startTimestamp),
+                                 new Function<Optional<CommitTimestamp>, Optional<CommitTimestamp>>() {
+                                     @Override
+                                     public Optional<CommitTimestamp> apply(Optional<CommitTimestamp> result) {
+                                         cache(startTimestamp, result);
+                                         return result;
+                                     }
+                                 });
+    }
+
+    @Override
+    public ListenableFuture<List<Optional<CommitTimestamp>>> getCommitTimestamps(long[] startTimestamps) {
+
+        final List<Optional<CommitTimestamp>> results = new ArrayList<>(startTimestamps.length);
+        final long[] notCached = new long[startTimestamps.length];
+        final int[] notCachedPositions = new int[startTimestamps.length];
+        int numNotCached = 0;
+        for (int i = 0; i < startTimestamps.length; i++) {
+            long commitTimestamp = get(startTimestamps[i]);
+            if (commitTimestamp != NOT_CACHED) {
+                results.add(Optional.of(toCommitTimestamp(commitTimestamp)));
+            } else {
+                results.add(Optional.<CommitTimestamp>absent());
+                notCached[numNotCached] = startTimestamps[i];
+                notCachedPositions[numNotCached] = i;
+                numNotCached++;
+            }
+        }
+
+        if (numNotCached == 0) {
+            SettableFuture<List<Optional<CommitTimestamp>>> f = SettableFuture.create();
+            f.set(results);
+            return f;
+        }
+
+        final long[] toLookUp = Arrays.copyOf(notCached, numNotCached);
+        return Futures.transform(client.getCommitTimestamps(toLookUp),
+                                 new Function<List<Optional<CommitTimestamp>>, List<Optional<CommitTimestamp>>>() {
+                                     @Override
+                                     public List<Optional<CommitTimestamp>> apply(
+                                             List<Optional<CommitTimestamp>> lookedUp) {
+                                         for (int i = 0; i < toLookUp.length; i++) {
+                                             cache(toLookUp[i], lookedUp.get(i));
+                                             results.set(notCachedPositions[i], lookedUp.get(i));
+                                         }
+                                         return results;
+                                     }
+                                 });
+    }
+
+    @Override
+    public ListenableFuture<Long> readLowWatermark() {
+        return client.readLowWatermark();
+    }
+
+    @Override
+    public ListenableFuture<Void> completeTransaction(long startTimestamp) {
+        // The transaction stays committed, so it can be kept in the cache
+        return client.completeTransaction(startTimestamp);
+    }
+
+    @Override
+    public ListenableFuture<Boolean> tryInvalidateTransaction(final long startTimestamp) {
+        return Futures.transform(client.tryInvalidateTransaction(startTimestamp), new Function<Boolean, Boolean>() {
+            @Override
+            public Boolean apply(Boolean invalidated) {
+                if (invalidated) {
+                    put(startTimestamp, INVALID_TRANSACTION_MARKER);
+                }
+                return invalidated;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void cache(long startTimestamp, Optional<CommitTimestamp> result) {
+        if (result.isPresent()) {
+            put(startTimestamp, result.get().isValid() ? result.get().getValue() : INVALID_TRANSACTION_MARKER);
+        }
+    }
+
+    // The results are given as found in the commit table, so the readers still heal the missing shadow cells
+    private static CommitTimestamp toCommitTimestamp(long commitTimestamp) {
+        if (commitTimestamp == INVALID_TRANSACTION_MARKER) {
+            return new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false);
+        }
+        return new CommitTimestamp(Location.COMMIT_TABLE, commitTimestamp, true);
+    }
+
+    /**
+     * @return the commit timestamp, or the invalid transaction marker, of the transaction passed, or NOT_CACHED
+     */
+    long get(long startTimestamp) {
+        int set = setOf(startTimestamp);
+        int stripe = set & (LOCK_STRIPES - 1);
+        int first = set * associativity;
+        synchronized (locks[stripe]) {
+            for (int slot = first; slot < first + associativity; slot++) {
+                if (startTimestamps[slot] == startTimestamp) {
+                    if (lastUses != null) {
+                        lastUses[slot] = ++clocks[stripe];
+                    }
+                    return commitTimestamps[slot];
+                }
+            }
+        }
+        return NOT_CACHED;
+    }
+
+    void put(long startTimestamp, long commitTimestamp) {
+        int set = setOf(startTimestamp);
+        int stripe = set & (LOCK_STRIPES - 1);
+        int first = set * associativity;
+        synchronized (locks[stripe]) {
+            int victim = first;
+            for (int slot = first; slot < first + associativity; slot++) {
+                if (startTimestamps[slot] == startTimestamp || startTimestamps[slot] == EMPTY_SLOT) {
+                    victim = slot;
+                    break;
+                }
+                if (evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED) {
+                    if (lastUses[slot] < lastUses[victim]) {
+                        victim = slot;
+                    }
+                } else if (startTimestamps[slot] < startTimestamps[victim]) {
+                    victim = slot;
+                }
+            }
+            startTimestamps[victim] = startTimestamp;
+            commitTimestamps[victim] = commitTimestamp;
+            if (lastUses != null) {
+                lastUses[victim] = ++clocks[stripe];
+            }
+        }
+    }
+
+    private int setOf(long startTimestamp) {
+        // Spreads the consecutive start timestamps across the sets
+        long hash = startTimestamp * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & setMask;
+    }
+
+}
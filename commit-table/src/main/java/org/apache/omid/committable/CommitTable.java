@@ -22,6 +22,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 
 public interface CommitTable {
 
@@ -59,6 +60,14 @@ public interface CommitTable {
          */
         ListenableFuture<Optional<CommitTimestamp>> getCommitTimestamp(long startTimestamp);
 
+        /**
+         * Same as getCommitTimestamp(long) for several transactions at once, looked up in a single operation
+         *
+         * @param startTimestamps the transaction start timestamps
+         * @return the commit timestamps of the transactions, in the same order as their start timestamps
+         */
+        ListenableFuture<List<Optional<CommitTimestamp>>> getCommitTimestamps(long[] startTimestamps);
+
         ListenableFuture<Long> readLowWatermark();
 
         ListenableFuture<Void> completeTransaction(long startTimestamp);
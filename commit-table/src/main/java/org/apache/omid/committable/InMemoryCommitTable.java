@@ -23,6 +23,8 @@ import com.google.common.util.concurrent.SettableFuture;
 import org.apache.omid.committable.CommitTable.CommitTimestamp.Location;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class InMemoryCommitTable implements CommitTable {
@@ -74,17 +76,32 @@ public class InMemoryCommitTable implements CommitTable {
         @Override
         public ListenableFuture<Optional<CommitTimestamp>> getCommitTimestamp(long startTimestamp) {
             SettableFuture<Optional<CommitTimestamp>> f = SettableFuture.create();
+            f.set(lookUp(startTimestamp));
+            return f;
+        }
+
+        @Override
+        public ListenableFuture<List<Optional<CommitTimestamp>>> getCommitTimestamps(long[] startTimestamps) {
+            SettableFuture<List<Optional<CommitTimestamp>>> f = SettableFuture.create();
+            List<Optional<CommitTimestamp>> commitTimestamps = new ArrayList<>(startTimestamps.length);
+            for (long startTimestamp : startTimestamps) {
+                commitTimestamps.add(lookUp(startTimestamp));
+            }
+            f.set(commitTimestamps);
+            return f;
+        }
+
+        private Optional<CommitTimestamp> lookUp(long startTimestamp) {
             Long result = table.get(startTimestamp);
             if (result == null) {
-                f.set(Optional.<CommitTimestamp>absent());
+                return Optional.absent();
             } else {
                 if (result == INVALID_TRANSACTION_MARKER) {
-                    f.set(Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false)));
+                    return Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false));
                 } else {
-                    f.set(Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, result, true)));
+                    return Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, result, true));
                 }
             }
-            return f;
         }
 
         @Override
@@ -22,6 +22,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.IOException;
+import java.util.List;
 
 public class NullCommitTable implements CommitTable {
     @Override
@@ -67,6 +68,11 @@ public class NullCommitTable implements CommitTable {
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public ListenableFuture<List<Optional<CommitTimestamp>>> getCommitTimestamps(long[] startTimestamps) {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public ListenableFuture<Long> readLowWatermark() {
             throw new UnsupportedOperationException();
@@ -51,6 +51,12 @@ public class NullCommitTableTest {
                 // expected
             }
 
+            try {
+                commitTableClient.getCommitTimestamps(new long[]{TEST_ST}).get();
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+
             try {
                 commitTableClient.tryInvalidateTransaction(TEST_ST).get();
             } catch (UnsupportedOperationException e) {
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable;
+
+import com.google.common.base.Optional;
+import org.apache.omid.committable.CachingCommitTableClient.EvictionPolicy;
+import org.apache.omid.committable.CommitTable.CommitTimestamp;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestCachingCommitTableClient {
+
+    @Test(timeOut = 10_000)
+    public void testOnlyFinalResultsAreCached() throws Exception {
+        InMemoryCommitTable commitTable = new InMemoryCommitTable();
+        CommitTable.Writer writer = commitTable.getWriter();
+        CommitTable.Client client = commitTable.getClient();
+        CommitTable.Client cachingClient =
+                new CachingCommitTableClient(client, 1024, 8, EvictionPolicy.OLDEST_TRANSACTION);
+
+        writer.addCommittedTransaction(1, 2);
+        assertEquals(cachingClient.getCommitTimestamp(1).get().get().getValue(), 2);
+        assertTrue(cachingClient.tryInvalidateTransaction(3).get());
+        // Not found transactions are not cached, as they may still commit
+        assertFalse(cachingClient.getCommitTimestamp(5).get().isPresent());
+
+        // Removing the transactions from the commit table doesn't change their results...
+        client.completeTransaction(1).get();
+        client.completeTransaction(3).get();
+        writer.addCommittedTransaction(5, 6);
+        assertEquals(cachingClient.getCommitTimestamp(1).get().get().getValue(), 2);
+        assertFalse(cachingClient.getCommitTimestamp(3).get().get().isValid());
+        // ...but a transaction committed after not being found is found
+        assertEquals(cachingClient.getCommitTimestamp(5).get().get().getValue(), 6);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBulkLookupsMixCachedAndLookedUpResults() throws Exception {
+        InMemoryCommitTable commitTable = new InMemoryCommitTable();
+        CommitTable.Writer writer = commitTable.getWriter();
+        CommitTable.Client client = commitTable.getClient();
+        CommitTable.Client cachingClient =
+                new CachingCommitTableClient(client, 1024, 8, EvictionPolicy.OLDEST_TRANSACTION);
+
+        writer.addCommittedTransaction(1, 2);
+        writer.addCommittedTransaction(3, 4);
+        cachingClient.getCommitTimestamp(1).get();
+        client.completeTransaction(1).get();
+
+        List<Optional<CommitTimestamp>> results = cachingClient.getCommitTimestamps(new long[]{3, 1, 5}).get();
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(0).get().getValue(), 4);
+        assertEquals(results.get(1).get().getValue(), 2);
+        assertFalse(results.get(2).isPresent());
+
+        // The results looked up in bulk are cached too
+        client.completeTransaction(3).get();
+        assertEquals(cachingClient.getCommitTimestamp(3).get().get().getValue(), 4);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOldestTransactionIsEvicted() throws Exception {
+        // A single set, of 4 slots
+        CachingCommitTableClient cache = new CachingCommitTableClient(new NullCommitTable().getClient(), 4, 4,
+                                                                      EvictionPolicy.OLDEST_TRANSACTION);
+        for (long startTimestamp = 2; startTimestamp <= 5; startTimestamp++) {
+            cache.put(startTimestamp, startTimestamp + 10);
+        }
+        cache.get(2);
+        cache.put(6, 16);
+        assertEquals(cache.get(2), Long.MIN_VALUE);
+        for (long startTimestamp = 3; startTimestamp <= 6; startTimestamp++) {
+            assertEquals(cache.get(startTimestamp), startTimestamp + 10);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testLeastRecentlyUsedTransactionIsEvicted() throws Exception {
+        // A single set, of 4 slots
+        CachingCommitTableClient cache = new CachingCommitTableClient(new NullCommitTable().getClient(), 4, 4,
+                                                                      EvictionPolicy.LEAST_RECENTLY_USED);
+        for (long startTimestamp = 1; startTimestamp <= 4; startTimestamp++) {
+            cache.put(startTimestamp, startTimestamp + 10);
+        }
+        cache.get(1);
+        cache.put(5, 15);
+        assertEquals(cache.get(2), Long.MIN_VALUE);
+        assertEquals(cache.get(1), 11);
+        assertEquals(cache.get(5), 15);
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+/**
+ * The granularity at which the TSO detects write-write conflicts among the transactions writing in a table. Coarser
+ * levels make concurrent transactions writing different cells of the same row (or family) conflict, but the commit
+ * requests carry a single id per row (or family) written, which keeps them and the conflict map of the TSO much
+ * smaller for tables where each update writes many columns of a row.
+ * The level of a table is set in the TTable#CONFLICT_DETECTION_LEVEL_KEY attribute of its descriptor, so all the
+ * clients writing in the table use the same one
+ */
+public enum ConflictDetectionLevel {
+
+    /**
+     * Transactions conflict when they write the same cell (row, family and qualifier). The default
+     */
+    CELL,
+
+    /**
+     * Transactions conflict when they write in the same family of the same row
+     */
+    FAMILY,
+
+    /**
+     * Transactions conflict when they write in the same row
+     */
+    ROW
+
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.omid.transaction;
 
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import org.apache.omid.tso.client.CellId;
 import org.apache.hadoop.hbase.client.HTableInterface;
@@ -30,13 +31,20 @@ public class HBaseCellId implements CellId {
     private final byte[] family;
     private final byte[] qualifier;
     private long timestamp;
+    private final ConflictDetectionLevel conflictDetectionLevel;
 
     public HBaseCellId(HTableInterface table, byte[] row, byte[] family, byte[] qualifier, long timestamp) {
+        this(table, row, family, qualifier, timestamp, ConflictDetectionLevel.CELL);
+    }
+
+    public HBaseCellId(HTableInterface table, byte[] row, byte[] family, byte[] qualifier, long timestamp,
+                       ConflictDetectionLevel conflictDetectionLevel) {
         this.timestamp = timestamp;
         this.table = table;
         this.row = row;
         this.family = family;
         this.qualifier = qualifier;
+        this.conflictDetectionLevel = conflictDetectionLevel;
     }
 
     public HTableInterface getTable() {
@@ -59,6 +67,10 @@ public class HBaseCellId implements CellId {
         return timestamp;
     }
 
+    public ConflictDetectionLevel getConflictDetectionLevel() {
+        return conflictDetectionLevel;
+    }
+
     public String toString() {
         return new String(table.getTableName(), UTF_8)
                 + ":" + new String(row, UTF_8)
@@ -67,14 +79,27 @@ public class HBaseCellId implements CellId {
                 + ":" + timestamp;
     }
 
+    /**
+     * @return the id the TSO detects conflicts with. Depending on the conflict detection level, all the cells of the
+     *         same row (or family) get the same id
+     */
     @Override
     public long getCellId() {
-        return Hashing.murmur3_128().newHasher()
+        Hasher hasher = Hashing.murmur3_128().newHasher()
                 .putBytes(table.getTableName())
-                .putBytes(row)
-                .putBytes(family)
-                .putBytes(qualifier)
-                .hash().asLong();
+                .putBytes(row);
+        switch (conflictDetectionLevel) {
+            case ROW:
+                break;
+            case FAMILY:
+                hasher.putBytes(family);
+                break;
+            case CELL:
+            default:
+                hasher.putBytes(family).putBytes(qualifier);
+                break;
+        }
+        return hasher.hash().asLong();
     }
 
 }
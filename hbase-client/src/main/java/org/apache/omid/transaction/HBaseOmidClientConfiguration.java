@@ -21,6 +21,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.apache.omid.YAMLUtils;
+import org.apache.omid.committable.CachingCommitTableClient.EvictionPolicy;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.tools.hbase.SecureHBaseConfig;
 import org.apache.omid.tso.client.OmidClientConfiguration.PostCommitMode;
@@ -37,6 +38,9 @@ public class HBaseOmidClientConfiguration extends SecureHBaseConfig {
     private static final String CONFIG_FILE_NAME = "hbase-omid-client-config.yml";
     private Configuration hbaseConfiguration = HBaseConfiguration.create();
     private String commitTableName;
+    private int commitTableCacheSize;
+    private int commitTableCacheAssociativity;
+    private EvictionPolicy commitTableCacheEvictionPolicy;
     @Inject
     private OmidClientConfiguration omidClientConfiguration;
     private MetricsRegistry metrics;
@@ -83,6 +87,36 @@ public class HBaseOmidClientConfiguration extends SecureHBaseConfig {
         this.commitTableName = commitTableName;
     }
 
+    public int getCommitTableCacheSize() {
+        return commitTableCacheSize;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.commitTableCacheSize")
+    public void setCommitTableCacheSize(int commitTableCacheSize) {
+        this.commitTableCacheSize = commitTableCacheSize;
+    }
+
+    public int getCommitTableCacheAssociativity() {
+        return commitTableCacheAssociativity;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.commitTableCacheAssociativity")
+    public void setCommitTableCacheAssociativity(int commitTableCacheAssociativity) {
+        this.commitTableCacheAssociativity = commitTableCacheAssociativity;
+    }
+
+    public EvictionPolicy getCommitTableCacheEvictionPolicy() {
+        return commitTableCacheEvictionPolicy;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.commitTableCacheEvictionPolicy")
+    public void setCommitTableCacheEvictionPolicy(EvictionPolicy commitTableCacheEvictionPolicy) {
+        this.commitTableCacheEvictionPolicy = commitTableCacheEvictionPolicy;
+    }
+
     public OmidClientConfiguration getOmidClientConfiguration() {
         return omidClientConfiguration;
     }
@@ -151,6 +185,22 @@ public class HBaseOmidClientConfiguration extends SecureHBaseConfig {
         return omidClientConfiguration.getExecutorThreads();
     }
 
+    public void setNumConnections(int numConnections) {
+        omidClientConfiguration.setNumConnections(numConnections);
+    }
+
+    public int getNumConnections() {
+        return omidClientConfiguration.getNumConnections();
+    }
+
+    public void setHandshakeTimeoutInMs(int handshakeTimeoutInMs) {
+        omidClientConfiguration.setHandshakeTimeoutInMs(handshakeTimeoutInMs);
+    }
+
+    public int getHandshakeTimeoutInMs() {
+        return omidClientConfiguration.getHandshakeTimeoutInMs();
+    }
+
     public int getRetryDelayInMs() {
         return omidClientConfiguration.getRetryDelayInMs();
     }
@@ -23,6 +23,7 @@ import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.omid.committable.CachingCommitTableClient;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
 import org.apache.omid.committable.hbase.HBaseCommitTable;
@@ -124,7 +125,15 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
             HBaseCommitTableConfig commitTableConf = new HBaseCommitTableConfig();
             commitTableConf.setTableName(hbaseOmidClientConf.getCommitTableName());
             CommitTable commitTable = new HBaseCommitTable(hbaseOmidClientConf.getHBaseConfiguration(), commitTableConf);
-            return Optional.of(commitTable.getClient());
+            CommitTable.Client commitTableClient = commitTable.getClient();
+            if (hbaseOmidClientConf.getCommitTableCacheSize() > 0) {
+                commitTableClient = new CachingCommitTableClient(
+                        commitTableClient,
+                        hbaseOmidClientConf.getCommitTableCacheSize(),
+                        hbaseOmidClientConf.getCommitTableCacheAssociativity(),
+                        hbaseOmidClientConf.getCommitTableCacheEvictionPolicy());
+            }
+            return Optional.of(commitTableClient);
         }
 
         private Optional<PostCommitActions> buildPostCommitter(CommitTable.Client commitTableClient ) {
@@ -54,12 +54,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.Set;
 
 /**
  * Provides transactional methods for accessing and modifying a given snapshot of data identified by an opaque {@link
@@ -69,10 +71,17 @@ public class TTable implements Closeable {
 
     private static Logger LOG = LoggerFactory.getLogger(TTable.class);
 
+    /**
+     * Table descriptor attribute holding the {@link ConflictDetectionLevel} of the transactions writing in the table
+     */
+    public static final String CONFLICT_DETECTION_LEVEL_KEY = "OMID_CONFLICT_DETECTION_LEVEL";
+
     private final HTableInterface healerTable;
 
     private HTableInterface table;
 
+    private final ConflictDetectionLevel conflictDetectionLevel;
+
     // ----------------------------------------------------------------------------------------------------------------
     // Construction
     // ----------------------------------------------------------------------------------------------------------------
@@ -92,11 +101,30 @@ public class TTable implements Closeable {
     public TTable(HTableInterface hTable) throws IOException {
         table = hTable;
         healerTable = new HTable(table.getConfiguration(), table.getTableName());
+        conflictDetectionLevel = conflictDetectionLevelOf(table);
     }
 
     public TTable(HTableInterface hTable, HTableInterface healerTable) throws IOException {
         table = hTable;
         this.healerTable = healerTable;
+        conflictDetectionLevel = conflictDetectionLevelOf(table);
+    }
+
+    /**
+     * Reads the conflict detection level from the table descriptor, so all the clients writing in a table share it
+     */
+    private static ConflictDetectionLevel conflictDetectionLevelOf(HTableInterface table) throws IOException {
+        HTableDescriptor desc = table.getTableDescriptor();
+        String level = desc == null ? null : desc.getValue(CONFLICT_DETECTION_LEVEL_KEY);
+        if (level == null) {
+            return ConflictDetectionLevel.CELL;
+        }
+        try {
+            return ConflictDetectionLevel.valueOf(level.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid " + CONFLICT_DETECTION_LEVEL_KEY + " " + level + " in table "
+                                  + Bytes.toString(table.getTableName()), e);
+        }
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -200,7 +228,8 @@ public class TTable implements Closeable {
                                             delete.getRow(),
                                             CellUtil.cloneFamily(cell),
                                             CellUtil.cloneQualifier(cell),
-                                            cell.getTimestamp()));
+                                            cell.getTimestamp(),
+                                            conflictDetectionLevel));
                         break;
                     case DeleteFamily:
                         deleteG.addFamily(CellUtil.cloneFamily(cell));
@@ -217,7 +246,8 @@ public class TTable implements Closeable {
                                                 delete.getRow(),
                                                 CellUtil.cloneFamily(cell),
                                                 CellUtil.cloneQualifier(cell),
-                                                cell.getTimestamp()));
+                                                cell.getTimestamp(),
+                                                conflictDetectionLevel));
                             break;
                         } else {
                             throw new UnsupportedOperationException(
@@ -240,7 +270,8 @@ public class TTable implements Closeable {
                         byte[] qualifier = entryQ.getKey();
                         deleteP.add(family, qualifier, CellUtils.DELETE_TOMBSTONE);
                         transaction.addWriteSetElement(new HBaseCellId(table, delete.getRow(), family, qualifier,
-                                                                       transaction.getStartTimestamp()));
+                                                                       transaction.getStartTimestamp(),
+                                                                       conflictDetectionLevel));
                     }
                 }
             }
@@ -284,7 +315,8 @@ public class TTable implements Closeable {
                                     CellUtil.cloneRow(kv),
                                     CellUtil.cloneFamily(kv),
                                     CellUtil.cloneQualifier(kv),
-                                    kv.getTimestamp()));
+                                    kv.getTimestamp(),
+                                    conflictDetectionLevel));
             }
         }
 
@@ -346,12 +378,14 @@ public class TTable implements Closeable {
         }
 
         Map<Long, Long> commitCache = buildCommitCache(rawCells);
+        Map<Long, Optional<CommitTimestamp>> commitTableResults =
+            lookUpCommitTimestampsInCommitTable(rawCells, transaction, commitCache);
 
         for (Collection<Cell> columnCells : groupCellsByColumnFilteringShadowCells(rawCells)) {
             boolean snapshotValueFound = false;
             Cell oldestCell = null;
             for (Cell cell : columnCells) {
-                if (isCellInSnapshot(cell, transaction, commitCache)) {
+                if (isCellInSnapshot(cell, transaction, commitCache, commitTableResults)) {
                     if (!CellUtil.matchingValue(cell, CellUtils.DELETE_TOMBSTONE)) {
                         keyValuesInSnapshot.add(cell);
                     }
@@ -396,7 +430,29 @@ public class TTable implements Closeable {
         return commitCache;
     }
 
-    private boolean isCellInSnapshot(Cell kv, HBaseTransaction transaction, Map<Long, Long> commitCache)
+    // Looks up in the commit table at once the transactions of the cells not found in the commit cache, instead of
+    // one lookup per cell when locating their commit timestamps
+    private Map<Long, Optional<CommitTimestamp>> lookUpCommitTimestampsInCommitTable(List<Cell> rawCells,
+                                                                                     HBaseTransaction transaction,
+                                                                                     Map<Long, Long> commitCache)
+        throws IOException {
+
+        Set<Long> startTimestamps = new HashSet<>();
+
+        for (Cell cell : rawCells) {
+            long cellStartTimestamp = cell.getTimestamp();
+            if (!CellUtils.isShadowCell(cell)
+                    && cellStartTimestamp != transaction.getStartTimestamp()
+                    && !commitCache.containsKey(cellStartTimestamp)) {
+                startTimestamps.add(cellStartTimestamp);
+            }
+        }
+
+        return transaction.getTransactionManager().readCommitTimestampsFromCommitTable(startTimestamps);
+    }
+
+    private boolean isCellInSnapshot(Cell kv, HBaseTransaction transaction, Map<Long, Long> commitCache,
+                                     Map<Long, Optional<CommitTimestamp>> commitTableResults)
         throws IOException {
 
         long startTimestamp = transaction.getStartTimestamp();
@@ -407,7 +463,7 @@ public class TTable implements Closeable {
 
         Optional<Long> commitTimestamp =
             tryToLocateCellCommitTimestamp(transaction.getTransactionManager(), transaction.getEpoch(), kv,
-                                           commitCache);
+                                           commitCache, commitTableResults);
 
         return commitTimestamp.isPresent() && commitTimestamp.get() < startTimestamp;
     }
@@ -428,7 +484,8 @@ public class TTable implements Closeable {
     private Optional<Long> tryToLocateCellCommitTimestamp(AbstractTransactionManager transactionManager,
                                                           long epoch,
                                                           Cell cell,
-                                                          Map<Long, Long> commitCache)
+                                                          Map<Long, Long> commitCache,
+                                                          Map<Long, Optional<CommitTimestamp>> commitTableResults)
         throws IOException {
 
         CommitTimestamp tentativeCommitTimestamp =
@@ -441,7 +498,8 @@ public class TTable implements Closeable {
                                     CellUtil.cloneFamily(cell),
                                     CellUtil.cloneQualifier(cell),
                                     cell.getTimestamp()),
-                    commitCache));
+                    commitCache),
+                commitTableResults);
 
         // If transaction that added the cell was invalidated
         if (!tentativeCommitTimestamp.isValid()) {
@@ -721,6 +779,16 @@ public class TTable implements Closeable {
         return table;
     }
 
+    /**
+     * Returns the granularity of the conflicts detected among the transactions writing in this table, as set in the
+     * {@link #CONFLICT_DETECTION_LEVEL_KEY} attribute of its descriptor when this object was built
+     *
+     * @return cell (the default), family or row
+     */
+    public ConflictDetectionLevel getConflictDetectionLevel() {
+        return conflictDetectionLevel;
+    }
+
     /**
      * Delegates to {@link HTable#setAutoFlush(boolean autoFlush)}
      */
@@ -29,6 +29,8 @@ public class TestHBaseOmidClientConfiguration {
         Assert.assertNotNull(configuration.getHBaseConfiguration());
         Assert.assertNotNull(configuration.getMetrics());
         Assert.assertNotNull(configuration.getOmidClientConfiguration());
+        Assert.assertTrue(configuration.getCommitTableCacheSize() > 0);
+        Assert.assertNotNull(configuration.getCommitTableCacheEvictionPolicy());
     }
 
     @Test(timeOut = 10_000)
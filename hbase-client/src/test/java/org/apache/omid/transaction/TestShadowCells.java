@@ -129,6 +129,7 @@ public class TestShadowCells extends OmidTestBase {
         Result getResult = table.get(t2, get);
         assertTrue(Arrays.equals(data1, getResult.getValue(family, qualifier)), "Values should be the same");
         verify(commitTableClient, never()).getCommitTimestamp(anyLong());
+        verify(commitTableClient, never()).getCommitTimestamps(any(long[].class));
     }
 
     @Test(timeOut = 60_000)
@@ -175,7 +176,7 @@ public class TestShadowCells extends OmidTestBase {
 
         Result getResult = table.get(t2, get);
         assertTrue(Arrays.equals(data1, getResult.getValue(family, qualifier)), "Shadow cell should not be there");
-        verify(commitTableClient, times(1)).getCommitTimestamp(anyLong());
+        verify(commitTableClient, times(1)).getCommitTimestamps(any(long[].class));
     }
 
     @Test(timeOut = 60_000)
@@ -222,7 +223,7 @@ public class TestShadowCells extends OmidTestBase {
         // This get should heal the shadow cell
         Result getResult = table.get(t2, get);
         assertTrue(Arrays.equals(data1, getResult.getValue(family, qualifier)), "Values should be the same");
-        verify(commitTableClient, times(1)).getCommitTimestamp(anyLong());
+        verify(commitTableClient, times(1)).getCommitTimestamps(any(long[].class));
 
         assertTrue(hasCell(row, family, qualifier, t1.getStartTimestamp(), new TTableCellGetterAdapter(table)),
                 "Cell should be there");
@@ -230,11 +231,11 @@ public class TestShadowCells extends OmidTestBase {
                 "Shadow cell should be there after being healed");
 
         // As the shadow cell is healed, this get shouldn't have to hit the storage,
-        // so the number of invocations to commitTableClient.getCommitTimestamp()
+        // so the number of invocations to commitTableClient.getCommitTimestamps()
         // should remain the same
         getResult = table.get(t2, get);
         assertTrue(Arrays.equals(data1, getResult.getValue(family, qualifier)), "Values should be the same");
-        verify(commitTableClient, times(1)).getCommitTimestamp(anyLong());
+        verify(commitTableClient, times(1)).getCommitTimestamps(any(long[].class));
     }
 
     @Test(timeOut = 60_000)
@@ -300,4 +300,60 @@ public class TestTransactionConflict extends OmidTestBase {
         tm.commit(t1);
     }
 
+    @Test(timeOut = 10_000)
+    public void testCellChangesOnSameRowConflictWithRowLevelConflictDetection(ITestContext context)
+            throws Exception {
+        TransactionManager tm = newTransactionManager(context);
+        String rowLevelTable = TEST_TABLE + "RowLevel";
+        TableName rowLevelTableName = TableName.valueOf(rowLevelTable);
+
+        HBaseAdmin admin = new HBaseAdmin(hbaseConf);
+
+        if (!admin.tableExists(rowLevelTable)) {
+            HTableDescriptor desc = new HTableDescriptor(rowLevelTableName);
+            desc.setValue(TTable.CONFLICT_DETECTION_LEVEL_KEY, ConflictDetectionLevel.ROW.name());
+            HColumnDescriptor datafam = new HColumnDescriptor(TEST_FAMILY);
+            datafam.setMaxVersions(Integer.MAX_VALUE);
+            desc.addFamily(datafam);
+
+            admin.createTable(desc);
+        }
+
+        if (admin.isTableDisabled(rowLevelTable)) {
+            admin.enableTable(rowLevelTable);
+        }
+        admin.close();
+
+        // Each transaction writes through its own TTable, both reading the level from the table descriptor
+        TTable tt1 = new TTable(hbaseConf, rowLevelTable);
+        TTable tt2 = new TTable(hbaseConf, rowLevelTable);
+        assertEquals(tt1.getConflictDetectionLevel(), ConflictDetectionLevel.ROW);
+        assertEquals(tt2.getConflictDetectionLevel(), ConflictDetectionLevel.ROW);
+
+        Transaction t1 = tm.begin();
+        Transaction t2 = tm.begin();
+        LOG.info("Transactions created " + t1 + " " + t2);
+
+        byte[] row = Bytes.toBytes("row-level");
+        byte[] fam = Bytes.toBytes(TEST_FAMILY);
+        byte[] col1 = Bytes.toBytes("testdata1");
+        byte[] col2 = Bytes.toBytes("testdata2");
+        byte[] data = Bytes.toBytes("testWrite-1");
+
+        Put p2 = new Put(row);
+        p2.add(fam, col1, data);
+        tt2.put(t2, p2);
+        tm.commit(t2);
+
+        Put p1 = new Put(row);
+        p1.add(fam, col2, data);
+        tt1.put(t1, p1);
+        try {
+            tm.commit(t1);
+            fail("Transaction should not commit successfully");
+        } catch (RollbackException e) {
+            // Expected, as both transactions wrote the same row
+        }
+    }
+
 }
@@ -30,6 +30,8 @@ public class DefaultHBaseCommitTableStorageModule extends AbstractModule {
     private String tableName = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_NAME;
     private String familyName = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_CF_NAME;
     private String lowWatermarkFamily = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_LWM_CF_NAME;
+    private int writeParallelism = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_WRITE_PARALLELISM;
+    private int lookupThreads = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_LOOKUP_THREADS;
     private String keytab;
     private String principal;
 
@@ -38,6 +40,8 @@ public class DefaultHBaseCommitTableStorageModule extends AbstractModule {
         bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_NAME_KEY)).to(tableName);
         bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_CF_NAME_KEY)).to(familyName);
         bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_LWM_CF_NAME_KEY)).to(lowWatermarkFamily);
+        bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_WRITE_PARALLELISM_KEY)).to(writeParallelism);
+        bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_LOOKUP_THREADS_KEY)).to(lookupThreads);
         install(new HBaseConfigModule(principal, keytab));
         install(new HBaseCommitTableStorageModule());
     }
@@ -70,6 +74,22 @@ public class DefaultHBaseCommitTableStorageModule extends AbstractModule {
         this.lowWatermarkFamily = lowWatermarkFamily;
     }
 
+    public int getWriteParallelism() {
+        return writeParallelism;
+    }
+
+    public void setWriteParallelism(int writeParallelism) {
+        this.writeParallelism = writeParallelism;
+    }
+
+    public int getLookupThreads() {
+        return lookupThreads;
+    }
+
+    public void setLookupThreads(int lookupThreads) {
+        this.lookupThreads = lookupThreads;
+    }
+
     public String getPrincipal() {
         return principal;
     }
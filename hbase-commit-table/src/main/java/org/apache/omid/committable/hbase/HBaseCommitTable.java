@@ -22,6 +22,7 @@ import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import org.apache.omid.committable.CommitTable;
@@ -43,8 +44,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.COMMIT_TABLE_QUALIFIER;
@@ -56,11 +61,15 @@ public class HBaseCommitTable implements CommitTable {
 
     private static final Logger LOG = LoggerFactory.getLogger(HBaseCommitTable.class);
 
+    private static final long INITIAL_LWM_VALUE = -1L;
+
     private final Configuration hbaseConfig;
     private final String tableName;
     private final byte[] commitTableFamily;
     private final byte[] lowWatermarkFamily;
     private final KeyGenerator keygen;
+    private final int writeParallelism;
+    private final int lookupThreads;
 
     /**
      * Create a hbase commit table.
@@ -78,6 +87,8 @@ public class HBaseCommitTable implements CommitTable {
         this.commitTableFamily = config.getCommitTableFamily();
         this.lowWatermarkFamily = config.getLowWatermarkFamily();
         this.keygen = keygen;
+        this.writeParallelism = config.getWriteParallelism();
+        this.lookupThreads = config.getLookupThreads();
 
     }
 
@@ -87,7 +98,6 @@ public class HBaseCommitTable implements CommitTable {
 
     private class HBaseWriter implements Writer {
 
-        private static final long INITIAL_LWM_VALUE = -1L;
         final HTable table;
         // Our own buffer for operations
         final List<Put> writeBuffer = new LinkedList<>();
@@ -99,11 +109,7 @@ public class HBaseCommitTable implements CommitTable {
 
         @Override
         public void addCommittedTransaction(long startTimestamp, long commitTimestamp) throws IOException {
-            assert (startTimestamp < commitTimestamp);
-            Put put = new Put(startTimestampToKey(startTimestamp), startTimestamp);
-            byte[] value = encodeCommitTimestamp(startTimestamp, commitTimestamp);
-            put.add(commitTableFamily, COMMIT_TABLE_QUALIFIER, value);
-            writeBuffer.add(put);
+            writeBuffer.add(createCommitPut(startTimestamp, commitTimestamp));
         }
 
         @Override
@@ -137,22 +143,157 @@ public class HBaseCommitTable implements CommitTable {
         private void addLowWatermarkToStoreToWriteBuffer() {
             long lowWatermark = lowWatermarkToStore;
             if(lowWatermark != INITIAL_LWM_VALUE) {
-                Put put = new Put(LOW_WATERMARK_ROW);
-                put.add(lowWatermarkFamily, LOW_WATERMARK_QUALIFIER, Bytes.toBytes(lowWatermark));
-                writeBuffer.add(put);
+                writeBuffer.add(createLowWatermarkPut(lowWatermark));
             }
         }
 
     }
 
+    /**
+     * Writer that splits each flush into groups of commits written concurrently, each through its own HTable. The
+     * commits are grouped by the first byte of their row key, that is the bucket of their start timestamp with the
+     * BucketKeyGenerator, so each group goes to its own regions of a commit table pre-split by bucket, instead of
+     * all the regions absorbing a mixed batch one after another. The flush returns once all the groups are written.
+     */
+    private class ParallelHBaseWriter implements Writer {
+
+        final HTable[] tables;
+        // Our own buffers for operations, one per group
+        final List<List<Put>> writeBuffers;
+        final List<GroupWrite> groupWrites;
+        // The flushing thread writes one of the groups itself
+        final ExecutorService groupWriteExecutor;
+        volatile long lowWatermarkToStore = INITIAL_LWM_VALUE;
+
+        ParallelHBaseWriter(int parallelism) throws IOException {
+            tables = new HTable[parallelism];
+            writeBuffers = new ArrayList<>(parallelism);
+            groupWrites = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                tables[i] = new HTable(hbaseConfig, tableName);
+                writeBuffers.add(new ArrayList<Put>());
+                groupWrites.add(new GroupWrite(i));
+            }
+            groupWriteExecutor = Executors.newFixedThreadPool(parallelism - 1,
+                    new ThreadFactoryBuilder().setNameFormat("omid-committable-writer-%d").setDaemon(true).build());
+        }
+
+        @Override
+        public void addCommittedTransaction(long startTimestamp, long commitTimestamp) throws IOException {
+            add(createCommitPut(startTimestamp, commitTimestamp));
+        }
+
+        @Override
+        public void updateLowWatermark(long lowWatermark) throws IOException {
+            lowWatermarkToStore = lowWatermark;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                long lowWatermark = lowWatermarkToStore;
+                if (lowWatermark != INITIAL_LWM_VALUE) {
+                    add(createLowWatermarkPut(lowWatermark));
+                }
+
+                GroupWrite ownGroupWrite = null;
+                List<Future<Void>> pendingGroupWrites = new ArrayList<>(tables.length);
+                for (int i = 0; i < tables.length; i++) {
+                    if (writeBuffers.get(i).isEmpty()) {
+                        continue;
+                    }
+                    if (ownGroupWrite == null) {
+                        ownGroupWrite = groupWrites.get(i);
+                    } else {
+                        pendingGroupWrites.add(groupWriteExecutor.submit(groupWrites.get(i)));
+                    }
+                }
+
+                IOException error = null;
+                if (ownGroupWrite != null) {
+                    try {
+                        ownGroupWrite.call();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                // The buffers can't be touched again until all the groups have been written
+                for (Future<Void> pendingGroupWrite : pendingGroupWrites) {
+                    try {
+                        Uninterruptibles.getUninterruptibly(pendingGroupWrite);
+                    } catch (ExecutionException e) {
+                        if (error == null) {
+                            error = e.getCause() instanceof IOException
+                                    ? (IOException) e.getCause() : new IOException(e.getCause());
+                        }
+                    }
+                }
+                if (error != null) {
+                    throw error;
+                }
+            } catch (IOException e) {
+                LOG.error("Error flushing data", e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void clearWriteBuffer() {
+            for (List<Put> writeBuffer : writeBuffers) {
+                writeBuffer.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            clearWriteBuffer();
+            groupWriteExecutor.shutdown();
+            for (HTable table : tables) {
+                table.close();
+            }
+        }
+
+        private void add(Put put) {
+            writeBuffers.get((put.getRow()[0] & 0xFF) % tables.length).add(put);
+        }
+
+        private class GroupWrite implements Callable<Void> {
+
+            final int group;
+
+            GroupWrite(int group) {
+                this.group = group;
+            }
+
+            @Override
+            public Void call() throws IOException {
+                List<Put> writeBuffer = writeBuffers.get(group);
+                tables[group].put(writeBuffer);
+                writeBuffer.clear();
+                return null;
+            }
+
+        }
+
+    }
+
+    /**
+     * The commit timestamp lookups are queued and done by a few lookup threads, each one with its own HTable. A lookup
+     * thread takes all the lookups queued while it was busy and does them in a single multi-get, that HBase splits in
+     * one request per region server, so concurrent readers share the round trips to the commit table and don't block
+     * on them.
+     */
     class HBaseClient implements Client, Runnable {
 
         final HTable table;
         final HTable deleteTable;
         final ExecutorService deleteBatchExecutor;
         final BlockingQueue<DeleteRequest> deleteQueue;
+        final ExecutorService lookupExecutor;
+        final BlockingQueue<LookupRequest<?>> lookupQueue;
         boolean isClosed = false; // @GuardedBy("this")
         final static int DELETE_BATCH_SIZE = 1024;
+        final static int LOOKUP_BATCH_SIZE = 1024;
 
         HBaseClient() throws IOException {
             table = new HTable(hbaseConfig, tableName);
@@ -164,39 +305,57 @@ public class HBaseCommitTable implements CommitTable {
                     new ThreadFactoryBuilder().setNameFormat("omid-completor-%d").build());
             deleteBatchExecutor.submit(this);
 
+            lookupQueue = new LinkedBlockingQueue<>();
+            lookupExecutor = Executors.newFixedThreadPool(lookupThreads,
+                    new ThreadFactoryBuilder().setNameFormat("omid-commit-table-lookup-%d").setDaemon(true).build());
+            for (int i = 0; i < lookupThreads; i++) {
+                lookupExecutor.submit(new LookupBatcher(new HTable(hbaseConfig, tableName)));
+            }
+
         }
 
         @Override
         public ListenableFuture<Optional<CommitTimestamp>> getCommitTimestamp(long startTimestamp) {
+            return lookUp(new SingleLookupRequest(startTimestamp));
+        }
 
-            SettableFuture<Optional<CommitTimestamp>> f = SettableFuture.create();
-            try {
-                Get get = new Get(startTimestampToKey(startTimestamp));
-                get.addColumn(commitTableFamily, COMMIT_TABLE_QUALIFIER);
-                get.addColumn(commitTableFamily, INVALID_TX_QUALIFIER);
-
-                Result result = table.get(get);
-
-                if (containsInvalidTransaction(result)) {
-                    CommitTimestamp invalidCT =
-                            new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false);
-                    f.set(Optional.of(invalidCT));
-                    return f;
-                }
+        @Override
+        public ListenableFuture<List<Optional<CommitTimestamp>>> getCommitTimestamps(long[] startTimestamps) {
+            return lookUp(new MultiLookupRequest(startTimestamps));
+        }
 
-                if (containsATimestamp(result)) {
-                    long commitTSValue =
-                            decodeCommitTimestamp(startTimestamp, result.getValue(commitTableFamily, COMMIT_TABLE_QUALIFIER));
-                    CommitTimestamp validCT = new CommitTimestamp(Location.COMMIT_TABLE, commitTSValue, true);
-                    f.set(Optional.of(validCT));
+        private <T> ListenableFuture<T> lookUp(LookupRequest<T> request) {
+            synchronized (this) {
+                if (isClosed) {
+                    request.error(new IOException("Not accepting requests anymore"));
                 } else {
-                    f.set(Optional.<CommitTimestamp>absent());
+                    lookupQueue.add(request);
                 }
-            } catch (IOException e) {
-                LOG.error("Error getting commit timestamp for TX {}", startTimestamp, e);
-                f.setException(e);
             }
-            return f;
+            return request;
+        }
+
+        private Get createCommitTimestampGet(long startTimestamp) throws IOException {
+            Get get = new Get(startTimestampToKey(startTimestamp));
+            get.addColumn(commitTableFamily, COMMIT_TABLE_QUALIFIER);
+            get.addColumn(commitTableFamily, INVALID_TX_QUALIFIER);
+            return get;
+        }
+
+        private Optional<CommitTimestamp> toCommitTimestamp(long startTimestamp, Result result) throws IOException {
+
+            if (containsInvalidTransaction(result)) {
+                return Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false));
+            }
+
+            if (containsATimestamp(result)) {
+                long commitTSValue =
+                        decodeCommitTimestamp(startTimestamp, result.getValue(commitTableFamily, COMMIT_TABLE_QUALIFIER));
+                return Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, commitTSValue, true));
+            }
+
+            return Optional.absent();
+
         }
 
         @Override
@@ -328,14 +487,24 @@ public class HBaseCommitTable implements CommitTable {
         public synchronized void close() throws IOException {
             isClosed = true;
             deleteBatchExecutor.shutdownNow(); // may need to interrupt take
+            lookupExecutor.shutdownNow(); // may need to interrupt take
             try {
                 if (!deleteBatchExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
                     LOG.warn("Delete executor did not shutdown");
                 }
+                if (!lookupExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    LOG.warn("Lookup executor did not shutdown");
+                }
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
             }
 
+            LookupRequest<?> queuedLookup = lookupQueue.poll();
+            while (queuedLookup != null) {
+                queuedLookup.error(new IOException("HBase CommitTable is going to be closed"));
+                queuedLookup = lookupQueue.poll();
+            }
+
             LOG.warn("Re-Draining delete queue just in case");
             DeleteRequest queuedRequest = deleteQueue.poll();
             while (queuedRequest != null) {
@@ -359,6 +528,138 @@ public class HBaseCommitTable implements CommitTable {
             return (result != null && result.containsColumn(lowWatermarkFamily, LOW_WATERMARK_QUALIFIER));
         }
 
+        private class LookupBatcher implements Runnable {
+
+            final HTable lookupTable;
+
+            LookupBatcher(HTable lookupTable) {
+                this.lookupTable = lookupTable;
+            }
+
+            @Override
+            @SuppressWarnings("InfiniteLoopStatement")
+            public void run() {
+                List<LookupRequest<?>> reqbatch = new ArrayList<>();
+                List<Get> gets = new ArrayList<>();
+                try {
+                    while (true) {
+                        reqbatch.add(lookupQueue.take());
+                        lookupQueue.drainTo(reqbatch, LOOKUP_BATCH_SIZE - 1);
+                        try {
+                            for (LookupRequest<?> lr : reqbatch) {
+                                lr.addGets(gets);
+                            }
+                            Result[] results = lookupTable.get(gets);
+                            int offset = 0;
+                            for (LookupRequest<?> lr : reqbatch) {
+                                offset = lr.complete(results, offset);
+                            }
+                        } catch (IOException ioe) {
+                            LOG.error("Error getting commit timestamps for {} lookups", reqbatch.size(), ioe);
+                            for (LookupRequest<?> lr : reqbatch) {
+                                lr.error(ioe);
+                            }
+                        } catch (Throwable t) {
+                            // Only the lookups of the batch fail. The thread goes on serving the next ones, which
+                            // would otherwise wait forever for it
+                            LOG.error("Unexpected error getting commit timestamps for {} lookups", reqbatch.size(), t);
+                            for (LookupRequest<?> lr : reqbatch) {
+                                lr.error(new IOException(t));
+                            }
+                        } finally {
+                            reqbatch.clear();
+                            gets.clear();
+                        }
+                    }
+                } catch (InterruptedException ie) {
+                    // The requests still queued are failed when closing the client
+                    Thread.currentThread().interrupt();
+                } finally {
+                    try {
+                        lookupTable.close();
+                    } catch (IOException ioe) {
+                        LOG.warn("Error closing lookup table", ioe);
+                    }
+                }
+            }
+
+        }
+
+        private abstract class LookupRequest<T> extends AbstractFuture<T> {
+
+            abstract void addGets(List<Get> gets) throws IOException;
+
+            /**
+             * Completes the request with its results, found from the offset passed
+             *
+             * @return the offset of the results of the next request
+             */
+            abstract int complete(Result[] results, int offset);
+
+            void error(IOException ioe) {
+                setException(ioe);
+            }
+
+        }
+
+        private class SingleLookupRequest extends LookupRequest<Optional<CommitTimestamp>> {
+
+            final long startTimestamp;
+
+            SingleLookupRequest(long startTimestamp) {
+                this.startTimestamp = startTimestamp;
+            }
+
+            @Override
+            void addGets(List<Get> gets) throws IOException {
+                gets.add(createCommitTimestampGet(startTimestamp));
+            }
+
+            @Override
+            int complete(Result[] results, int offset) {
+                try {
+                    set(toCommitTimestamp(startTimestamp, results[offset]));
+                } catch (IOException e) {
+                    LOG.error("Error getting commit timestamp for TX {}", startTimestamp, e);
+                    error(e);
+                }
+                return offset + 1;
+            }
+
+        }
+
+        private class MultiLookupRequest extends LookupRequest<List<Optional<CommitTimestamp>>> {
+
+            final long[] startTimestamps;
+
+            MultiLookupRequest(long[] startTimestamps) {
+                this.startTimestamps = startTimestamps;
+            }
+
+            @Override
+            void addGets(List<Get> gets) throws IOException {
+                for (long startTimestamp : startTimestamps) {
+                    gets.add(createCommitTimestampGet(startTimestamp));
+                }
+            }
+
+            @Override
+            int complete(Result[] results, int offset) {
+                try {
+                    List<Optional<CommitTimestamp>> commitTimestamps = new ArrayList<>(startTimestamps.length);
+                    for (int i = 0; i < startTimestamps.length; i++) {
+                        commitTimestamps.add(toCommitTimestamp(startTimestamps[i], results[offset + i]));
+                    }
+                    set(commitTimestamps);
+                } catch (IOException e) {
+                    LOG.error("Error getting commit timestamps for {} TXs", startTimestamps.length, e);
+                    error(e);
+                }
+                return offset + startTimestamps.length;
+            }
+
+        }
+
         private class DeleteRequest extends AbstractFuture<Void> {
             final Delete delete;
 
@@ -386,6 +687,9 @@ public class HBaseCommitTable implements CommitTable {
 
     @Override
     public Writer getWriter() throws IOException {
+        if (writeParallelism > 1) {
+            return new ParallelHBaseWriter(writeParallelism);
+        }
         return new HBaseWriter();
     }
 
@@ -402,6 +706,20 @@ public class HBaseCommitTable implements CommitTable {
         return keygen.startTimestampToKey(startTimestamp);
     }
 
+    private Put createCommitPut(long startTimestamp, long commitTimestamp) throws IOException {
+        assert (startTimestamp < commitTimestamp);
+        Put put = new Put(startTimestampToKey(startTimestamp), startTimestamp);
+        byte[] value = encodeCommitTimestamp(startTimestamp, commitTimestamp);
+        put.add(commitTableFamily, COMMIT_TABLE_QUALIFIER, value);
+        return put;
+    }
+
+    private Put createLowWatermarkPut(long lowWatermark) {
+        Put put = new Put(LOW_WATERMARK_ROW);
+        put.add(lowWatermarkFamily, LOW_WATERMARK_QUALIFIER, Bytes.toBytes(lowWatermark));
+        return put;
+    }
+
     private static byte[] encodeCommitTimestamp(long startTimestamp, long commitTimestamp) throws IOException {
         assert (startTimestamp < commitTimestamp);
         long diff = commitTimestamp - startTimestamp;
@@ -28,10 +28,14 @@ public class HBaseCommitTableConfig {
     public static final String COMMIT_TABLE_NAME_KEY = "omid.committable.tablename";
     public static final String COMMIT_TABLE_CF_NAME_KEY = "omid.committable.cfname";
     public static final String COMMIT_TABLE_LWM_CF_NAME_KEY = "omid.committable.lwm.cfname";
+    public static final String COMMIT_TABLE_WRITE_PARALLELISM_KEY = "omid.committable.writeParallelism";
+    public static final String COMMIT_TABLE_LOOKUP_THREADS_KEY = "omid.committable.lookupThreads";
 
     public static final String DEFAULT_COMMIT_TABLE_NAME = "OMID_COMMIT_TABLE";
     public static final String DEFAULT_COMMIT_TABLE_CF_NAME = "F";
     public static final String DEFAULT_COMMIT_TABLE_LWM_CF_NAME = "LWF";
+    public static final int DEFAULT_COMMIT_TABLE_WRITE_PARALLELISM = 1;
+    public static final int DEFAULT_COMMIT_TABLE_LOOKUP_THREADS = 2;
 
     static final byte[] COMMIT_TABLE_QUALIFIER = "C".getBytes(UTF_8);
     static final byte[] INVALID_TX_QUALIFIER = "IT".getBytes(UTF_8);
@@ -45,6 +49,8 @@ public class HBaseCommitTableConfig {
     private String tableName = DEFAULT_COMMIT_TABLE_NAME;
     private byte[] commitTableFamily = Bytes.toBytes(DEFAULT_COMMIT_TABLE_CF_NAME);
     private byte[] lowWatermarkFamily = Bytes.toBytes(DEFAULT_COMMIT_TABLE_LWM_CF_NAME);
+    private int writeParallelism = DEFAULT_COMMIT_TABLE_WRITE_PARALLELISM;
+    private int lookupThreads = DEFAULT_COMMIT_TABLE_LOOKUP_THREADS;
 
     // ----------------------------------------------------------------------------------------------------------------
     // Getters and setters
@@ -79,4 +85,30 @@ public class HBaseCommitTableConfig {
         this.lowWatermarkFamily = lowWatermarkFamily.getBytes(UTF_8);
     }
 
+    public int getWriteParallelism() {
+        return writeParallelism;
+    }
+
+    /**
+     * Number of concurrent writes each commit table writer splits its flushes into, grouping the commits by bucket.
+     * One writes the whole flush at once
+     */
+    @Inject(optional = true)
+    public void setWriteParallelism(@Named(COMMIT_TABLE_WRITE_PARALLELISM_KEY) int writeParallelism) {
+        this.writeParallelism = writeParallelism;
+    }
+
+    public int getLookupThreads() {
+        return lookupThreads;
+    }
+
+    /**
+     * Number of threads of each commit table client doing the commit timestamp lookups, each one coalescing the
+     * lookups queued while it was busy into a single multi-get
+     */
+    @Inject(optional = true)
+    public void setLookupThreads(@Named(COMMIT_TABLE_LOOKUP_THREADS_KEY) int lookupThreads) {
+        this.lookupThreads = lookupThreads;
+    }
+
 }
@@ -44,6 +44,8 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -158,6 +160,20 @@ public class TestHBaseCommitTable {
         }
         assertEquals(rowCount(TABLE_NAME, commitTableFamily), 1000, "Rows should be 1000!");
 
+        // Test we get the same commit timestamps looking them up at once, including a non-existent transaction id
+        long[] startTimestamps = new long[1001];
+        for (int i = 0; i < startTimestamps.length; i++) {
+            startTimestamps[i] = i;
+        }
+        List<Optional<CommitTimestamp>> commitTimestamps = client.getCommitTimestamps(startTimestamps).get();
+        assertEquals(commitTimestamps.size(), 1001);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(commitTimestamps.get(i).isPresent());
+            assertTrue(commitTimestamps.get(i).get().isValid());
+            assertEquals(commitTimestamps.get(i).get().getValue(), (i + 1), "Commit timestamp should be " + (i + 1));
+        }
+        assertFalse(commitTimestamps.get(1000).isPresent(), "Commit timestamp should not be present");
+
         // Test the successful deletion of the 1000 txs
         Future<Void> f;
         for (long i = 0; i < 1000; i++) {
@@ -258,6 +274,102 @@ public class TestHBaseCommitTable {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testParallelWriter() throws Throwable {
+        HBaseCommitTableConfig config = new HBaseCommitTableConfig();
+        config.setTableName(TEST_TABLE);
+        config.setWriteParallelism(4);
+        HBaseCommitTable commitTable = new HBaseCommitTable(hbaseConf, config);
+
+        Writer writer = commitTable.getWriter();
+        Client client = commitTable.getClient();
+
+        // Test that the commits of several flushes, spread across all the groups, are written
+        for (int flush = 0; flush < 10; flush++) {
+            for (int i = flush * 100; i < (flush + 1) * 100; i++) {
+                writer.addCommittedTransaction(i, i + 1);
+            }
+            writer.updateLowWatermark(flush);
+            writer.flush();
+            assertEquals(rowCount(TABLE_NAME, commitTableFamily), (flush + 1) * 100);
+        }
+
+        for (long i = 0; i < 1000; i++) {
+            Optional<CommitTimestamp> commitTimestamp = client.getCommitTimestamp(i).get();
+            assertTrue(commitTimestamp.isPresent());
+            assertEquals(commitTimestamp.get().getValue(), (i + 1), "Commit timestamp should be " + (i + 1));
+        }
+        assertEquals(client.readLowWatermark().get(), Long.valueOf(9), "Low watermark should be 9");
+
+        // Test that a cleared write buffer is not written in any group
+        writer.addCommittedTransaction(1000, 1001);
+        writer.clearWriteBuffer();
+        writer.flush();
+        assertEquals(rowCount(TABLE_NAME, commitTableFamily), 1000, "Rows should be 1000!");
+
+        writer.close();
+        client.close();
+    }
+
+    @Test(timeOut = 30_000)
+    public void testConcurrentLookups() throws Throwable {
+        HBaseCommitTableConfig config = new HBaseCommitTableConfig();
+        config.setTableName(TEST_TABLE);
+        HBaseCommitTable commitTable = new HBaseCommitTable(hbaseConf, config);
+
+        Writer writer = commitTable.getWriter();
+        Client client = commitTable.getClient();
+
+        for (int i = 0; i < 1000; i++) {
+            writer.addCommittedTransaction(i, i + 1);
+        }
+        writer.flush();
+
+        // Test that lookups issued without waiting for the previous ones, and coalesced, get their own results
+        List<ListenableFuture<Optional<CommitTimestamp>>> lookups = new ArrayList<>();
+        List<ListenableFuture<List<Optional<CommitTimestamp>>>> multiLookups = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lookups.add(client.getCommitTimestamp(i));
+            multiLookups.add(client.getCommitTimestamps(new long[]{i, i + 1000}));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(lookups.get(i).get().get().getValue(), i + 1, "Commit timestamp should be " + (i + 1));
+            List<Optional<CommitTimestamp>> commitTimestamps = multiLookups.get(i).get();
+            assertEquals(commitTimestamps.get(0).get().getValue(), i + 1, "Commit timestamp should be " + (i + 1));
+            assertFalse(commitTimestamps.get(1).isPresent(), "Commit timestamp should not be present");
+        }
+
+        writer.close();
+        client.close();
+    }
+
+    @Test(timeOut = 30_000)
+    public void testLookupsAreServedAfterAnUnexpectedError() throws Throwable {
+        HBaseCommitTableConfig config = new HBaseCommitTableConfig();
+        config.setTableName(TEST_TABLE);
+        // A single lookup thread, which must survive the error
+        config.setLookupThreads(1);
+        HBaseCommitTable commitTable = new HBaseCommitTable(hbaseConf, config);
+
+        Writer writer = commitTable.getWriter();
+        Client client = commitTable.getClient();
+
+        writer.addCommittedTransaction(1, 2);
+        writer.flush();
+
+        // Building the gets of this lookup throws a NullPointerException in the lookup thread
+        try {
+            client.getCommitTimestamps(null).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        assertEquals(client.getCommitTimestamp(1).get().get().getValue(), 2, "Commit timestamp should be 2");
+
+        writer.close();
+        client.close();
+    }
+
     @Test(timeOut = 30_000)
     public void testClosingClientEmptyQueuesProperly() throws Throwable {
         HBaseCommitTableConfig config = new HBaseCommitTableConfig();
@@ -285,6 +397,15 @@ public class TestHBaseCommitTable {
             // Expected
         }
         assertEquals(client.deleteQueue.size(), 0, "Delete queue size should be 0!");
+
+        // When closing, looking up a transaction should throw an EE with an IOException too
+        try {
+            client.getCommitTimestamp(1).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        assertEquals(client.lookupQueue.size(), 0, "Lookup queue size should be 0!");
         assertEquals(rowCount(TABLE_NAME, commitTableFamily), 999, "Rows should be 999!");
 
     }
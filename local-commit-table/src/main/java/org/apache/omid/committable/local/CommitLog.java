@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable.local;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Append only log of fixed size records, stored in a directory as a sequence of segment files of the same size that
+ * are memory mapped. Each record holds a type, a start timestamp and a value, protected by a checksum, so a record
+ * torn by a crash ends the log when it is recovered.
+ *
+ * The records are appended to the mapped memory of the current segment, and are made durable by sync, that forces
+ * the segment to disk. Concurrent syncs are grouped: a sync finding that the records it waits for have been forced
+ * by a concurrent one returns without forcing them again. A segment is forced once more when it fills up and the log
+ * moves to a new one, so only the current segment needs to be forced.
+ *
+ * The oldest segments, except the current one, can be retired, which deletes them once the records in them that are
+ * still needed have been appended again to the log. The records of the segments retired are read without holding the
+ * lock of the log, as nothing is appended to them anymore, so the appends go on while they are retired.
+ */
+class CommitLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommitLog.class);
+
+    // Record types. Zero marks the free space at the end of a segment
+    static final int COMMIT = 1;
+    static final int INVALIDATION = 2;
+    static final int COMPLETION = 3;
+    static final int LOW_WATERMARK = 4;
+
+    // Record layout: start timestamp, value, type and checksum
+    static final int RECORD_SIZE = 8 + 8 + 4 + 4;
+
+    private static final String SEGMENT_FILE_PREFIX = "commit-log-";
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+    /**
+     * Receives the records of the log
+     */
+    interface RecordVisitor {
+
+        void visit(int type, long startTimestamp, long value) throws IOException;
+
+    }
+
+    private final File directory;
+    private final int recordsPerSegment;
+
+    // The segments of the log, from the oldest to the current one
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment current;
+
+    // Records appended to the log since it was opened
+    private long appendedRecords = 0;
+
+    // Serializes the syncs. Must not be taken with the lock of the log held
+    private final Object syncLock = new Object();
+    private volatile long syncedRecords = 0;
+
+    /**
+     * Opens the log stored in the directory passed, creating it if it does not exist, and passes the records stored
+     * in it, in order, to the visitor
+     */
+    CommitLog(File directory, int segmentSizeInBytes, RecordVisitor recovery) throws IOException {
+        Preconditions.checkArgument(segmentSizeInBytes >= RECORD_SIZE, "Segments must fit at least one record");
+        this.directory = directory;
+        this.recordsPerSegment = segmentSizeInBytes / RECORD_SIZE;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create commit log directory " + directory);
+        }
+        recover(recovery);
+        if (current == null) {
+            current = newSegment(0);
+        }
+        LOG.info("Commit log {} opened with {} segment(s)", directory, segments.size());
+    }
+
+    /**
+     * Appends a record to the log
+     *
+     * @return the position in the log after the record, which will be durable after a sync to it
+     */
+    synchronized long append(int type, long startTimestamp, long value) throws IOException {
+        return append(type, startTimestamp, value, false);
+    }
+
+    /**
+     * Appends again a record of a segment being retired. The segments holding only records appended again are not
+     * retired on their own, but with the next segment that has new ones, so the records still needed are not copied
+     * over and over while the low watermark advances without the log moving to new segments
+     */
+    synchronized long appendRetained(int type, long startTimestamp, long value) throws IOException {
+        return append(type, startTimestamp, value, true);
+    }
+
+    synchronized long getAppendedPosition() {
+        return appendedRecords;
+    }
+
+    /**
+     * Makes durable the records of the log up to the position passed, and any other appended before this call
+     */
+    void sync(long position) {
+        if (syncedRecords >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedRecords >= position) {
+                // Forced by a concurrent sync
+                return;
+            }
+            Segment segment;
+            long records;
+            synchronized (this) {
+                segment = current;
+                records = appendedRecords;
+            }
+            // The previous segments were forced when the log moved past them
+            segment.buffer.force();
+            syncedRecords = records;
+        }
+    }
+
+    /**
+     * @return the number of the oldest segments, except the current one, whose transactions have all started below
+     *         the low watermark passed, up to the last one of them with records not appended again by a retirement
+     */
+    synchronized int getNumRetirableSegments(long lowWatermark) {
+        int numSegments = 0;
+        int numRetirable = 0;
+        for (Segment segment : segments) {
+            if (segment == current || segment.maxStartTimestamp >= lowWatermark) {
+                break;
+            }
+            numSegments++;
+            if (!segment.onlyRetainedRecords) {
+                numRetirable = numSegments;
+            }
+        }
+        return numRetirable;
+    }
+
+    /**
+     * Retires the oldest segments, as many as passed, that must be retirable. The records of each one are passed to
+     * the visitor, so it can append again with appendRetained those still needed, and once these are durable the
+     * segments are deleted. Only the segments passed are retired, even if the records appended again fill new ones.
+     * Must not be called concurrently.
+     */
+    void retireSegments(int numSegments, RecordVisitor retirement) throws IOException {
+        List<Segment> retired = new ArrayList<>(numSegments);
+        synchronized (this) {
+            Iterator<Segment> it = segments.iterator();
+            while (retired.size() < numSegments) {
+                Segment segment = it.next();
+                Preconditions.checkState(segment != current, "The current commit log segment can't be retired");
+                retired.add(segment);
+            }
+        }
+        for (Segment segment : retired) {
+            segment.visit(retirement);
+        }
+        // Not to lose the records appended again
+        sync(getAppendedPosition());
+        synchronized (this) {
+            for (int i = 0; i < numSegments; i++) {
+                segments.removeFirst();
+            }
+        }
+        for (Segment segment : retired) {
+            // The memory stays mapped until the buffer is garbage collected, which the OS allows for deleted files
+            if (!segment.file.delete()) {
+                LOG.warn("Can't delete retired commit log segment {}", segment.file);
+            }
+            LOG.debug("Retired commit log segment {}", segment.file);
+        }
+    }
+
+    synchronized int getNumSegments() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync(getAppendedPosition());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void recover(RecordVisitor recovery) throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can't list commit log directory " + directory);
+        }
+        // The sequence numbers are zero padded, so the names sort in sequence order
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.length() != (long) recordsPerSegment * RECORD_SIZE) {
+                throw new IOException("Commit log segment " + file + " doesn't have the configured segment size");
+            }
+            Segment segment = new Segment(file, sequenceOf(file));
+            segment.recover();
+            segment.visit(recovery);
+            segments.addLast(segment);
+            current = segment;
+        }
+    }
+
+    private long append(int type, long startTimestamp, long value, boolean retained) throws IOException {
+        if (current.records == recordsPerSegment) {
+            current.buffer.force();
+            current = newSegment(current.sequence + 1);
+        }
+        current.write(type, startTimestamp, value, retained);
+        appendedRecords++;
+        return appendedRecords;
+    }
+
+    private Segment newSegment(long sequence) throws IOException {
+        File file = new File(directory, String.format("%s%019d%s", SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_SUFFIX));
+        Segment segment = new Segment(file, sequence);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private static long sequenceOf(File file) throws IOException {
+        String name = file.getName();
+        try {
+            return Long.parseLong(
+                    name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected commit log segment name " + file, e);
+        }
+    }
+
+    private static int checksum(int type, long startTimestamp, long value) {
+        long hash = (startTimestamp * 0x9E3779B97F4A7C15L) ^ (value * 0xC2B2AE3D27D4EB4FL) ^ type;
+        hash ^= hash >>> 32;
+        return (int) hash;
+    }
+
+    private class Segment {
+
+        final File file;
+        final long sequence;
+        final MappedByteBuffer buffer;
+        int records = 0;
+        // Highest start timestamp of the transactions recorded in the segment
+        long maxStartTimestamp = -1;
+        // Whether all the records of the segment were appended again by a retirement. Not known for the segments
+        // recovered, which are taken as having new records
+        boolean onlyRetainedRecords = true;
+
+        Segment(File file, long sequence) throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength((long) recordsPerSegment * RECORD_SIZE);
+                // The mapping outlives the file channel
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+            }
+        }
+
+        void write(int type, long startTimestamp, long value, boolean retained) {
+            int offset = records * RECORD_SIZE;
+            buffer.putLong(offset, startTimestamp);
+            buffer.putLong(offset + 8, value);
+            buffer.putInt(offset + 16, type);
+            buffer.putInt(offset + 20, checksum(type, startTimestamp, value));
+            records++;
+            onlyRetainedRecords &= retained;
+            if ((type == COMMIT || type == INVALIDATION) && startTimestamp > maxStartTimestamp) {
+                maxStartTimestamp = startTimestamp;
+            }
+        }
+
+        // Finds the valid records of the segment
+        void recover() {
+            records = 0;
+            onlyRetainedRecords = false;
+            while (records < recordsPerSegment) {
+                int offset = records * RECORD_SIZE;
+                long startTimestamp = buffer.getLong(offset);
+                long value = buffer.getLong(offset + 8);
+                int type = buffer.getInt(offset + 16);
+                if (type < COMMIT || type > LOW_WATERMARK
+                        || buffer.getInt(offset + 20) != checksum(type, startTimestamp, value)) {
+                    break;
+                }
+                records++;
+                if ((type == COMMIT || type == INVALIDATION) && startTimestamp > maxStartTimestamp) {
+                    maxStartTimestamp = startTimestamp;
+                }
+            }
+            // Clears whatever a torn write left after the last valid record, so it can't be taken for a record later
+            for (int offset = records * RECORD_SIZE; offset < recordsPerSegment * RECORD_SIZE; offset += RECORD_SIZE) {
+                if (buffer.getInt(offset + 16) == 0) {
+                    break;
+                }
+                buffer.putInt(offset + 16, 0);
+            }
+        }
+
+        void visit(RecordVisitor visitor) throws IOException {
+            for (int i = 0; i < records; i++) {
+                int offset = i * RECORD_SIZE;
+                visitor.visit(buffer.getInt(offset + 16), buffer.getLong(offset), buffer.getLong(offset + 8));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable.local;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+
+/**
+ * This class is instantiated by the yaml parser.
+ * Snake_yaml needs a public POJO style class to work properly with all the setters and getters.
+ */
+public class DefaultLocalCommitTableStorageModule extends AbstractModule {
+
+    private String directory = LocalCommitTableConfig.DEFAULT_COMMIT_TABLE_DIRECTORY;
+    private int segmentSizeInBytes = LocalCommitTableConfig.DEFAULT_COMMIT_TABLE_SEGMENT_SIZE;
+
+    @Override
+    protected void configure() {
+        bindConstant().annotatedWith(Names.named(LocalCommitTableConfig.COMMIT_TABLE_DIRECTORY_KEY)).to(directory);
+        bindConstant().annotatedWith(Names.named(LocalCommitTableConfig.COMMIT_TABLE_SEGMENT_SIZE_KEY))
+                .to(segmentSizeInBytes);
+        install(new LocalCommitTableStorageModule());
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // WARNING: Do not remove getters/setters, needed by snake_yaml!
+    // ----------------------------------------------------------------------------------------------------------------
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getSegmentSizeInBytes() {
+        return segmentSizeInBytes;
+    }
+
+    public void setSegmentSizeInBytes(int segmentSizeInBytes) {
+        this.segmentSizeInBytes = segmentSizeInBytes;
+    }
+
+}
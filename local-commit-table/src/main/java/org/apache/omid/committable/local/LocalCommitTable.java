@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable.local;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.committable.CommitTable.CommitTimestamp.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.apache.omid.committable.local.CommitLog.COMMIT;
+import static org.apache.omid.committable.local.CommitLog.COMPLETION;
+import static org.apache.omid.committable.local.CommitLog.INVALIDATION;
+import static org.apache.omid.committable.local.CommitLog.LOW_WATERMARK;
+
+/**
+ * Commit table stored in a log in the local file system, for single node deployments and for benchmarking the TSO
+ * with a durable commit table but without an HBase cluster.
+ *
+ * The changes to the commit table are appended to a CommitLog and kept in an in-memory index of the transactions in
+ * the commit table, which serves the lookups. The commit table is rebuilt in memory from the log when opened.
+ *
+ * The writers append the commits buffered since their previous flush to the log, and then sync it, so the fsync is
+ * shared by all the commits of the flush, and by those of the concurrent flushes of other writers. Their commits are
+ * added to the index once durable. The segments of the log are retired as the low watermark advances past all the
+ * transactions recorded in them, appending again the commits still in the commit table. The invalidations are not
+ * appended again, but removed from the commit table: the TSO aborts the transactions that started below the low
+ * watermark, so there is no commit left for them to prevent, and a reader not finding the transaction invalidates it
+ * again.
+ */
+public class LocalCommitTable implements CommitTable, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalCommitTable.class);
+
+    private static final long INITIAL_LWM_VALUE = -1L;
+
+    private final CommitLog log;
+
+    // Transactions in the commit table, with their commit timestamp or the invalid transaction marker
+    private final ConcurrentHashMap<Long, Long> index = new ConcurrentHashMap<>();
+
+    private volatile long lowWatermark = 0;
+    private volatile long lowWatermarkToStore = INITIAL_LWM_VALUE;
+
+    // Taken shared by the flushes until their commits are in the index, and exclusively to choose the segments to
+    // retire, so no commit is left out of the index when its segment is retired
+    private final ReadWriteLock retirementLock = new ReentrantReadWriteLock();
+    // Held by the writer retiring segments. The others leave the retirement to it, or to the next flush
+    private final Lock retiring = new ReentrantLock();
+
+    @Inject
+    public LocalCommitTable(LocalCommitTableConfig config) throws IOException {
+
+        log = new CommitLog(new File(config.getDirectory()), config.getSegmentSizeInBytes(),
+                            new CommitLog.RecordVisitor() {
+                                @Override
+                                public void visit(int type, long startTimestamp, long value) {
+                                    recover(type, startTimestamp, value);
+                                }
+                            });
+        LOG.info("Local commit table recovered with {} transactions and low watermark {}", index.size(), lowWatermark);
+
+    }
+
+    private void recover(int type, long startTimestamp, long value) {
+        switch (type) {
+            case COMMIT:
+                // An invalidation recorded before the commit prevails, as it did when they were recorded
+                index.putIfAbsent(startTimestamp, value);
+                break;
+            case INVALIDATION:
+                index.put(startTimestamp, INVALID_TRANSACTION_MARKER);
+                break;
+            case COMPLETION:
+                index.remove(startTimestamp);
+                break;
+            case LOW_WATERMARK:
+                lowWatermark = Math.max(lowWatermark, value);
+                break;
+            default:
+                throw new IllegalStateException("Unknown commit log record type " + type);
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Reader and Writer
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private class LocalWriter implements Writer {
+
+        private static final int INITIAL_BUFFER_SIZE = 1024;
+
+        // Our own buffer for the commits
+        long[] startTimestamps = new long[INITIAL_BUFFER_SIZE];
+        long[] commitTimestamps = new long[INITIAL_BUFFER_SIZE];
+        int bufferedCommits = 0;
+
+        @Override
+        public void addCommittedTransaction(long startTimestamp, long commitTimestamp) throws IOException {
+            assert (startTimestamp < commitTimestamp);
+            if (bufferedCommits == startTimestamps.length) {
+                startTimestamps = Arrays.copyOf(startTimestamps, bufferedCommits << 1);
+                commitTimestamps = Arrays.copyOf(commitTimestamps, bufferedCommits << 1);
+            }
+            startTimestamps[bufferedCommits] = startTimestamp;
+            commitTimestamps[bufferedCommits] = commitTimestamp;
+            bufferedCommits++;
+        }
+
+        @Override
+        public void updateLowWatermark(long lowWatermark) throws IOException {
+            lowWatermarkToStore = lowWatermark;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long newLowWatermark = lowWatermarkToStore;
+            boolean storeLowWatermark = newLowWatermark > lowWatermark;
+
+            retirementLock.readLock().lock();
+            try {
+                long position = 0;
+                synchronized (log) {
+                    for (int i = 0; i < bufferedCommits; i++) {
+                        position = log.append(COMMIT, startTimestamps[i], commitTimestamps[i]);
+                    }
+                    if (storeLowWatermark) {
+                        position = log.append(LOW_WATERMARK, 0, newLowWatermark);
+                    }
+                }
+                log.sync(position);
+                for (int i = 0; i < bufferedCommits; i++) {
+                    // As in the log, the commit doesn't replace a concurrent invalidation
+                    index.putIfAbsent(startTimestamps[i], commitTimestamps[i]);
+                }
+                bufferedCommits = 0;
+            } catch (IOException e) {
+                LOG.error("Error flushing data", e);
+                throw e;
+            } finally {
+                retirementLock.readLock().unlock();
+            }
+
+            if (storeLowWatermark) {
+                synchronized (log) {
+                    lowWatermark = Math.max(lowWatermark, newLowWatermark);
+                }
+                retireSegments(newLowWatermark);
+            }
+        }
+
+        @Override
+        public void clearWriteBuffer() {
+            bufferedCommits = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            clearWriteBuffer();
+        }
+
+    }
+
+    private class LocalClient implements Client {
+
+        @Override
+        public ListenableFuture<Optional<CommitTimestamp>> getCommitTimestamp(long startTimestamp) {
+            SettableFuture<Optional<CommitTimestamp>> f = SettableFuture.create();
+            f.set(lookUp(startTimestamp));
+            return f;
+        }
+
+        @Override
+        public ListenableFuture<List<Optional<CommitTimestamp>>> getCommitTimestamps(long[] startTimestamps) {
+            SettableFuture<List<Optional<CommitTimestamp>>> f = SettableFuture.create();
+            List<Optional<CommitTimestamp>> commitTimestamps = new ArrayList<>(startTimestamps.length);
+            for (long startTimestamp : startTimestamps) {
+                commitTimestamps.add(lookUp(startTimestamp));
+            }
+            f.set(commitTimestamps);
+            return f;
+        }
+
+        private Optional<CommitTimestamp> lookUp(long startTimestamp) {
+            Long result = index.get(startTimestamp);
+            if (result == null) {
+                return Optional.absent();
+            } else if (result == INVALID_TRANSACTION_MARKER) {
+                return Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false));
+            } else {
+                return Optional.of(new CommitTimestamp(Location.COMMIT_TABLE, result, true));
+            }
+        }
+
+        @Override
+        public ListenableFuture<Long> readLowWatermark() {
+            SettableFuture<Long> f = SettableFuture.create();
+            f.set(lowWatermark);
+            return f;
+        }
+
+        @Override
+        public ListenableFuture<Void> completeTransaction(long startTimestamp) {
+            SettableFuture<Void> f = SettableFuture.create();
+            try {
+                // Made durable by the next sync. If lost, the transaction would only be completed again
+                synchronized (log) {
+                    if (index.remove(startTimestamp) != null) {
+                        log.append(COMPLETION, startTimestamp, 0);
+                    }
+                }
+                f.set(null);
+            } catch (IOException e) {
+                LOG.error("Error completing TX {}", startTimestamp, e);
+                f.setException(e);
+            }
+            return f;
+        }
+
+        @Override
+        public ListenableFuture<Boolean> tryInvalidateTransaction(long startTimestamp) {
+            SettableFuture<Boolean> f = SettableFuture.create();
+            try {
+                long position;
+                Long old;
+                // Recorded in the log together with the index, so an invalidation found in the index is in the log
+                synchronized (log) {
+                    old = index.putIfAbsent(startTimestamp, INVALID_TRANSACTION_MARKER);
+                    if (old == null) {
+                        position = log.append(INVALIDATION, startTimestamp, INVALID_TRANSACTION_MARKER);
+                    } else {
+                        position = log.getAppendedPosition();
+                    }
+                }
+                if (old == null || old == INVALID_TRANSACTION_MARKER) {
+                    log.sync(position);
+                    f.set(true);
+                } else {
+                    f.set(false);
+                }
+            } catch (IOException ioe) {
+                f.setException(ioe);
+            }
+            return f;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Getters
+    // ----------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public Writer getWriter() {
+        return new LocalWriter();
+    }
+
+    @Override
+    public Client getClient() {
+        return new LocalClient();
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    int getNumSegments() {
+        return log.getNumSegments();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void retireSegments(long lowWatermark) throws IOException {
+        if (!retiring.tryLock()) {
+            return;
+        }
+        try {
+            int numSegments;
+            retirementLock.writeLock().lock();
+            try {
+                numSegments = log.getNumRetirableSegments(lowWatermark);
+            } finally {
+                retirementLock.writeLock().unlock();
+            }
+            if (numSegments == 0) {
+                return;
+            }
+            // The records are checked and appended again one by one, so the flushes aren't held while retiring
+            log.retireSegments(numSegments, new CommitLog.RecordVisitor() {
+                @Override
+                public void visit(int type, long startTimestamp, long value) throws IOException {
+                    synchronized (log) {
+                        if (type == COMMIT) {
+                            // Only if not completed nor recorded again since
+                            Long current = index.get(startTimestamp);
+                            if (current != null && current == value) {
+                                log.appendRetained(type, startTimestamp, value);
+                            }
+                        } else if (type == INVALIDATION) {
+                            index.remove(startTimestamp, INVALID_TRANSACTION_MARKER);
+                        } else if (type == LOW_WATERMARK && value == LocalCommitTable.this.lowWatermark) {
+                            log.appendRetained(type, startTimestamp, value);
+                        }
+                    }
+                }
+            });
+        } finally {
+            retiring.unlock();
+        }
+    }
+
+}
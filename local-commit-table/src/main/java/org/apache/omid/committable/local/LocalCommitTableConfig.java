@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable.local;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+public class LocalCommitTableConfig {
+
+    public static final String COMMIT_TABLE_DIRECTORY_KEY = "omid.committable.local.directory";
+    public static final String COMMIT_TABLE_SEGMENT_SIZE_KEY = "omid.committable.local.segmentSizeInBytes";
+
+    public static final String DEFAULT_COMMIT_TABLE_DIRECTORY = "omid-commit-table";
+    public static final int DEFAULT_COMMIT_TABLE_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Configuration parameters
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private String directory = DEFAULT_COMMIT_TABLE_DIRECTORY;
+    private int segmentSizeInBytes = DEFAULT_COMMIT_TABLE_SEGMENT_SIZE;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Getters and setters
+    // ----------------------------------------------------------------------------------------------------------------
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    @Inject(optional = true)
+    public void setDirectory(@Named(COMMIT_TABLE_DIRECTORY_KEY) String directory) {
+        this.directory = directory;
+    }
+
+    public int getSegmentSizeInBytes() {
+        return segmentSizeInBytes;
+    }
+
+    @Inject(optional = true)
+    public void setSegmentSizeInBytes(@Named(COMMIT_TABLE_SEGMENT_SIZE_KEY) int segmentSizeInBytes) {
+        this.segmentSizeInBytes = segmentSizeInBytes;
+    }
+
+}
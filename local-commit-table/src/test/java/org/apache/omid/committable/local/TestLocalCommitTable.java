@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable.local;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.committable.CommitTable.CommitTimestamp;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestLocalCommitTable {
+
+    // Small segments, to exercise moving to new segments and retiring them
+    private static final int TEST_SEGMENT_SIZE = 100 * CommitLog.RECORD_SIZE;
+
+    private File directory;
+    private LocalCommitTableConfig config;
+
+    @BeforeMethod
+    public void setUp() {
+        directory = Files.createTempDir();
+        config = new LocalCommitTableConfig();
+        config.setDirectory(directory.getAbsolutePath());
+        config.setSegmentSizeInBytes(TEST_SEGMENT_SIZE);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBasicBehaviour() throws Exception {
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Writer writer = commitTable.getWriter();
+             CommitTable.Client client = commitTable.getClient()) {
+
+            writer.addCommittedTransaction(1, 2);
+            writer.addCommittedTransaction(3, 5);
+            // Not visible until flushed
+            assertFalse(client.getCommitTimestamp(1).get().isPresent());
+            writer.flush();
+
+            assertEquals(client.getCommitTimestamp(1).get().get().getValue(), 2);
+            List<Optional<CommitTimestamp>> commitTimestamps = client.getCommitTimestamps(new long[]{3, 4}).get();
+            assertEquals(commitTimestamps.get(0).get().getValue(), 5);
+            assertFalse(commitTimestamps.get(1).isPresent());
+
+            client.completeTransaction(1).get();
+            assertFalse(client.getCommitTimestamp(1).get().isPresent());
+
+            // Committed transactions can't be invalidated, others can
+            assertFalse(client.tryInvalidateTransaction(3).get());
+            assertTrue(client.tryInvalidateTransaction(7).get());
+            assertTrue(client.tryInvalidateTransaction(7).get());
+            assertFalse(client.getCommitTimestamp(7).get().get().isValid());
+
+            // An invalidated transaction can't commit afterwards
+            writer.addCommittedTransaction(7, 8);
+            writer.flush();
+            assertFalse(client.getCommitTimestamp(7).get().get().isValid());
+
+            // Buffered commits can be discarded
+            writer.addCommittedTransaction(9, 10);
+            writer.clearWriteBuffer();
+            writer.flush();
+            assertFalse(client.getCommitTimestamp(9).get().isPresent());
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCommitTableIsRecoveredWhenReopened() throws Exception {
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Writer writer = commitTable.getWriter();
+             CommitTable.Client client = commitTable.getClient()) {
+
+            for (long startTimestamp = 1; startTimestamp <= 250; startTimestamp++) {
+                writer.addCommittedTransaction(startTimestamp, startTimestamp + 1000);
+            }
+            writer.updateLowWatermark(50);
+            writer.flush();
+            client.completeTransaction(100).get();
+            client.tryInvalidateTransaction(300).get();
+            // The completion is made durable by any later sync
+            writer.flush();
+        }
+
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Client client = commitTable.getClient()) {
+
+            assertEquals(client.readLowWatermark().get().longValue(), 50);
+            assertEquals(client.getCommitTimestamp(1).get().get().getValue(), 1001);
+            assertEquals(client.getCommitTimestamp(250).get().get().getValue(), 1250);
+            assertFalse(client.getCommitTimestamp(100).get().isPresent());
+            assertFalse(client.getCommitTimestamp(300).get().get().isValid());
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testTornRecordEndsTheLog() throws Exception {
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Writer writer = commitTable.getWriter()) {
+
+            writer.addCommittedTransaction(1, 2);
+            writer.addCommittedTransaction(3, 4);
+            writer.flush();
+        }
+
+        // Corrupts the value of the second record
+        File[] segments = directory.listFiles();
+        assertEquals(segments.length, 1);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            raf.seek(CommitLog.RECORD_SIZE + 8);
+            raf.writeLong(42);
+        }
+
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Writer writer = commitTable.getWriter();
+             CommitTable.Client client = commitTable.getClient()) {
+
+            assertEquals(client.getCommitTimestamp(1).get().get().getValue(), 2);
+            assertFalse(client.getCommitTimestamp(3).get().isPresent());
+
+            // New records replace the torn one
+            writer.addCommittedTransaction(5, 6);
+            writer.flush();
+        }
+
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Client client = commitTable.getClient()) {
+
+            assertEquals(client.getCommitTimestamp(5).get().get().getValue(), 6);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testSegmentsAreRetiredByLowWatermark() throws Exception {
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Writer writer = commitTable.getWriter();
+             CommitTable.Client client = commitTable.getClient()) {
+
+            for (long startTimestamp = 1; startTimestamp <= 1000; startTimestamp++) {
+                writer.addCommittedTransaction(startTimestamp, startTimestamp + 1);
+                if (startTimestamp % 50 == 0) {
+                    writer.flush();
+                    for (long completed = startTimestamp - 49; completed <= startTimestamp; completed++) {
+                        if (completed != 10) {
+                            client.completeTransaction(completed).get();
+                        }
+                    }
+                }
+            }
+            int segments = commitTable.getNumSegments();
+            assertTrue(segments > 10, "Expected many segments, found " + segments);
+
+            writer.updateLowWatermark(900);
+            writer.flush();
+            assertTrue(commitTable.getNumSegments() < segments, "Segments not retired");
+            assertEquals(directory.listFiles().length, commitTable.getNumSegments());
+            // The transaction not completed is kept
+            assertEquals(client.getCommitTimestamp(10).get().get().getValue(), 11);
+        }
+
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Client client = commitTable.getClient()) {
+
+            assertEquals(client.readLowWatermark().get().longValue(), 900);
+            assertEquals(client.getCommitTimestamp(10).get().get().getValue(), 11);
+            assertFalse(client.getCommitTimestamp(11).get().isPresent());
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testLiveTransactionsFillingSeveralSegmentsAreRetained() throws Exception {
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Writer writer = commitTable.getWriter();
+             CommitTable.Client client = commitTable.getClient()) {
+
+            for (long startTimestamp = 251; startTimestamp <= 260; startTimestamp++) {
+                assertTrue(client.tryInvalidateTransaction(startTimestamp).get());
+            }
+            // More transactions not completed than fit in a segment
+            for (long startTimestamp = 1; startTimestamp <= 250; startTimestamp++) {
+                writer.addCommittedTransaction(startTimestamp, startTimestamp + 1000);
+            }
+            writer.flush();
+
+            writer.updateLowWatermark(500);
+            writer.flush();
+            int segments = commitTable.getNumSegments();
+            assertTrue(segments <= 4, "Segments not retired, found " + segments);
+            // The invalidations below the low watermark are no longer needed
+            assertFalse(client.getCommitTimestamp(251).get().isPresent());
+
+            // The segments holding only the transactions appended again are not retired while the log doesn't move
+            for (long lowWatermark = 501; lowWatermark <= 520; lowWatermark++) {
+                writer.updateLowWatermark(lowWatermark);
+                writer.flush();
+            }
+            assertEquals(commitTable.getNumSegments(), segments);
+
+            // Nor is the log left to grow while it does
+            for (long startTimestamp = 1001; startTimestamp <= 2000; startTimestamp++) {
+                writer.addCommittedTransaction(startTimestamp, startTimestamp + 1);
+                if (startTimestamp % 50 == 0) {
+                    writer.updateLowWatermark(startTimestamp);
+                    writer.flush();
+                    for (long completed = startTimestamp - 49; completed <= startTimestamp; completed++) {
+                        client.completeTransaction(completed).get();
+                    }
+                }
+            }
+            segments = commitTable.getNumSegments();
+            assertTrue(segments <= 6, "Segments not retired, found " + segments);
+            assertEquals(directory.listFiles().length, commitTable.getNumSegments());
+        }
+
+        try (LocalCommitTable commitTable = new LocalCommitTable(config);
+             CommitTable.Client client = commitTable.getClient()) {
+
+            assertEquals(client.readLowWatermark().get().longValue(), 2000);
+            for (long startTimestamp = 1; startTimestamp <= 250; startTimestamp++) {
+                assertEquals(client.getCommitTimestamp(startTimestamp).get().get().getValue(), startTimestamp + 1000);
+            }
+            assertFalse(client.getCommitTimestamp(251).get().isPresent());
+            assertFalse(client.getCommitTimestamp(1500).get().isPresent());
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testSegmentsOfAnotherSizeAreRejected() throws Exception {
+        try (LocalCommitTable commitTable = new LocalCommitTable(config)) {
+            commitTable.getWriter().flush();
+        }
+        config.setSegmentSizeInBytes(TEST_SEGMENT_SIZE * 2);
+        try {
+            new LocalCommitTable(config);
+            throw new AssertionError("Should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+}
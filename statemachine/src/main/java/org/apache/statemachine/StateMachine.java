@@ -20,24 +20,40 @@ package org.apache.statemachine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Event driven state machines. The states handle the events with public handleEvent methods, one per type of event,
+ * and the most specific one for the class of the event is the one called.
+ *
+ * The handler for each pair of state and event classes is looked up by reflection only once. It is then called
+ * through a MethodHandle adapted to a common (State, Event) type, so dispatching an event neither goes through
+ * Method.invoke nor allocates. The events sent to an FSM are queued in it and processed in batches by a single task
+ * in its executor, instead of one task per event.
+ */
 public class StateMachine {
 
     private static final Logger LOG = LoggerFactory.getLogger(StateMachine.class);
 
     private static final String HANDLER_METHOD_NAME = "handleEvent";
 
-    private static ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Method>> stateCaches;
+    private static final MethodType HANDLER_TYPE = MethodType.methodType(State.class, State.class, Event.class);
+
+    private static ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, MethodHandle>> stateCaches;
 
     static {
         stateCaches = new ConcurrentHashMap<>();
@@ -46,15 +62,15 @@ public class StateMachine {
     public static abstract class State {
 
         protected final Fsm fsm;
-        private final ConcurrentHashMap<Class<?>, Method> handlerCache;
+        private final ConcurrentHashMap<Class<?>, MethodHandle> handlerCache;
 
         public State(Fsm fsm) {
             this.fsm = fsm;
 
-            ConcurrentHashMap<Class<?>, Method> handlerCache = stateCaches.get(getClass());
+            ConcurrentHashMap<Class<?>, MethodHandle> handlerCache = stateCaches.get(getClass());
             if (handlerCache == null) {
                 handlerCache = new ConcurrentHashMap<>();
-                ConcurrentHashMap<Class<?>, Method> old = stateCaches.putIfAbsent(getClass(), handlerCache);
+                ConcurrentHashMap<Class<?>, MethodHandle> old = stateCaches.putIfAbsent(getClass(), handlerCache);
                 if (old != null) {
                     handlerCache = old;
                 }
@@ -62,7 +78,7 @@ public class StateMachine {
             this.handlerCache = handlerCache;
         }
 
-        private Method findHandlerInternal(Class<?> state, Class<?> e) throws NoSuchMethodException {
+        static Method findHandlerMethod(Class<?> state, Class<?> e) throws NoSuchMethodException {
             Method[] methods = state.getMethods();
             List<Method> candidates = new ArrayList<>();
             for (Method m : methods) {
@@ -91,20 +107,21 @@ public class StateMachine {
             throw new NoSuchMethodException("Handler doesn't exist");
         }
 
-        private Method findHandler(Class<?> event) throws NoSuchMethodException {
-            Method m = handlerCache.get(event);
-            if (m == null) {
-                m = findHandlerInternal(getClass(), event);
-                Method m2 = handlerCache.putIfAbsent(event, m);
-                if (m2 != null) {
-                    m = m2;
+        private MethodHandle findHandler(Class<?> event) throws NoSuchMethodException, IllegalAccessException {
+            MethodHandle h = handlerCache.get(event);
+            if (h == null) {
+                Method m = findHandlerMethod(getClass(), event);
+                h = MethodHandles.lookup().unreflect(m).asType(HANDLER_TYPE);
+                MethodHandle h2 = handlerCache.putIfAbsent(event, h);
+                if (h2 != null) {
+                    h = h2;
                 }
             }
-            return m;
+            return h;
         }
 
-        State dispatch(Event e) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-            return (State) findHandler(e.getClass()).invoke(this, e);
+        State dispatch(Event e) throws Throwable {
+            return (State) findHandler(e.getClass()).invokeExact(this, e);
         }
 
     }
@@ -125,21 +142,36 @@ public class StateMachine {
     }
 
     public static class FsmImpl implements Fsm {
+
+        // Events processed by a task before leaving the executor to other tasks (e.g. those of child FSMs)
+        static final int MAX_EVENTS_PER_TASK = 256;
+
         ScheduledExecutorService executor;
         private State state;
+        // The deferred events are moved to the spare queue when retried, and both are reused
         private Queue<DeferrableEvent> deferred;
+        private Queue<DeferrableEvent> spareDeferred;
+
+        // Events sent and not processed yet, and whether a task processing them is scheduled in the executor
+        private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final Runnable eventsTask = new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        };
 
         public FsmImpl(ScheduledExecutorService executor) {
             this.executor = executor;
             state = null;
             deferred = new ArrayDeque<>();
+            spareDeferred = new ArrayDeque<>();
         }
 
         private void errorDeferredEvents(Throwable t) {
-            Queue<DeferrableEvent> oldDeferred = deferred;
-            deferred = new ArrayDeque<>();
-
-            for (DeferrableEvent e : oldDeferred) {
+            DeferrableEvent e;
+            while ((e = deferred.poll()) != null) {
                 e.error(new IllegalStateException(t));
             }
         }
@@ -194,39 +226,64 @@ public class StateMachine {
             return false;
         }
 
-        class FSMRunnable implements Runnable {
-            final Event e;
+        void handle(Event e) {
+            boolean stateChanged = processEvent(e);
+            while (stateChanged) {
+                stateChanged = false;
+                Queue<DeferrableEvent> prevDeferred = deferred;
+                deferred = spareDeferred;
+                for (DeferrableEvent d : prevDeferred) {
+                    if (stateChanged) {
+                        deferred.add(d);
+                    } else if (processEvent(d)) {
+                        stateChanged = true;
+                    }
+                }
+                prevDeferred.clear();
+                spareDeferred = prevDeferred;
+            }
+        }
 
-            FSMRunnable(Event e) {
-                this.e = e;
+        void processEvents() {
+            for (int i = 0; i < MAX_EVENTS_PER_TASK; i++) {
+                Event e = events.poll();
+                if (e == null) {
+                    break;
+                }
+                handle(e);
+            }
+            scheduled.set(false);
+            // Events sent after the last poll may have found the task still scheduled
+            if (!events.isEmpty()) {
+                scheduleEventsTask();
             }
+        }
 
-            @Override
-            public void run() {
-                boolean stateChanged = processEvent(e);
-                while (stateChanged) {
-                    stateChanged = false;
-                    Queue<DeferrableEvent> prevDeferred = deferred;
-                    deferred = new ArrayDeque<>();
-                    for (DeferrableEvent d : prevDeferred) {
-                        if (stateChanged) {
-                            deferred.add(d);
-                        } else if (processEvent(d)) {
-                            stateChanged = true;
-                        }
-                    }
+        private void scheduleEventsTask() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(eventsTask);
+                } catch (RejectedExecutionException ree) {
+                    scheduled.set(false);
+                    throw ree;
                 }
             }
         }
 
         @Override
         public void sendEvent(final Event e) {
-            executor.submit(new FSMRunnable(e));
+            events.add(e);
+            scheduleEventsTask();
         }
 
         @Override
         public Future<?> sendEvent(final Event e, final long delay, final TimeUnit unit) {
-            return executor.schedule(new FSMRunnable(e), delay, unit);
+            return executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendEvent(e);
+                }
+            }, delay, unit);
         }
 
         @Override
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.statemachine;
+
+import org.apache.statemachine.StateMachine.Event;
+import org.apache.statemachine.StateMachine.Fsm;
+import org.apache.statemachine.StateMachine.FsmImpl;
+import org.apache.statemachine.StateMachine.State;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Compares the StateMachine event handling against the previous implementation:
+ * 1) dispatch of an event to its handler through the cached MethodHandle vs. through Method.invoke
+ * 2) events sent through the FSM queue, processed in batches, vs. a task submitted to the executor per event
+ *
+ * Allocations are measured with the HotSpot specific com.sun.management.ThreadMXBean, so only timings are reported
+ * in JVMs that don't provide it.
+ */
+public class StateMachineEvaluation {
+
+    private final static int EVENTS = 10000000;
+    // Lower, as the previous path queues a task per event in the executor
+    private final static int QUEUED_EVENTS = 1000000;
+    private final static int WARMUP_ROUNDS = 2;
+    private final static int ROUNDS = 4;
+
+    public static void main(String[] args) throws Throwable {
+
+        StateMachineEvaluation evaluation = new StateMachineEvaluation();
+
+        System.out.println("Dispatch");
+        evaluation.evaluateDispatch("reflective", new ReflectiveDispatch());
+        evaluation.evaluateDispatch("handle", new HandleDispatch());
+
+        System.out.println("Event queueing");
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            evaluation.evaluateQueueing("per-event", new TaskPerEventQueueing(executor));
+            evaluation.evaluateQueueing("fsm", new FsmQueueing(executor));
+        } finally {
+            executor.shutdown();
+        }
+
+    }
+
+    private void evaluateDispatch(String name, Dispatch dispatch) throws Throwable {
+
+        EvaluationState state = new EvaluationState(null);
+        Event[] events = new Event[]{new EventA(), new EventB(), new EventC()};
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            System.err.format("%s: Warmup [%d/%d]%n", name, round + 1, WARMUP_ROUNDS);
+            runDispatchRound(dispatch, state, events);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            runDispatchRound(dispatch, state, events);
+        }
+        time = System.nanoTime() - time;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        report(name, time, allocatedBefore < 0 ? -1 : allocated, EVENTS);
+
+    }
+
+    private void runDispatchRound(Dispatch dispatch, State state, Event[] events) throws Throwable {
+
+        for (int i = 0; i < EVENTS; i++) {
+            dispatch.dispatch(state, events[i % events.length]);
+        }
+
+    }
+
+    private void evaluateQueueing(String name, Queueing queueing) throws Throwable {
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            System.err.format("%s: Warmup [%d/%d]%n", name, round + 1, WARMUP_ROUNDS);
+            runQueueingRound(queueing);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            runQueueingRound(queueing);
+        }
+        time = System.nanoTime() - time;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        // Only the allocations of the sending thread are accounted
+        report(name, time, allocatedBefore < 0 ? -1 : allocated, QUEUED_EVENTS);
+
+    }
+
+    private void runQueueingRound(Queueing queueing) throws Throwable {
+
+        Event event = new EventA();
+        for (int i = 0; i < QUEUED_EVENTS - 1; i++) {
+            queueing.send(event);
+        }
+        LastEvent last = new LastEvent();
+        queueing.send(last);
+        last.latch.await();
+
+    }
+
+    private void report(String name, long time, long allocated, int eventsPerRound) {
+
+        long events = (long) eventsPerRound * ROUNDS;
+        if (allocated < 0) {
+            System.out.format("\t%-10s %8.1f ns/event (allocation measurement not supported by this JVM)%n",
+                              name, (double) time / events);
+        } else {
+            System.out.format("\t%-10s %8.1f ns/event %10.1f bytes/event%n",
+                              name, (double) time / events, (double) allocated / events);
+        }
+
+    }
+
+    private static long allocatedBytes() {
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (hotspotBean.isThreadAllocatedMemorySupported() && hotspotBean.isThreadAllocatedMemoryEnabled()) {
+                return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // State and events
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private static class EventA implements Event {
+
+    }
+
+    private static class EventB implements Event {
+
+    }
+
+    private static class EventC extends EventB {
+
+    }
+
+    private static class LastEvent implements Event {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+    }
+
+    private static class EvaluationState extends State {
+
+        long handled = 0;
+
+        EvaluationState(Fsm fsm) {
+            super(fsm);
+        }
+
+        public State handleEvent(EventA e) {
+            handled++;
+            return this;
+        }
+
+        public State handleEvent(EventB e) {
+            handled += 2;
+            return this;
+        }
+
+        public State handleEvent(LastEvent e) {
+            e.latch.countDown();
+            return this;
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Dispatch paths
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private interface Dispatch {
+
+        State dispatch(State state, Event e) throws Throwable;
+
+    }
+
+    /**
+     * Previous path: the handler method is cached per event class and called with Method.invoke
+     */
+    private static class ReflectiveDispatch implements Dispatch {
+
+        private final Map<Class<?>, Method> handlers = new HashMap<>();
+
+        @Override
+        public State dispatch(State state, Event e) throws Throwable {
+            Method m = handlers.get(e.getClass());
+            if (m == null) {
+                m = State.findHandlerMethod(state.getClass(), e.getClass());
+                handlers.put(e.getClass(), m);
+            }
+            return (State) m.invoke(state, e);
+        }
+
+    }
+
+    /**
+     * Current path
+     */
+    private static class HandleDispatch implements Dispatch {
+
+        @Override
+        public State dispatch(State state, Event e) throws Throwable {
+            return state.dispatch(e);
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Event queueing paths
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private interface Queueing {
+
+        void send(Event e);
+
+    }
+
+    /**
+     * Previous path: a task is submitted to the executor per event
+     */
+    private static class TaskPerEventQueueing implements Queueing {
+
+        private final ScheduledExecutorService executor;
+        private final State state = new EvaluationState(null);
+
+        TaskPerEventQueueing(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void send(final Event e) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        state.dispatch(e);
+                    } catch (Throwable t) {
+                        throw new IllegalStateException(t);
+                    }
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Current path
+     */
+    private static class FsmQueueing implements Queueing {
+
+        private final Fsm fsm;
+
+        FsmQueueing(ScheduledExecutorService executor) {
+            fsm = new FsmImpl(executor);
+            fsm.setInitState(new EvaluationState(fsm));
+        }
+
+        @Override
+        public void send(Event e) {
+            fsm.sendEvent(e);
+        }
+
+    }
+
+}
@@ -27,6 +27,8 @@ import org.testng.annotations.Test;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestStateMachine {
     private final static Logger LOG = LoggerFactory.getLogger(TestStateMachine.class);
@@ -86,6 +88,64 @@ public class TestStateMachine {
         }
     }
 
+    static class ReleaseEvent implements StateMachine.Event {
+        final int numEvents;
+
+        ReleaseEvent(int numEvents) {
+            this.numEvents = numEvents;
+        }
+    }
+
+    static class FailEvent implements StateMachine.Event {
+    }
+
+    /**
+     * Defers the test events until released, and fails on a FailEvent
+     */
+    static class HoldingState extends State {
+        final AtomicInteger completed;
+
+        HoldingState(Fsm fsm, AtomicInteger completed) {
+            super(fsm);
+            this.completed = completed;
+        }
+
+        public State handleEvent(TestEvent e) {
+            fsm.deferEvent(e);
+            return this;
+        }
+
+        public State handleEvent(ReleaseEvent e) {
+            return new ReleasingState(fsm, completed, e.numEvents);
+        }
+
+        public State handleEvent(FailEvent e) {
+            throw new IllegalArgumentException("Failing on purpose");
+        }
+    }
+
+    /**
+     * Completes a number of test events, and then holds the next ones again
+     */
+    static class ReleasingState extends State {
+        final AtomicInteger completed;
+        int toRelease;
+
+        ReleasingState(Fsm fsm, AtomicInteger completed, int toRelease) {
+            super(fsm);
+            this.completed = completed;
+            this.toRelease = toRelease;
+        }
+
+        public State handleEvent(TestEvent e) {
+            e.success(completed.getAndIncrement());
+            if (--toRelease == 0) {
+                return new HoldingState(fsm, completed);
+            }
+            return this;
+        }
+    }
+
     @Test(timeOut = 60_000)
     public void testOrdering() throws Throwable {
         Fsm fsm = new FsmImpl(Executors.newSingleThreadScheduledExecutor());
@@ -97,4 +157,80 @@ public class TestStateMachine {
         fsm.sendEvent(te);
         Assert.assertEquals(10, te.get());
     }
+
+    @Test(timeOut = 60_000)
+    public void testEventsAreProcessedInOrderAcrossTasks() throws Throwable {
+        // Several threads, so the tasks processing the events of the FSM may run in any of them
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        Fsm fsm = new FsmImpl(executor);
+        fsm.setInitState(new CompletingState(fsm));
+
+        TestEvent[] events = new TestEvent[4 * FsmImpl.MAX_EVENTS_PER_TASK + 1];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new TestEvent();
+            fsm.sendEvent(events[i]);
+        }
+        for (int i = 0; i < events.length; i++) {
+            Assert.assertEquals(events[i].get(), i);
+        }
+        executor.shutdownNow();
+    }
+
+    @Test(timeOut = 60_000)
+    public void testDeferredEventsAreReplayedInOrderOnEachTransition() throws Throwable {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        Fsm fsm = new FsmImpl(executor);
+        fsm.setInitState(new HoldingState(fsm, new AtomicInteger()));
+
+        TestEvent[] events = new TestEvent[3];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new TestEvent();
+            fsm.sendEvent(events[i]);
+        }
+
+        // The replay stops at the transition back to holding, and the rest stay deferred in order
+        fsm.sendEvent(new ReleaseEvent(1));
+        Assert.assertEquals(events[0].get(), 0);
+        Assert.assertEquals(events[1].latch.getCount(), 1);
+        Assert.assertEquals(events[2].latch.getCount(), 1);
+
+        fsm.sendEvent(new ReleaseEvent(3));
+        Assert.assertEquals(events[1].get(), 1);
+        Assert.assertEquals(events[2].get(), 2);
+
+        // Events sent after the replay are handled in the new state
+        TestEvent last = new TestEvent();
+        fsm.sendEvent(last);
+        Assert.assertEquals(last.get(), 3);
+        executor.shutdownNow();
+    }
+
+    @Test(timeOut = 60_000)
+    public void testHandlerExceptionErrorsTheDeferredEvents() throws Throwable {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        Fsm fsm = new FsmImpl(executor);
+        fsm.setInitState(new HoldingState(fsm, new AtomicInteger()));
+
+        TestEvent[] events = { new TestEvent(), new TestEvent() };
+        for (TestEvent e : events) {
+            fsm.sendEvent(e);
+        }
+        fsm.sendEvent(new FailEvent());
+        for (TestEvent e : events) {
+            try {
+                e.get();
+                Assert.fail("The deferred event should have been errored");
+            } catch (IllegalStateException ise) {
+                Assert.assertTrue(ise.getCause() instanceof IllegalArgumentException);
+            }
+        }
+
+        // The FSM stays in its state and keeps processing events
+        TestEvent next = new TestEvent();
+        fsm.sendEvent(next);
+        fsm.sendEvent(new ReleaseEvent(1));
+        Assert.assertEquals(next.get(), 0);
+        executor.shutdownNow();
+    }
+
 }
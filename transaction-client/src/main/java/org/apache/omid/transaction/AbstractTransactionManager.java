@@ -19,6 +19,7 @@ package org.apache.omid.transaction;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.Futures;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
@@ -35,6 +36,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import static org.apache.omid.committable.CommitTable.CommitTimestamp.Location.CACHE;
@@ -303,6 +309,33 @@ public abstract class AbstractTransactionManager implements TransactionManager {
     public CommitTimestamp locateCellCommitTimestamp(long cellStartTimestamp, long epoch,
                                                      CommitTimestampLocator locator) throws IOException {
 
+        return locateCellCommitTimestamp(cellStartTimestamp, epoch, locator,
+                                         Collections.<Long, Optional<CommitTimestamp>>emptyMap());
+
+    }
+
+    /**
+     * Same as {@link #locateCellCommitTimestamp(long, long, CommitTimestampLocator)}, but the first commit table
+     * lookup is taken from the results passed when they include the cell's transaction, so the commit timestamps of
+     * several cells can be located after looking up all of them at once with
+     * {@link #readCommitTimestampsFromCommitTable(Collection)}.
+     * @param cellStartTimestamp
+     *          start timestamp of the cell to locate the commit timestamp for.
+     * @param epoch
+     *          the epoch of the TSO server the current tso client is working with.
+     * @param locator
+     *          a locator to find the commit timestamp in the system.
+     * @param commitTableResults
+     *          results of looking up transactions in the commit table, by their start timestamp
+     * @return the commit timestamp joint with the location where it was found
+     *         or an object indicating that it was not found in the system
+     * @throws IOException  in case of any I/O issues
+     */
+    public CommitTimestamp locateCellCommitTimestamp(long cellStartTimestamp, long epoch,
+                                                     CommitTimestampLocator locator,
+                                                     Map<Long, Optional<CommitTimestamp>> commitTableResults)
+            throws IOException {
+
         try {
             // 1) First check the cache
             Optional<Long> commitTimestamp = locator.readCommitTimestampFromCache(cellStartTimestamp);
@@ -312,7 +345,10 @@ public abstract class AbstractTransactionManager implements TransactionManager {
 
             // 2) Then check the commit table
             // If the data was written at a previous epoch, check whether the transaction was invalidated
-            Optional<CommitTimestamp> commitTimeStamp = commitTableClient.getCommitTimestamp(cellStartTimestamp).get();
+            Optional<CommitTimestamp> commitTimeStamp = commitTableResults.get(cellStartTimestamp);
+            if (commitTimeStamp == null) {
+                commitTimeStamp = commitTableClient.getCommitTimestamp(cellStartTimestamp).get();
+            }
             if (commitTimeStamp.isPresent()) {
                 return commitTimeStamp.get();
             }
@@ -355,6 +391,37 @@ public abstract class AbstractTransactionManager implements TransactionManager {
 
     }
 
+    /**
+     * Looks up in the commit table, in a single operation, the transactions passed.
+     * @param startTimestamps
+     *          start timestamps of the transactions to look up
+     * @return the results of the lookups, by start timestamp
+     * @throws IOException  in case of any I/O issues
+     */
+    public Map<Long, Optional<CommitTimestamp>> readCommitTimestampsFromCommitTable(Collection<Long> startTimestamps)
+            throws IOException {
+
+        Map<Long, Optional<CommitTimestamp>> commitTableResults = new HashMap<>();
+        if (startTimestamps.isEmpty()) {
+            return commitTableResults;
+        }
+        try {
+            long[] startTimestampsToLookUp = Longs.toArray(startTimestamps);
+            List<Optional<CommitTimestamp>> commitTimestamps =
+                    commitTableClient.getCommitTimestamps(startTimestampsToLookUp).get();
+            for (int i = 0; i < startTimestampsToLookUp.length; i++) {
+                commitTableResults.put(startTimestampsToLookUp[i], commitTimestamps.get(i));
+            }
+            return commitTableResults;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finding commit timestamps", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Problem finding commit timestamps", e);
+        }
+
+    }
+
     /**
      * @see java.io.Closeable#close()
      */
@@ -44,9 +44,11 @@ public class OmidClientConfiguration {
 
     private int requestMaxRetries;
     private int requestTimeoutInMs;
+    private int handshakeTimeoutInMs;
     private int reconnectionDelayInSecs;
     private int retryDelayInMs;
     private int executorThreads;
+    private int numConnections = 1;
 
     // Transaction Manager related params
 
@@ -114,6 +116,16 @@ public class OmidClientConfiguration {
         this.requestTimeoutInMs = requestTimeoutInMs;
     }
 
+    public int getHandshakeTimeoutInMs() {
+        return handshakeTimeoutInMs;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.handshakeTimeoutInMs")
+    public void setHandshakeTimeoutInMs(int handshakeTimeoutInMs) {
+        this.handshakeTimeoutInMs = handshakeTimeoutInMs;
+    }
+
     public int getReconnectionDelayInSecs() {
         return reconnectionDelayInSecs;
     }
@@ -144,6 +156,16 @@ public class OmidClientConfiguration {
         this.executorThreads = executorThreads;
     }
 
+    public int getNumConnections() {
+        return numConnections;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.numConnections")
+    public void setNumConnections(int numConnections) {
+        this.numConnections = numConnections;
+    }
+
     public String getZkCurrentTsoPath() {
         return zkCurrentTsoPath;
     }
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso.client;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+
+/**
+ * Commit requests waiting for a response, with their deadlines, indexed by their start timestamp.
+ *
+ * The requests are kept in an open addressing table with linear probing, with the start timestamps, the requests and
+ * their deadlines in parallel arrays, so neither the start timestamps are boxed nor entries are allocated per request.
+ * The start timestamps and deadlines are also kept, in the order the requests were added, in a ring from which the
+ * expired ones are taken. The deadlines are expected to grow in that order. The ring is trimmed from its head as the
+ * requests there are removed which, as the responses mostly come in the order of the requests, keeps it short.
+ *
+ * Not thread safe. It is used from the FSM thread of a connection.
+ */
+final class PendingCommitTable<E> {
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    // Table
+    private long[] startTimestamps;
+    private Object[] requests; // null for the free slots
+    private long[] deadlines;
+    private int shift;
+    private int size = 0;
+
+    // Start timestamps and deadlines in the order the requests were added
+    private long[] orderStartTimestamps;
+    private long[] orderDeadlines;
+    private int orderHead = 0;
+    private int orderSize = 0;
+
+    PendingCommitTable(int initialCapacity) {
+        Preconditions.checkArgument(initialCapacity > 0, "The initial capacity must be positive");
+        // Kept at most half full
+        int capacity = Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 2;
+        allocateTable(capacity);
+        orderStartTimestamps = new long[capacity];
+        orderDeadlines = new long[capacity];
+    }
+
+    void put(long startTimestamp, E request, long deadline) {
+        Preconditions.checkNotNull(request);
+        if ((size + 1) << 1 > requests.length) {
+            rehash(requests.length << 1);
+        }
+        int slot = slotOf(startTimestamp);
+        if (requests[slot] == null) {
+            size++;
+        }
+        startTimestamps[slot] = startTimestamp;
+        requests[slot] = request;
+        deadlines[slot] = deadline;
+        addToOrder(startTimestamp, deadline);
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(long startTimestamp) {
+        return (E) requests[slotOf(startTimestamp)];
+    }
+
+    E remove(long startTimestamp) {
+        int slot = slotOf(startTimestamp);
+        E request = removeSlot(slot);
+        if (request != null) {
+            trimOrder();
+        }
+        return request;
+    }
+
+    /**
+     * Removes the requests whose deadline is not after the one passed, adding them to the collection passed
+     */
+    void removeExpired(long deadline, Collection<? super E> expired) {
+        while (orderSize > 0 && orderDeadlines[orderHead] <= deadline) {
+            long startTimestamp = orderStartTimestamps[orderHead];
+            long requestDeadline = orderDeadlines[orderHead];
+            removeOrderHead();
+            int slot = slotOf(startTimestamp);
+            // Otherwise the request has been removed, or replaced by a later one with the same start timestamp
+            if (requests[slot] != null && deadlines[slot] == requestDeadline) {
+                expired.add(removeSlot(slot));
+            }
+        }
+        trimOrder();
+    }
+
+    /**
+     * Removes all the requests, adding them to the collection passed
+     */
+    @SuppressWarnings("unchecked")
+    void drainTo(Collection<? super E> requests) {
+        for (int slot = 0; slot < this.requests.length; slot++) {
+            if (this.requests[slot] != null) {
+                requests.add((E) this.requests[slot]);
+                this.requests[slot] = null;
+            }
+        }
+        size = 0;
+        orderHead = 0;
+        orderSize = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void allocateTable(int capacity) {
+        Preconditions.checkState(capacity > 0, "Too many pending commit requests");
+        startTimestamps = new long[capacity];
+        requests = new Object[capacity];
+        deadlines = new long[capacity];
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int homeSlotOf(long startTimestamp) {
+        // The start timestamps are consecutive numbers, so they are spread with a multiplicative hash
+        return (int) ((startTimestamp * HASH_MULTIPLIER) >>> shift);
+    }
+
+    // Slot of the start timestamp, or the free slot where it would be added
+    private int slotOf(long startTimestamp) {
+        int mask = requests.length - 1;
+        int slot = homeSlotOf(startTimestamp);
+        while (requests[slot] != null && startTimestamps[slot] != startTimestamp) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E removeSlot(int slot) {
+        E request = (E) requests[slot];
+        if (request == null) {
+            return null;
+        }
+        size--;
+        // Moves back the entries that follow, so that no lookup stops at the freed slot before reaching them
+        int mask = requests.length - 1;
+        int free = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (requests[next] == null) {
+                break;
+            }
+            int home = homeSlotOf(startTimestamps[next]);
+            boolean reachable = free <= next ? (free < home && home <= next) : (free < home || home <= next);
+            if (!reachable) {
+                startTimestamps[free] = startTimestamps[next];
+                requests[free] = requests[next];
+                deadlines[free] = deadlines[next];
+                free = next;
+            }
+        }
+        requests[free] = null;
+        return request;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldStartTimestamps = startTimestamps;
+        Object[] oldRequests = requests;
+        long[] oldDeadlines = deadlines;
+        allocateTable(capacity);
+        for (int i = 0; i < oldRequests.length; i++) {
+            if (oldRequests[i] != null) {
+                int slot = slotOf(oldStartTimestamps[i]);
+                startTimestamps[slot] = oldStartTimestamps[i];
+                requests[slot] = oldRequests[i];
+                deadlines[slot] = oldDeadlines[i];
+            }
+        }
+    }
+
+    private void addToOrder(long startTimestamp, long deadline) {
+        if (orderSize == orderStartTimestamps.length) {
+            growOrder();
+        }
+        int tail = (orderHead + orderSize) & (orderStartTimestamps.length - 1);
+        orderStartTimestamps[tail] = startTimestamp;
+        orderDeadlines[tail] = deadline;
+        orderSize++;
+    }
+
+    private void removeOrderHead() {
+        orderHead = (orderHead + 1) & (orderStartTimestamps.length - 1);
+        orderSize--;
+    }
+
+    // Drops from the head of the order the requests already removed
+    private void trimOrder() {
+        while (orderSize > 0) {
+            int slot = slotOf(orderStartTimestamps[orderHead]);
+            if (requests[slot] != null && deadlines[slot] == orderDeadlines[orderHead]) {
+                break;
+            }
+            removeOrderHead();
+        }
+    }
+
+    private void growOrder() {
+        int capacity = orderStartTimestamps.length << 1;
+        Preconditions.checkState(capacity > 0, "Too many pending commit requests");
+        int mask = orderStartTimestamps.length - 1;
+        long[] newStartTimestamps = new long[capacity];
+        long[] newDeadlines = new long[capacity];
+        for (int i = 0; i < orderSize; i++) {
+            int slot = (orderHead + i) & mask;
+            newStartTimestamps[i] = orderStartTimestamps[slot];
+            newDeadlines[i] = orderDeadlines[slot];
+        }
+        orderStartTimestamps = newStartTimestamps;
+        orderDeadlines = newDeadlines;
+        orderHead = 0;
+    }
+
+}
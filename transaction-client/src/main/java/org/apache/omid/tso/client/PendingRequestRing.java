@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso.client;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO of the requests waiting for a response, with their deadlines, in a growable ring buffer. The requests and their
+ * deadlines are kept in parallel arrays, so queueing a request allocates nothing once the ring has grown to the number
+ * of outstanding requests. The deadlines are expected to grow in the order of the requests.
+ *
+ * Not thread safe. It is used from the FSM thread of a connection.
+ */
+final class PendingRequestRing<E> {
+
+    private Object[] requests;
+    private long[] deadlines;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+
+    PendingRequestRing(int initialCapacity) {
+        Preconditions.checkArgument(initialCapacity > 0, "The initial capacity must be positive");
+        int capacity = Integer.highestOneBit(initialCapacity - 1) << 1;
+        if (capacity == 0) {
+            capacity = 1;
+        }
+        requests = new Object[capacity];
+        deadlines = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    void add(E request, long deadline) {
+        if (size == requests.length) {
+            grow();
+        }
+        int tail = (head + size) & mask;
+        requests[tail] = request;
+        deadlines[tail] = deadline;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    E remove() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        E request = (E) requests[head];
+        requests[head] = null;
+        head = (head + 1) & mask;
+        size--;
+        return request;
+    }
+
+    long peekDeadline() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return deadlines[head];
+    }
+
+    /**
+     * Removes the requests whose deadline is not after the one passed, adding them to the collection passed
+     */
+    void removeExpired(long deadline, Collection<? super E> expired) {
+        while (size > 0 && deadlines[head] <= deadline) {
+            expired.add(remove());
+        }
+    }
+
+    /**
+     * Removes all the requests, adding them to the collection passed in order
+     */
+    void drainTo(Collection<? super E> requests) {
+        while (size > 0) {
+            requests.add(remove());
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        int capacity = requests.length << 1;
+        Preconditions.checkState(capacity > 0, "Too many pending requests");
+        Object[] newRequests = new Object[capacity];
+        long[] newDeadlines = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) & mask;
+            newRequests[i] = requests[slot];
+            newDeadlines[i] = deadlines[slot];
+        }
+        requests = newRequests;
+        deadlines = newDeadlines;
+        mask = capacity - 1;
+        head = 0;
+    }
+
+}
@@ -18,9 +18,14 @@
 package org.apache.omid.tso.client;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedOutputStream;
 import org.apache.omid.proto.TSOProto;
 import org.apache.omid.zk.ZKUtils;
 import org.apache.statemachine.StateMachine;
@@ -35,9 +40,11 @@ import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.SimpleChannelHandler;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
@@ -52,19 +59,25 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.ArrayDeque;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Describes the abstract methods to communicate to the TSO server
+ *
+ * The client keeps one or more connections to the TSO server. Each connection has its own FSM, run by its own thread,
+ * that writes the requests and matches the responses of its channel, so the requests are spread across them to
+ * scale beyond what a single FSM thread can handle. In HA mode, all of them move to the new TSO server when the
+ * current one changes.
  */
 public class TSOClient implements TSOProtocol, NodeCacheListener {
 
@@ -74,6 +87,10 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     public static final String DEFAULT_ZK_CLUSTER = "localhost:2181";
 
     private static final long DEFAULT_EPOCH = -1L;
+
+    // Times the request timeouts are checked per timeout period, which bounds how late a request can time out
+    static final int TIMEOUT_CHECKS_PER_REQUEST_TIMEOUT = 10;
+
     private volatile long epoch = DEFAULT_EPOCH;
 
     // Attributes
@@ -81,13 +98,14 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     private NodeCache currentTSOZNode;
 
     private ChannelFactory factory;
-    private ClientBootstrap bootstrap;
-    private Channel currentChannel;
-    private final ScheduledExecutorService fsmExecutor;
+    private final Connection[] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    // FSM of the first connection, the only one unless several are configured
     StateMachine.Fsm fsm;
 
     private final int requestTimeoutInMs;
     private final int requestMaxRetries;
+    private final int handshakeTimeoutInMs;
     private final int tsoReconnectionDelayInSecs;
     private InetSocketAddress tsoAddr;
     private String zkCurrentTsoPath;
@@ -111,11 +129,10 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                         new ThreadFactoryBuilder().setNameFormat("tsoclient-boss-%d").build()),
                 Executors.newCachedThreadPool(
                         new ThreadFactoryBuilder().setNameFormat("tsoclient-worker-%d").build()), tsoExecutorThreads);
-        // Create the bootstrap
-        bootstrap = new ClientBootstrap(factory);
 
         requestTimeoutInMs = omidConf.getRequestTimeoutInMs();
         requestMaxRetries = omidConf.getRequestMaxRetries();
+        handshakeTimeoutInMs = omidConf.getHandshakeTimeoutInMs();
         tsoReconnectionDelayInSecs = omidConf.getReconnectionDelayInSecs();
 
         LOG.info("Connecting to TSO...");
@@ -143,22 +160,15 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                 break;
         }
 
-        fsmExecutor = Executors.newSingleThreadScheduledExecutor(
-                new ThreadFactoryBuilder().setNameFormat("tsofsm-%d").build());
-        fsm = new StateMachine.FsmImpl(fsmExecutor);
-        fsm.setInitState(new DisconnectedState(fsm));
-
-        ChannelPipeline pipeline = bootstrap.getPipeline();
-        pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(8 * 1024, 0, 4, 0, 4));
-        pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
-        pipeline.addLast("protobufdecoder", new ProtobufDecoder(TSOProto.Response.getDefaultInstance()));
-        pipeline.addLast("protobufencoder", new ProtobufEncoder());
-        pipeline.addLast("handler", new Handler(fsm));
-
-        bootstrap.setOption("tcpNoDelay", true);
-        bootstrap.setOption("keepAlive", true);
-        bootstrap.setOption("reuseAddress", true);
-        bootstrap.setOption("connectTimeoutMillis", 100);
+        int numConnections = omidConf.getNumConnections();
+        Preconditions.checkArgument(numConnections > 0, "At least one connection to the TSO is required");
+        ThreadFactory fsmThreadFactory = new ThreadFactoryBuilder().setNameFormat("tsofsm-%d").build();
+        connections = new Connection[numConnections];
+        for (int i = 0; i < numConnections; i++) {
+            connections[i] = new Connection(fsmThreadFactory);
+        }
+        fsm = connections[0].fsm;
+        LOG.info("\t* {} connection(s) to the TSO", numConnections);
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -174,7 +184,7 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         TSOProto.TimestampRequest.Builder tsreqBuilder = TSOProto.TimestampRequest.newBuilder();
         builder.setTimestampRequest(tsreqBuilder.build());
         RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
-        fsm.sendEvent(request);
+        nextConnection().fsm.sendEvent(request);
         return new ForwardingTSOFuture<>(request);
     }
 
@@ -186,12 +196,21 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         TSOProto.Request.Builder builder = TSOProto.Request.newBuilder();
         TSOProto.CommitRequest.Builder commitbuilder = TSOProto.CommitRequest.newBuilder();
         commitbuilder.setStartTimestamp(transactionId);
+        // Cells sharing the same id (e.g. the cells of a row when conflicts are detected per row) are sent once
+        long[] cellIds = new long[cells.size()];
+        int numCellIds = 0;
         for (CellId cell : cells) {
-            commitbuilder.addCellId(cell.getCellId());
+            cellIds[numCellIds++] = cell.getCellId();
+        }
+        Arrays.sort(cellIds, 0, numCellIds);
+        for (int i = 0; i < numCellIds; i++) {
+            if (i == 0 || cellIds[i] != cellIds[i - 1]) {
+                commitbuilder.addPackedCellId(cellIds[i]); // Moved to cellId for servers without packed cell ids
+            }
         }
         builder.setCommitRequest(commitbuilder.build());
         RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
-        fsm.sendEvent(request);
+        nextConnection().fsm.sendEvent(request);
         return new ForwardingTSOFuture<>(request);
     }
 
@@ -200,20 +219,31 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
      */
     @Override
     public TSOFuture<Void> close() {
-        final CloseEvent closeEvent = new CloseEvent();
-        fsm.sendEvent(closeEvent);
-        closeEvent.addListener(new Runnable() {
+        List<CloseEvent> closeEvents = new ArrayList<>(connections.length);
+        for (Connection connection : connections) {
+            CloseEvent closeEvent = new CloseEvent();
+            connection.fsm.sendEvent(closeEvent);
+            closeEvents.add(closeEvent);
+        }
+        // Waits for all of them, even if some fail
+        final ListenableFuture<List<Void>> allClosed = Futures.successfulAsList(closeEvents);
+        final CloseEvent clientClosed = new CloseEvent();
+        allClosed.addListener(new Runnable() {
             @Override
             public void run() {
                 try {
-                    closeEvent.get();
+                    allClosed.get();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     e.printStackTrace();
                 } catch (ExecutionException e) {
                     e.printStackTrace();
                 } finally {
-                    fsmExecutor.shutdown();
+                    // The connections share the channel factory, so its resources are released once all are closed
+                    factory.releaseExternalResources();
+                    for (Connection connection : connections) {
+                        connection.fsmExecutor.shutdown();
+                    }
                     if (currentTSOZNode != null) {
                         try {
                             currentTSOZNode.close();
@@ -224,11 +254,12 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                     if (zkClient != null) {
                         zkClient.close();
                     }
+                    clientClosed.success(null);
                 }
 
             }
-        }, fsmExecutor);
-        return new ForwardingTSOFuture<>(closeEvent);
+        }, MoreExecutors.sameThreadExecutor());
+        return new ForwardingTSOFuture<>(clientClosed);
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -257,9 +288,14 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         setTSOAddress(hp.getHostText(), hp.getPort());
         epoch = Long.parseLong(currentTSOAndEpochArray[1]);
         LOG.info("CurrentTSO ZNode changed. New TSO Host & Port {}/Epoch {}", hp, getEpoch());
-        if (currentChannel != null && currentChannel.isConnected()) {
-            LOG.info("\tClosing channel with previous TSO {}", currentChannel);
-            currentChannel.close();
+        // Each connection reconnects to the new TSO, and retries its outstanding requests there, when its channel
+        // is closed
+        for (Connection connection : connections) {
+            Channel currentChannel = connection.currentChannel;
+            if (currentChannel != null && currentChannel.isConnected()) {
+                LOG.info("\tClosing channel with previous TSO {}", currentChannel);
+                currentChannel.close();
+            }
         }
 
     }
@@ -329,21 +365,17 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     }
 
-    private static class TimestampRequestTimeoutEvent implements StateMachine.Event {
-
-    }
-
-    private static class CommitRequestTimeoutEvent implements StateMachine.Event {
+    private static class CheckTimeoutsEvent implements StateMachine.Event {
 
-        final long startTimestamp;
+        final StateMachine.State state;
 
-        CommitRequestTimeoutEvent(long startTimestamp) {
-            this.startTimestamp = startTimestamp;
+        CheckTimeoutsEvent(StateMachine.State state) {
+            this.state = state;
         }
+    }
+
+    private static class FlushRequestsEvent implements StateMachine.Event {
 
-        public long getStartTimestamp() {
-            return startTimestamp;
-        }
     }
 
     private static class RequestEvent extends UserEvent<Long> {
@@ -395,6 +427,16 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             LOG.error("Unhandled event {} while in state {}", e, this.getClass().getName());
             return this;
         }
+
+        public StateMachine.State handleEvent(FlushRequestsEvent e) {
+            // The requests pending to be flushed when the connection was lost are retried by the ConnectedState
+            return this;
+        }
+
+        public StateMachine.State handleEvent(CheckTimeoutsEvent e) {
+            // Scheduled by a previous ConnectedState, whose requests have already been retried or errored
+            return this;
+        }
     }
 
     class DisconnectedState extends BaseState {
@@ -410,7 +452,6 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
 
         public StateMachine.State handleEvent(CloseEvent e) {
-            factory.releaseExternalResources();
             e.success(null);
             return this;
         }
@@ -418,7 +459,7 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         private StateMachine.State tryToConnectToTSOServer() {
             final InetSocketAddress tsoAddress = getAddress();
             LOG.info("Trying to connect to TSO [{}]", tsoAddress);
-            ChannelFuture channelFuture = bootstrap.connect(tsoAddress);
+            ChannelFuture channelFuture = connectionOf(fsm).bootstrap.connect(tsoAddress);
             channelFuture.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture channelFuture) throws Exception {
@@ -461,44 +502,11 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     }
 
-    private static class RequestAndTimeout {
-
-        final RequestEvent event;
-        final Timeout timeout;
-
-        RequestAndTimeout(RequestEvent event, Timeout timeout) {
-            this.event = event;
-            this.timeout = timeout;
-        }
-
-        RequestEvent getRequest() {
-            return event;
-        }
-
-        Timeout getTimeout() {
-            return timeout;
-        }
-
-        public String toString() {
-            String info = "Request type ";
-            if (event.getRequest().hasTimestampRequest()) {
-                info += "[Timestamp]";
-            } else if (event.getRequest().hasCommitRequest()) {
-                info += "[Commit] Start TS ->" + event.getRequest().getCommitRequest().getStartTimestamp();
-            } else {
-                info += "NONE";
-            }
-            return info;
-        }
-    }
-
     private class HandshakingState extends BaseState {
 
         final Channel channel;
 
-        final HashedWheelTimer timeoutExecutor = new HashedWheelTimer(
-                new ThreadFactoryBuilder().setNameFormat("tso-client-timeout").build());
-        final Timeout timeout;
+        final Future<?> timeout;
 
         HandshakingState(StateMachine.Fsm fsm, Channel channel) {
             super(fsm);
@@ -506,19 +514,17 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             this.channel = channel;
             TSOProto.HandshakeRequest.Builder handshake = TSOProto.HandshakeRequest.newBuilder();
             // Add the required handshake capabilities when necessary
-            handshake.setClientCapabilities(TSOProto.Capabilities.newBuilder().build());
+            handshake.setClientCapabilities(TSOProto.Capabilities.newBuilder()
+                                                    .setMultiRequests(true)
+                                                    .setPackedCellIds(true)
+                                                    .build());
             channel.write(TSOProto.Request.newBuilder().setHandshakeRequest(handshake.build()).build());
             timeout = newTimeout();
         }
 
-        private Timeout newTimeout() {
+        private Future<?> newTimeout() {
             if (requestTimeoutInMs > 0) {
-                return timeoutExecutor.newTimeout(new TimerTask() {
-                    @Override
-                    public void run(Timeout timeout) {
-                        fsm.sendEvent(new HandshakeTimeoutEvent());
-                    }
-                }, 30, TimeUnit.SECONDS);
+                return fsm.sendEvent(new HandshakeTimeoutEvent(), handshakeTimeoutInMs, TimeUnit.MILLISECONDS);
             } else {
                 return null;
             }
@@ -532,9 +538,11 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         public StateMachine.State handleEvent(ResponseEvent e) {
             if (e.getParam().hasHandshakeResponse() && e.getParam().getHandshakeResponse().getClientCompatible()) {
                 if (timeout != null) {
-                    timeout.cancel();
+                    timeout.cancel(false);
                 }
-                return new ConnectedState(fsm, channel, timeoutExecutor);
+                TSOProto.Capabilities serverCapabilities = e.getParam().getHandshakeResponse().getServerCapabilities();
+                return new ConnectedState(fsm, channel, serverCapabilities.getMultiRequests(),
+                                          serverCapabilities.getPackedCellIds());
             } else {
                 cleanupState();
                 LOG.error("Client incompatible with server");
@@ -555,10 +563,9 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
 
         private void cleanupState() {
-            timeoutExecutor.stop();
             channel.close();
             if (timeout != null) {
-                timeout.cancel();
+                timeout.cancel(false);
             }
         }
 
@@ -611,49 +618,145 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     }
 
+    /**
+     * When the server supports multi-request frames, the requests are not written as soon as they arrive. They are
+     * accumulated until a FlushRequestsEvent, sent to the FSM when the first one arrives, is handled. By then, all the
+     * requests queued in the FSM behind the first one have been accumulated too, so they are written together: the
+     * timestamp requests as a single request of several timestamps and the commit requests in frames of several of
+     * them. When the requests arrive one at a time, they are written one at a time.
+     *
+     * The request timeouts are not timers of their own. A CheckTimeoutsEvent is scheduled in the FSM several times per
+     * timeout period, and each request gets as deadline the check by which its timeout has elapsed, so the requests
+     * sent between two checks share a deadline and are timed out together. As every request has the same timeout,
+     * the deadlines grow in the order of the requests, so the check only looks at the oldest ones.
+     *
+     * The outstanding requests are tracked in a ring, for the timestamp requests, and in a table keyed by the start
+     * timestamp, for the commit requests, that keep them with their deadlines in primitive arrays, so tracking a
+     * request neither boxes its start timestamp nor allocates an entry for it.
+     */
     class ConnectedState extends BaseState {
 
-        final Queue<RequestAndTimeout> timestampRequests;
-        final Map<Long, RequestAndTimeout> commitRequests;
+        // Maximum size of the frames of several commit requests. Larger commit requests are written alone
+        static final int MAX_COMMIT_REQUESTS_FRAME_SIZE = 1 << 20;
+
+        // The server closes the connections requesting more timestamps at once
+        static final int MAX_TIMESTAMPS_PER_REQUEST = 1 << 16;
+
+        static final int INITIAL_PENDING_REQUESTS_CAPACITY = 1024;
+
+        final PendingRequestRing<RequestEvent> timestampRequests;
+        final PendingCommitTable<RequestEvent> commitRequests;
+        // Reused to collect the requests to retry or error
+        final List<RequestEvent> requestsToRetry = new ArrayList<>();
         final Channel channel;
 
-        final HashedWheelTimer timeoutExecutor;
+        // Timeout checks done so far, and how many of them make a timeout period
+        final long timeoutCheckIntervalInMs;
+        final long checksPerTimeout;
+        long timeoutChecks = 0;
 
-        ConnectedState(StateMachine.Fsm fsm, Channel channel, HashedWheelTimer timeoutExecutor) {
+        // Requests to coalesce in multi-request frames
+        final boolean multiRequests;
+        final boolean packedCellIds;
+        int pendingTimestampRequests = 0;
+        final List<TSOProto.CommitRequest> pendingCommitRequests = new ArrayList<>();
+        boolean flushScheduled = false;
+
+        ConnectedState(StateMachine.Fsm fsm, Channel channel, boolean multiRequests, boolean packedCellIds) {
             super(fsm);
             LOG.debug("NEW STATE: CONNECTED");
             this.channel = channel;
-            this.timeoutExecutor = timeoutExecutor;
-            timestampRequests = new ArrayDeque<>();
-            commitRequests = new HashMap<>();
-        }
-
-        private Timeout newTimeout(final StateMachine.Event timeoutEvent) {
+            this.multiRequests = multiRequests;
+            this.packedCellIds = packedCellIds;
+            timestampRequests = new PendingRequestRing<>(INITIAL_PENDING_REQUESTS_CAPACITY);
+            commitRequests = new PendingCommitTable<>(INITIAL_PENDING_REQUESTS_CAPACITY);
+            timeoutCheckIntervalInMs = Math.max(1, requestTimeoutInMs / TIMEOUT_CHECKS_PER_REQUEST_TIMEOUT);
+            checksPerTimeout = (requestTimeoutInMs + timeoutCheckIntervalInMs - 1) / timeoutCheckIntervalInMs;
             if (requestTimeoutInMs > 0) {
-                return timeoutExecutor.newTimeout(new TimerTask() {
-                    @Override
-                    public void run(Timeout timeout) {
-                        fsm.sendEvent(timeoutEvent);
-                    }
-                }, requestTimeoutInMs, TimeUnit.MILLISECONDS);
-            } else {
-                return null;
+                scheduleTimeoutsCheck();
             }
         }
 
+        private void scheduleTimeoutsCheck() {
+            fsm.sendEvent(new CheckTimeoutsEvent(this), timeoutCheckIntervalInMs, TimeUnit.MILLISECONDS);
+        }
+
+        private long newDeadline() {
+            // The next check may come right away, so the request needs a whole timeout period of checks after it
+            return timeoutChecks + checksPerTimeout + 1;
+        }
+
         private void sendRequest(final StateMachine.Fsm fsm, RequestEvent request) {
             TSOProto.Request req = request.getRequest();
 
             if (req.hasTimestampRequest()) {
-                timestampRequests.add(new RequestAndTimeout(request, newTimeout(new TimestampRequestTimeoutEvent())));
+                timestampRequests.add(request, newDeadline());
             } else if (req.hasCommitRequest()) {
-                TSOProto.CommitRequest commitReq = req.getCommitRequest();
-                commitRequests.put(commitReq.getStartTimestamp(), new RequestAndTimeout(
-                        request, newTimeout(new CommitRequestTimeoutEvent(commitReq.getStartTimestamp()))));
+                commitRequests.put(req.getCommitRequest().getStartTimestamp(), request, newDeadline());
             } else {
                 request.error(new IllegalArgumentException("Unknown request type"));
                 return;
             }
+            if (req.hasCommitRequest() && !packedCellIds) {
+                req = withUnpackedCellIds(req);
+            }
+
+            if (!multiRequests) {
+                write(req);
+                return;
+            }
+            if (req.hasTimestampRequest()) {
+                pendingTimestampRequests++;
+            } else {
+                pendingCommitRequests.add(req.getCommitRequest());
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                fsm.sendEvent(new FlushRequestsEvent());
+            }
+        }
+
+        private TSOProto.Request withUnpackedCellIds(TSOProto.Request req) {
+            TSOProto.CommitRequest commitReq = req.getCommitRequest();
+            TSOProto.CommitRequest unpackedCommitReq = commitReq.toBuilder()
+                    .clearPackedCellId()
+                    .addAllCellId(commitReq.getPackedCellIdList())
+                    .build();
+            return req.toBuilder().setCommitRequest(unpackedCommitReq).build();
+        }
+
+        private void flushRequests() {
+            while (pendingTimestampRequests > 0) {
+                int numTimestamps = Math.min(pendingTimestampRequests, MAX_TIMESTAMPS_PER_REQUEST);
+                TSOProto.TimestampRequest.Builder tsreqBuilder = TSOProto.TimestampRequest.newBuilder();
+                if (numTimestamps > 1) {
+                    tsreqBuilder.setNumTimestamps(numTimestamps);
+                }
+                write(TSOProto.Request.newBuilder().setTimestampRequest(tsreqBuilder).build());
+                pendingTimestampRequests -= numTimestamps;
+            }
+            if (pendingCommitRequests.size() == 1) {
+                write(TSOProto.Request.newBuilder().setCommitRequest(pendingCommitRequests.get(0)).build());
+            } else if (pendingCommitRequests.size() > 1) {
+                TSOProto.Request.Builder builder = TSOProto.Request.newBuilder();
+                int frameSize = 0;
+                for (TSOProto.CommitRequest commitRequest : pendingCommitRequests) {
+                    int commitRequestSize = CodedOutputStream.computeMessageSize(
+                            TSOProto.Request.COMMITREQUESTS_FIELD_NUMBER, commitRequest);
+                    if (frameSize > 0 && frameSize + commitRequestSize > MAX_COMMIT_REQUESTS_FRAME_SIZE) {
+                        write(builder.build());
+                        builder = TSOProto.Request.newBuilder();
+                        frameSize = 0;
+                    }
+                    builder.addCommitRequests(commitRequest);
+                    frameSize += commitRequestSize;
+                }
+                write(builder.build());
+            }
+            pendingCommitRequests.clear();
+        }
+
+        private void write(TSOProto.Request req) {
             ChannelFuture f = channel.write(req);
 
             f.addListener(new ChannelFutureListener() {
@@ -669,59 +772,44 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         private void handleResponse(ResponseEvent response) {
             TSOProto.Response resp = response.getParam();
             if (resp.hasTimestampResponse()) {
-                if (timestampRequests.size() == 0) {
-                    LOG.debug("Received timestamp response when no requests outstanding");
-                    return;
-                }
-                RequestAndTimeout e = timestampRequests.remove();
-                e.getRequest().success(resp.getTimestampResponse().getStartTimestamp());
-                if (e.getTimeout() != null) {
-                    e.getTimeout().cancel();
+                long startTimestamp = resp.getTimestampResponse().getStartTimestamp();
+                int numTimestamps = resp.getTimestampResponse().getNumTimestamps();
+                for (int i = 0; i < numTimestamps; i++) {
+                    if (timestampRequests.size() == 0) {
+                        LOG.debug("Received timestamp response when no requests outstanding");
+                        return;
+                    }
+                    timestampRequests.remove().success(startTimestamp + i);
                 }
             } else if (resp.hasCommitResponse()) {
                 long startTimestamp = resp.getCommitResponse().getStartTimestamp();
-                RequestAndTimeout e = commitRequests.remove(startTimestamp);
+                RequestEvent e = commitRequests.remove(startTimestamp);
                 if (e == null) {
                     LOG.debug("Received commit response for request that doesn't exist. Start TS: {}", startTimestamp);
                     return;
                 }
-                if (e.getTimeout() != null) {
-                    e.getTimeout().cancel();
-                }
                 if (resp.getCommitResponse().getAborted()) {
-                    e.getRequest().error(new AbortException());
+                    e.error(new AbortException());
                 } else {
-                    e.getRequest().success(resp.getCommitResponse().getCommitTimestamp());
+                    e.success(resp.getCommitResponse().getCommitTimestamp());
                 }
             }
         }
 
-        public StateMachine.State handleEvent(TimestampRequestTimeoutEvent e) {
-            if (!timestampRequests.isEmpty()) {
-                RequestAndTimeout r = timestampRequests.remove();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
-                }
-                queueRetryOrError(fsm, r.getRequest());
-            }
-            return this;
-        }
-
-        public StateMachine.State handleEvent(CommitRequestTimeoutEvent e) {
-            long startTimestamp = e.getStartTimestamp();
-            if (commitRequests.containsKey(startTimestamp)) {
-                RequestAndTimeout r = commitRequests.remove(startTimestamp);
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
-                }
-                queueRetryOrError(fsm, r.getRequest());
+        public StateMachine.State handleEvent(CheckTimeoutsEvent e) {
+            if (e.state != this) {
+                return super.handleEvent(e);
             }
+            timeoutChecks++;
+            timestampRequests.removeExpired(timeoutChecks, requestsToRetry);
+            commitRequests.removeExpired(timeoutChecks, requestsToRetry);
+            retryOrError(fsm);
+            scheduleTimeoutsCheck();
             return this;
         }
 
         public StateMachine.State handleEvent(CloseEvent e) {
             LOG.debug("CONNECTED STATE: CloseEvent");
-            timeoutExecutor.stop();
             closeChannelAndErrorRequests();
             fsm.deferEvent(e);
             return new ClosingState(fsm);
@@ -732,6 +820,12 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             return this;
         }
 
+        public StateMachine.State handleEvent(FlushRequestsEvent e) {
+            flushScheduled = false;
+            flushRequests();
+            return this;
+        }
+
         public StateMachine.State handleEvent(ResponseEvent e) {
             handleResponse(e);
             return this;
@@ -739,32 +833,25 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         public StateMachine.State handleEvent(ErrorEvent e) {
             LOG.debug("CONNECTED STATE: ErrorEvent");
-            timeoutExecutor.stop();
             handleError(fsm);
             return new ClosingState(fsm);
         }
 
         private void handleError(StateMachine.Fsm fsm) {
-            LOG.debug("CONNECTED STATE: Cancelling Timeouts in handleError");
-            while (timestampRequests.size() > 0) {
-                RequestAndTimeout r = timestampRequests.remove();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
-                }
-                queueRetryOrError(fsm, r.getRequest());
-            }
-            Iterator<Map.Entry<Long, RequestAndTimeout>> iter = commitRequests.entrySet().iterator();
-            while (iter.hasNext()) {
-                RequestAndTimeout r = iter.next().getValue();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
-                }
-                queueRetryOrError(fsm, r.getRequest());
-                iter.remove();
-            }
+            LOG.debug("CONNECTED STATE: Retrying outstanding requests in handleError");
+            timestampRequests.drainTo(requestsToRetry);
+            commitRequests.drainTo(requestsToRetry);
+            retryOrError(fsm);
             channel.close();
         }
 
+        private void retryOrError(StateMachine.Fsm fsm) {
+            for (RequestEvent request : requestsToRetry) {
+                queueRetryOrError(fsm, request);
+            }
+            requestsToRetry.clear();
+        }
+
         private void queueRetryOrError(StateMachine.Fsm fsm, RequestEvent e) {
             if (e.getRetriesLeft() > 0) {
                 e.decrementRetries();
@@ -788,18 +875,12 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         private void closeChannelAndErrorRequests() {
             channel.close();
-            for (RequestAndTimeout r : timestampRequests) {
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
-                }
-                r.getRequest().error(new ClosingException());
-            }
-            for (RequestAndTimeout r : commitRequests.values()) {
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
-                }
-                r.getRequest().error(new ClosingException());
+            timestampRequests.drainTo(requestsToRetry);
+            commitRequests.drainTo(requestsToRetry);
+            for (RequestEvent r : requestsToRetry) {
+                r.error(new ClosingException());
             }
+            requestsToRetry.clear();
         }
     }
 
@@ -810,16 +891,6 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             LOG.debug("NEW STATE: CLOSING");
         }
 
-        public StateMachine.State handleEvent(TimestampRequestTimeoutEvent e) {
-            // Ignored. They will be retried or errored
-            return this;
-        }
-
-        public StateMachine.State handleEvent(CommitRequestTimeoutEvent e) {
-            // Ignored. They will be retried or errored
-            return this;
-        }
-
         public StateMachine.State handleEvent(ErrorEvent e) {
             // Ignored. They will be retried or errored
             return this;
@@ -849,17 +920,76 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     // Helper classes & methods
     // ----------------------------------------------------------------------------------------------------------------
 
+    /**
+     * A connection to the TSO server, with the FSM that handles it
+     */
+    private class Connection {
+
+        final ScheduledExecutorService fsmExecutor;
+        final StateMachine.Fsm fsm;
+        final ClientBootstrap bootstrap;
+        volatile Channel currentChannel;
+
+        Connection(ThreadFactory fsmThreadFactory) {
+
+            fsmExecutor = Executors.newSingleThreadScheduledExecutor(fsmThreadFactory);
+            fsm = new StateMachine.FsmImpl(fsmExecutor);
+            fsm.setInitState(new DisconnectedState(fsm));
+
+            // The framing codecs keep state per channel, so each channel gets its own pipeline
+            bootstrap = new ClientBootstrap(factory);
+            bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+                @Override
+                public ChannelPipeline getPipeline() {
+                    ChannelPipeline pipeline = Channels.pipeline();
+                    pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(8 * 1024, 0, 4, 0, 4));
+                    pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
+                    pipeline.addLast("protobufdecoder", new ProtobufDecoder(TSOProto.Response.getDefaultInstance()));
+                    pipeline.addLast("protobufencoder", new ProtobufEncoder());
+                    pipeline.addLast("handler", new Handler(Connection.this));
+                    return pipeline;
+                }
+            });
+
+            bootstrap.setOption("tcpNoDelay", true);
+            bootstrap.setOption("keepAlive", true);
+            bootstrap.setOption("reuseAddress", true);
+            bootstrap.setOption("connectTimeoutMillis", 100);
+
+        }
+
+    }
+
+    private Connection nextConnection() {
+        if (connections.length == 1) {
+            return connections[0];
+        }
+        return connections[(nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+    }
+
+    // Only looked up when connecting, so a linear search over the few connections is fine
+    private Connection connectionOf(StateMachine.Fsm fsm) {
+        for (Connection connection : connections) {
+            if (connection.fsm == fsm) {
+                return connection;
+            }
+        }
+        throw new IllegalStateException("No connection for FSM " + fsm);
+    }
+
     private class Handler extends SimpleChannelHandler {
 
-        private StateMachine.Fsm fsm;
+        private final Connection connection;
+        private final StateMachine.Fsm fsm;
 
-        Handler(StateMachine.Fsm fsm) {
-            this.fsm = fsm;
+        Handler(Connection connection) {
+            this.connection = connection;
+            this.fsm = connection.fsm;
         }
 
         @Override
         public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
-            currentChannel = e.getChannel();
+            connection.currentChannel = e.getChannel();
             LOG.debug("HANDLER (CHANNEL CONNECTED): Connection {}. Sending connected event to FSM", e);
             fsm.sendEvent(new ConnectedEvent(e.getChannel()));
         }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso.client;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestPendingCommitTable {
+
+    @Test(timeOut = 10_000)
+    public void testPutGetAndRemove() {
+        PendingCommitTable<String> table = new PendingCommitTable<>(1);
+
+        for (long startTimestamp = 1; startTimestamp <= 1000; startTimestamp++) {
+            table.put(startTimestamp, "tx" + startTimestamp, 1);
+        }
+        assertEquals(table.size(), 1000);
+        for (long startTimestamp = 1; startTimestamp <= 1000; startTimestamp += 2) {
+            assertEquals(table.remove(startTimestamp), "tx" + startTimestamp);
+        }
+        assertEquals(table.size(), 500);
+        for (long startTimestamp = 1; startTimestamp <= 1000; startTimestamp++) {
+            if (startTimestamp % 2 == 1) {
+                assertNull(table.get(startTimestamp));
+                assertNull(table.remove(startTimestamp));
+            } else {
+                assertEquals(table.get(startTimestamp), "tx" + startTimestamp);
+            }
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRandomOperationsMatchAHashMap() {
+        PendingCommitTable<Long> table = new PendingCommitTable<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            long startTimestamp = random.nextInt(512) * 1024L;
+            if (random.nextBoolean()) {
+                table.put(startTimestamp, startTimestamp, i);
+                expected.put(startTimestamp, startTimestamp);
+            } else {
+                assertEquals(table.remove(startTimestamp), expected.remove(startTimestamp));
+            }
+            assertEquals(table.size(), expected.size());
+        }
+        for (long startTimestamp : expected.keySet()) {
+            assertEquals(table.get(startTimestamp), expected.get(startTimestamp));
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOnlyPendingRequestsExpire() {
+        PendingCommitTable<String> table = new PendingCommitTable<>(8);
+        table.put(1, "tx1", 1);
+        table.put(2, "tx2", 1);
+        table.put(3, "tx3", 2);
+        table.put(4, "tx4", 3);
+        table.remove(2);
+        // Replaced with a later deadline, e.g. when retried
+        table.remove(3);
+        table.put(3, "tx3-retry", 4);
+
+        List<String> expired = new ArrayList<>();
+        table.removeExpired(0, expired);
+        assertTrue(expired.isEmpty());
+        table.removeExpired(2, expired);
+        assertEquals(expired, Arrays.asList("tx1"));
+        expired.clear();
+        table.removeExpired(4, expired);
+        assertEquals(expired, Arrays.asList("tx4", "tx3-retry"));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testDrainRemovesAllRequests() {
+        PendingCommitTable<String> table = new PendingCommitTable<>(8);
+        table.put(1, "tx1", 1);
+        table.put(2, "tx2", 1);
+        table.put(3, "tx3", 2);
+
+        List<String> drained = new ArrayList<>();
+        table.drainTo(drained);
+        assertEquals(new HashSet<>(drained), new HashSet<>(Arrays.asList("tx1", "tx2", "tx3")));
+        assertTrue(table.isEmpty());
+        assertNull(table.get(1));
+        table.removeExpired(Long.MAX_VALUE, drained);
+        assertEquals(drained.size(), 3);
+    }
+
+}
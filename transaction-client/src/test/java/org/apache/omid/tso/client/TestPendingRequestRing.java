@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso.client;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestPendingRequestRing {
+
+    @Test(timeOut = 10_000)
+    public void testRingWrapsAroundWithoutLosingOrder() {
+        PendingRequestRing<Integer> ring = new PendingRequestRing<>(4);
+        int next = 0;
+        int expected = 0;
+        // Never more than 4 requests outstanding, so the head and the tail wrap around the same slots
+        for (int round = 0; round < 100; round++) {
+            while (ring.size() < 4) {
+                ring.add(next, next);
+                next++;
+            }
+            assertEquals(ring.peekDeadline(), expected);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(ring.remove(), Integer.valueOf(expected++));
+            }
+        }
+        assertEquals(ring.size(), 1);
+        assertEquals(ring.remove(), Integer.valueOf(expected));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRingKeepsOrderWhileGrowing() {
+        PendingRequestRing<Integer> ring = new PendingRequestRing<>(2);
+        for (int i = 0; i < 10; i++) {
+            ring.add(i, i / 4);
+        }
+        assertEquals(ring.remove(), Integer.valueOf(0));
+        for (int i = 10; i < 20; i++) {
+            ring.add(i, i / 4);
+        }
+        List<Integer> expired = new ArrayList<>();
+        ring.removeExpired(1, expired);
+        assertEquals(expired, Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+        assertEquals(ring.peekDeadline(), 2);
+        assertEquals(ring.size(), 12);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRingGrowsWhenWrappedAround() {
+        PendingRequestRing<Integer> ring = new PendingRequestRing<>(4);
+        for (int i = 0; i < 4; i++) {
+            ring.add(i, i);
+        }
+        ring.remove();
+        ring.remove();
+        // The tail is now before the head, in the slots freed
+        ring.add(4, 4);
+        ring.add(5, 5);
+        // Full, so this one grows the ring
+        ring.add(6, 6);
+
+        List<Integer> drained = new ArrayList<>();
+        ring.drainTo(drained);
+        assertEquals(drained, Arrays.asList(2, 3, 4, 5, 6));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testResponsesAndExpirationsRemoveFromTheHead() {
+        PendingRequestRing<String> ring = new PendingRequestRing<>(8);
+        ring.add("ts1", 1);
+        ring.add("ts2", 1);
+        ring.add("ts3", 2);
+        ring.add("ts4", 3);
+
+        // A response completes the oldest request, whatever its deadline
+        assertEquals(ring.remove(), "ts1");
+        List<String> expired = new ArrayList<>();
+        ring.removeExpired(0, expired);
+        assertTrue(expired.isEmpty());
+        ring.removeExpired(2, expired);
+        assertEquals(expired, Arrays.asList("ts2", "ts3"));
+        assertEquals(ring.peekDeadline(), 3);
+
+        // A request with an earlier deadline than the ones ahead of it only expires with them, as the deadlines are
+        // expected to grow in the order of the requests
+        ring.add("ts5", 1);
+        expired.clear();
+        ring.removeExpired(2, expired);
+        assertTrue(expired.isEmpty());
+        ring.removeExpired(3, expired);
+        assertEquals(expired, Arrays.asList("ts4", "ts5"));
+
+        assertTrue(ring.isEmpty());
+        try {
+            ring.remove();
+            fail("Nothing to remove from an empty ring");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+}
@@ -19,15 +19,17 @@ package org.apache.omid.tso;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import org.apache.commons.pool2.BasePooledObjectFactory;
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.jboss.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_COMMIT_RETRY;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_TIMESTAMP;
+
 public class Batch {
 
     private static final Logger LOG = LoggerFactory.getLogger(Batch.class);
@@ -35,6 +37,7 @@ public class Batch {
     private final int id;
     private final int size;
     private int numEvents;
+    private long flushLatencyInNs = 0L;
     private final PersistEvent[] events; // TODO Check if it's worth to have a dynamic structure for this
 
     Batch(int id, int size) {
@@ -76,6 +79,14 @@ public class Batch {
         return numEvents;
     }
 
+    long getFlushLatencyInNs() {
+        return flushLatencyInNs;
+    }
+
+    void setFlushLatencyInNs(long flushLatencyInNs) {
+        this.flushLatencyInNs = flushLatencyInNs;
+    }
+
     int getLastEventIdx() {
         return numEvents - 1;
     }
@@ -98,17 +109,27 @@ public class Batch {
         Preconditions.checkState(!isFull(), "batch is full");
         int index = numEvents++;
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.timestamp.latency");
+        context.timerStart(PERSIST_TIMESTAMP);
         e.makePersistTimestamp(startTimestamp, c, context);
 
     }
 
+    void addTimestamps(long startTimestamp, int numTimestamps, Channel c, MonitoringContext context) {
+
+        Preconditions.checkState(!isFull(), "batch is full");
+        int index = numEvents++;
+        PersistEvent e = events[index];
+        context.timerStart(PERSIST_TIMESTAMP);
+        e.makePersistTimestamps(startTimestamp, numTimestamps, c, context);
+
+    }
+
     void addCommit(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext context) {
 
         Preconditions.checkState(!isFull(), "batch is full");
         int index = numEvents++;
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.commit.latency");
+        context.timerStart(PERSIST_COMMIT);
         e.makePersistCommit(startTimestamp, commitTimestamp, c, context);
 
     }
@@ -118,7 +139,7 @@ public class Batch {
         Preconditions.checkState(!isFull(), "batch is full");
         int index = numEvents++;
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.commit-retry.latency");
+        context.timerStart(PERSIST_COMMIT_RETRY);
         e.makeCommitRetry(startTimestamp, c, context);
 
     }
@@ -128,7 +149,7 @@ public class Batch {
         Preconditions.checkState(!isFull(), "batch is full");
         int index = numEvents++;
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.abort.latency");
+        context.timerStart(PERSIST_ABORT);
         e.makePersistAbort(startTimestamp, c, context);
 
     }
@@ -143,31 +164,4 @@ public class Batch {
                 .toString();
     }
 
-    static class BatchFactory extends BasePooledObjectFactory<Batch> {
-
-        private static int batchId = 0;
-
-        private int batchSize;
-
-        BatchFactory(int batchSize) {
-            this.batchSize = batchSize;
-        }
-
-        @Override
-        public Batch create() throws Exception {
-            return new Batch(batchId++, batchSize);
-        }
-
-        @Override
-        public PooledObject<Batch> wrap(Batch batch) {
-            return new DefaultPooledObject<>(batch);
-        }
-
-        @Override
-        public void passivateObject(PooledObject<Batch> pooledObject) {
-            pooledObject.getObject().clear(); // Reset num events when returning the batch to the pool
-        }
-
-    }
-
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Decides when the current batch of the persistence processor has to be flushed.
+ *
+ * A batch is flushed when it reaches the batch size or when its deadline, set when its first operation arrives,
+ * expires. Without a latency target, the batch size is the capacity of the batches and the deadline is the batch
+ * persist timeout. With a latency target, both adapt after each flush:
+ * 1) The time a batch can wait is the part of the latency target that the commit table flushes don't use, bounded
+ *    by the batch persist timeout
+ * 2) The batch size is the number of operations expected to arrive in that time, but never less than the one the
+ *    commit table writers need to keep up with the arrival rate given their flush latency
+ * So, under light load, batches are small and flushed almost immediately, and they grow with the load up to their
+ * capacity. The arrival rate and the flush latency are exponentially weighted moving averages.
+ *
+ * Instances are not thread safe and must only be used from the thread calling the persistence processor, except
+ * isExpired(), that can be called from any thread.
+ */
+class BatchFlushPolicy {
+
+    static final long NO_DEADLINE = 0L;
+
+    // Weight of the new samples in the moving averages
+    private static final double SAMPLE_WEIGHT = 0.2;
+    // Batches wait at least this time for more operations when adapting to a latency target
+    private static final long MIN_WAIT_IN_NS = 10_000L;
+
+    private final int maxBatchSize;
+    private final int numWriters;
+    private final long maxWaitInNs;
+    private final long latencyTargetInNs;
+
+    private int batchSize;
+    private long waitInNs;
+    private volatile long deadlineInNs = NO_DEADLINE;
+
+    private double arrivalsPerNs = 0.0;
+    private double flushLatencyInNs = 0.0;
+    private long lastFlushTimeInNs;
+
+    BatchFlushPolicy(int maxBatchSize, int numWriters, long maxWaitInMs, long latencyTargetInMs, long nowInNs) {
+
+        Preconditions.checkArgument(maxBatchSize > 0, "Batch size [%s] must be positive", maxBatchSize);
+        Preconditions.checkArgument(numWriters > 0, "# of writers [%s] must be positive", numWriters);
+        Preconditions.checkArgument(latencyTargetInMs >= 0, "Latency target [%s] can't be negative", latencyTargetInMs);
+        this.maxBatchSize = maxBatchSize;
+        this.numWriters = numWriters;
+        this.maxWaitInNs = MILLISECONDS.toNanos(Math.max(maxWaitInMs, 0L));
+        this.latencyTargetInNs = MILLISECONDS.toNanos(latencyTargetInMs);
+        this.batchSize = maxBatchSize;
+        this.waitInNs = this.maxWaitInNs;
+        this.lastFlushTimeInNs = nowInNs;
+
+    }
+
+    boolean isAdaptive() {
+        return latencyTargetInNs > 0;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    long getWaitInNs() {
+        return waitInNs;
+    }
+
+    long getDeadlineInNs() {
+        return deadlineInNs;
+    }
+
+    /**
+     * Starts the deadline of the current batch. Must be called when its first operation is added
+     */
+    void batchOpened(long nowInNs) {
+
+        long deadline = nowInNs + waitInNs;
+        deadlineInNs = deadline == NO_DEADLINE ? deadline + 1 : deadline;
+
+    }
+
+    boolean isComplete(int numEvents) {
+        return numEvents >= batchSize;
+    }
+
+    boolean isExpired(long nowInNs) {
+
+        long deadline = deadlineInNs;
+        return deadline != NO_DEADLINE && nowInNs - deadline >= 0;
+
+    }
+
+    /**
+     * Records the time taken by a commit table flush. Non positive values are ignored
+     */
+    void flushLatency(long latencyInNs) {
+
+        if (latencyInNs <= 0) {
+            return;
+        }
+        flushLatencyInNs = flushLatencyInNs == 0.0
+                ? latencyInNs
+                : flushLatencyInNs + SAMPLE_WEIGHT * (latencyInNs - flushLatencyInNs);
+
+    }
+
+    /**
+     * Clears the deadline of the batch flushed and, with a latency target, recomputes the batch size and wait time
+     */
+    void batchFlushed(int numEvents, long nowInNs) {
+
+        deadlineInNs = NO_DEADLINE;
+        if (!isAdaptive()) {
+            return;
+        }
+
+        long elapsed = Math.max(nowInNs - lastFlushTimeInNs, 1L);
+        lastFlushTimeInNs = nowInNs;
+        arrivalsPerNs += SAMPLE_WEIGHT * ((double) numEvents / elapsed - arrivalsPerNs);
+
+        long budget = latencyTargetInNs - (long) flushLatencyInNs;
+        waitInNs = Math.min(Math.max(budget, MIN_WAIT_IN_NS), maxWaitInNs);
+        double expectedArrivals = arrivalsPerNs * waitInNs;
+        double neededToKeepUp = arrivalsPerNs * flushLatencyInNs / numWriters;
+        long size = (long) Math.ceil(Math.max(expectedArrivals, neededToKeepUp));
+        batchSize = (int) Math.min(Math.max(size, 1L), maxBatchSize);
+
+    }
+
+}
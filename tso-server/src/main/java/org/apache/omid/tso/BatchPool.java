@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed ring of preallocated batches, recycled between the persistence processor, which borrows them to fill them
+ * with requests, and the stages that return them once their responses have been sent.
+ *
+ * Batches are borrowed from consecutive slots of the ring and returned to the slots following the ones of the last
+ * batches returned, so no locks are needed: the borrower is a single thread that only reads its own sequence, and
+ * returners only have to claim the next return sequence. A returned slot is always one that the borrower emptied
+ * before, as there are never more batches returned than borrowed. When all the batches are in flight, the borrower
+ * waits until one is returned, which in turn makes the requests wait in the request ring (back-pressure).
+ */
+public class BatchPool {
+
+    private static final int SPINS_BEFORE_PARKING = 100;
+    private static final long PARK_TIME_IN_NS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final int poolSize;
+    private final AtomicReferenceArray<Batch> slots;
+
+    private long borrowSequence = 0L; // Only accessed by the borrower thread
+    private final AtomicLong returnSequence;
+
+    BatchPool(int poolSize, int batchSize) {
+
+        Preconditions.checkArgument(poolSize > 0, "Pool size [%s] must be positive", poolSize);
+        this.poolSize = poolSize;
+        this.slots = new AtomicReferenceArray<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            slots.set(i, new Batch(i, batchSize));
+        }
+        this.returnSequence = new AtomicLong(poolSize);
+
+    }
+
+    /**
+     * Must always be called from the same thread. Waits while all the batches are in flight
+     */
+    Batch borrowObject() throws InterruptedException {
+
+        int slot = (int) (borrowSequence % poolSize);
+        Batch batch = slots.get(slot);
+        int spins = 0;
+        while (batch == null) {
+            if (++spins > SPINS_BEFORE_PARKING) {
+                LockSupport.parkNanos(PARK_TIME_IN_NS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("Interrupted whilst waiting for a batch to be returned");
+                }
+            }
+            batch = slots.get(slot);
+        }
+        slots.lazySet(slot, null);
+        borrowSequence++;
+        return batch;
+
+    }
+
+    /**
+     * Can be called from any thread
+     */
+    void returnObject(Batch batch) {
+
+        batch.clear();
+        int slot = (int) (returnSequence.getAndIncrement() % poolSize);
+        slots.set(slot, batch);
+
+    }
+
+    /**
+     * @return the number of batches borrowed and not returned yet. Must be called from the borrower thread
+     */
+    int getNumInFlight() {
+
+        return (int) (borrowSequence - (returnSequence.get() - poolSize));
+
+    }
+
+    int getNumIdle() {
+
+        int numIdle = 0;
+        for (int i = 0; i < poolSize; i++) {
+            if (slots.get(i) != null) {
+                numIdle++;
+            }
+        }
+        return numIdle;
+
+    }
+
+    int getNumActive() {
+        return poolSize - getNumIdle();
+    }
+
+}
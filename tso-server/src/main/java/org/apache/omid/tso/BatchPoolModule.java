@@ -19,15 +19,10 @@ package org.apache.omid.tso;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
-import org.apache.commons.pool2.ObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
-import java.util.ArrayList;
-import java.util.List;
 
 public class BatchPoolModule extends AbstractModule {
 
@@ -45,26 +40,14 @@ public class BatchPoolModule extends AbstractModule {
 
     @Provides
     @Singleton
-    ObjectPool<Batch> getBatchPool() throws Exception {
+    BatchPool getBatchPool() throws Exception {
 
         int poolSize = config.getNumConcurrentCTWriters();
         int batchSize = config.getBatchSizePerCTWriter();
 
         LOG.info("Pool Size (# of Batches) {}; Batch Size {}", poolSize, batchSize);
         LOG.info("Total Batch Size (Pool size * Batch Size): {}", poolSize * batchSize);
-        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
-        config.setMaxTotal(poolSize);
-        config.setBlockWhenExhausted(true);
-        GenericObjectPool<Batch> batchPool = new GenericObjectPool<>(new Batch.BatchFactory(batchSize), config);
-        LOG.info("Pre-creating objects in the pool..."); // TODO There should be a better way to do this
-        List<Batch> batches = new ArrayList<>(poolSize);
-        for (int i = 0; i < poolSize; i++) {
-            batches.add(batchPool.borrowObject());
-        }
-        for (Batch batch : batches) {
-            batchPool.returnObject(batch);
-        }
-        return batchPool;
+        return new BatchPool(poolSize, batchSize);
 
     }
 
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.proto.TSOProto;
+import org.apache.omid.tso.RequestProcessorImpl.RequestEvent;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Compares the bytes allocated and the time spent per commit request when going from a received frame to the
+ * CommitHashMap through:
+ * 1) the protobuf decoder, which boxes the cell ids of the write set
+ * 2) the CommitRequestReader, which copies them straight into the primitive array of the request ring slot
+ * Both with the write set encoded as varints (cellId) and as packed fixed64s (packedCellId).
+ *
+ * Allocations are measured with the HotSpot specific com.sun.management.ThreadMXBean, so only timings are reported
+ * in JVMs that don't provide it.
+ */
+public class CommitDecodingEvaluation {
+
+    private final static int CONFLICT_MAP_SIZE = 1000000;
+    private final static int COMMITS = 1000000;
+    private final static int WARMUP_ROUNDS = 2;
+    private final static int ROUNDS = 4;
+
+    private final static int[] WRITE_SET_SIZES = new int[]{1, 10, 100};
+
+    public static void main(String[] args) throws Exception {
+
+        CommitDecodingEvaluation evaluation = new CommitDecodingEvaluation();
+        for (int writeSetSize : WRITE_SET_SIZES) {
+            for (boolean packed : new boolean[]{false, true}) {
+                ChannelBuffer frame = evaluation.createCommitRequestFrame(writeSetSize, packed);
+                System.out.format("Write set size %d, %s (frame of %d bytes)%n",
+                                  writeSetSize, packed ? "packed fixed64" : "varint", frame.readableBytes());
+                evaluation.evaluate("protobuf", new ProtobufDecoding(), frame);
+                evaluation.evaluate("reader", new ReaderDecoding(), frame);
+            }
+        }
+
+    }
+
+    private void evaluate(String name, Decoding decoding, ChannelBuffer frame) throws Exception {
+
+        CommitHashMap hashmap = new CommitHashMap(CONFLICT_MAP_SIZE);
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            System.err.format("%s: Warmup [%d/%d]%n", name, round + 1, WARMUP_ROUNDS);
+            runRound(decoding, frame, hashmap);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long time = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            runRound(decoding, frame, hashmap);
+        }
+        time = System.nanoTime() - time;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        long commits = (long) COMMITS * ROUNDS;
+        if (allocatedBefore < 0) {
+            System.out.format("\t%-10s %8.1f ns/commit (allocation measurement not supported by this JVM)%n",
+                              name, (double) time / commits);
+        } else {
+            System.out.format("\t%-10s %8.1f ns/commit %10.1f bytes/commit%n",
+                              name, (double) time / commits, (double) allocated / commits);
+        }
+
+    }
+
+    private void runRound(Decoding decoding, ChannelBuffer frame, CommitHashMap hashmap) throws Exception {
+
+        for (long commitTs = 1; commitTs <= COMMITS; commitTs++) {
+            decoding.decodeInto(frame, hashmap, commitTs);
+        }
+
+    }
+
+    private ChannelBuffer createCommitRequestFrame(int writeSetSize, boolean packed) {
+
+        Random random = new Random();
+        TSOProto.CommitRequest.Builder commitRequest = TSOProto.CommitRequest.newBuilder().setStartTimestamp(1);
+        for (int i = 0; i < writeSetSize; i++) {
+            if (packed) {
+                commitRequest.addPackedCellId(random.nextLong());
+            } else {
+                commitRequest.addCellId(random.nextLong());
+            }
+        }
+        byte[] bytes = TSOProto.Request.newBuilder().setCommitRequest(commitRequest).build().toByteArray();
+        return ChannelBuffers.wrappedBuffer(bytes);
+
+    }
+
+    private static long allocatedBytes() {
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (hotspotBean.isThreadAllocatedMemorySupported() && hotspotBean.isThreadAllocatedMemoryEnabled()) {
+                return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Decoding paths
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private interface Decoding {
+
+        void decodeInto(ChannelBuffer frame, CommitHashMap hashmap, long commitTs) throws Exception;
+
+    }
+
+    /**
+     * Path previous to the CommitRequestReader: protobuf parsing plus the boxed write set
+     */
+    private static class ProtobufDecoding implements Decoding {
+
+        @Override
+        public void decodeInto(ChannelBuffer frame, CommitHashMap hashmap, long commitTs) throws Exception {
+            TSOProto.Request request = TSOProto.Request.parseFrom(frame.array());
+            for (Long cellId : request.getCommitRequest().getCellIdList()) {
+                hashmap.putLatestWriteForCell(cellId, commitTs);
+            }
+            for (Long cellId : request.getCommitRequest().getPackedCellIdList()) {
+                hashmap.putLatestWriteForCell(cellId, commitTs);
+            }
+        }
+
+    }
+
+    /**
+     * Current path: the frame is scanned on the I/O thread and copied into the ring slot
+     */
+    private static class ReaderDecoding implements Decoding {
+
+        private final CommitRequestReader reader = new CommitRequestReader();
+        private final RequestEvent event = RequestEvent.EVENT_FACTORY.newInstance();
+
+        @Override
+        public void decodeInto(ChannelBuffer frame, CommitHashMap hashmap, long commitTs) throws Exception {
+            if (!CommitRequestReader.isCommitRequest(frame)) {
+                throw new IllegalStateException("Not a commit request frame");
+            }
+            reader.scan(frame);
+            RequestEvent.makeCommitRequest(event, reader.getStartTimestamp(), null, frame, reader.getNumCellIds(),
+                                           reader.isRetry(), null);
+            long[] writeSet = event.getWriteSet();
+            for (int i = 0; i < event.getNumCells(); i++) {
+                hashmap.putLatestWriteForCell(writeSet[i], commitTs);
+            }
+        }
+
+    }
+
+}
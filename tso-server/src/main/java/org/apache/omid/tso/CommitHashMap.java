@@ -36,7 +36,7 @@ import org.slf4j.LoggerFactory;
  * (by hash) which could cause the eviction of a very recent timestamp
  */
 
-class CommitHashMap {
+class CommitHashMap implements ConflictMap {
 
     private static final Logger LOG = LoggerFactory.getLogger(CommitHashMap.class);
 
@@ -66,11 +66,18 @@ class CommitHashMap {
         LOG.info("CellId -> CommitTS map created with [{}] buckets (32 elems/bucket)", size);
     }
 
+    @Override
     public long getLatestWriteForCell(long hash) {
         return cellIdToCommitMap.get(hash);
     }
 
+    @Override
     public long putLatestWriteForCell(long hash, long commitTimestamp) {
         return cellIdToCommitMap.set(hash, commitTimestamp);
     }
+
+    @Override
+    public long getLastEvictedCell() {
+        return cellIdToCommitMap.getLastEvictedKey();
+    }
 }
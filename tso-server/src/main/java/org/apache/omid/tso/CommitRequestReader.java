@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.omid.proto.TSOProto;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import static com.google.protobuf.WireFormat.WIRETYPE_END_GROUP;
+import static com.google.protobuf.WireFormat.WIRETYPE_FIXED32;
+import static com.google.protobuf.WireFormat.WIRETYPE_FIXED64;
+import static com.google.protobuf.WireFormat.WIRETYPE_LENGTH_DELIMITED;
+import static com.google.protobuf.WireFormat.WIRETYPE_START_GROUP;
+import static com.google.protobuf.WireFormat.WIRETYPE_VARINT;
+
+/**
+ * Reads TSOProto.Request frames that only contain a CommitRequest without materializing the protobuf message.
+ *
+ * The protobuf generated code keeps the write set of a commit request as a List<Long>, so every cell id is boxed
+ * when the frame is parsed. This reader works directly on the Netty frame instead: scan() validates the frame and
+ * captures the start timestamp, the retry flag and the number of cells, and readCellIds() copies the cell ids into
+ * a primitive long[] (the one owned by the request processor ring slot) without allocating anything.
+ *
+ * The cell ids can come in the cellId field (varints) and/or in the packedCellId field (little-endian fixed64s),
+ * which clients only use with servers that advertise it in the handshake. The packed fixed64 ones are decoded
+ * in bulk, as their number and position are known from the field length.
+ *
+ * Frames carrying several commit requests (see isMultiCommitRequest()) are read one commit request at a time, on
+ * the slices delimited by commitRequestLength().
+ *
+ * Instances keep the results of the last scan, so they must be confined to a single channel. None of the methods
+ * modify the reader index of the frames passed.
+ */
+final class CommitRequestReader {
+
+    private static final int COMMIT_REQUEST_TAG =
+            tag(TSOProto.Request.COMMITREQUEST_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+    private static final int COMMIT_REQUESTS_TAG =
+            tag(TSOProto.Request.COMMITREQUESTS_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+    private static final int START_TIMESTAMP_TAG =
+            tag(TSOProto.CommitRequest.STARTTIMESTAMP_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int IS_RETRY_TAG = tag(TSOProto.CommitRequest.ISRETRY_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int CELL_ID_TAG = tag(TSOProto.CommitRequest.CELLID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int PACKED_CELL_ID_TAG =
+            tag(TSOProto.CommitRequest.CELLID_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+    private static final int PACKED_FIXED64_CELL_ID_TAG =
+            tag(TSOProto.CommitRequest.PACKEDCELLID_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+    private static final int FIXED64_CELL_ID_TAG = // Unpacked encoding of the same field, valid for parsers too
+            tag(TSOProto.CommitRequest.PACKEDCELLID_FIELD_NUMBER, WIRETYPE_FIXED64);
+
+    private long startTimestamp;
+    private boolean isRetry;
+    private int numCellIds;
+
+    /**
+     * @return true if the frame is a serialized TSOProto.Request whose only field is a commit request
+     */
+    static boolean isCommitRequest(ChannelBuffer frame) {
+        int start = frame.readerIndex();
+        try {
+            if (!frame.readable() || readRawVarint32(frame) != COMMIT_REQUEST_TAG) {
+                return false;
+            }
+            return readRawVarint32(frame) == frame.readableBytes();
+        } catch (InvalidProtocolBufferException e) {
+            return false; // Let the protobuf decoder deal with it
+        } finally {
+            frame.readerIndex(start);
+        }
+    }
+
+    /**
+     * @return true if the frame is a serialized TSOProto.Request whose only fields are several commit requests
+     */
+    static boolean isMultiCommitRequest(ChannelBuffer frame) {
+        int start = frame.readerIndex();
+        try {
+            if (!frame.readable()) {
+                return false;
+            }
+            while (frame.readable()) {
+                if (readRawVarint32(frame) != COMMIT_REQUESTS_TAG) {
+                    return false;
+                }
+                frame.readerIndex(readLimit(frame));
+            }
+            return true;
+        } catch (InvalidProtocolBufferException e) {
+            return false; // Let the protobuf decoder deal with it
+        } finally {
+            frame.readerIndex(start);
+        }
+    }
+
+    /**
+     * @return the length of the commit request field, tag and length included, starting at the index of a frame
+     *         previously checked with isMultiCommitRequest(). The slice it delimits can be read as a frame with a
+     *         single commit request
+     */
+    static int commitRequestLength(ChannelBuffer frame, int index) {
+        int start = frame.readerIndex();
+        try {
+            frame.readerIndex(index);
+            readRawVarint32(frame); // Commit requests tag
+            return readLimit(frame) - index;
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Multi commit request frame was not validated before reading it", e);
+        } finally {
+            frame.readerIndex(start);
+        }
+    }
+
+    /**
+     * Validates a commit request frame and keeps its start timestamp, retry flag and number of cells.
+     * The frame must have been checked with isCommitRequest() before.
+     */
+    void scan(ChannelBuffer frame) throws InvalidProtocolBufferException {
+        int start = frame.readerIndex();
+        try {
+            skipRequestHeader(frame);
+            long startTimestamp = 0L;
+            boolean isRetry = false;
+            int numCellIds = 0;
+            while (frame.readable()) {
+                int tag = readRawVarint32(frame);
+                if (tag == CELL_ID_TAG) {
+                    readRawVarint64(frame);
+                    numCellIds++;
+                } else if (tag == PACKED_CELL_ID_TAG) {
+                    int end = readLimit(frame);
+                    while (frame.readerIndex() < end) {
+                        readRawVarint64(frame);
+                        numCellIds++;
+                    }
+                    if (frame.readerIndex() != end) {
+                        throw new InvalidProtocolBufferException("Packed cell ids overflow their length");
+                    }
+                } else if (tag == PACKED_FIXED64_CELL_ID_TAG) {
+                    int end = readLimit(frame);
+                    int length = end - frame.readerIndex();
+                    if (length % 8 != 0) {
+                        throw new InvalidProtocolBufferException("Packed fixed64 cell ids length " + length);
+                    }
+                    frame.readerIndex(end);
+                    numCellIds += length / 8;
+                } else if (tag == FIXED64_CELL_ID_TAG) {
+                    skipBytes(frame, 8);
+                    numCellIds++;
+                } else if (tag == START_TIMESTAMP_TAG) {
+                    startTimestamp = readRawVarint64(frame);
+                } else if (tag == IS_RETRY_TAG) {
+                    isRetry = readRawVarint64(frame) != 0;
+                } else {
+                    skipField(frame, tag);
+                }
+            }
+            this.startTimestamp = startTimestamp;
+            this.isRetry = isRetry;
+            this.numCellIds = numCellIds;
+        } finally {
+            frame.readerIndex(start);
+        }
+    }
+
+    long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    boolean isRetry() {
+        return isRetry;
+    }
+
+    int getNumCellIds() {
+        return numCellIds;
+    }
+
+    /**
+     * Copies the cell ids of a frame previously validated with scan() into the array passed, which must have room
+     * for all of them.
+     *
+     * @return the number of cell ids copied
+     */
+    static int readCellIds(ChannelBuffer frame, long[] cellIds) {
+        int start = frame.readerIndex();
+        try {
+            skipRequestHeader(frame);
+            int numCellIds = 0;
+            while (frame.readable()) {
+                int tag = readRawVarint32(frame);
+                if (tag == CELL_ID_TAG) {
+                    cellIds[numCellIds++] = readRawVarint64(frame);
+                } else if (tag == PACKED_CELL_ID_TAG) {
+                    int end = readLimit(frame);
+                    while (frame.readerIndex() < end) {
+                        cellIds[numCellIds++] = readRawVarint64(frame);
+                    }
+                } else if (tag == PACKED_FIXED64_CELL_ID_TAG) {
+                    int end = readLimit(frame);
+                    for (int index = frame.readerIndex(); index < end; index += 8) {
+                        cellIds[numCellIds++] = Long.reverseBytes(frame.getLong(index));
+                    }
+                    frame.readerIndex(end);
+                } else if (tag == FIXED64_CELL_ID_TAG) {
+                    cellIds[numCellIds++] = Long.reverseBytes(frame.readLong());
+                } else {
+                    skipField(frame, tag);
+                }
+            }
+            return numCellIds;
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Commit request frame was not validated before reading its cells", e);
+        } finally {
+            frame.readerIndex(start);
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Wire format helpers
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private static int tag(int fieldNumber, int wireType) {
+        return (fieldNumber << 3) | wireType;
+    }
+
+    private static void skipRequestHeader(ChannelBuffer frame) throws InvalidProtocolBufferException {
+        readRawVarint32(frame); // Commit request tag
+        readRawVarint32(frame); // Commit request length, which spans until the end of the frame
+    }
+
+    private static int readLimit(ChannelBuffer frame) throws InvalidProtocolBufferException {
+        int length = readRawVarint32(frame);
+        if (length < 0 || length > frame.readableBytes()) {
+            throw new InvalidProtocolBufferException("Truncated commit request");
+        }
+        return frame.readerIndex() + length;
+    }
+
+    private static void skipField(ChannelBuffer frame, int tag) throws InvalidProtocolBufferException {
+        switch (tag & 0x7) {
+            case WIRETYPE_VARINT:
+                readRawVarint64(frame);
+                break;
+            case WIRETYPE_FIXED64:
+                skipBytes(frame, 8);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                frame.readerIndex(readLimit(frame));
+                break;
+            case WIRETYPE_FIXED32:
+                skipBytes(frame, 4);
+                break;
+            case WIRETYPE_START_GROUP:
+            case WIRETYPE_END_GROUP:
+            default:
+                throw new InvalidProtocolBufferException("Unexpected wire type in commit request tag " + tag);
+        }
+    }
+
+    private static void skipBytes(ChannelBuffer frame, int numBytes) throws InvalidProtocolBufferException {
+        if (frame.readableBytes() < numBytes) {
+            throw new InvalidProtocolBufferException("Truncated commit request");
+        }
+        frame.skipBytes(numBytes);
+    }
+
+    private static int readRawVarint32(ChannelBuffer frame) throws InvalidProtocolBufferException {
+        return (int) readRawVarint64(frame);
+    }
+
+    private static long readRawVarint64(ChannelBuffer frame) throws InvalidProtocolBufferException {
+        long result = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!frame.readable()) {
+                throw new InvalidProtocolBufferException("Truncated commit request");
+            }
+            byte b = frame.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new InvalidProtocolBufferException("Malformed varint in commit request");
+    }
+
+}
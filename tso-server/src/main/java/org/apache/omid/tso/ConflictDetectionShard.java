@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.lmax.disruptor.EventHandler;
+import org.apache.omid.tso.RequestProcessorImpl.RequestEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns a partition of the cell id space and performs the write-write conflict detection of the commit requests
+ * for the cells in that partition. Each shard runs in its own thread and keeps its own ConflictMap.
+ *
+ * Shards see the commit requests in the order they were published in the request ring. The ones whose write set
+ * falls in a single shard are resolved by that shard without any coordination. When the write set spans several
+ * shards, each of them checks its own cells, publishes the result in the event and waits for the rest of the shards
+ * involved before updating its map, so the map is only updated if the transaction commits in all of them. As every
+ * shard follows the ring order and only waits for shards involved in the same request, this can't deadlock.
+ *
+ * Commit timestamps are assigned to the requests in ring order before reaching the shards, and the outcome of the
+ * conflict detection is handed to the persistence processor in ring order too (see RequestProcessorImpl), so
+ * timestamps remain totally ordered.
+ *
+ * Evictions from the conflict map raise either a low watermark shared by all the shards or, when configured with
+ * several low watermark segments, only the low watermark of the segment of the cell evicted (see
+ * LowWatermarkSegments). As each segment is private to the shard, both the segmented low watermarks and the
+ * conflict map are checked in ring order.
+ *
+ * The commits replicated from the master when this instance is a hot standby (see StateReplicator) were already
+ * checked by the master, so each shard just records them.
+ */
+class ConflictDetectionShard implements EventHandler<RequestEvent> {
+
+    static final int MAX_SHARDS = Long.SIZE; // Shards involved in a request are kept in a long bitmask
+
+    private final int shardId;
+    private final int numShards;
+    private final long shardBit;
+    private final ConflictMap hashmap;
+
+    // Largest commit timestamp evicted so far in any shard. Used to abort early the transactions that will
+    // be rejected anyway by the low watermark check in the request processor. With segmented low watermarks,
+    // it only holds the low watermark the TSO started with
+    private final AtomicLong lowWatermarkHint;
+
+    private final LowWatermarkSegments lowWatermarkSegments; // null when there's a single low watermark
+
+    private volatile boolean stopped = false;
+
+    ConflictDetectionShard(int shardId,
+                           int numShards,
+                           ConflictMap conflictMap,
+                           AtomicLong lowWatermarkHint,
+                           int numLowWatermarkSegments) {
+        this.shardId = shardId;
+        this.numShards = numShards;
+        this.shardBit = 1L << shardId;
+        this.hashmap = conflictMap;
+        this.lowWatermarkHint = lowWatermarkHint;
+        this.lowWatermarkSegments =
+                numLowWatermarkSegments > 1 ? new LowWatermarkSegments(numLowWatermarkSegments) : null;
+    }
+
+    /**
+     * @return the shard that owns the cell id passed. Cell ids are mixed before choosing the shard so that they are
+     *         spread evenly among the shards regardless of how the clients generate them
+     */
+    static int shardOf(long cellId, int numShards) {
+        long mixed = cellId * 0x9E3779B97F4A7C15L;
+        return (int) ((mixed >>> 32) % numShards);
+    }
+
+    @Override
+    public void onEvent(RequestEvent event, long sequence, boolean endOfBatch) throws Exception {
+
+        if (event.getType() == RequestEvent.Type.REPLICATED_COMMIT) {
+            if ((event.getShardMask() & shardBit) != 0) {
+                recordCommit(event);
+            }
+            return;
+        }
+        if (event.getType() != RequestEvent.Type.COMMIT || (event.getShardMask() & shardBit) == 0) {
+            return;
+        }
+
+        long startTimestamp = event.getStartTimestamp();
+        long[] writeSet = event.getWriteSet();
+        int numCells = event.getNumCells();
+
+        // 1. check the low watermark and the write-write conflicts in our shard
+        boolean txCanCommit = true;
+        if (startTimestamp <= lowWatermarkHint.get()) {
+            event.markLowWatermarkAbort();
+            txCanCommit = false;
+        }
+        for (int i = 0; txCanCommit && i < numCells; i++) {
+            long cellId = writeSet[i];
+            if (isOwned(cellId)) {
+                if (lowWatermarkSegments != null && startTimestamp <= lowWatermarkSegments.get(cellId)) {
+                    event.markLowWatermarkAbort();
+                    txCanCommit = false;
+                    break;
+                }
+                long value = hashmap.getLatestWriteForCell(cellId);
+                if (value != 0 && value >= startTimestamp) {
+                    event.markConflict();
+                    txCanCommit = false;
+                }
+            }
+        }
+
+        // 2. agree on the outcome with the rest of the shards involved, if any
+        if (event.isCrossShard()) {
+            event.shardChecked();
+            while (!event.allShardsChecked()) {
+                if (stopped) {
+                    return;
+                }
+                Thread.yield();
+            }
+            txCanCommit = !event.isAborted();
+        }
+
+        // 3. record the commit in our shard
+        if (txCanCommit) {
+            recordCommit(event);
+        }
+
+    }
+
+    private void recordCommit(RequestEvent event) {
+
+        long[] writeSet = event.getWriteSet();
+        int numCells = event.getNumCells();
+        long commitTimestamp = event.getTimestamp();
+        long maxEvicted = 0L;
+        for (int i = 0; i < numCells; i++) {
+            if (isOwned(writeSet[i])) {
+                long removed = hashmap.putLatestWriteForCell(writeSet[i], commitTimestamp);
+                if (removed != 0 && lowWatermarkSegments != null) {
+                    lowWatermarkSegments.evicted(hashmap.getLastEvictedCell(), removed);
+                }
+                maxEvicted = Math.max(removed, maxEvicted);
+            }
+        }
+        if (maxEvicted > 0) {
+            event.evicted(maxEvicted);
+            if (lowWatermarkSegments == null) {
+                raiseLowWatermarkHint(maxEvicted);
+            }
+        }
+
+    }
+
+    /**
+     * Releases the thread if it's waiting for other shards. Called when the request processor is closed
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    int getShardId() {
+        return shardId;
+    }
+
+    /**
+     * @return the low watermark below which any transaction writing in this shard is aborted. Only meaningful with
+     *         segmented low watermarks. Can be called from any thread
+     */
+    long getMinimumLowWatermark() {
+        return lowWatermarkSegments != null ? lowWatermarkSegments.getMinimum() : lowWatermarkHint.get();
+    }
+
+    private boolean isOwned(long cellId) {
+        return numShards == 1 || shardOf(cellId, numShards) == shardId;
+    }
+
+    private void raiseLowWatermarkHint(long evicted) {
+        long current = lowWatermarkHint.get();
+        while (evicted > current && !lowWatermarkHint.compareAndSet(current, evicted)) {
+            current = lowWatermarkHint.get();
+        }
+    }
+
+}
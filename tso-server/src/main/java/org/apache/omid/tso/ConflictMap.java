@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+/**
+ * Stores the mapping between a particular cell id and the commit timestamp of the last transaction that changed it,
+ * which is what the TSO uses to detect write-write conflicts.
+ *
+ * Implementations have a fixed capacity, so adding a cell may evict another one. The commit timestamp of the evicted
+ * cell is returned to the caller so it can raise the low watermark accordingly. Implementations are not thread safe.
+ */
+interface ConflictMap {
+
+    /**
+     * @return the commit timestamp of the last transaction that wrote the cell, or 0 if it is not in the map
+     */
+    long getLatestWriteForCell(long cellId);
+
+    /**
+     * Records the commit timestamp of the last transaction that wrote the cell
+     *
+     * @return the commit timestamp of the cell evicted to make room for this one, or 0 if none was evicted
+     */
+    long putLatestWriteForCell(long cellId, long commitTimestamp);
+
+    /**
+     * @return the id of the cell evicted by the last call to putLatestWriteForCell() that evicted something
+     */
+    long getLastEvictedCell();
+
+}
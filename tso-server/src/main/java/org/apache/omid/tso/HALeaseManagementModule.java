@@ -73,6 +73,7 @@ public class HALeaseManagementModule extends AbstractModule {
     LeaseManagement provideLeaseManager(@Named(TSO_HOST_AND_PORT_KEY) String tsoHostAndPort,
                                         TSOChannelHandler tsoChannelHandler,
                                         TSOStateManager stateManager,
+                                        StateReplicator stateReplicator,
                                         CuratorFramework zkClient,
                                         Panicker panicker) throws LeaseManagementException {
 
@@ -81,6 +82,7 @@ public class HALeaseManagementModule extends AbstractModule {
         return new LeaseManager(tsoHostAndPort,
                                 tsoChannelHandler,
                                 stateManager,
+                                stateReplicator,
                                 leasePeriodInMs,
                                 tsoLeasePath,
                                 currentTsoPath,
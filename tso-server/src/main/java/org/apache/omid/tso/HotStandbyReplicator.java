@@ -0,0 +1,680 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.omid.committable.CommitTable;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Replicates the conflict detection state of the master TSO to a hot standby through a TCP connection.
+ *
+ * The standby connects to the replication port of the instance configured as its peer and, as soon as the master
+ * ends the batch of requests it's handling, it gets subscribed. The subscription carries the largest timestamp
+ * handed out by the master so far (S). From then on, the master sends the standby every commit it decides, in
+ * commit timestamp order, at the end of each batch of requests, and the standby applies them to its conflict map
+ * through its request processor. The standby only misses the commits with commit timestamps up to S, so when it
+ * takes over it can use S (or the low watermark of the master, if greater) as its low watermark. Only the
+ * transactions that started before it are aborted, instead of all the transactions in flight.
+ *
+ * The master doesn't persist a commit until the standby acknowledges it, so a commit that clients may consider
+ * done is always known by a warm standby. When the standby doesn't acknowledge in time or disconnects, it's
+ * dropped and the master renews its lease before persisting anything else, if the standby could have seen the
+ * current version of the lease node. All the frames sent carry the version of the lease node of the master, and the
+ * standby only takes over warm if the version of the lease node it took over is the last one it got from the
+ * master. Otherwise it can't tell whether it missed some commit and it takes over from scratch, as without a
+ * standby.
+ *
+ * Limitations: a single standby is served at a time (a new subscription replaces the previous one) and a master that
+ * doesn't receive any request doesn't subscribe the standbys waiting.
+ */
+class HotStandbyReplicator implements StateReplicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HotStandbyReplicator.class);
+
+    // Frames from the master to the standby
+    static final byte SUBSCRIBED = 1;  // subscription timestamp (long), lease version (int)
+    static final byte UPDATES = 2;     // last commit timestamp (long), lease version (int), # updates (int), updates
+    static final byte HEARTBEAT = 3;   // lease version (int)
+    // Frames from the standby to the master
+    static final byte ACK = 4;         // last commit timestamp applied (long)
+
+    // Updates in an UPDATES frame
+    static final byte COMMIT_UPDATE = 1;         // commit timestamp (long), # cells (int), cell ids (long[])
+    static final byte LOW_WATERMARK_UPDATE = 2;  // low watermark (long)
+
+    private static final int MAX_FRAME_SIZE = 1 << 30;
+    private static final int MAX_PENDING_UPDATES_SIZE = 1 << 20;
+    private static final long HEARTBEAT_PERIOD_IN_MS = 100L;
+    private static final long RECONNECTION_DELAY_IN_MS = 1000L;
+
+    private final int port;
+    private final HostAndPort peer;
+    private final long ackTimeoutInMs;
+    private final Provider<RequestProcessor> requestProcessorProvider;
+    private final CommitTable commitTable;
+
+    private final ScheduledExecutorService scheduler;
+    private final ChannelFactory serverFactory;
+    private final ChannelFactory clientFactory;
+
+    private volatile Lease lease = null;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Master side state
+    // ----------------------------------------------------------------------------------------------------------------
+
+    // Only accessed by the request processor thread
+    private ChannelBuffer pendingUpdates = ChannelBuffers.dynamicBuffer();
+    private int numPendingUpdates = 0;
+    private long lastPendingCommitTimestamp = 0L;
+
+    private volatile boolean serving = false;
+    private volatile boolean replicating = false; // whether there's a standby attached
+    private Channel listeningChannel = null;
+
+    // Guarded by this
+    private Channel subscriber = null; // Connected, waiting for the next flush to get subscribed
+    private Channel standby = null;
+    private long ackedCommitTimestamp = 0L;
+    private int standbyLeaseVersion = NO_LEASE_VERSION; // The last lease version sent to the standby attached
+    private int fencedLeaseVersion = NO_LEASE_VERSION;  // The lease must go beyond it before persisting more commits
+
+    private final Object renewalLock = new Object();
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Standby side state. Guarded by this
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private boolean following = false;
+    private Channel masterChannel = null;
+    private boolean subscribed = false;
+    private long warmLowWatermark = -1L;
+    private int masterLeaseVersion = NO_LEASE_VERSION;
+    private long[] cellIds = new long[64];
+
+    @Inject
+    HotStandbyReplicator(TSOServerConfig config,
+                         Provider<RequestProcessor> requestProcessorProvider,
+                         CommitTable commitTable) {
+
+        Preconditions.checkArgument(config.getHotStandbyAckTimeoutInMs() > 0, "Hot standby ack timeout must be > 0");
+        this.port = config.getHotStandbyPort();
+        String peerHostAndPort = config.getHotStandbyPeer();
+        this.peer = peerHostAndPort == null || peerHostAndPort.isEmpty() ? null : HostAndPort.fromString(peerHostAndPort);
+        this.ackTimeoutInMs = config.getHotStandbyAckTimeoutInMs();
+        this.requestProcessorProvider = requestProcessorProvider;
+        this.commitTable = commitTable;
+
+        ThreadFactory schedulerThreadFactory = new ThreadFactoryBuilder().setNameFormat("hot-standby-%d").build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(schedulerThreadFactory);
+        ThreadFactory bossThreadFactory = new ThreadFactoryBuilder().setNameFormat("hot-standby-boss-%d").build();
+        ThreadFactory workerThreadFactory = new ThreadFactoryBuilder().setNameFormat("hot-standby-worker-%d").build();
+        this.serverFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(bossThreadFactory),
+                                                               Executors.newCachedThreadPool(workerThreadFactory), 1);
+        this.clientFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(bossThreadFactory),
+                                                               Executors.newCachedThreadPool(workerThreadFactory), 1);
+
+        LOG.info("Hot standby replication initialized. Port {}, peer {}", port, peer);
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Master side
+    // ----------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public void replicateCommit(long commitTimestamp, long[] writeSet, int numCells) {
+
+        if (!replicating) {
+            return; // Any standby subscribed later won't need it
+        }
+        pendingUpdates.writeByte(COMMIT_UPDATE);
+        pendingUpdates.writeLong(commitTimestamp);
+        pendingUpdates.writeInt(numCells);
+        for (int i = 0; i < numCells; i++) {
+            pendingUpdates.writeLong(writeSet[i]);
+        }
+        numPendingUpdates++;
+        lastPendingCommitTimestamp = commitTimestamp;
+        if (pendingUpdates.readableBytes() >= MAX_PENDING_UPDATES_SIZE) {
+            sendPendingUpdates();
+        }
+
+    }
+
+    @Override
+    public void replicateLowWatermark(long lowWatermark) {
+
+        if (!replicating) {
+            return;
+        }
+        pendingUpdates.writeByte(LOW_WATERMARK_UPDATE);
+        pendingUpdates.writeLong(lowWatermark);
+        numPendingUpdates++;
+
+    }
+
+    @Override
+    public void flush(long lastTimestamp) {
+
+        if (!serving) {
+            return;
+        }
+        sendPendingUpdates();
+        synchronized (this) {
+            if (subscriber != null) {
+                subscribe(lastTimestamp);
+            }
+        }
+
+    }
+
+    @Override
+    public void awaitReplicated(long commitTimestamp) throws Exception {
+
+        if (commitTimestamp <= 0) {
+            return; // No commits to persist
+        }
+        long deadlineInMs = System.currentTimeMillis() + ackTimeoutInMs;
+        while (true) {
+            int leaseVersionToExceed;
+            synchronized (this) {
+                leaseVersionToExceed = fencedLeaseVersion;
+                if (!isFenced()) {
+                    if (standby == null || ackedCommitTimestamp >= commitTimestamp) {
+                        return;
+                    }
+                    long waitInMs = deadlineInMs - System.currentTimeMillis();
+                    if (waitInMs > 0) {
+                        wait(waitInMs);
+                    } else {
+                        LOG.warn("Hot standby {} didn't acknowledge commit {} in {}ms. Dropping it",
+                                 standby, commitTimestamp, ackTimeoutInMs);
+                        drop(standby);
+                    }
+                    continue;
+                }
+            }
+            renewLeaseBeyond(leaseVersionToExceed);
+        }
+
+    }
+
+    @Override
+    public void sendPendingUpdates() {
+
+        if (numPendingUpdates == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (standby != null) {
+                ChannelBuffer header = ChannelBuffers.buffer(17);
+                header.writeByte(UPDATES);
+                header.writeLong(lastPendingCommitTimestamp);
+                header.writeInt(sentLeaseVersion());
+                header.writeInt(numPendingUpdates);
+                standby.write(ChannelBuffers.wrappedBuffer(header, pendingUpdates));
+                pendingUpdates = ChannelBuffers.dynamicBuffer();
+            } else {
+                pendingUpdates.clear();
+            }
+        }
+        numPendingUpdates = 0;
+
+    }
+
+    @VisibleForTesting
+    boolean hasStandby() {
+        return replicating;
+    }
+
+    // Must be called holding the lock of this
+    private void subscribe(long subscriptionTimestamp) {
+
+        if (standby != null) {
+            drop(standby);
+        }
+        standby = subscriber;
+        subscriber = null;
+        ackedCommitTimestamp = subscriptionTimestamp; // The standby won't need any of the commits decided before
+        replicating = true;
+        ChannelBuffer frame = ChannelBuffers.buffer(13);
+        frame.writeByte(SUBSCRIBED);
+        frame.writeLong(subscriptionTimestamp);
+        frame.writeInt(sentLeaseVersion());
+        standby.write(frame);
+        LOG.info("Hot standby {} subscribed at timestamp {}", standby, subscriptionTimestamp);
+
+    }
+
+    // Must be called holding the lock of this
+    private void drop(Channel channel) {
+
+        if (channel == standby) {
+            fencedLeaseVersion = Math.max(standbyLeaseVersion, fencedLeaseVersion);
+            standby = null;
+            replicating = false;
+            notifyAll();
+        } else if (channel == subscriber) {
+            subscriber = null;
+        }
+        channel.close();
+
+    }
+
+    // Must be called holding the lock of this
+    private int sentLeaseVersion() {
+        if (lease != null) {
+            standbyLeaseVersion = lease.getVersion();
+        }
+        return standbyLeaseVersion;
+    }
+
+    // Must be called holding the lock of this
+    private boolean isFenced() {
+        return lease != null && fencedLeaseVersion != NO_LEASE_VERSION && lease.getVersion() <= fencedLeaseVersion;
+    }
+
+    private void renewLeaseBeyond(int leaseVersion) throws Exception {
+
+        synchronized (renewalLock) { // Only the first handler renews, the rest see the new version
+            if (lease.getVersion() <= leaseVersion) {
+                LOG.info("Renewing lease (Ver. {}) as the hot standby dropped may have seen it", leaseVersion);
+                lease.renew();
+            }
+        }
+
+    }
+
+    private void sendHeartbeat() {
+
+        synchronized (this) {
+            if (standby != null) {
+                ChannelBuffer frame = ChannelBuffers.buffer(5);
+                frame.writeByte(HEARTBEAT);
+                frame.writeInt(sentLeaseVersion());
+                standby.write(frame);
+            }
+        }
+
+    }
+
+    private synchronized void standbyConnected(Channel channel) {
+
+        if (!serving) {
+            channel.close();
+            return;
+        }
+        if (subscriber != null) {
+            drop(subscriber);
+        }
+        subscriber = channel;
+        LOG.info("Hot standby {} connected. Waiting for the next batch to subscribe it", channel);
+
+    }
+
+    private synchronized void acknowledged(Channel channel, long commitTimestamp) {
+
+        if (channel == standby && commitTimestamp > ackedCommitTimestamp) {
+            ackedCommitTimestamp = commitTimestamp;
+            notifyAll();
+        }
+
+    }
+
+    private synchronized void standbyDisconnected(Channel channel) {
+
+        if (channel == standby || channel == subscriber) {
+            LOG.warn("Hot standby {} disconnected", channel);
+            drop(channel);
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Standby side
+    // ----------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public void startFollowing(Lease lease) {
+
+        this.lease = lease;
+        if (peer == null) {
+            return;
+        }
+        synchronized (this) {
+            following = true;
+        }
+        connectToMaster();
+
+    }
+
+    @Override
+    public long takeOver() throws Exception {
+
+        long lowWatermark = -1L;
+        synchronized (this) {
+            following = false;
+            if (masterChannel != null) {
+                masterChannel.close();
+            }
+            int previousMasterLeaseVersion = lease != null ? lease.getPreviousMasterVersion() : NO_LEASE_VERSION;
+            if (subscribed && previousMasterLeaseVersion != NO_LEASE_VERSION
+                    && masterLeaseVersion == previousMasterLeaseVersion) {
+                // The low watermark persisted by the previous master may be ahead of the last one we got
+                try (CommitTable.Client commitTableClient = commitTable.getClient()) {
+                    lowWatermark = Math.max(commitTableClient.readLowWatermark().get(), warmLowWatermark);
+                }
+                LOG.info("Taking over warm from the previous master (Lease Ver. {}) with LWM {}",
+                         previousMasterLeaseVersion, lowWatermark);
+            } else {
+                LOG.info("Taking over from scratch. Lease Ver. {} of the previous master was {} (subscribed: {})",
+                         previousMasterLeaseVersion, masterLeaseVersion, subscribed);
+            }
+        }
+        startServing();
+        return lowWatermark;
+
+    }
+
+    private void connectToMaster() {
+
+        ClientBootstrap bootstrap = new ClientBootstrap(clientFactory);
+        bootstrap.setPipelineFactory(new ReplicationPipelineFactory(new MasterHandler()));
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("keepAlive", true);
+        bootstrap.connect(new InetSocketAddress(peer.getHostText(), peer.getPort()))
+                .addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) {
+                        if (!future.isSuccess()) {
+                            LOG.debug("Can't connect to the hot standby peer {}", peer, future.getCause());
+                            scheduleReconnection();
+                        }
+                    }
+                });
+
+    }
+
+    private synchronized void masterConnected(Channel channel) {
+
+        if (!following) {
+            channel.close();
+            return;
+        }
+        masterChannel = channel;
+        LOG.info("Following master {}", peer);
+
+    }
+
+    private synchronized void masterDisconnected(Channel channel) {
+
+        if (channel == masterChannel) {
+            masterChannel = null;
+            LOG.info("Connection to master {} lost", peer);
+            scheduleReconnection();
+        }
+
+    }
+
+    private synchronized void scheduleReconnection() {
+
+        if (following) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    connectToMaster();
+                }
+            }, RECONNECTION_DELAY_IN_MS, MILLISECONDS);
+        }
+
+    }
+
+    @VisibleForTesting
+    synchronized void received(Channel channel, ChannelBuffer frame) {
+
+        if (!following || channel != masterChannel) {
+            return;
+        }
+        byte type = frame.readByte();
+        switch (type) {
+            case SUBSCRIBED:
+                warmLowWatermark = frame.readLong();
+                masterLeaseVersion = frame.readInt();
+                subscribed = true;
+                LOG.info("Subscribed to master {} at timestamp {}", peer, warmLowWatermark);
+                break;
+            case UPDATES:
+                long lastCommitTimestamp = frame.readLong();
+                masterLeaseVersion = Math.max(frame.readInt(), masterLeaseVersion);
+                applyUpdates(frame, frame.readInt());
+                ChannelBuffer ack = ChannelBuffers.buffer(9);
+                ack.writeByte(ACK);
+                ack.writeLong(lastCommitTimestamp);
+                channel.write(ack);
+                break;
+            case HEARTBEAT:
+                masterLeaseVersion = Math.max(frame.readInt(), masterLeaseVersion);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected hot standby frame type " + type);
+        }
+
+    }
+
+    private void applyUpdates(ChannelBuffer frame, int numUpdates) {
+
+        RequestProcessor requestProcessor = requestProcessorProvider.get();
+        for (int i = 0; i < numUpdates; i++) {
+            byte type = frame.readByte();
+            switch (type) {
+                case COMMIT_UPDATE:
+                    long commitTimestamp = frame.readLong();
+                    int numCells = frame.readInt();
+                    if (cellIds.length < numCells) {
+                        cellIds = new long[numCells];
+                    }
+                    for (int j = 0; j < numCells; j++) {
+                        cellIds[j] = frame.readLong();
+                    }
+                    requestProcessor.replicatedCommit(commitTimestamp, cellIds, numCells);
+                    break;
+                case LOW_WATERMARK_UPDATE:
+                    warmLowWatermark = Math.max(frame.readLong(), warmLowWatermark);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected hot standby update type " + type);
+            }
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void startServing() {
+
+        if (port <= 0) {
+            return;
+        }
+        ServerBootstrap bootstrap = new ServerBootstrap(serverFactory);
+        bootstrap.setPipelineFactory(new ReplicationPipelineFactory(new StandbyHandler()));
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("child.keepAlive", true);
+        bootstrap.setOption("reuseAddress", true);
+        serving = true;
+        listeningChannel = bootstrap.bind(new InetSocketAddress(port));
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sendHeartbeat();
+            }
+        }, HEARTBEAT_PERIOD_IN_MS, HEARTBEAT_PERIOD_IN_MS, MILLISECONDS);
+        LOG.info("Serving hot standbys in port {}", port);
+
+    }
+
+    @Override
+    public void close() {
+
+        synchronized (this) {
+            following = false;
+            serving = false;
+            if (masterChannel != null) {
+                masterChannel.close().awaitUninterruptibly();
+            }
+            if (standby != null) {
+                drop(standby);
+            }
+            if (subscriber != null) {
+                drop(subscriber);
+            }
+        }
+        if (listeningChannel != null) {
+            listeningChannel.close().awaitUninterruptibly();
+        }
+        scheduler.shutdownNow();
+        serverFactory.releaseExternalResources();
+        clientFactory.releaseExternalResources();
+        LOG.info("Hot standby replication closed");
+
+    }
+
+    private static class ReplicationPipelineFactory implements ChannelPipelineFactory {
+
+        private final ChannelHandler handler;
+
+        ReplicationPipelineFactory(ChannelHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() {
+            ChannelPipeline pipeline = Channels.pipeline();
+            pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE, 0, 4, 0, 4));
+            pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
+            pipeline.addLast("handler", handler);
+            return pipeline;
+        }
+
+    }
+
+    /**
+     * Handles the connections of the standbys to the master
+     */
+    @ChannelHandler.Sharable
+    private class StandbyHandler extends SimpleChannelHandler {
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            standbyConnected(ctx.getChannel());
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            standbyDisconnected(ctx.getChannel());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            ChannelBuffer frame = (ChannelBuffer) e.getMessage();
+            byte type = frame.readByte();
+            if (type == ACK) {
+                acknowledged(ctx.getChannel(), frame.readLong());
+            } else {
+                LOG.error("Unexpected frame type {} from hot standby {}", type, ctx.getChannel());
+                ctx.getChannel().close();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            LOG.warn("Error in connection with hot standby {}", ctx.getChannel(), e.getCause());
+            ctx.getChannel().close();
+        }
+
+    }
+
+    /**
+     * Handles the connection of the standby to the master
+     */
+    @ChannelHandler.Sharable
+    private class MasterHandler extends SimpleChannelHandler {
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            masterConnected(ctx.getChannel());
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            masterDisconnected(ctx.getChannel());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            received(ctx.getChannel(), (ChannelBuffer) e.getMessage());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            if (ctx.getChannel().isConnected()) {
+                LOG.warn("Error in connection with master {}", peer, e.getCause());
+            }
+            ctx.getChannel().close();
+        }
+
+    }
+
+}
@@ -42,8 +42,11 @@ import java.util.concurrent.atomic.AtomicLong;
  * It delegates the initialization of the TSO state and the publication of
  * the instance information when getting the lease to an asynchronous task to
  * continue managing the leases without interruptions.
+ * While it doesn't have the lease, the instance follows the master through the
+ * StateReplicator, which relies on the versions of the lease node to tell if
+ * the state it got from the previous master is complete.
  */
-class LeaseManager extends AbstractScheduledService implements LeaseManagement {
+class LeaseManager extends AbstractScheduledService implements LeaseManagement, StateReplicator.Lease {
 
     private static final Logger LOG = LoggerFactory.getLogger(LeaseManager.class);
 
@@ -68,7 +71,9 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
 
     private final long leasePeriodInMs;
     private final TSOChannelHandler tsoChannelHandler;
-    private int leaseNodeVersion;
+    private final StateReplicator stateReplicator;
+    private volatile int leaseNodeVersion;
+    private volatile int previousMasterLeaseNodeVersion = StateReplicator.NO_LEASE_VERSION;
     private final AtomicLong endLeaseInMs = new AtomicLong(0L);
     private final AtomicLong baseTimeInMs = new AtomicLong(0L);
 
@@ -83,10 +88,24 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
                  String currentTSOPath,
                  CuratorFramework zkClient,
                  Panicker panicker) {
+        this(tsoHostAndPort, tsoChannelHandler, stateManager, new VoidStateReplicator(), leasePeriodInMs, leasePath,
+             currentTSOPath, zkClient, panicker);
+    }
+
+    LeaseManager(String tsoHostAndPort,
+                 TSOChannelHandler tsoChannelHandler,
+                 TSOStateManager stateManager,
+                 StateReplicator stateReplicator,
+                 long leasePeriodInMs,
+                 String leasePath,
+                 String currentTSOPath,
+                 CuratorFramework zkClient,
+                 Panicker panicker) {
 
         this.tsoHostAndPort = tsoHostAndPort;
         this.tsoChannelHandler = tsoChannelHandler;
         this.stateManager = stateManager;
+        this.stateReplicator = stateReplicator;
         this.leasePeriodInMs = leasePeriodInMs;
         this.leasePath = leasePath;
         this.currentTSOPath = currentTSOPath;
@@ -121,9 +140,34 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
     // End LeaseManagement implementation
     // ----------------------------------------------------------------------------------------------------------------
 
+    // ----------------------------------------------------------------------------------------------------------------
+    // StateReplicator.Lease implementation
+    // ----------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public int getVersion() {
+        return leaseNodeVersion;
+    }
+
+    @Override
+    public int getPreviousMasterVersion() {
+        return previousMasterLeaseNodeVersion;
+    }
+
+    @Override
+    public void renew() throws Exception {
+        tryToRenewLeasePeriod();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // End StateReplicator.Lease implementation
+    // ----------------------------------------------------------------------------------------------------------------
+
     void tryToGetInitialLeasePeriod() throws Exception {
         baseTimeInMs.set(System.currentTimeMillis());
+        int lastLeaseNodeVersion = leaseNodeVersion;
         if (canAcquireLease()) {
+            previousMasterLeaseNodeVersion = lastLeaseNodeVersion;
             endLeaseInMs.set(baseTimeInMs.get() + leasePeriodInMs);
             LOG.info("{} got the lease (Master) Ver. {}/End of lease: {}ms", tsoHostAndPort,
                      leaseNodeVersion, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(endLeaseInMs));
@@ -153,7 +197,8 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
         }
     }
 
-    void tryToRenewLeasePeriod() throws Exception {
+    // Synchronized as the StateReplicator may renew the lease too
+    synchronized void tryToRenewLeasePeriod() throws Exception {
         baseTimeInMs.set(System.currentTimeMillis());
         if (canAcquireLease()) {
             if (System.currentTimeMillis() > getEndLeaseInMs()) {
@@ -199,6 +244,7 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
 
     @Override
     protected void startUp() {
+        stateReplicator.startFollowing(this);
     }
 
     @Override
@@ -22,6 +22,7 @@ public class LongCache {
     private final long[] cache;
     private final int size;
     private final int associativity;
+    private long lastEvictedKey;
 
     public LongCache(int size, int associativity) {
         this.size = size;
@@ -45,11 +46,18 @@ public class LongCache {
                 oldestIndex = currIndex;
             }
         }
+        if (oldestValue != 0) {
+            lastEvictedKey = cache[oldestIndex];
+        }
         cache[oldestIndex] = key;
         cache[oldestIndex + 1] = value;
         return oldestValue;
     }
 
+    public long getLastEvictedKey() {
+        return lastEvictedKey;
+    }
+
     public long get(long key) {
         final int index = index(key);
         for (int i = 0; i < associativity; ++i) {
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps a low watermark per segment of the cell id space instead of a single one for the whole conflict map.
+ *
+ * When the conflict map evicts a cell, only the low watermark of the segment that cell belongs to is raised. A
+ * transaction then has to be aborted because of the low watermark only if one of the cells it writes belongs to a
+ * segment whose low watermark is not below its start timestamp, as only then one of its cells could have been
+ * evicted after it started. Transactions touching other segments can still be checked against the conflict map.
+ *
+ * The minimum of the low watermarks of all the segments is maintained incrementally and can be read from other
+ * threads. Any transaction that started before it will be aborted whatever the cells it writes, so it is the low
+ * watermark that can be safely published to the rest of the system. Apart from getMinimum(), instances are not
+ * thread safe.
+ */
+class LowWatermarkSegments {
+
+    private final long[] lowWatermarks;
+    private final int segmentShift;
+
+    private long minimum = 0L;
+    private int numSegmentsAtMinimum;
+    private volatile long publishedMinimum = 0L;
+
+    /**
+     * @param numSegments number of segments. Must be a power of two greater than one
+     */
+    LowWatermarkSegments(int numSegments) {
+        Preconditions.checkArgument(numSegments > 1 && Integer.bitCount(numSegments) == 1,
+                                    "# of low watermark segments must be a power of two greater than one");
+        this.lowWatermarks = new long[numSegments];
+        this.segmentShift = Long.SIZE - Integer.numberOfTrailingZeros(numSegments);
+        this.numSegmentsAtMinimum = numSegments;
+    }
+
+    /**
+     * @return the low watermark of the segment the cell belongs to
+     */
+    long get(long cellId) {
+        return lowWatermarks[segmentOf(cellId)];
+    }
+
+    /**
+     * Raises the low watermark of the segment the cell evicted belongs to
+     */
+    void evicted(long cellId, long commitTimestamp) {
+
+        int segment = segmentOf(cellId);
+        long previous = lowWatermarks[segment];
+        if (commitTimestamp <= previous) {
+            return;
+        }
+        lowWatermarks[segment] = commitTimestamp;
+
+        // Segments only move up, so the minimum can only change when the last segment at it is raised
+        if (previous == minimum && --numSegmentsAtMinimum == 0) {
+            recomputeMinimum();
+        }
+
+    }
+
+    /**
+     * @return the minimum of the low watermarks of all the segments. Can be called from any thread
+     */
+    long getMinimum() {
+        return publishedMinimum;
+    }
+
+    int getNumSegments() {
+        return lowWatermarks.length;
+    }
+
+    int segmentOf(long cellId) {
+        // Multiplicative hashing, independent of the one used to choose the conflict detection shard
+        return (int) ((cellId * 0xC2B2AE3D27D4EB4FL) >>> segmentShift);
+    }
+
+    private void recomputeMinimum() {
+
+        long newMinimum = Long.MAX_VALUE;
+        int count = 0;
+        for (long lowWatermark : lowWatermarks) {
+            if (lowWatermark < newMinimum) {
+                newMinimum = lowWatermark;
+                count = 1;
+            } else if (lowWatermark == newMinimum) {
+                count++;
+            }
+        }
+        minimum = newMinimum;
+        numSegmentsAtMinimum = count;
+        publishedMinimum = newMinimum;
+
+    }
+
+}
@@ -17,60 +17,140 @@
  */
 package org.apache.omid.tso;
 
-import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.NotThreadSafe;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import static org.apache.omid.metrics.MetricsUtils.name;
 
+/**
+ * Measures the time a request spends in each stage of the TSO pipeline.
+ *
+ * Only a sample of the requests is measured (see MonitoringContextFactory). The rest share NOT_SAMPLED, which ignores
+ * all the calls, so they neither allocate nor read the clock. A sampled request keeps the times of its stages in
+ * primitive arrays indexed by stage, and records them in the timers of the stages, registered beforehand, when it is
+ * published.
+ */
 @NotThreadSafe
 public class MonitoringContext {
 
     private static final Logger LOG = LoggerFactory.getLogger(MonitoringContext.class);
 
-    private volatile boolean flag;
-    private Map<String, Long> elapsedTimeMsMap = new ConcurrentHashMap<>();
-    private Map<String, Stopwatch> timers = new ConcurrentHashMap<>();
-    private MetricsRegistry metrics;
+    public enum Stage {
+
+        REQUEST_TIMESTAMP("request.processor.timestamp.latency"),
+        REQUEST_COMMIT("request.processor.commit.latency"),
+        PERSIST_TIMESTAMP("persistence.processor.timestamp.latency"),
+        PERSIST_COMMIT("persistence.processor.commit.latency"),
+        PERSIST_COMMIT_RETRY("persistence.processor.commit-retry.latency"),
+        PERSIST_ABORT("persistence.processor.abort.latency"),
+        RETRY_COMMIT_RETRY("retry.processor.commit-retry.latency"),
+        REPLY_TIMESTAMP("reply.processor.timestamp.latency"),
+        REPLY_COMMIT("reply.processor.commit.latency"),
+        REPLY_ABORT("reply.processor.abort.latency");
 
+        private final String timerName;
+
+        Stage(String timerName) {
+            this.timerName = timerName;
+        }
+
+        public String getTimerName() {
+            return timerName;
+        }
+
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    static final MonitoringContext NOT_SAMPLED = new MonitoringContext((Timer[]) null);
+
+    private final Timer[] stageTimers; // null when not sampled
+    private final long[] startTimesInNs;
+    private final long[] elapsedTimesInNs;
+    private int startedStages = 0; // Bit masks of stage ordinals
+    private int stoppedStages = 0;
+    private boolean published = false;
+
+    /**
+     * Creates a sampled context. The timers of the stages are looked up in the registry, so this is meant for the
+     * cases where contexts are not created for every request
+     */
     public MonitoringContext(MetricsRegistry metrics) {
-        this.metrics = metrics;
+        this(registerStageTimers(metrics));
+    }
+
+    MonitoringContext(Timer[] stageTimers) {
+        this.stageTimers = stageTimers;
+        this.startTimesInNs = stageTimers == null ? null : new long[STAGES.length];
+        this.elapsedTimesInNs = stageTimers == null ? null : new long[STAGES.length];
+    }
+
+    static Timer[] registerStageTimers(MetricsRegistry metrics) {
+
+        Timer[] stageTimers = new Timer[STAGES.length];
+        for (Stage stage : STAGES) {
+            stageTimers[stage.ordinal()] = metrics.timer(name("tso", stage.getTimerName()));
+        }
+        return stageTimers;
+
     }
 
-    public void timerStart(String name) {
-        Stopwatch stopwatch = new Stopwatch();
-        stopwatch.start();
-        timers.put(name, stopwatch);
+    public boolean isSampled() {
+        return stageTimers != null;
     }
 
-    public void timerStop(String name) {
-        if (flag) {
-            LOG.warn("timerStop({}) called after publish. Measurement was ignored. {}", name, Throwables.getStackTraceAsString(new Exception()));
+    public void timerStart(Stage stage) {
+
+        if (stageTimers == null) {
             return;
         }
-        Stopwatch activeStopwatch = timers.get(name);
-        if (activeStopwatch == null) {
+        startTimesInNs[stage.ordinal()] = System.nanoTime();
+        startedStages |= 1 << stage.ordinal();
+
+    }
+
+    public void timerStop(Stage stage) {
+
+        if (stageTimers == null) {
+            return;
+        }
+        if (published) {
+            LOG.warn("timerStop({}) called after publish. Measurement was ignored. {}",
+                     stage, Throwables.getStackTraceAsString(new Exception()));
+            return;
+        }
+        int stageBit = 1 << stage.ordinal();
+        if ((startedStages & stageBit) == 0) {
             throw new IllegalStateException(
-                    String.format("There is no %s timer in the %s monitoring context.", name, this));
+                    String.format("There is no %s timer in the %s monitoring context.", stage, this));
         }
-        activeStopwatch.stop();
-        elapsedTimeMsMap.put(name, activeStopwatch.elapsedTime(TimeUnit.NANOSECONDS));
-        timers.remove(name);
+        elapsedTimesInNs[stage.ordinal()] = System.nanoTime() - startTimesInNs[stage.ordinal()];
+        startedStages &= ~stageBit;
+        stoppedStages |= stageBit;
+
     }
 
+    /**
+     * Records the stages stopped so far. Only the first call of a context records anything, so a request published
+     * by several stages is measured once
+     */
     public void publish() {
-        flag = true;
-        for (Map.Entry<String, Long> entry : elapsedTimeMsMap.entrySet()) {
-            metrics.timer(name("tso", entry.getKey())).update(entry.getValue());
+
+        if (stageTimers == null || published) {
+            return;
         }
+        published = true;
+        for (Stage stage : STAGES) {
+            if ((stoppedStages & (1 << stage.ordinal())) != 0) {
+                stageTimers[stage.ordinal()].update(elapsedTimesInNs[stage.ordinal()]);
+            }
+        }
+
     }
 
 }
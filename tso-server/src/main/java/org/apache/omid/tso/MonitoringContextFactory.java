@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hands out the monitoring contexts of the requests received, measuring the stages of a random sample of them
+ */
+class MonitoringContextFactory {
+
+    private final Timer[] stageTimers;
+    private final double samplingRate;
+
+    MonitoringContextFactory(MetricsRegistry metrics, double samplingRate) {
+
+        Preconditions.checkArgument(samplingRate >= 0.0 && samplingRate <= 1.0,
+                                    "Sampling rate [%s] must be between 0 and 1", samplingRate);
+        this.stageTimers = MonitoringContext.registerStageTimers(metrics);
+        this.samplingRate = samplingRate;
+
+    }
+
+    MonitoringContext newContext() {
+
+        if (samplingRate > 0.0 && (samplingRate == 1.0 || ThreadLocalRandom.current().nextDouble() < samplingRate)) {
+            return new MonitoringContext(stageTimers);
+        }
+        return MonitoringContext.NOT_SAMPLED;
+
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * ConflictMap stored out of the Java heap, so it can hold hundreds of millions of cells without increasing the heap
+ * size or the GC pauses.
+ *
+ * The map is an open-addressing hash table split in buckets of 64 bytes, the size of a cache line, each one holding
+ * four (cell id, commit timestamp) pairs. Cell ids are mixed and masked with the number of buckets, which is a power
+ * of two, to locate their home bucket. The probing is bounded to PROBE_BUCKETS consecutive buckets: when the cell is
+ * not found and all their slots are in use, the entry with the oldest commit timestamp is evicted, as LongCache does.
+ * Empty slots are recognized by their commit timestamp being 0, so cell id 0 can be stored too.
+ *
+ * The probing window has the same 32 slots as the LongCache of CommitHashMap, so switching the map type doesn't make
+ * the evictions, and the low watermark aborts they cause, more frequent. The window is a run of consecutive memory
+ * either way, which the hardware prefetchers bring in after the first miss.
+ *
+ * The buckets are not aligned to cache lines, as the address of a direct buffer can't be known without the JDK
+ * internal classes, so buckets may straddle two lines and a probing window may touch one more line than if aligned.
+ *
+ * The buckets are allocated in several direct buffers because each buffer is limited to 2GB. Note that the memory
+ * reserved for direct buffers is capped by the -XX:MaxDirectMemorySize JVM option.
+ */
+class OffHeapConflictMap implements ConflictMap {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapConflictMap.class);
+
+    private static final int CACHE_LINE_SIZE = 64;
+    private static final int SLOT_SIZE = 2 * 8; // cell id + commit timestamp
+    static final int SLOTS_PER_BUCKET = CACHE_LINE_SIZE / SLOT_SIZE;
+    static final int PROBE_BUCKETS = 8;
+
+    private static final int BUCKET_SHIFT = 6; // log2(CACHE_LINE_SIZE)
+    private static final int MAX_SEGMENT_SHIFT = 30; // 1GB per direct buffer
+
+    private final ByteBuffer[] segments;
+    private final long bucketMask;
+    private final int bucketsPerSegmentShift;
+    private final long segmentBucketMask;
+
+    private long lastEvictedCell;
+
+    OffHeapConflictMap(long size) {
+
+        Preconditions.checkArgument(size > 0, "Illegal size: %s", size);
+
+        long numBuckets = Long.highestOneBit(Math.max(PROBE_BUCKETS, (size + SLOTS_PER_BUCKET - 1) / SLOTS_PER_BUCKET));
+        if (numBuckets * SLOTS_PER_BUCKET < size) {
+            numBuckets <<= 1;
+        }
+        this.bucketMask = numBuckets - 1;
+
+        int bucketsShift = Long.numberOfTrailingZeros(numBuckets);
+        this.bucketsPerSegmentShift = Math.min(bucketsShift, MAX_SEGMENT_SHIFT - BUCKET_SHIFT);
+        this.segmentBucketMask = (1L << bucketsPerSegmentShift) - 1;
+
+        int numSegments = (int) (numBuckets >>> bucketsPerSegmentShift);
+        int segmentSize = (1 << bucketsPerSegmentShift) << BUCKET_SHIFT;
+        this.segments = new ByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentSize).order(ByteOrder.nativeOrder());
+        }
+
+        LOG.info("Off-heap CellId -> CommitTS map created with [{}] buckets ({} elems/bucket) in {} segments",
+                 numBuckets, SLOTS_PER_BUCKET, numSegments);
+
+    }
+
+    @Override
+    public long getLatestWriteForCell(long cellId) {
+
+        long bucket = bucketOf(cellId);
+        for (int b = 0; b < PROBE_BUCKETS; b++) {
+            ByteBuffer segment = segment(bucket);
+            int offset = offset(bucket);
+            for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++, offset += SLOT_SIZE) {
+                long value = segment.getLong(offset + 8);
+                if (segment.getLong(offset) == cellId && value != 0) {
+                    return value;
+                }
+            }
+            bucket = (bucket + 1) & bucketMask;
+        }
+        return 0;
+
+    }
+
+    @Override
+    public long putLatestWriteForCell(long cellId, long commitTimestamp) {
+
+        long bucket = bucketOf(cellId);
+        ByteBuffer oldestSegment = null;
+        int oldestOffset = 0;
+        long oldestValue = Long.MAX_VALUE;
+        for (int b = 0; b < PROBE_BUCKETS; b++) {
+            ByteBuffer segment = segment(bucket);
+            int offset = offset(bucket);
+            for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++, offset += SLOT_SIZE) {
+                long value = segment.getLong(offset + 8);
+                if (segment.getLong(offset) == cellId && value != 0) {
+                    segment.putLong(offset + 8, commitTimestamp);
+                    return 0;
+                }
+                if (value < oldestValue) {
+                    oldestValue = value;
+                    oldestSegment = segment;
+                    oldestOffset = offset;
+                }
+            }
+            bucket = (bucket + 1) & bucketMask;
+        }
+        assert oldestSegment != null;
+        if (oldestValue != 0) {
+            lastEvictedCell = oldestSegment.getLong(oldestOffset);
+        }
+        oldestSegment.putLong(oldestOffset, cellId);
+        oldestSegment.putLong(oldestOffset + 8, commitTimestamp);
+        return oldestValue;
+
+    }
+
+    @Override
+    public long getLastEvictedCell() {
+        return lastEvictedCell;
+    }
+
+    long getNumBuckets() {
+        return bucketMask + 1;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Finalizer of the SplitMix64 generator. Spreads any pattern in the cell ids generated by the clients over all
+     * the bits, so the low ones can be used to choose the bucket
+     */
+    static long mix(long cellId) {
+        long z = cellId;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private long bucketOf(long cellId) {
+        return mix(cellId) & bucketMask;
+    }
+
+    private ByteBuffer segment(long bucket) {
+        return segments[(int) (bucket >>> bucketsPerSegmentShift)];
+    }
+
+    private int offset(long bucket) {
+        return (int) (bucket & segmentBucketMask) << BUCKET_SHIFT;
+    }
+
+}
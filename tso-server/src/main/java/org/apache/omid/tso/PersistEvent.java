@@ -33,6 +33,7 @@ public final class PersistEvent {
 
     private long startTimestamp = 0L;
     private long commitTimestamp = 0L;
+    private int numTimestamps = 1;
 
     void makePersistCommit(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext monCtx) {
 
@@ -64,8 +65,15 @@ public final class PersistEvent {
 
     void makePersistTimestamp(long startTimestamp, Channel c, MonitoringContext monCtx) {
 
+        makePersistTimestamps(startTimestamp, 1, c, monCtx);
+
+    }
+
+    void makePersistTimestamps(long startTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) {
+
         this.type = Type.TIMESTAMP;
         this.startTimestamp = startTimestamp;
+        this.numTimestamps = numTimestamps;
         this.channel = c;
         this.monCtx = monCtx;
 
@@ -101,6 +109,12 @@ public final class PersistEvent {
 
     }
 
+    int getNumTimestamps() {
+
+        return numTimestamps;
+
+    }
+
     @Override
     public String toString() {
         return Objects.toStringHelper(this)
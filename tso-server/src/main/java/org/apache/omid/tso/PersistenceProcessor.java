@@ -33,7 +33,27 @@ interface PersistenceProcessor extends Closeable {
 
     void addTimestampToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
 
+    /**
+     * Adds the consecutive timestamps handed out to a request of several timestamps, starting at startTimestamp
+     */
+    void addTimestampsToBatch(long startTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception;
+
     void triggerCurrentBatchFlush() throws Exception;
 
+    /**
+     * @return whether the deadline of the current batch has expired. Unlike the rest of methods, this one can be
+     *         called from any thread
+     */
+    boolean isCurrentBatchExpired();
+
+    /**
+     * @return whether any of the requests added to the batches may not have been replied yet. While there are none,
+     *         the timestamps handed out can be replied without going through a batch: all the commits are in the
+     *         commit table, so no transaction with a lower commit timestamp can be missing from their snapshot, and
+     *         no earlier reply to the same client can still be on its way through the reply processor
+     */
+    boolean hasPendingReplies();
+
     Future<Void> persistLowWatermark(long lowWatermark);
 }
@@ -17,6 +17,7 @@
  */
 package org.apache.omid.tso;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.lmax.disruptor.WorkHandler;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.Histogram;
@@ -30,6 +31,13 @@ import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
 import static com.codahale.metrics.MetricRegistry.name;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_COMMIT_RETRY;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSIST_TIMESTAMP;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_TIMESTAMP;
 import static org.apache.omid.tso.PersistEvent.Type.*;
 
 public class PersistenceProcessorHandler implements WorkHandler<PersistenceProcessorImpl.PersistBatchEvent> {
@@ -41,6 +49,7 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
 
     private final ReplyProcessor replyProcessor;
     private final RetryProcessor retryProcessor;
+    private final StateReplicator stateReplicator;
     private final CommitTable.Writer writer;
     final Panicker panicker;
 
@@ -48,6 +57,19 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
     private final Histogram batchSizeHistogram;
     private final Histogram flushedCommitEventsHistogram;
 
+    @VisibleForTesting
+    PersistenceProcessorHandler(MetricsRegistry metrics,
+                                String tsoHostAndPort,
+                                LeaseManagement leaseManager,
+                                CommitTable commitTable,
+                                ReplyProcessor replyProcessor,
+                                RetryProcessor retryProcessor,
+                                Panicker panicker)
+    throws InterruptedException, ExecutionException, IOException {
+        this(metrics, tsoHostAndPort, leaseManager, commitTable, replyProcessor, retryProcessor,
+             new VoidStateReplicator(), panicker);
+    }
+
     @Inject
     PersistenceProcessorHandler(MetricsRegistry metrics,
                                 String tsoHostAndPort,
@@ -55,6 +77,7 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
                                 CommitTable commitTable,
                                 ReplyProcessor replyProcessor,
                                 RetryProcessor retryProcessor,
+                                StateReplicator stateReplicator,
                                 Panicker panicker)
     throws InterruptedException, ExecutionException, IOException {
 
@@ -63,6 +86,7 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
         this.writer = commitTable.getWriter();
         this.replyProcessor = replyProcessor;
         this.retryProcessor = retryProcessor;
+        this.stateReplicator = stateReplicator;
         this.panicker = panicker;
 
         // Metrics in this component
@@ -79,21 +103,23 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
         Batch batch = batchEvent.getBatch();
         int numOfBatchedEvents = batch.getNumEvents();
         batchSizeHistogram.update(numOfBatchedEvents);
+        // The commits can't reach the commit table before the hot standby, if any, has them (see StateReplicator)
+        stateReplicator.awaitReplicated(getMaxCommitTimestamp(batch));
         for (int i=0; i < numOfBatchedEvents; i++) {
             PersistEvent event = batch.get(i);
             switch (event.getType()) {
                 case TIMESTAMP:
-                    event.getMonCtx().timerStop("persistence.processor.timestamp.latency");
+                    event.getMonCtx().timerStop(PERSIST_TIMESTAMP);
                     break;
                 case COMMIT:
                     writer.addCommittedTransaction(event.getStartTimestamp(), event.getCommitTimestamp());
                     commitEventsToFlush++;
                     break;
                 case COMMIT_RETRY:
-                    event.getMonCtx().timerStop("persistence.processor.commit-retry.latency");
+                    event.getMonCtx().timerStop(PERSIST_COMMIT_RETRY);
                     break;
                 case ABORT:
-                    event.getMonCtx().timerStop("persistence.processor.abort.latency");
+                    event.getMonCtx().timerStop(PERSIST_ABORT);
                     break;
                 default:
                     throw new IllegalStateException("Event not allowed in Persistent Processor Handler: " + event);
@@ -102,22 +128,23 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
 
         // Flush and send the responses back to the client. WARNING: Before sending the responses, first we need
         // to filter commit retries in the batch to disambiguate them.
-        flush(commitEventsToFlush);
+        long flushLatencyInNs = flush(commitEventsToFlush);
+        batch.setFlushLatencyInNs(commitEventsToFlush > 0 ? flushLatencyInNs : 0L); // Feeds the batch flush policy
         filterAndDissambiguateClientRetries(batch);
         for (int i=0; i < batch.getNumEvents(); i++) { // Just for statistics
             PersistEvent event = batch.get(i);
             switch (event.getType()) {
                 case TIMESTAMP:
-                    event.getMonCtx().timerStart("reply.processor.timestamp.latency");
+                    event.getMonCtx().timerStart(REPLY_TIMESTAMP);
                     break;
                 case COMMIT:
-                    event.getMonCtx().timerStop("persistence.processor.commit.latency");
-                    event.getMonCtx().timerStart("reply.processor.commit.latency");
+                    event.getMonCtx().timerStop(PERSIST_COMMIT);
+                    event.getMonCtx().timerStart(REPLY_COMMIT);
                     break;
                 case COMMIT_RETRY:
                     throw new IllegalStateException("COMMIT_RETRY events must be filtered before this step: " + event);
                 case ABORT:
-                    event.getMonCtx().timerStart("reply.processor.abort.latency");
+                    event.getMonCtx().timerStart(REPLY_ABORT);
                     break;
                 default:
                     throw new IllegalStateException("Event not allowed in Persistent Processor Handler: " + event);
@@ -127,20 +154,39 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
 
     }
 
-    void flush(int commitEventsToFlush) {
+    private static long getMaxCommitTimestamp(Batch batch) {
+
+        long maxCommitTimestamp = 0L;
+        for (int i = 0; i < batch.getNumEvents(); i++) {
+            PersistEvent event = batch.get(i);
+            if (event.getType() == COMMIT) {
+                maxCommitTimestamp = Math.max(event.getCommitTimestamp(), maxCommitTimestamp);
+            }
+        }
+        return maxCommitTimestamp;
+
+    }
+
+    /**
+     * @return the time taken by the commit table flush in ns
+     */
+    long flush(int commitEventsToFlush) {
 
+        long flushLatencyInNs = 0L;
         commitSuicideIfNotMaster();
         try {
             long startFlushTimeInNs = System.nanoTime();
             if(commitEventsToFlush > 0) {
                 writer.flush();
             }
-            flushTimer.update(System.nanoTime() - startFlushTimeInNs);
+            flushLatencyInNs = System.nanoTime() - startFlushTimeInNs;
+            flushTimer.update(flushLatencyInNs);
             flushedCommitEventsHistogram.update(commitEventsToFlush);
         } catch (IOException e) {
             panicker.panic("Error persisting commit batch", e);
         }
         commitSuicideIfNotMaster();
+        return flushLatencyInNs;
 
     }
 
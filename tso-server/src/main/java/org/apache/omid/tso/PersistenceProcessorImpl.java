@@ -26,8 +26,8 @@ import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.committable.CommitTable;
+import org.apache.omid.metrics.Gauge;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.Timer;
 import org.jboss.netty.channel.Channel;
@@ -57,9 +57,11 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     private final Disruptor<PersistBatchEvent> disruptor;
     private final RingBuffer<PersistBatchEvent> persistRing;
 
-    private final ObjectPool<Batch> batchPool;
+    private final BatchPool batchPool;
+    private final StateReplicator stateReplicator;
     @VisibleForTesting
     Batch currentBatch;
+    private final BatchFlushPolicy flushPolicy;
 
     // TODO Next two need to be either int or AtomicLong
     volatile private long batchSequence;
@@ -70,11 +72,24 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     private MetricsRegistry metrics;
     private final Timer lwmWriteTimer;
 
+    @VisibleForTesting
+    PersistenceProcessorImpl(TSOServerConfig config,
+                             WaitStrategy strategy,
+                             CommitTable commitTable,
+                             BatchPool batchPool,
+                             Panicker panicker,
+                             PersistenceProcessorHandler[] handlers,
+                             MetricsRegistry metrics)
+            throws Exception {
+        this(config, strategy, commitTable, batchPool, new VoidStateReplicator(), panicker, handlers, metrics);
+    }
+
     @Inject
     PersistenceProcessorImpl(TSOServerConfig config,
                              @Named("PersistenceStrategy") WaitStrategy strategy,
                              CommitTable commitTable,
-                             ObjectPool<Batch> batchPool,
+                             BatchPool batchPool,
+                             StateReplicator stateReplicator,
                              Panicker panicker,
                              PersistenceProcessorHandler[] handlers,
                              MetricsRegistry metrics)
@@ -100,13 +115,25 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
         this.lowWatermarkWriter = commitTable.getWriter();
         this.batchSequence = 0L;
         this.batchPool = batchPool;
+        this.stateReplicator = stateReplicator;
         this.currentBatch = batchPool.borrowObject();
+        this.flushPolicy = new BatchFlushPolicy(config.getBatchSizePerCTWriter(),
+                                                config.getNumConcurrentCTWriters(),
+                                                config.getBatchPersistTimeoutInMs(),
+                                                config.getBatchLatencyTargetInMs(),
+                                                System.nanoTime());
         // Low Watermark writer
         ThreadFactoryBuilder lwmThreadFactory = new ThreadFactoryBuilder().setNameFormat("lwm-writer-%d");
         this.lowWatermarkWriterExecutor = Executors.newSingleThreadExecutor(lwmThreadFactory.build());
 
         // Metrics config
         this.lwmWriteTimer = metrics.timer(name("tso", "lwmWriter", "latency"));
+        metrics.gauge(name("tso", "persist", "batch", "effective", "size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return flushPolicy.getBatchSize();
+            }
+        });
 
         LOG.info("PersistentProcessor initialized");
 
@@ -118,11 +145,43 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
         if (currentBatch.isEmpty()) {
             return;
         }
+        int numEvents = currentBatch.getNumEvents();
+        // The handler persisting the batch waits for the standby to acknowledge its commits, so they must be sent
+        // now. Waiting for the end of the batch of requests would stall the handlers when this thread blocks below
+        // waiting for a free batch
+        stateReplicator.sendPendingUpdates();
         long seq = persistRing.next();
         PersistBatchEvent e = persistRing.get(seq);
         makePersistBatch(e, batchSequence++, currentBatch);
         persistRing.publish(seq);
+        flushPolicy.batchFlushed(numEvents, System.nanoTime());
         currentBatch = batchPool.borrowObject();
+        // The batch comes back from the pool with the latency of the commit table flush it went through
+        flushPolicy.flushLatency(currentBatch.getFlushLatencyInNs());
+
+    }
+
+    @Override
+    public boolean isCurrentBatchExpired() {
+        return flushPolicy.isExpired(System.nanoTime());
+    }
+
+    @Override
+    public boolean hasPendingReplies() {
+        // The batches go back to the pool once their replies have been sent, so only the current one is borrowed
+        // when there are none pending
+        return !currentBatch.isEmpty() || batchPool.getNumInFlight() > 1;
+    }
+
+    private void flushCurrentBatchIfComplete() throws Exception {
+
+        int numEvents = currentBatch.getNumEvents();
+        if (numEvents == 1) {
+            flushPolicy.batchOpened(System.nanoTime());
+        }
+        if (currentBatch.isFull() || flushPolicy.isComplete(numEvents)) {
+            triggerCurrentBatchFlush();
+        }
 
     }
 
@@ -131,18 +190,14 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
             throws Exception {
 
         currentBatch.addCommit(startTimestamp, commitTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfComplete();
 
     }
 
     @Override
     public void addCommitRetryToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
         currentBatch.addCommitRetry(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfComplete();
     }
 
     @Override
@@ -150,9 +205,7 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
             throws Exception {
 
         currentBatch.addAbort(startTimestamp, c, context);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfComplete();
 
     }
 
@@ -160,9 +213,16 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     public void addTimestampToBatch(long startTimestamp, Channel c, MonitoringContext context) throws Exception {
 
         currentBatch.addTimestamp(startTimestamp, c, context);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfComplete();
+
+    }
+
+    @Override
+    public void addTimestampsToBatch(long startTimestamp, int numTimestamps, Channel c, MonitoringContext context)
+            throws Exception {
+
+        currentBatch.addTimestamps(startTimestamp, numTimestamps, c, context);
+        flushCurrentBatchIfComplete();
 
     }
 
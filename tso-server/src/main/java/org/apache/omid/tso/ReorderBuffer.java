@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hands out items in the order of their sequences, keeping the ones that arrive before their turn.
+ *
+ * Items are kept in a ring indexed by their sequence, so keeping an item and handing it out take constant time, and
+ * when items arrive in order, checking whether the next one is already there is a single array read. The ring grows
+ * when an item arrives further ahead of the next sequence than its capacity. Not thread safe
+ */
+class ReorderBuffer<T> {
+
+    private Object[] ring;
+    private int mask;
+    private long nextSequence = 0L;
+    private int size = 0;
+
+    ReorderBuffer(int initialCapacity) {
+        Preconditions.checkArgument(initialCapacity > 0 && Integer.bitCount(initialCapacity) == 1,
+                                    "Capacity [%s] must be a power of 2", initialCapacity);
+        this.ring = new Object[initialCapacity];
+        this.mask = initialCapacity - 1;
+    }
+
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    boolean isNext(long sequence) {
+        return sequence == nextSequence;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Keeps an item that arrived before its turn
+     */
+    void put(long sequence, T item) {
+
+        Preconditions.checkArgument(sequence > nextSequence, "Sequence %s is not ahead of %s", sequence, nextSequence);
+        while (sequence - nextSequence >= ring.length) {
+            grow();
+        }
+        int slot = (int) (sequence & mask);
+        Preconditions.checkState(ring[slot] == null, "Sequence %s is already kept", sequence);
+        ring[slot] = item;
+        size++;
+
+    }
+
+    /**
+     * Moves to the next sequence after handling the item of the current one
+     */
+    void advance() {
+        nextSequence++;
+    }
+
+    /**
+     * @return the item of the next sequence, moving past it, or null if it has not arrived yet
+     */
+    @SuppressWarnings("unchecked")
+    T pollNext() {
+
+        int slot = (int) (nextSequence & mask);
+        Object item = ring[slot];
+        if (item == null) {
+            return null;
+        }
+        ring[slot] = null;
+        size--;
+        nextSequence++;
+        return (T) item;
+
+    }
+
+    private void grow() {
+
+        Object[] newRing = new Object[ring.length * 2];
+        int newMask = newRing.length - 1;
+        for (long sequence = nextSequence; sequence < nextSequence + ring.length; sequence++) {
+            newRing[(int) (sequence & newMask)] = ring[(int) (sequence & mask)];
+        }
+        ring = newRing;
+        mask = newMask;
+
+    }
+
+}
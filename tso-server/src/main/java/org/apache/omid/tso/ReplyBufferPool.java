@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.base.Preconditions;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Recycles the buffers the responses are encoded in before writing them to the channels.
+ *
+ * Netty keeps a reference to the buffer written until the write completes, so a buffer goes back to the pool from
+ * the listener of its write, whether it succeeded or not, instead of right after handing it to the channel. Buffers
+ * are borrowed and returned from any thread. When no buffer is idle, a new one is created, and the buffers returned
+ * when the pool is full, or grown beyond MAX_RETAINED_BUFFER_SIZE by the responses of a big batch, are left to the GC.
+ */
+class ReplyBufferPool {
+
+    static final int INITIAL_BUFFER_SIZE = 256;
+    static final int MAX_RETAINED_BUFFER_SIZE = 1 << 14;
+
+    private final BlockingQueue<ReplyBuffer> idleBuffers;
+
+    ReplyBufferPool(int maxIdleBuffers) {
+        Preconditions.checkArgument(maxIdleBuffers > 0, "Max idle buffers [%s] must be positive", maxIdleBuffers);
+        this.idleBuffers = new ArrayBlockingQueue<>(maxIdleBuffers);
+    }
+
+    ReplyBuffer borrowBuffer() {
+        ReplyBuffer buffer = idleBuffers.poll();
+        return buffer != null ? buffer : new ReplyBuffer(this);
+    }
+
+    int getNumIdle() {
+        return idleBuffers.size();
+    }
+
+    private void returnBuffer(ReplyBuffer buffer) {
+        if (buffer.getBuffer().capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+            buffer.getBuffer().clear();
+            idleBuffers.offer(buffer);
+        }
+    }
+
+    static class ReplyBuffer implements ChannelFutureListener {
+
+        private final ReplyBufferPool pool;
+        private final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(INITIAL_BUFFER_SIZE);
+
+        private ReplyBuffer(ReplyBufferPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * The buffer to append the framed responses to
+         */
+        ChannelBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Writes the responses appended to the channel. Neither this object nor its buffer can be used after
+         */
+        void writeTo(Channel c) {
+            c.write(buffer).addListener(this);
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            pool.returnBuffer(this);
+        }
+
+    }
+
+}
@@ -23,6 +23,11 @@ import java.io.Closeable;
 
 interface ReplyProcessor extends Closeable {
 
+    /**
+     * Commit timestamp given to sendCommitRetryResponses() for the transactions to send an abort response to
+     */
+    long ABORTED = -1L;
+
     /**
      * The each reply to a transactional operation for a client is contained in a batch. The batch must be ordered
      * before sending the replies in order to not to break snapshot isolation properties.
@@ -56,16 +61,33 @@ interface ReplyProcessor extends Closeable {
      */
     void sendAbortResponse(long startTimestamp, Channel channel);
 
+    /**
+     * Allows to send the responses to a group of commit retries back to the clients, with a single write per channel.
+     *
+     * @param numResponses
+     *            the number of responses to send, from the first position of the arrays
+     * @param startTimestamps
+     *            the start timestamps representing the tx identifiers that are going to receive the responses
+     * @param commitTimestamps
+     *            the commit timestamp of each transaction, or ABORTED to send it an abort response
+     * @param channels
+     *            the channel used to send each response back to the client
+     */
+    void sendCommitRetryResponses(int numResponses, long[] startTimestamps, long[] commitTimestamps,
+                                  Channel[] channels);
+
     /**
      * Allow to send a timestamp response back to the client.
      *
      * @param startTimestamp
      *            the start timestamp to return that will represent the tx identifier for the created transaction
+     * @param numTimestamps
+     *            the number of consecutive timestamps handed out from startTimestamp
      * @param channel
      *            the channel used to send the response back to the client
      */
 
-    void sendTimestampResponse(long startTimestamp, Channel channel);
+    void sendTimestampResponse(long startTimestamp, int numTimestamps, Channel channel);
 
 }
 
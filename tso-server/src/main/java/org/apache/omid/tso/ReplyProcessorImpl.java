@@ -18,6 +18,7 @@
 package org.apache.omid.tso;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -27,25 +28,43 @@ import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.metrics.Meter;
 import org.apache.omid.metrics.MetricsRegistry;
-import org.apache.omid.proto.TSOProto;
+import org.apache.omid.tso.ReplyBufferPool.ReplyBuffer;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Comparator;
-import java.util.PriorityQueue;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.lmax.disruptor.dsl.ProducerType.MULTI;
+import static com.lmax.disruptor.dsl.ProducerType.SINGLE;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_TIMESTAMP;
 import static org.apache.omid.tso.ReplyProcessorImpl.ReplyBatchEvent.EVENT_FACTORY;
 
+/**
+ * Sends the responses of the batches flushed by the persistence processor.
+ *
+ * Batches arrive from the persistence handlers in any order, but their responses are released in batch sequence
+ * order, so no start timestamp is sent before the commits of earlier batches are in the commit table. The reply-0
+ * thread puts the batches back in order. With a single reply thread, it also sends the responses. With more, it
+ * hands the ordered batches to the reply shards, which send the responses in parallel, each one for the channels
+ * assigned to it, so the responses to each client still go out in order. The last shard done with a batch returns
+ * it to the pool.
+ *
+ * The responses are encoded in buffers recycled through a ReplyBufferPool, so sending them doesn't allocate a new
+ * buffer per channel and batch, or per response sent on its own. The responses to the commit retries resolved
+ * together are grouped by channel too.
+ */
 class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEvent>, ReplyProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(ReplyProcessorImpl.class);
@@ -55,13 +74,21 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     private final Disruptor<ReplyBatchEvent> disruptor;
     private final RingBuffer<ReplyBatchEvent> replyRing;
 
-    private final ObjectPool<Batch> batchPool;
+    private static final int MAX_IDLE_REPLY_BUFFERS = 1024;
 
-    @VisibleForTesting
-    AtomicLong nextIDToHandle = new AtomicLong();
+    private final BatchPool batchPool;
+    private final ReplyBufferPool replyBufferPool = new ReplyBufferPool(MAX_IDLE_REPLY_BUFFERS);
 
     @VisibleForTesting
-    PriorityQueue<ReplyBatchEvent> futureEvents;
+    final ReorderBuffer<ReplyBatchEvent> futureEvents = new ReorderBuffer<>(16);
+
+    // Reply shards. Batches are handed to them through the shard ring only when there are several
+    private final ReplyShard[] shards;
+
+    // Responses to the commit retries, grouped by channel. Guarded by itself
+    private final ChannelReplies retryReplies = new ChannelReplies();
+    private final Disruptor<ReplyBatchEvent> shardDisruptor;
+    private final RingBuffer<ReplyBatchEvent> shardRing;
 
     // Metrics
     private final Meter abortMeter;
@@ -70,63 +97,110 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
 
     @Inject
     ReplyProcessorImpl(@Named("ReplyStrategy") WaitStrategy strategy,
-            MetricsRegistry metrics, Panicker panicker, ObjectPool<Batch> batchPool) {
+            MetricsRegistry metrics, Panicker panicker, BatchPool batchPool, TSOServerConfig config) {
+        this(strategy, metrics, panicker, batchPool, config.getNumReplyThreads());
+    }
+
+    @VisibleForTesting
+    ReplyProcessorImpl(WaitStrategy strategy, MetricsRegistry metrics, Panicker panicker, BatchPool batchPool) {
+        this(strategy, metrics, panicker, batchPool, 1);
+    }
+
+    ReplyProcessorImpl(WaitStrategy strategy,
+                       MetricsRegistry metrics,
+                       Panicker panicker,
+                       BatchPool batchPool,
+                       int numShards) {
+
+        Preconditions.checkArgument(numShards >= 1, "# of reply threads [%s] must be positive", numShards);
+
+        // ------------------------------------------------------------------------------------------------------------
+        // Attribute initialization
+        // ------------------------------------------------------------------------------------------------------------
+
+        this.batchPool = batchPool;
+        this.shards = new ReplyShard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new ReplyShard(i);
+        }
 
         // ------------------------------------------------------------------------------------------------------------
         // Disruptor initialization
         // ------------------------------------------------------------------------------------------------------------
 
         ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setNameFormat("reply-%d");
-        this.disruptorExec = Executors.newSingleThreadExecutor(threadFactory.build());
+        int numThreads = numShards == 1 ? 1 : numShards + 1;
+        this.disruptorExec = Executors.newFixedThreadPool(numThreads, threadFactory.build());
 
         this.disruptor = new Disruptor<>(EVENT_FACTORY, 1 << 12, disruptorExec, MULTI, strategy);
         disruptor.handleExceptionsWith(new FatalExceptionHandler(panicker));
         disruptor.handleEventsWith(this);
         this.replyRing = disruptor.start();
 
-        // ------------------------------------------------------------------------------------------------------------
-        // Attribute initialization
-        // ------------------------------------------------------------------------------------------------------------
-
-        this.batchPool = batchPool;
-        this.nextIDToHandle.set(0);
-        this.futureEvents = new PriorityQueue<>(10, new Comparator<ReplyBatchEvent>() {
-            public int compare(ReplyBatchEvent replyBatchEvent1, ReplyBatchEvent replyBatchEvent2) {
-                return Long.compare(replyBatchEvent1.getBatchSequence(), replyBatchEvent2.getBatchSequence());
-            }
-        });
+        if (numShards == 1) {
+            this.shardDisruptor = null;
+            this.shardRing = null;
+        } else {
+            this.shardDisruptor = new Disruptor<>(EVENT_FACTORY, 1 << 12, disruptorExec, SINGLE, strategy);
+            shardDisruptor.handleExceptionsWith(new FatalExceptionHandler(panicker));
+            shardDisruptor.handleEventsWith(shards);
+            this.shardRing = shardDisruptor.start();
+        }
 
         // Metrics config
         this.abortMeter = metrics.meter(name("tso", "aborts"));
         this.commitMeter = metrics.meter(name("tso", "commits"));
         this.timestampMeter = metrics.meter(name("tso", "timestampAllocation"));
 
-        LOG.info("ReplyProcessor initialized");
+        LOG.info("ReplyProcessor initialized with {} reply shard(s)", numShards);
 
     }
 
+    /**
+     * Called with the batches in batch sequence order
+     */
     @VisibleForTesting
     void handleReplyBatchEvent(ReplyBatchEvent replyBatchEvent) throws Exception {
 
         Batch batch = replyBatchEvent.getBatch();
+        if (shardRing == null) {
+            sendReplies(batch, shards[0]);
+            batchPool.returnObject(batch);
+            return;
+        }
+
+        long seq = shardRing.next();
+        ReplyBatchEvent e = shardRing.get(seq);
+        ReplyBatchEvent.makeReplyBatch(e, batch, replyBatchEvent.getBatchSequence());
+        e.pendingShards.set(shards.length);
+        shardRing.publish(seq);
+
+    }
+
+    private void sendReplies(Batch batch, ReplyShard shard) {
+
         for (int i = 0; i < batch.getNumEvents(); i++) {
             PersistEvent event = batch.get(i);
+            if (shards.length > 1 && shardOf(event.getChannel()) != shard.id) {
+                continue;
+            }
+            ChannelBuffer replies = shard.repliesFor(event.getChannel());
 
             switch (event.getType()) {
                 case COMMIT:
-                    sendCommitResponse(event.getStartTimestamp(), event.getCommitTimestamp(), event.getChannel());
-                    event.getMonCtx().timerStop("reply.processor.commit.latency");
+                    addCommitResponse(event.getStartTimestamp(), event.getCommitTimestamp(), replies);
+                    event.getMonCtx().timerStop(REPLY_COMMIT);
                     commitMeter.mark();
                     break;
                 case ABORT:
-                    sendAbortResponse(event.getStartTimestamp(), event.getChannel());
-                    event.getMonCtx().timerStop("reply.processor.abort.latency");
+                    addAbortResponse(event.getStartTimestamp(), replies);
+                    event.getMonCtx().timerStop(REPLY_ABORT);
                     abortMeter.mark();
                     break;
                 case TIMESTAMP:
-                    sendTimestampResponse(event.getStartTimestamp(), event.getChannel());
-                    event.getMonCtx().timerStop("reply.processor.timestamp.latency");
-                    timestampMeter.mark();
+                    addTimestampResponse(event.getStartTimestamp(), event.getNumTimestamps(), replies);
+                    event.getMonCtx().timerStop(REPLY_TIMESTAMP);
+                    timestampMeter.mark(event.getNumTimestamps());
                     break;
                 case COMMIT_RETRY:
                     throw new IllegalStateException("COMMIT_RETRY events must be filtered before this step: " + event);
@@ -136,18 +210,12 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
             event.getMonCtx().publish();
         }
 
-        batchPool.returnObject(batch);
+        shard.writeReplies();
 
     }
 
-    private void processWaitingEvents() throws Exception {
-
-        while (!futureEvents.isEmpty() && futureEvents.peek().getBatchSequence() == nextIDToHandle.get()) {
-            ReplyBatchEvent e = futureEvents.poll();
-            handleReplyBatchEvent(e);
-            nextIDToHandle.incrementAndGet();
-        }
-
+    private int shardOf(Channel c) {
+        return c == null ? 0 : (c.hashCode() & Integer.MAX_VALUE) % shards.length;
     }
 
     public void onEvent(ReplyBatchEvent event, long sequence, boolean endOfBatch) throws Exception {
@@ -157,17 +225,20 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
         // while commit smaller than still does not appear in the commit table.
 
         // If previous events were not processed yet (events contain smaller id)
-        if (event.getBatchSequence() > nextIDToHandle.get()) {
-            futureEvents.add(event);
+        if (!futureEvents.isNext(event.getBatchSequence())) {
+            futureEvents.put(event.getBatchSequence(), event);
             return;
         }
 
         handleReplyBatchEvent(event);
 
-        nextIDToHandle.incrementAndGet();
+        futureEvents.advance();
 
         // Process events that arrived before and kept in futureEvents.
-        processWaitingEvents();
+        ReplyBatchEvent waitingEvent;
+        while ((waitingEvent = futureEvents.pollNext()) != null) {
+            handleReplyBatchEvent(waitingEvent);
+        }
 
     }
 
@@ -181,48 +252,82 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
 
     }
 
+    @VisibleForTesting
+    void addCommitResponse(long startTimestamp, long commitTimestamp, ChannelBuffer replies) {
+        ResponseEncoder.writeCommitResponse(replies, startTimestamp, commitTimestamp);
+    }
+
+    @VisibleForTesting
+    void addAbortResponse(long startTimestamp, ChannelBuffer replies) {
+        ResponseEncoder.writeAbortResponse(replies, startTimestamp);
+    }
+
+    @VisibleForTesting
+    void addTimestampResponse(long startTimestamp, int numTimestamps, ChannelBuffer replies) {
+        ResponseEncoder.writeTimestampResponse(replies, startTimestamp, numTimestamps);
+    }
+
     @Override
     public void sendCommitResponse(long startTimestamp, long commitTimestamp, Channel c) {
 
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.CommitResponse.Builder commitBuilder = TSOProto.CommitResponse.newBuilder();
-        commitBuilder.setAborted(false)
-                .setStartTimestamp(startTimestamp)
-                .setCommitTimestamp(commitTimestamp);
-        builder.setCommitResponse(commitBuilder.build());
-        c.write(builder.build());
+        ReplyBuffer reply = replyBufferPool.borrowBuffer();
+        ResponseEncoder.writeCommitResponse(reply.getBuffer(), startTimestamp, commitTimestamp);
+        reply.writeTo(c);
 
     }
 
     @Override
     public void sendAbortResponse(long startTimestamp, Channel c) {
 
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.CommitResponse.Builder commitBuilder = TSOProto.CommitResponse.newBuilder();
-        commitBuilder.setAborted(true);
-        commitBuilder.setStartTimestamp(startTimestamp);
-        builder.setCommitResponse(commitBuilder.build());
-        c.write(builder.build());
+        ReplyBuffer reply = replyBufferPool.borrowBuffer();
+        ResponseEncoder.writeAbortResponse(reply.getBuffer(), startTimestamp);
+        reply.writeTo(c);
+
+    }
+
+    @Override
+    public void sendCommitRetryResponses(int numResponses, long[] startTimestamps, long[] commitTimestamps,
+                                         Channel[] channels) {
+
+        synchronized (retryReplies) {
+            for (int i = 0; i < numResponses; i++) {
+                ChannelBuffer replies = retryReplies.repliesFor(channels[i]);
+                if (commitTimestamps[i] == ABORTED) {
+                    addAbortResponse(startTimestamps[i], replies);
+                } else {
+                    addCommitResponse(startTimestamps[i], commitTimestamps[i], replies);
+                }
+            }
+            retryReplies.writeReplies();
+        }
 
     }
 
     @Override
-    public void sendTimestampResponse(long startTimestamp, Channel c) {
+    public void sendTimestampResponse(long startTimestamp, int numTimestamps, Channel c) {
 
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.TimestampResponse.Builder respBuilder = TSOProto.TimestampResponse.newBuilder();
-        respBuilder.setStartTimestamp(startTimestamp);
-        builder.setTimestampResponse(respBuilder.build());
-        c.write(builder.build());
+        ReplyBuffer reply = replyBufferPool.borrowBuffer();
+        ResponseEncoder.writeTimestampResponse(reply.getBuffer(), startTimestamp, numTimestamps);
+        reply.writeTo(c);
+        timestampMeter.mark(numTimestamps);
 
     }
 
+    @VisibleForTesting
+    ReplyBufferPool getReplyBufferPool() {
+        return replyBufferPool;
+    }
+
     @Override
     public void close() {
 
         LOG.info("Terminating Reply Processor...");
         disruptor.halt();
         disruptor.shutdown();
+        if (shardDisruptor != null) {
+            shardDisruptor.halt();
+            shardDisruptor.shutdown();
+        }
         LOG.info("\tReply Processor Disruptor shutdown");
         disruptorExec.shutdownNow();
         try {
@@ -236,10 +341,66 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
 
     }
 
+    /**
+     * Responses framed and grouped by channel, so each channel gets a single write when they are written
+     */
+    private class ChannelReplies {
+
+        private final Map<Channel, ReplyBuffer> pendingReplies = new IdentityHashMap<>();
+
+        ChannelBuffer repliesFor(Channel c) {
+
+            ReplyBuffer replies = pendingReplies.get(c);
+            if (replies == null) {
+                replies = replyBufferPool.borrowBuffer();
+                pendingReplies.put(c, replies);
+            }
+            return replies.getBuffer();
+
+        }
+
+        void writeReplies() {
+
+            for (Map.Entry<Channel, ReplyBuffer> channelReplies : pendingReplies.entrySet()) {
+                channelReplies.getValue().writeTo(channelReplies.getKey());
+            }
+            pendingReplies.clear();
+
+        }
+
+    }
+
+    /**
+     * Sends the responses of the batches to the channels assigned to it, grouped by channel so each channel gets a
+     * single write per batch
+     */
+    private class ReplyShard extends ChannelReplies implements EventHandler<ReplyBatchEvent> {
+
+        private final int id;
+
+        ReplyShard(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void onEvent(ReplyBatchEvent event, long sequence, boolean endOfBatch) throws Exception {
+
+            Batch batch = event.getBatch();
+            sendReplies(batch, this);
+            if (event.pendingShards.decrementAndGet() == 0) {
+                batchPool.returnObject(batch);
+            }
+
+        }
+
+    }
+
     final static class ReplyBatchEvent {
 
         private Batch batch;
         private long batchSequence;
+        // Shards still to send their responses of the batch. Only used in the shard ring
+        private final AtomicInteger pendingShards = new AtomicInteger();
 
         static void makeReplyBatch(ReplyBatchEvent e, Batch batch, long batchSequence) {
             e.batch = batch;
@@ -263,4 +424,3 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     }
 
 }
-
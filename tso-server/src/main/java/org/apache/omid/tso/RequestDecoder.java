@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.proto.TSOProto;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.protobuf.ProtobufDecoder;
+
+/**
+ * Decodes the frames received by the TSO server.
+ *
+ * Frames that only carry commit requests (one or several) are passed upstream untouched as ChannelBuffers, so the
+ * TSOChannelHandler can copy their cell ids straight into the request processor without boxing them
+ * (see CommitRequestReader). The rest of the frames are decoded as regular TSOProto.Request messages.
+ */
+@Sharable
+class RequestDecoder extends ProtobufDecoder {
+
+    RequestDecoder() {
+        super(TSOProto.Request.getDefaultInstance());
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+
+        if (msg instanceof ChannelBuffer) {
+            ChannelBuffer frame = (ChannelBuffer) msg;
+            if (CommitRequestReader.isCommitRequest(frame) || CommitRequestReader.isMultiCommitRequest(frame)) {
+                return msg;
+            }
+        }
+        return super.decode(ctx, channel, msg);
+
+    }
+
+}
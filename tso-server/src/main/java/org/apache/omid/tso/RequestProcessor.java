@@ -17,6 +17,7 @@
  */
 package org.apache.omid.tso;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 
 import java.io.Closeable;
@@ -27,6 +28,24 @@ public interface RequestProcessor extends TSOStateManager.StateObserver, Closeab
 
     void timestampRequest(Channel c, MonitoringContext monCtx);
 
+    /**
+     * Requests several consecutive timestamps, which are answered in a single response
+     */
+    void timestampRequest(Channel c, int numTimestamps, MonitoringContext monCtx);
+
     void commitRequest(long startTimestamp, Collection<Long> writeSet, boolean isRetry, Channel c, MonitoringContext monCtx);
 
+    /**
+     * Same as above but the write set is read directly from a commit request frame previously validated by a
+     * CommitRequestReader, so the cell ids are never boxed
+     */
+    void commitRequest(long startTimestamp, ChannelBuffer commitRequestFrame, int numCells, boolean isRetry, Channel c,
+                       MonitoringContext monCtx);
+
+    /**
+     * Records in the conflict map a commit decided by the master this instance is the hot standby of
+     * (see StateReplicator). The write set passed can be reused by the caller once this method returns
+     */
+    void replicatedCommit(long commitTimestamp, long[] writeSet, int numCells);
+
 }
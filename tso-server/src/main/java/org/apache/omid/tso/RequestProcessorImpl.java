@@ -17,15 +17,18 @@
  */
 package org.apache.omid.tso;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
-import com.lmax.disruptor.TimeoutHandler;
 import com.lmax.disruptor.dsl.Disruptor;
+import org.apache.omid.metrics.Meter;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.tso.TSOStateManager.TSOState;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,18 +36,55 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.lmax.disruptor.dsl.ProducerType.MULTI;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.omid.metrics.MetricsUtils.name;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_TIMESTAMP;
 import static org.apache.omid.tso.RequestProcessorImpl.RequestEvent.EVENT_FACTORY;
 
-class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestEvent>, RequestProcessor, TimeoutHandler {
+/**
+ * Assigns timestamps and performs the conflict detection of the requests received by the TSO.
+ *
+ * With a single conflict detection thread, the whole processing of a request happens in the request-0 thread.
+ * Otherwise, requests go through a pipeline of disruptor handlers:
+ * 1) The TimestampAssigner hands out the timestamp of each request (the commit timestamp for commit requests) in
+ *    the order they were published in the request ring
+ * 2) The ConflictDetectionShards check and update the conflict map in parallel, each one for its part of the cell
+ *    id space (see ConflictDetectionShard)
+ * 3) This class, in ring order again, applies the low watermark and hands the outcome of each request to the
+ *    persistence processor. This is the only thread that calls the persistence processor, so the single writer
+ *    assumption of its public methods still holds
+ *
+ * By default, any eviction from the conflict map raises a single low watermark and every transaction that started
+ * before it is aborted. When several low watermark segments are configured, each shard keeps a low watermark per
+ * segment of the cell id space and only aborts the transactions writing cells in segments whose low watermark is
+ * ahead of their start timestamp (see LowWatermarkSegments). The low watermark persisted is then the minimum of all
+ * the segments, which is the one that all transactions are guaranteed to respect.
+ *
+ * The batches of the persistence processor are flushed when their deadline expires even if no more requests arrive.
+ * A timer thread polls the deadline of the current batch and, when it has expired, publishes a batch deadline event
+ * in the request ring, so the flush is also triggered from the thread calling the persistence processor.
+ *
+ * Timestamp requests only need to wait for a batch when some commit handed to the persistence processor before them
+ * may not be in the commit table yet, as it could be missing from their snapshot otherwise. When all commits are
+ * persisted, they are replied right away from this class.
+ *
+ * Every commit and low watermark decided is also handed to the StateReplicator, which keeps a hot standby TSO in
+ * sync. On the standby, the commits replicated from the master go through the same pipeline as replicated commit
+ * requests, which only update the conflict map and the low watermark.
+ */
+class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestEvent>, RequestProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(RequestProcessorImpl.class);
 
@@ -53,45 +93,126 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
     private final Disruptor<RequestEvent> disruptor;
     private final RingBuffer<RequestEvent> requestRing;
 
+    // Batch deadline timer
+    private static final long MIN_DEADLINE_CHECK_PERIOD_IN_US = 100L;
+    private final ScheduledExecutorService deadlineTimer;
+    private final AtomicBoolean deadlineEventPending = new AtomicBoolean(false);
+
     private final TimestampOracle timestampOracle;
-    private final CommitHashMap hashmap;
     private final MetricsRegistry metrics;
     private final PersistenceProcessor persistProc;
+    private final ReplyProcessor replyProc;
+    private final StateReplicator stateReplicator;
+
+    // Conflict detection
+    private final int numShards;
+    private final TimestampAssigner timestampAssigner;
+    private final ConflictDetectionShard[] shards;
+    private final AtomicLong lowWatermarkHint = new AtomicLong(-1L);
+    private final boolean segmentedLowWatermarks;
 
     private long lowWatermark = -1L;
+    private long lastTimestamp = -1L; // The largest timestamp handed out so far
+
+    private final Meter conflictAbortsMeter;
+    private final Meter lowWatermarkAbortsMeter;
+    private final Meter immediateTimestampsMeter;
+
+    @VisibleForTesting
+    RequestProcessorImpl(MetricsRegistry metrics,
+                         TimestampOracle timestampOracle,
+                         PersistenceProcessor persistProc,
+                         ReplyProcessor replyProc,
+                         Panicker panicker,
+                         TSOServerConfig config)
+            throws IOException {
+        this(metrics, timestampOracle, persistProc, replyProc, new VoidStateReplicator(), panicker, config);
+    }
 
     @Inject
     RequestProcessorImpl(MetricsRegistry metrics,
                          TimestampOracle timestampOracle,
                          PersistenceProcessor persistProc,
+                         ReplyProcessor replyProc,
+                         StateReplicator stateReplicator,
                          Panicker panicker,
                          TSOServerConfig config)
             throws IOException {
 
         // ------------------------------------------------------------------------------------------------------------
-        // Disruptor initialization
+        // Attribute initialization
         // ------------------------------------------------------------------------------------------------------------
 
-        TimeoutBlockingWaitStrategy timeoutStrategy = new TimeoutBlockingWaitStrategy(config.getBatchPersistTimeoutInMs(), MILLISECONDS);
+        this.metrics = metrics;
+        this.persistProc = persistProc;
+        this.replyProc = replyProc;
+        this.stateReplicator = stateReplicator;
+        this.timestampOracle = timestampOracle;
+
+        this.conflictAbortsMeter = metrics.meter(name("tso", "aborts", "conflict"));
+        this.lowWatermarkAbortsMeter = metrics.meter(name("tso", "aborts", "lwm"));
+        this.immediateTimestampsMeter = metrics.meter(name("tso", "timestamps", "immediate"));
+
+        this.numShards = config.getNumConflictDetectionThreads();
+        Preconditions.checkArgument(numShards >= 1 && numShards <= ConflictDetectionShard.MAX_SHARDS,
+                                    "# of conflict detection threads must be between 1 and %s",
+                                    ConflictDetectionShard.MAX_SHARDS);
+        this.segmentedLowWatermarks = config.getNumLowWatermarkSegments() > 1;
+        this.timestampAssigner = new TimestampAssigner();
+        this.shards = new ConflictDetectionShard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            ConflictMap conflictMap = createConflictMap(config, config.getConflictMapSize() / numShards);
+            shards[i] = new ConflictDetectionShard(i, numShards, conflictMap, lowWatermarkHint,
+                                                   config.getNumLowWatermarkSegments());
+        }
+
+        // ------------------------------------------------------------------------------------------------------------
+        // Disruptor initialization
+        // ------------------------------------------------------------------------------------------------------------
 
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("request-%d").build();
-        this.disruptorExec = Executors.newSingleThreadExecutor(threadFactory);
+        this.disruptorExec = Executors.newFixedThreadPool(numShards == 1 ? 1 : numShards + 2, threadFactory);
 
-        this.disruptor = new Disruptor<>(EVENT_FACTORY, 1 << 12, disruptorExec, MULTI, timeoutStrategy);
+        this.disruptor = new Disruptor<>(EVENT_FACTORY, 1 << 12, disruptorExec, MULTI, new BlockingWaitStrategy());
         disruptor.handleExceptionsWith(new FatalExceptionHandler(panicker)); // This must be before handleEventsWith()
-        disruptor.handleEventsWith(this);
+        if (numShards == 1) {
+            disruptor.handleEventsWith(this);
+        } else {
+            disruptor.handleEventsWith(timestampAssigner).then(shards).then(this);
+        }
         this.requestRing = disruptor.start();
 
         // ------------------------------------------------------------------------------------------------------------
-        // Attribute initialization
+        // Batch deadline timer initialization
         // ------------------------------------------------------------------------------------------------------------
 
-        this.metrics = metrics;
-        this.persistProc = persistProc;
-        this.timestampOracle = timestampOracle;
-        this.hashmap = new CommitHashMap(config.getConflictMapSize());
+        int maxWaitInMs = config.getBatchPersistTimeoutInMs();
+        if (config.getBatchLatencyTargetInMs() > 0) {
+            maxWaitInMs = Math.min(maxWaitInMs, config.getBatchLatencyTargetInMs());
+        }
+        long checkPeriodInUs = Math.max(MILLISECONDS.toMicros(maxWaitInMs) / 4, MIN_DEADLINE_CHECK_PERIOD_IN_US);
+        ThreadFactory timerThreadFactory = new ThreadFactoryBuilder().setNameFormat("batch-deadline-%d").build();
+        this.deadlineTimer = Executors.newSingleThreadScheduledExecutor(timerThreadFactory);
+        deadlineTimer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                publishBatchDeadlineIfExpired();
+            }
+        }, checkPeriodInUs, checkPeriodInUs, MICROSECONDS);
+
+        LOG.info("RequestProcessor initialized with {} conflict detection thread(s)", numShards);
 
-        LOG.info("RequestProcessor initialized");
+    }
+
+    private static ConflictMap createConflictMap(TSOServerConfig config, int size) {
+
+        switch (config.getConflictMapTypeEnum()) {
+            case OFF_HEAP:
+                return new OffHeapConflictMap(size);
+            case ON_HEAP:
+            default:
+                return new CommitHashMap(size);
+        }
 
     }
 
@@ -101,7 +222,13 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
     @Override
     public void update(TSOState state) throws Exception {
         LOG.info("Initializing RequestProcessor state...");
-        this.lowWatermark = state.getLowWatermark();
+        // The commits replicated from the previous master must be in the conflict map before taking over
+        while (requestRing.remainingCapacity() < requestRing.getBufferSize()) {
+            MILLISECONDS.sleep(1);
+        }
+        this.lowWatermark = Math.max(state.getLowWatermark(), lowWatermark);
+        this.lastTimestamp = Math.max(state.getLowWatermark(), lastTimestamp);
+        raiseLowWatermarkHint(lowWatermark);
         persistProc.persistLowWatermark(lowWatermark).get(); // Sync persist
         LOG.info("RequestProcessor state initialized with LWMs {} and Epoch {}", lowWatermark, state.getEpoch());
     }
@@ -109,36 +236,50 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
     @Override
     public void onEvent(RequestEvent event, long sequence, boolean endOfBatch) throws Exception {
 
+        if (numShards == 1) { // No pipeline, do everything here
+            timestampAssigner.onEvent(event, sequence, endOfBatch);
+            shards[0].onEvent(event, sequence, endOfBatch);
+        }
+
         switch (event.getType()) {
             case TIMESTAMP:
                 handleTimestamp(event);
                 break;
             case COMMIT:
                 handleCommit(event);
+                event.trimWriteSet();
+                break;
+            case BATCH_DEADLINE:
+                handleBatchDeadline();
+                break;
+            case REPLICATED_COMMIT:
+                handleReplicatedCommit(event);
+                event.trimWriteSet();
                 break;
             default:
                 throw new IllegalStateException("Event not allowed in Request Processor: " + event);
         }
+        if (endOfBatch) {
+            stateReplicator.flush(lastTimestamp);
+        }
 
     }
 
-    @Override
-    public void onTimeout(long sequence) throws Exception {
+    private void publishBatchDeadlineIfExpired() {
 
-        // TODO We can not use this as a timeout trigger for flushing. This timeout is related to the time between
-        // TODO (cont) arrivals of requests to the disruptor. We need another mechanism to trigger timeouts
-        // TODO (cont) WARNING!!! Take care with the implementation because if there's other thread than request-0
-        // TODO (cont) thread the one that calls persistProc.triggerCurrentBatchFlush(); we'll incur in concurrency issues
-        // TODO (cont) This is because, in the current implementation, only the request-0 thread calls the public methods
-        // TODO (cont) in persistProc and it is guaranteed that access them serially.
-        persistProc.triggerCurrentBatchFlush();
+        if (persistProc.isCurrentBatchExpired() && deadlineEventPending.compareAndSet(false, true)) {
+            long seq = requestRing.next();
+            RequestEvent e = requestRing.get(seq);
+            RequestEvent.makeBatchDeadline(e);
+            requestRing.publish(seq);
+        }
 
     }
 
     @Override
     public void timestampRequest(Channel c, MonitoringContext monCtx) {
 
-        monCtx.timerStart("request.processor.timestamp.latency");
+        monCtx.timerStart(REQUEST_TIMESTAMP);
         long seq = requestRing.next();
         RequestEvent e = requestRing.get(seq);
         RequestEvent.makeTimestampRequest(e, c, monCtx);
@@ -146,77 +287,130 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
 
     }
 
+    @Override
+    public void timestampRequest(Channel c, int numTimestamps, MonitoringContext monCtx) {
+
+        Preconditions.checkArgument(numTimestamps > 0, "# of timestamps [%s] must be positive", numTimestamps);
+        monCtx.timerStart(REQUEST_TIMESTAMP);
+        long seq = requestRing.next();
+        RequestEvent e = requestRing.get(seq);
+        RequestEvent.makeTimestampRequest(e, numTimestamps, c, monCtx);
+        requestRing.publish(seq);
+
+    }
+
     @Override
     public void commitRequest(long startTimestamp, Collection<Long> writeSet, boolean isRetry, Channel c,
                               MonitoringContext monCtx) {
 
-        monCtx.timerStart("request.processor.commit.latency");
+        monCtx.timerStart(REQUEST_COMMIT);
         long seq = requestRing.next();
         RequestEvent e = requestRing.get(seq);
         RequestEvent.makeCommitRequest(e, startTimestamp, monCtx, writeSet, isRetry, c);
+        e.assignShards(numShards);
         requestRing.publish(seq);
 
     }
 
-    private void handleTimestamp(RequestEvent requestEvent) throws Exception {
+    @Override
+    public void commitRequest(long startTimestamp, ChannelBuffer commitRequestFrame, int numCells, boolean isRetry,
+                              Channel c, MonitoringContext monCtx) {
 
-        long timestamp = timestampOracle.next();
-        requestEvent.getMonCtx().timerStop("request.processor.timestamp.latency");
-        persistProc.addTimestampToBatch(timestamp, requestEvent.getChannel(), requestEvent.getMonCtx());
+        monCtx.timerStart(REQUEST_COMMIT);
+        long seq = requestRing.next();
+        RequestEvent e = requestRing.get(seq);
+        RequestEvent.makeCommitRequest(e, startTimestamp, monCtx, commitRequestFrame, numCells, isRetry, c);
+        e.assignShards(numShards);
+        requestRing.publish(seq);
 
     }
 
-    private void handleCommit(RequestEvent event) throws Exception {
+    @Override
+    public void replicatedCommit(long commitTimestamp, long[] writeSet, int numCells) {
 
-        long startTimestamp = event.getStartTimestamp();
-        Iterable<Long> writeSet = event.writeSet();
-        boolean isCommitRetry = event.isCommitRetry();
-        Channel c = event.getChannel();
+        long seq = requestRing.next();
+        RequestEvent e = requestRing.get(seq);
+        RequestEvent.makeReplicatedCommit(e, commitTimestamp, writeSet, numCells);
+        e.assignShards(numShards);
+        requestRing.publish(seq);
 
-        boolean txCanCommit;
+    }
 
-        int numCellsInWriteset = 0;
-        // 0. check if it should abort
-        if (startTimestamp <= lowWatermark) {
-            txCanCommit = false;
+    private void handleTimestamp(RequestEvent requestEvent) throws Exception {
+
+        long timestamp = requestEvent.getTimestamp();
+        int numTimestamps = requestEvent.getNumTimestamps();
+        lastTimestamp = timestamp + numTimestamps - 1;
+        requestEvent.getMonCtx().timerStop(REQUEST_TIMESTAMP);
+        if (!persistProc.hasPendingReplies()) {
+            replyProc.sendTimestampResponse(timestamp, numTimestamps, requestEvent.getChannel());
+            requestEvent.getMonCtx().publish();
+            immediateTimestampsMeter.mark(numTimestamps);
+        } else if (numTimestamps == 1) {
+            persistProc.addTimestampToBatch(timestamp, requestEvent.getChannel(), requestEvent.getMonCtx());
         } else {
-            // 1. check the write-write conflicts
-            txCanCommit = true;
-            for (long cellId : writeSet) {
-                long value = hashmap.getLatestWriteForCell(cellId);
-                if (value != 0 && value >= startTimestamp) {
-                    txCanCommit = false;
-                    break;
-                }
-                numCellsInWriteset++;
-            }
+            persistProc.addTimestampsToBatch(timestamp, numTimestamps, requestEvent.getChannel(),
+                                             requestEvent.getMonCtx());
         }
 
-        if (txCanCommit) {
-            // 2. commit
+    }
 
-            long commitTimestamp = timestampOracle.next();
+    private void handleBatchDeadline() throws Exception {
 
-            if (numCellsInWriteset > 0) {
-                long newLowWatermark = lowWatermark;
+        deadlineEventPending.set(false);
+        // The batch may have been flushed and a new one started since the event was published
+        if (persistProc.isCurrentBatchExpired()) {
+            persistProc.triggerCurrentBatchFlush();
+        }
 
-                for (long r : writeSet) {
-                    long removed = hashmap.putLatestWriteForCell(r, commitTimestamp);
-                    newLowWatermark = Math.max(removed, newLowWatermark);
-                }
+    }
 
-                if (newLowWatermark != lowWatermark) {
-                    LOG.trace("Setting new low Watermark to {}", newLowWatermark);
-                    lowWatermark = newLowWatermark;
-                    persistProc.persistLowWatermark(newLowWatermark); // Async persist
-                }
-            }
-            event.getMonCtx().timerStop("request.processor.commit.latency");
+    private void handleCommit(RequestEvent event) throws Exception {
+
+        long startTimestamp = event.getStartTimestamp();
+        boolean isCommitRetry = event.isCommitRetry();
+        Channel c = event.getChannel();
+        lastTimestamp = event.getTimestamp();
+
+        // The shards have already checked the write-write conflicts and, if none was found, recorded the commit in
+        // the conflict map. With a single low watermark, they use one that may be ahead of the one of this request
+        // in ring order, so it is re-checked here. Transactions rejected only because of it leave their cells in the
+        // conflict map, which can only cause extra aborts. Segmented low watermarks are exact, so only the
+        // transactions that didn't reach any shard are checked
+        boolean txCanCommit = !event.isAborted();
+        if (txCanCommit && (!segmentedLowWatermarks || event.getShardMask() == 0L)
+                && startTimestamp <= lowWatermark) {
+            event.markLowWatermarkAbort();
+            txCanCommit = false;
+        }
+
+        long newLowWatermark = lowWatermark;
+        if (event.getMaxEvicted() > 0) {
+            newLowWatermark = Math.max(segmentedLowWatermarks ? minimumLowWatermark() : event.getMaxEvicted(),
+                                       lowWatermark);
+        }
+        if (newLowWatermark != lowWatermark) {
+            LOG.trace("Setting new low Watermark to {}", newLowWatermark);
+            lowWatermark = newLowWatermark;
+            stateReplicator.replicateLowWatermark(newLowWatermark);
+            persistProc.persistLowWatermark(newLowWatermark); // Async persist
+        }
+
+        if (txCanCommit) {
+            long commitTimestamp = event.getTimestamp();
+            event.getMonCtx().timerStop(REQUEST_COMMIT);
+            // Before adding it to the batch, as the batch may be flushed right away
+            stateReplicator.replicateCommit(commitTimestamp, event.getWriteSet(), event.getNumCells());
             persistProc.addCommitToBatch(startTimestamp, commitTimestamp, c, event.getMonCtx());
 
         } else {
 
-            event.getMonCtx().timerStop("request.processor.commit.latency");
+            if (event.hasConflict()) {
+                conflictAbortsMeter.mark();
+            } else {
+                lowWatermarkAbortsMeter.mark();
+            }
+            event.getMonCtx().timerStop(REQUEST_COMMIT);
             if (isCommitRetry) { // Re-check if it was already committed but the client retried due to a lag replying
                 persistProc.addCommitRetryToBatch(startTimestamp, c, event.getMonCtx());
             } else {
@@ -227,10 +421,42 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
 
     }
 
+    private void handleReplicatedCommit(RequestEvent event) {
+
+        // The shards have already recorded the commit in the conflict map. The evictions raise the low watermark,
+        // which is persisted when this instance takes over
+        if (event.getMaxEvicted() > 0) {
+            lowWatermark = Math.max(segmentedLowWatermarks ? minimumLowWatermark() : event.getMaxEvicted(),
+                                    lowWatermark);
+        }
+
+    }
+
+    private void raiseLowWatermarkHint(long lowWatermark) {
+        long current = lowWatermarkHint.get();
+        while (lowWatermark > current && !lowWatermarkHint.compareAndSet(current, lowWatermark)) {
+            current = lowWatermarkHint.get();
+        }
+    }
+
+    private long minimumLowWatermark() {
+
+        long minimum = Long.MAX_VALUE;
+        for (ConflictDetectionShard shard : shards) {
+            minimum = Math.min(shard.getMinimumLowWatermark(), minimum);
+        }
+        return minimum;
+
+    }
+
     @Override
     public void close() throws IOException {
 
         LOG.info("Terminating Request Processor...");
+        deadlineTimer.shutdownNow();
+        for (ConflictDetectionShard shard : shards) {
+            shard.stop();
+        }
         disruptor.halt();
         disruptor.shutdown();
         LOG.info("\tRequest Processor Disruptor shutdown");
@@ -246,10 +472,29 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
 
     }
 
-    final static class RequestEvent implements Iterable<Long> {
+    /**
+     * Hands out the timestamps in the order of the request ring. Commit requests get their commit timestamp here,
+     * before knowing if they will commit, because the conflict detection shards need it to update the conflict map.
+     * The timestamps of aborted transactions are just never used. Requests of several timestamps get a range of
+     * consecutive ones reserved in the oracle at once. Replicated commits already come with the commit timestamp
+     * given by the master
+     */
+    private class TimestampAssigner implements EventHandler<RequestEvent> {
+
+        @Override
+        public void onEvent(RequestEvent event, long sequence, boolean endOfBatch) throws Exception {
+            if (event.getType() == RequestEvent.Type.TIMESTAMP || event.getType() == RequestEvent.Type.COMMIT) {
+                int numTimestamps = event.getNumTimestamps();
+                event.setTimestamp(numTimestamps == 1 ? timestampOracle.next() : timestampOracle.next(numTimestamps));
+            }
+        }
+
+    }
+
+    final static class RequestEvent {
 
         enum Type {
-            TIMESTAMP, COMMIT
+            TIMESTAMP, COMMIT, BATCH_DEADLINE, REPLICATED_COMMIT
         }
 
         private Type type = null;
@@ -258,42 +503,125 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
         private boolean isCommitRetry = false;
         private long startTimestamp = 0;
         private MonitoringContext monCtx;
-        private long numCells = 0;
 
-        private static final int MAX_INLINE = 40;
-        private Long writeSet[] = new Long[MAX_INLINE];
-        private Collection<Long> writeSetAsCollection = null; // for the case where there's more than MAX_INLINE
+        // The write set is kept in a primitive array preallocated in each ring slot. Bigger write sets make it grow,
+        // and it's shrunk back after handling them so slots don't retain huge arrays
+        private static final int MAX_INLINE = 64;
+        private static final int MAX_RETAINED = 1 << 12;
+        private long[] writeSet = new long[MAX_INLINE];
+        private int numCells = 0;
+
+        // Timestamp of timestamp requests (the first one when several are requested) or commit timestamp of commit
+        // requests
+        private long timestamp = 0;
+        private int numTimestamps = 1;
+
+        // Conflict detection state. Only the cross-shard commit requests need the atomics
+        private long shardMask = 0L;
+        private final AtomicInteger pendingShards = new AtomicInteger();
+        private volatile boolean conflict = false;
+        private volatile boolean lowWatermarkAbort = false;
+        private final AtomicLong maxEvicted = new AtomicLong();
 
         static void makeTimestampRequest(RequestEvent e, Channel c, MonitoringContext monCtx) {
+            makeTimestampRequest(e, 1, c, monCtx);
+        }
+
+        static void makeTimestampRequest(RequestEvent e, int numTimestamps, Channel c, MonitoringContext monCtx) {
             e.type = Type.TIMESTAMP;
+            e.numTimestamps = numTimestamps;
             e.channel = c;
             e.monCtx = monCtx;
         }
 
+        static void makeBatchDeadline(RequestEvent e) {
+            e.type = Type.BATCH_DEADLINE;
+            e.channel = null;
+            e.monCtx = null;
+            e.numCells = 0;
+            e.shardMask = 0L;
+        }
+
         static void makeCommitRequest(RequestEvent e,
                                       long startTimestamp,
                                       MonitoringContext monCtx,
                                       Collection<Long> writeSet,
                                       boolean isRetry,
                                       Channel c) {
+            makeCommitRequest(e, startTimestamp, monCtx, isRetry, c);
+            e.ensureCapacity(writeSet.size());
+            int i = 0;
+            for (Long cellId : writeSet) {
+                e.writeSet[i] = cellId;
+                i++;
+            }
+            e.numCells = i;
+        }
+
+        static void makeCommitRequest(RequestEvent e,
+                                      long startTimestamp,
+                                      MonitoringContext monCtx,
+                                      ChannelBuffer commitRequestFrame,
+                                      int numCells,
+                                      boolean isRetry,
+                                      Channel c) {
+            makeCommitRequest(e, startTimestamp, monCtx, isRetry, c);
+            e.ensureCapacity(numCells);
+            e.numCells = CommitRequestReader.readCellIds(commitRequestFrame, e.writeSet);
+        }
+
+        static void makeReplicatedCommit(RequestEvent e, long commitTimestamp, long[] writeSet, int numCells) {
+            makeCommitRequest(e, 0L, null, false, null);
+            e.type = Type.REPLICATED_COMMIT;
+            e.timestamp = commitTimestamp;
+            e.ensureCapacity(numCells);
+            System.arraycopy(writeSet, 0, e.writeSet, 0, numCells);
+            e.numCells = numCells;
+        }
+
+        private static void makeCommitRequest(RequestEvent e,
+                                              long startTimestamp,
+                                              MonitoringContext monCtx,
+                                              boolean isRetry,
+                                              Channel c) {
             e.monCtx = monCtx;
             e.type = Type.COMMIT;
+            e.numTimestamps = 1;
             e.channel = c;
             e.startTimestamp = startTimestamp;
             e.isCommitRetry = isRetry;
-            if (writeSet.size() > MAX_INLINE) {
-                e.numCells = writeSet.size();
-                e.writeSetAsCollection = writeSet;
+            e.conflict = false;
+            e.lowWatermarkAbort = false;
+            e.maxEvicted.set(0L);
+        }
+
+        /**
+         * Computes the conflict detection shards the write set belongs to. Called by the producers, so the hashing
+         * of the cells happens outside of the conflict detection threads
+         */
+        void assignShards(int numShards) {
+            if (numShards == 1) {
+                shardMask = numCells > 0 ? 1L : 0L;
             } else {
-                e.writeSetAsCollection = null;
-                e.numCells = writeSet.size();
-                int i = 0;
-                for (Long cellId : writeSet) {
-                    e.writeSet[i] = cellId;
-                    i++;
+                long mask = 0L;
+                for (int i = 0; i < numCells; i++) {
+                    mask |= 1L << ConflictDetectionShard.shardOf(writeSet[i], numShards);
                 }
+                shardMask = mask;
+            }
+            pendingShards.set(Long.bitCount(shardMask));
+        }
+
+        private void ensureCapacity(int numCells) {
+            if (writeSet.length < numCells) {
+                writeSet = new long[numCells];
             }
+        }
 
+        void trimWriteSet() {
+            if (writeSet.length > MAX_RETAINED) {
+                writeSet = new long[MAX_INLINE];
+            }
         }
 
         MonitoringContext getMonCtx() {
@@ -312,41 +640,67 @@ class RequestProcessorImpl implements EventHandler<RequestProcessorImpl.RequestE
             return channel;
         }
 
-        @Override
-        public Iterator<Long> iterator() {
+        long[] getWriteSet() {
+            return writeSet;
+        }
 
-            if (writeSetAsCollection != null) {
-                return writeSetAsCollection.iterator();
-            }
+        int getNumCells() {
+            return numCells;
+        }
 
-            return new Iterator<Long>() {
-                int i = 0;
+        long getTimestamp() {
+            return timestamp;
+        }
 
-                @Override
-                public boolean hasNext() {
-                    return i < numCells;
-                }
+        int getNumTimestamps() {
+            return numTimestamps;
+        }
 
-                @Override
-                public Long next() {
-                    if (!hasNext()) {
-                        throw new NoSuchElementException();
-                    }
-                    return writeSet[i++];
-                }
+        void setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
 
-                @Override
-                public void remove() {
-                    throw new UnsupportedOperationException();
-                }
-            };
+        long getShardMask() {
+            return shardMask;
+        }
 
+        boolean isCrossShard() {
+            return Long.bitCount(shardMask) > 1;
         }
 
-        Iterable<Long> writeSet() {
+        void markConflict() {
+            conflict = true;
+        }
+
+        boolean hasConflict() {
+            return conflict;
+        }
 
-            return this;
+        void markLowWatermarkAbort() {
+            lowWatermarkAbort = true;
+        }
+
+        boolean isAborted() {
+            return conflict || lowWatermarkAbort;
+        }
+
+        void shardChecked() {
+            pendingShards.decrementAndGet();
+        }
+
+        boolean allShardsChecked() {
+            return pendingShards.get() == 0;
+        }
+
+        void evicted(long commitTimestamp) {
+            long current = maxEvicted.get();
+            while (commitTimestamp > current && !maxEvicted.compareAndSet(current, commitTimestamp)) {
+                current = maxEvicted.get();
+            }
+        }
 
+        long getMaxEvicted() {
+            return maxEvicted.get();
         }
 
         boolean isCommitRetry() {
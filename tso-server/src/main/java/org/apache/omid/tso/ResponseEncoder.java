@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+
+import java.io.IOException;
+
+/**
+ * Encodes the responses sent by the TSO server as frames made of a 4 byte length and the serialized response.
+ *
+ * ChannelBuffers are passed downstream untouched, as they are expected to hold responses already framed with
+ * writeFrame(). This allows the ReplyProcessor to coalesce the responses of a batch that go to the same channel in a
+ * single write.
+ *
+ * The commit, abort and timestamp responses, sent for every transaction, can also be written straight into a buffer
+ * with writeCommitResponse(), writeAbortResponse() and writeTimestampResponse() without creating any object. They
+ * produce the same bytes as TSOProto.Response messages built and serialized with protobuf (see TestResponseEncoder)
+ * so both ways of encoding the responses can be mixed in the same channel.
+ */
+@Sharable
+class ResponseEncoder extends OneToOneEncoder {
+
+    static final int LENGTH_FIELD_SIZE = 4;
+
+    // Maximum size of the frames written by the hand-rolled encoding: length field, response tag & length,
+    // aborted field and two 10 byte varint fields
+    static final int MAX_TRANSACTION_RESPONSE_FRAME_SIZE = LENGTH_FIELD_SIZE + 2 + 2 + 2 * (1 + 10);
+
+    // Protobuf tags (field number << 3 | wire type) of TSOProto.Response, TSOProto.TimestampResponse and
+    // TSOProto.CommitResponse fields
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final byte RESPONSE_TIMESTAMP_RESPONSE_TAG = (1 << 3) | WIRETYPE_LENGTH_DELIMITED;
+    private static final byte RESPONSE_COMMIT_RESPONSE_TAG = (2 << 3) | WIRETYPE_LENGTH_DELIMITED;
+    private static final byte TIMESTAMP_RESPONSE_START_TIMESTAMP_TAG = (1 << 3) | WIRETYPE_VARINT;
+    private static final byte TIMESTAMP_RESPONSE_NUM_TIMESTAMPS_TAG = (2 << 3) | WIRETYPE_VARINT;
+    private static final byte COMMIT_RESPONSE_ABORTED_TAG = (1 << 3) | WIRETYPE_VARINT;
+    private static final byte COMMIT_RESPONSE_START_TIMESTAMP_TAG = (2 << 3) | WIRETYPE_VARINT;
+    private static final byte COMMIT_RESPONSE_COMMIT_TIMESTAMP_TAG = (3 << 3) | WIRETYPE_VARINT;
+
+    @Override
+    protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+
+        if (msg instanceof MessageLite) {
+            MessageLite response = (MessageLite) msg;
+            ChannelBuffer frame = ChannelBuffers.buffer(LENGTH_FIELD_SIZE + response.getSerializedSize());
+            writeFrame(frame, response);
+            return frame;
+        }
+        return msg;
+
+    }
+
+    /**
+     * Appends the frame of the response to the buffer, which must be backed by an array
+     */
+    static void writeFrame(ChannelBuffer buffer, MessageLite response) throws IOException {
+
+        int size = response.getSerializedSize();
+        buffer.ensureWritableBytes(LENGTH_FIELD_SIZE + size);
+        buffer.writeInt(size);
+        int offset = buffer.writerIndex();
+        CodedOutputStream output = CodedOutputStream.newInstance(buffer.array(), buffer.arrayOffset() + offset, size);
+        response.writeTo(output);
+        output.checkNoSpaceLeft();
+        buffer.writerIndex(offset + size);
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Hand-rolled encoding of the transaction responses
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the frame of a TSOProto.Response with a non-aborted TSOProto.CommitResponse to the buffer
+     */
+    static void writeCommitResponse(ChannelBuffer buffer, long startTimestamp, long commitTimestamp) {
+
+        int commitResponseSize = 2 + 1 + varintSize(startTimestamp) + 1 + varintSize(commitTimestamp);
+        writeResponseHeader(buffer, RESPONSE_COMMIT_RESPONSE_TAG, commitResponseSize);
+        buffer.writeByte(COMMIT_RESPONSE_ABORTED_TAG);
+        buffer.writeByte(0);
+        buffer.writeByte(COMMIT_RESPONSE_START_TIMESTAMP_TAG);
+        writeVarint(buffer, startTimestamp);
+        buffer.writeByte(COMMIT_RESPONSE_COMMIT_TIMESTAMP_TAG);
+        writeVarint(buffer, commitTimestamp);
+
+    }
+
+    /**
+     * Appends the frame of a TSOProto.Response with an aborted TSOProto.CommitResponse to the buffer
+     */
+    static void writeAbortResponse(ChannelBuffer buffer, long startTimestamp) {
+
+        int commitResponseSize = 2 + 1 + varintSize(startTimestamp);
+        writeResponseHeader(buffer, RESPONSE_COMMIT_RESPONSE_TAG, commitResponseSize);
+        buffer.writeByte(COMMIT_RESPONSE_ABORTED_TAG);
+        buffer.writeByte(1);
+        buffer.writeByte(COMMIT_RESPONSE_START_TIMESTAMP_TAG);
+        writeVarint(buffer, startTimestamp);
+
+    }
+
+    /**
+     * Appends the frame of a TSOProto.Response with a TSOProto.TimestampResponse to the buffer
+     */
+    static void writeTimestampResponse(ChannelBuffer buffer, long startTimestamp) {
+        writeTimestampResponse(buffer, startTimestamp, 1);
+    }
+
+    /**
+     * Appends the frame of a TSOProto.Response with a TSOProto.TimestampResponse of several consecutive timestamps
+     * to the buffer
+     */
+    static void writeTimestampResponse(ChannelBuffer buffer, long startTimestamp, int numTimestamps) {
+
+        int timestampResponseSize = 1 + varintSize(startTimestamp);
+        if (numTimestamps != 1) { // Default value, not sent
+            timestampResponseSize += 1 + varintSize(numTimestamps & 0xFFFFFFFFL);
+        }
+        writeResponseHeader(buffer, RESPONSE_TIMESTAMP_RESPONSE_TAG, timestampResponseSize);
+        buffer.writeByte(TIMESTAMP_RESPONSE_START_TIMESTAMP_TAG);
+        writeVarint(buffer, startTimestamp);
+        if (numTimestamps != 1) {
+            buffer.writeByte(TIMESTAMP_RESPONSE_NUM_TIMESTAMPS_TAG);
+            writeVarint(buffer, numTimestamps & 0xFFFFFFFFL);
+        }
+
+    }
+
+    // The embedded messages are always smaller than 128 bytes, so their length takes a single byte
+    private static void writeResponseHeader(ChannelBuffer buffer, byte tag, int embeddedMessageSize) {
+
+        buffer.ensureWritableBytes(LENGTH_FIELD_SIZE + 2 + embeddedMessageSize);
+        buffer.writeInt(2 + embeddedMessageSize);
+        buffer.writeByte(tag);
+        buffer.writeByte(embeddedMessageSize);
+
+    }
+
+    // int64 fields are encoded as unsigned varints, so negative values take 10 bytes
+    private static void writeVarint(ChannelBuffer buffer, long value) {
+
+        while ((value & ~0x7FL) != 0L) {
+            buffer.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.writeByte((int) value);
+
+    }
+
+    private static int varintSize(long value) {
+
+        if (value < 0L) {
+            return 10;
+        }
+        return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7);
+
+    }
+
+}
@@ -26,7 +26,6 @@ import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
 import org.apache.omid.metrics.Meter;
@@ -38,6 +37,8 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -46,11 +47,17 @@ import java.util.concurrent.ThreadFactory;
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.lmax.disruptor.dsl.ProducerType.SINGLE;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.omid.tso.MonitoringContext.Stage.RETRY_COMMIT_RETRY;
 import static org.apache.omid.tso.RetryProcessorImpl.RetryEvent.EVENT_FACTORY;
 
 /**
  * Manages the disambiguation of the retry requests that clients send when they did not received a response in the
  * specified timeout. It replies directly to the client with the outcome identified.
+ *
+ * Retries are drained from the ring in groups (all the ones available, up to MAX_RETRIES_PER_LOOKUP) and the commit
+ * timestamps of each group are looked up in the commit table at once, so when many clients retry at the same time
+ * they do not wait for a commit table round trip each. The responses of each group are sent together too, with a
+ * single write per channel.
  */
 class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>, RetryProcessor {
 
@@ -64,7 +71,16 @@ class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>,
     final ReplyProcessor replyProc;
 
     final CommitTable.Client commitTableClient;
-    final ObjectPool<Batch> batchPool;
+    final BatchPool batchPool;
+
+    // Retries drained from the ring that wait for the lookup of their commit timestamps
+    static final int MAX_RETRIES_PER_LOOKUP = 1024;
+    private final long[] pendingStartTimestamps = new long[MAX_RETRIES_PER_LOOKUP];
+    private final Channel[] pendingChannels = new Channel[MAX_RETRIES_PER_LOOKUP];
+    private final MonitoringContext[] pendingMonCtxs = new MonitoringContext[MAX_RETRIES_PER_LOOKUP];
+    // Outcome of each pending retry, its commit timestamp or ReplyProcessor.ABORTED
+    private final long[] pendingOutcomes = new long[MAX_RETRIES_PER_LOOKUP];
+    private int numPendingRetries = 0;
 
     // Metrics
     private final Meter txAlreadyCommittedMeter;
@@ -77,7 +93,7 @@ class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>,
                        CommitTable commitTable,
                        ReplyProcessor replyProc,
                        Panicker panicker,
-                       ObjectPool<Batch> batchPool)
+                       BatchPool batchPool)
             throws InterruptedException, ExecutionException, IOException {
 
         // ------------------------------------------------------------------------------------------------------------
@@ -114,37 +130,36 @@ class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>,
 
         switch (event.getType()) {
             case COMMIT:
-                handleCommitRetry(event);
-                event.getMonCtx().timerStop("retry.processor.commit-retry.latency");
+                pendingStartTimestamps[numPendingRetries] = event.getStartTimestamp();
+                pendingChannels[numPendingRetries] = event.getChannel();
+                pendingMonCtxs[numPendingRetries] = event.getMonCtx();
+                numPendingRetries++;
                 break;
             default:
                 assert (false);
                 break;
         }
-        event.getMonCtx().publish();
+
+        if (endOfBatch || numPendingRetries == MAX_RETRIES_PER_LOOKUP) {
+            handleCommitRetries();
+        }
 
     }
 
-    private void handleCommitRetry(RetryEvent event) {
+    private void handleCommitRetries() {
 
-        long startTimestamp = event.getStartTimestamp();
+        if (numPendingRetries == 0) {
+            return;
+        }
+
+        long[] startTimestamps = Arrays.copyOf(pendingStartTimestamps, numPendingRetries);
         try {
-            Optional<CommitTimestamp> commitTimestamp = commitTableClient.getCommitTimestamp(startTimestamp).get();
-            if (commitTimestamp.isPresent()) {
-                if (commitTimestamp.get().isValid()) {
-                    LOG.trace("Tx {}: Valid commit TS found in Commit Table. Sending Commit to client.", startTimestamp);
-                    replyProc.sendCommitResponse(startTimestamp, commitTimestamp.get().getValue(), event.getChannel());
-                    txAlreadyCommittedMeter.mark();
-                } else {
-                    LOG.trace("Tx {}: Invalid tx marker found. Sending Abort to client.", startTimestamp);
-                    replyProc.sendAbortResponse(startTimestamp, event.getChannel());
-                    invalidTxMeter.mark();
-                }
-            } else {
-                LOG.trace("Tx {}: No Commit TS found in Commit Table. Sending Abort to client.", startTimestamp);
-                replyProc.sendAbortResponse(startTimestamp, event.getChannel());
-                noCTFoundMeter.mark();
+            List<Optional<CommitTimestamp>> commitTimestamps =
+                    commitTableClient.getCommitTimestamps(startTimestamps).get();
+            for (int i = 0; i < numPendingRetries; i++) {
+                pendingOutcomes[i] = outcomeOf(startTimestamps[i], commitTimestamps.get(i));
             }
+            replyProc.sendCommitRetryResponses(numPendingRetries, startTimestamps, pendingOutcomes, pendingChannels);
         } catch (InterruptedException e) {
             LOG.error("Interrupted reading from commit table");
             Thread.currentThread().interrupt();
@@ -152,13 +167,41 @@ class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>,
             LOG.error("Error reading from commit table", e);
         }
 
+        for (int i = 0; i < numPendingRetries; i++) {
+            pendingMonCtxs[i].timerStop(RETRY_COMMIT_RETRY);
+            pendingMonCtxs[i].publish();
+            pendingChannels[i] = null;
+            pendingMonCtxs[i] = null;
+        }
+        numPendingRetries = 0;
+
+    }
+
+    private long outcomeOf(long startTimestamp, Optional<CommitTimestamp> commitTimestamp) {
+
+        if (commitTimestamp.isPresent()) {
+            if (commitTimestamp.get().isValid()) {
+                LOG.trace("Tx {}: Valid commit TS found in Commit Table. Sending Commit to client.", startTimestamp);
+                txAlreadyCommittedMeter.mark();
+                return commitTimestamp.get().getValue();
+            } else {
+                LOG.trace("Tx {}: Invalid tx marker found. Sending Abort to client.", startTimestamp);
+                invalidTxMeter.mark();
+                return ReplyProcessor.ABORTED;
+            }
+        } else {
+            LOG.trace("Tx {}: No Commit TS found in Commit Table. Sending Abort to client.", startTimestamp);
+            noCTFoundMeter.mark();
+            return ReplyProcessor.ABORTED;
+        }
+
     }
 
     @Override
     public void disambiguateRetryRequestHeuristically(long startTimestamp, Channel c, MonitoringContext monCtx) {
         long seq = retryRing.next();
         RetryEvent e = retryRing.get(seq);
-        monCtx.timerStart("retry.processor.commit-retry.latency");
+        monCtx.timerStart(RETRY_COMMIT_RETRY);
         RetryEvent.makeCommitRetry(e, startTimestamp, c, monCtx);
         retryRing.publish(seq);
     }
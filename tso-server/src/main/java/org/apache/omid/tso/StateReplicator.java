@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.inject.ImplementedBy;
+
+import java.io.Closeable;
+
+/**
+ * Keeps a standby TSO instance in sync with the conflict detection state of the master, so that when the standby
+ * gets the lease it can take over with a warm conflict map instead of aborting every transaction in flight.
+ *
+ * On the master, the request processor hands every commit and low watermark it decides to this class, and the
+ * persistence processor handlers don't flush a commit to the commit table until the standby has acknowledged it
+ * (see awaitReplicated()). On the standby, the state received is applied to the local request processor as if it
+ * had been decided there.
+ */
+// NOTE: public is required explicitly in the interface definition for Guice injection
+@ImplementedBy(VoidStateReplicator.class)
+public interface StateReplicator extends Closeable {
+
+    int NO_LEASE_VERSION = -1;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Master side
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Queues a commit decided by the master. Called from the request processor thread
+     */
+    void replicateCommit(long commitTimestamp, long[] writeSet, int numCells);
+
+    /**
+     * Queues a new low watermark of the master. Called from the request processor thread
+     */
+    void replicateLowWatermark(long lowWatermark);
+
+    /**
+     * Sends the state queued so far to the standby and subscribes the standbys waiting to be attached. Called from
+     * the request processor thread at the end of each batch of requests
+     * @param lastTimestamp the largest timestamp handed out by the master so far
+     */
+    void flush(long lastTimestamp);
+
+    /**
+     * Sends the state queued so far to the standby. Called from the request processor thread by the persistence
+     * processor before publishing each of its batches, as the handlers persisting the batch wait for the standby
+     * to acknowledge its commits, and the end of the current batch of requests may not come while the persistence
+     * processor waits for a free batch
+     */
+    void sendPendingUpdates();
+
+    /**
+     * Blocks until the commits up to the commit timestamp passed can be persisted, i.e. the standby has them or
+     * it can't take over assuming it has them. Called from the persistence processor handlers
+     */
+    void awaitReplicated(long commitTimestamp) throws Exception;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Standby side
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts receiving the state of the current master, if any. Called when the lease management starts
+     */
+    void startFollowing(Lease lease);
+
+    /**
+     * Stops following the previous master and starts serving the standbys of this instance. Called when this
+     * instance gets the lease, before its request processor gets the new TSO state
+     * @return the low watermark to take over with when the conflict detection state of the previous master was
+     *         received completely, or -1 when the TSO has to start from scratch
+     */
+    long takeOver() throws Exception;
+
+    /**
+     * The view of the lease of the TSO instance that the replication needs
+     */
+    interface Lease {
+
+        /**
+         * @return the version of the lease node written last by this instance or NO_LEASE_VERSION
+         */
+        int getVersion();
+
+        /**
+         * @return the version of the lease node written last by the previous master when this instance took over
+         *         its lease, or NO_LEASE_VERSION
+         */
+        int getPreviousMasterVersion();
+
+        /**
+         * Renews the lease right away, so the lease node gets a new version
+         */
+        void renew() throws Exception;
+
+    }
+
+}
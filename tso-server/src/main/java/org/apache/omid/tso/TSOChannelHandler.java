@@ -19,9 +19,11 @@ package org.apache.omid.tso;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.proto.TSOProto;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelHandler;
@@ -36,10 +38,9 @@ import org.jboss.netty.channel.SimpleChannelHandler;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
-import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
 import org.jboss.netty.handler.codec.protobuf.ProtobufDecoder;
-import org.jboss.netty.handler.codec.protobuf.ProtobufEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +49,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 
 /**
@@ -59,6 +62,10 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
 
     private static final Logger LOG = LoggerFactory.getLogger(TSOChannelHandler.class);
 
+    // Clients requesting more timestamps in a single request are disconnected. The number comes in an uint32 from
+    // the client, so this also keeps out the values that don't fit in an int
+    static final int MAX_TIMESTAMPS_PER_REQUEST = 1 << 16;
+
     private final ChannelFactory factory;
 
     private final ServerBootstrap bootstrap;
@@ -72,13 +79,13 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
 
     private TSOServerConfig config;
 
-    private MetricsRegistry metrics;
+    private final MonitoringContextFactory monCtxFactory;
 
     @Inject
     public TSOChannelHandler(TSOServerConfig config, RequestProcessor requestProcessor, MetricsRegistry metrics) {
 
         this.config = config;
-        this.metrics = metrics;
+        this.monCtxFactory = new MonitoringContextFactory(metrics, config.getMonitoringSamplingRate());
         this.requestProcessor = requestProcessor;
         // Setup netty listener
         this.factory = new NioServerSocketChannelFactory(
@@ -87,7 +94,7 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
                 (Runtime.getRuntime().availableProcessors() * 2 + 1) * 2);
 
         this.bootstrap = new ServerBootstrap(factory);
-        bootstrap.setPipelineFactory(new TSOPipelineFactory(this));
+        bootstrap.setPipelineFactory(new TSOPipelineFactory(this, new RequestDecoder()));
 
     }
 
@@ -151,9 +158,27 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
      * Handle received messages
      */
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws InvalidProtocolBufferException {
         Object msg = e.getMessage();
-        if (msg instanceof TSOProto.Request) {
+        if (msg instanceof ChannelBuffer) { // Commit request frame passed untouched by the RequestDecoder
+            if (!handshakeCompleted(ctx)) {
+                LOG.error("Handshake not completed. Closing channel {}", ctx.getChannel());
+                ctx.getChannel().close();
+                return;
+            }
+            ChannelBuffer frame = (ChannelBuffer) msg;
+            CommitRequestReader reader = ((TSOChannelContext) ctx.getAttachment()).getCommitRequestReader();
+            if (CommitRequestReader.isCommitRequest(frame)) {
+                commitRequest(ctx, reader, frame);
+            } else { // Several commit requests, each of them readable as a single commit request frame
+                int index = frame.readerIndex();
+                while (index < frame.writerIndex()) {
+                    int length = CommitRequestReader.commitRequestLength(frame, index);
+                    commitRequest(ctx, reader, frame.slice(index, length));
+                    index += length;
+                }
+            }
+        } else if (msg instanceof TSOProto.Request) {
             TSOProto.Request request = (TSOProto.Request) msg;
             if (request.hasHandshakeRequest()) {
                 checkHandshake(ctx, request.getHandshakeRequest());
@@ -165,14 +190,22 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
             }
 
             if (request.hasTimestampRequest()) {
-                requestProcessor.timestampRequest(ctx.getChannel(), new MonitoringContext(metrics));
+                int numTimestamps = request.getTimestampRequest().getNumTimestamps();
+                if (numTimestamps < 1 || numTimestamps > MAX_TIMESTAMPS_PER_REQUEST) {
+                    LOG.error("Invalid # of timestamps requested {}. Closing channel {}",
+                              numTimestamps & 0xFFFFFFFFL, ctx.getChannel());
+                    ctx.getChannel().close();
+                } else if (numTimestamps == 1) {
+                    requestProcessor.timestampRequest(ctx.getChannel(), monCtxFactory.newContext());
+                } else {
+                    requestProcessor.timestampRequest(ctx.getChannel(), numTimestamps, monCtxFactory.newContext());
+                }
             } else if (request.hasCommitRequest()) {
-                TSOProto.CommitRequest cr = request.getCommitRequest();
-                requestProcessor.commitRequest(cr.getStartTimestamp(),
-                                               cr.getCellIdList(),
-                                               cr.getIsRetry(),
-                                               ctx.getChannel(),
-                                               new MonitoringContext(metrics));
+                commitRequest(ctx, request.getCommitRequest());
+            } else if (request.getCommitRequestsCount() > 0) {
+                for (TSOProto.CommitRequest cr : request.getCommitRequestsList()) {
+                    commitRequest(ctx, cr);
+                }
             } else {
                 LOG.error("Invalid request {}. Closing channel {}", request, ctx.getChannel());
                 ctx.getChannel().close();
@@ -182,6 +215,38 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
         }
     }
 
+    private void commitRequest(ChannelHandlerContext ctx, CommitRequestReader reader, ChannelBuffer frame)
+            throws InvalidProtocolBufferException {
+
+        reader.scan(frame); // Malformed frames end up in exceptionCaught(), which closes the channel
+        requestProcessor.commitRequest(reader.getStartTimestamp(),
+                                       frame,
+                                       reader.getNumCellIds(),
+                                       reader.isRetry(),
+                                       ctx.getChannel(),
+                                       monCtxFactory.newContext());
+
+    }
+
+    private void commitRequest(ChannelHandlerContext ctx, TSOProto.CommitRequest cr) {
+
+        List<Long> cellIds = cr.getCellIdList();
+        if (cr.getPackedCellIdCount() > 0) {
+            if (cellIds.isEmpty()) {
+                cellIds = cr.getPackedCellIdList();
+            } else {
+                cellIds = new ArrayList<>(cellIds);
+                cellIds.addAll(cr.getPackedCellIdList());
+            }
+        }
+        requestProcessor.commitRequest(cr.getStartTimestamp(),
+                                       cellIds,
+                                       cr.getIsRetry(),
+                                       ctx.getChannel(),
+                                       monCtxFactory.newContext());
+
+    }
+
     @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
@@ -213,6 +278,9 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
 
         boolean handshakeComplete;
 
+        // Only accessed from the I/O thread the channel is bound to
+        final CommitRequestReader commitRequestReader = new CommitRequestReader();
+
         TSOChannelContext() {
             handshakeComplete = false;
         }
@@ -225,6 +293,10 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
             handshakeComplete = true;
         }
 
+        CommitRequestReader getCommitRequestReader() {
+            return commitRequestReader;
+        }
+
     }
 
     private void checkHandshake(final ChannelHandlerContext ctx, TSOProto.HandshakeRequest request) {
@@ -233,7 +305,10 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
         if (request.hasClientCapabilities()) {
 
             response.setClientCompatible(true)
-                    .setServerCapabilities(TSOProto.Capabilities.newBuilder().build());
+                    .setServerCapabilities(TSOProto.Capabilities.newBuilder()
+                                                   .setMultiRequests(true)
+                                                   .setPackedCellIds(true)
+                                                   .build());
             TSOChannelContext tsoCtx = new TSOChannelContext();
             tsoCtx.setHandshakeComplete();
             ctx.setAttachment(tsoCtx);
@@ -260,10 +335,18 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
      */
     static class TSOPipelineFactory implements ChannelPipelineFactory {
 
+        private static final ResponseEncoder RESPONSE_ENCODER = new ResponseEncoder();
+
         private final ChannelHandler handler;
+        private final OneToOneDecoder requestDecoder;
 
         TSOPipelineFactory(ChannelHandler handler) {
+            this(handler, new ProtobufDecoder(TSOProto.Request.getDefaultInstance()));
+        }
+
+        TSOPipelineFactory(ChannelHandler handler, OneToOneDecoder requestDecoder) {
             this.handler = handler;
+            this.requestDecoder = requestDecoder;
         }
 
         public ChannelPipeline getPipeline() throws Exception {
@@ -273,9 +356,8 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
             // that the packet is rejected will receive a ServiceUnavailableException.
             // 10MB is enough for 2 million cells in a transaction though.
             pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(10 * 1024 * 1024, 0, 4, 0, 4));
-            pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
-            pipeline.addLast("protobufdecoder", new ProtobufDecoder(TSOProto.Request.getDefaultInstance()));
-            pipeline.addLast("protobufencoder", new ProtobufEncoder());
+            pipeline.addLast("protobufdecoder", requestDecoder);
+            pipeline.addLast("responseencoder", RESPONSE_ENCODER);
             pipeline.addLast("handler", handler);
 
             return pipeline;
@@ -45,6 +45,11 @@ class TSOModule extends AbstractModule {
         bind(TSOStateManager.class).to(TSOStateManagerImpl.class).in(Singleton.class);
         bind(TimestampOracle.class).to(TimestampOracleImpl.class).in(Singleton.class);
         bind(Panicker.class).to(SystemExitPanicker.class).in(Singleton.class);
+        if (config.getHotStandbyPort() > 0) {
+            bind(StateReplicator.class).to(HotStandbyReplicator.class).in(Singleton.class);
+        } else {
+            bind(StateReplicator.class).to(VoidStateReplicator.class).in(Singleton.class);
+        }
 
         install(new BatchPoolModule(config));
         // Disruptor setup
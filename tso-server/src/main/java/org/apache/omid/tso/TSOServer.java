@@ -52,6 +52,8 @@ public class TSOServer extends AbstractIdleService {
     private RetryProcessor retryProcessor;
     @Inject
     private ReplyProcessor replyProcessor;
+    @Inject
+    private StateReplicator stateReplicator;
 
     // ----------------------------------------------------------------------------------------------------------------
     // High availability related variables
@@ -115,6 +117,7 @@ public class TSOServer extends AbstractIdleService {
         LOG.info("Shutting Down TSO Server");
         LOG.info("{}", DASH_SEPARATOR_80_CHARS);
         leaseManagement.stopService();
+        stateReplicator.close();
         tsoStateManager.unregister(requestProcessor);
         requestProcessor.close();
         persistenceProcessor.close();
@@ -44,6 +44,11 @@ public class TSOServerConfig extends SecureHBaseConfig {
         LOW_CPU
     };
 
+    public static enum CONFLICT_MAP_TYPE {
+        ON_HEAP,
+        OFF_HEAP
+    };
+
     // ----------------------------------------------------------------------------------------------------------------
     // Instantiation
     // ----------------------------------------------------------------------------------------------------------------
@@ -72,12 +77,30 @@ public class TSOServerConfig extends SecureHBaseConfig {
 
     private int conflictMapSize;
 
+    private String conflictMapType = CONFLICT_MAP_TYPE.ON_HEAP.name();
+
+    private int numConflictDetectionThreads;
+
+    private int numLowWatermarkSegments;
+
     private int numConcurrentCTWriters;
 
     private int batchSizePerCTWriter;
 
     private int batchPersistTimeoutInMs;
 
+    private int batchLatencyTargetInMs;
+
+    private int numReplyThreads;
+
+    private double monitoringSamplingRate;
+
+    private int hotStandbyPort;
+
+    private String hotStandbyPeer = "";
+
+    private int hotStandbyAckTimeoutInMs;
+
     private String waitStrategy;
 
     private String networkIfaceName = NetworkUtils.getDefaultNetworkInterface();
@@ -98,6 +121,34 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.conflictMapSize = conflictMapSize;
     }
 
+    public String getConflictMapType() {
+        return conflictMapType;
+    }
+
+    public CONFLICT_MAP_TYPE getConflictMapTypeEnum() {
+        return TSOServerConfig.CONFLICT_MAP_TYPE.valueOf(conflictMapType);
+    }
+
+    public void setConflictMapType(String conflictMapType) {
+        this.conflictMapType = conflictMapType;
+    }
+
+    public int getNumConflictDetectionThreads() {
+        return numConflictDetectionThreads;
+    }
+
+    public void setNumConflictDetectionThreads(int numConflictDetectionThreads) {
+        this.numConflictDetectionThreads = numConflictDetectionThreads;
+    }
+
+    public int getNumLowWatermarkSegments() {
+        return numLowWatermarkSegments;
+    }
+
+    public void setNumLowWatermarkSegments(int numLowWatermarkSegments) {
+        this.numLowWatermarkSegments = numLowWatermarkSegments;
+    }
+
     public int getNumConcurrentCTWriters() {
         return numConcurrentCTWriters;
     }
@@ -106,6 +157,38 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.numConcurrentCTWriters = numConcurrentCTWriters;
     }
 
+    public int getNumReplyThreads() {
+        return numReplyThreads;
+    }
+
+    public void setNumReplyThreads(int numReplyThreads) {
+        this.numReplyThreads = numReplyThreads;
+    }
+
+    public int getHotStandbyPort() {
+        return hotStandbyPort;
+    }
+
+    public void setHotStandbyPort(int hotStandbyPort) {
+        this.hotStandbyPort = hotStandbyPort;
+    }
+
+    public String getHotStandbyPeer() {
+        return hotStandbyPeer;
+    }
+
+    public void setHotStandbyPeer(String hotStandbyPeer) {
+        this.hotStandbyPeer = hotStandbyPeer;
+    }
+
+    public int getHotStandbyAckTimeoutInMs() {
+        return hotStandbyAckTimeoutInMs;
+    }
+
+    public void setHotStandbyAckTimeoutInMs(int hotStandbyAckTimeoutInMs) {
+        this.hotStandbyAckTimeoutInMs = hotStandbyAckTimeoutInMs;
+    }
+
     public int getBatchSizePerCTWriter() {
         return batchSizePerCTWriter;
     }
@@ -122,6 +205,22 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.batchPersistTimeoutInMs = value;
     }
 
+    public int getBatchLatencyTargetInMs() {
+        return batchLatencyTargetInMs;
+    }
+
+    public void setBatchLatencyTargetInMs(int batchLatencyTargetInMs) {
+        this.batchLatencyTargetInMs = batchLatencyTargetInMs;
+    }
+
+    public double getMonitoringSamplingRate() {
+        return monitoringSamplingRate;
+    }
+
+    public void setMonitoringSamplingRate(double monitoringSamplingRate) {
+        this.monitoringSamplingRate = monitoringSamplingRate;
+    }
+
     public String getNetworkIfaceName() {
         return networkIfaceName;
     }
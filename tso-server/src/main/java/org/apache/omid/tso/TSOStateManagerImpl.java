@@ -38,9 +38,16 @@ public class TSOStateManagerImpl implements TSOStateManager {
 
     private TimestampOracle timestampOracle;
 
-    @Inject
+    private StateReplicator stateReplicator;
+
     public TSOStateManagerImpl(TimestampOracle timestampOracle) {
+        this(timestampOracle, new VoidStateReplicator());
+    }
+
+    @Inject
+    public TSOStateManagerImpl(TimestampOracle timestampOracle, StateReplicator stateReplicator) {
         this.timestampOracle = timestampOracle;
+        this.stateReplicator = stateReplicator;
     }
 
     @Override
@@ -63,6 +70,12 @@ public class TSOStateManagerImpl implements TSOStateManager {
         // The timestamp oracle dictates the new state
         timestampOracle.initialize();
         long lowWatermark = timestampOracle.getLast();
+        // A hot standby that got the whole conflict detection state of the previous master only needs to abort
+        // the transactions started before the point it began receiving it
+        long warmLowWatermark = stateReplicator.takeOver();
+        if (warmLowWatermark >= 0) {
+            lowWatermark = Math.min(warmLowWatermark, lowWatermark);
+        }
         // In this implementation the epoch == low watermark
         long epoch = lowWatermark;
         state = new TSOState(lowWatermark, epoch);
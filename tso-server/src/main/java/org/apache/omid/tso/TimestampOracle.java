@@ -36,6 +36,12 @@ public interface TimestampOracle {
      */
     long next();
 
+    /**
+     * Reserves the next numTimestamps consecutive timestamps at once.
+     * @return the first timestamp of the range reserved
+     */
+    long next(int numTimestamps);
+
     /**
      * Returns the last timestamp assigned.
      */
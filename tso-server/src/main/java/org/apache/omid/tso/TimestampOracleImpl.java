@@ -18,6 +18,7 @@
 package org.apache.omid.tso;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.omid.metrics.Gauge;
 import org.apache.omid.metrics.MetricsRegistry;
@@ -131,7 +132,6 @@ public class TimestampOracleImpl implements TimestampOracle {
     /**
      * Returns the next timestamp if available. Otherwise spins till the ts-persist thread allocates a new timestamp.
      */
-    @SuppressWarnings("StatementWithEmptyBody")
     @Override
     public long next() {
         lastTimestamp++;
@@ -141,20 +141,48 @@ public class TimestampOracleImpl implements TimestampOracle {
         }
 
         if (lastTimestamp >= maxTimestamp) {
-            assert (maxTimestamp <= maxAllocatedTimestamp);
-            while (maxAllocatedTimestamp == maxTimestamp) {
-                // spin
-            }
-            assert (maxAllocatedTimestamp > maxTimestamp);
-            maxTimestamp = maxAllocatedTimestamp;
-            nextAllocationThreshold = maxTimestamp - TIMESTAMP_REMAINING_THRESHOLD;
-            assert (nextAllocationThreshold > lastTimestamp && nextAllocationThreshold < maxTimestamp);
-            assert (lastTimestamp < maxTimestamp);
+            waitForAllocation();
         }
 
         return lastTimestamp;
     }
 
+    /**
+     * Same as next(), for a range of timestamps. The range is at most as large as the timestamps left when a new
+     * allocation is triggered, so it never goes beyond the next allocation
+     */
+    @Override
+    public long next(int numTimestamps) {
+        Preconditions.checkArgument(numTimestamps > 0 && numTimestamps <= TIMESTAMP_REMAINING_THRESHOLD,
+                                    "# of timestamps [%s] must be between 1 and %s",
+                                    numTimestamps, TIMESTAMP_REMAINING_THRESHOLD);
+        long firstTimestamp = lastTimestamp + 1;
+        lastTimestamp += numTimestamps;
+
+        if (firstTimestamp <= nextAllocationThreshold && lastTimestamp >= nextAllocationThreshold) {
+            executor.execute(allocateTimestampsBatchTask);
+        }
+
+        if (lastTimestamp >= maxTimestamp) {
+            waitForAllocation();
+        }
+
+        return firstTimestamp;
+    }
+
+    @SuppressWarnings("StatementWithEmptyBody")
+    private void waitForAllocation() {
+        assert (maxTimestamp <= maxAllocatedTimestamp);
+        while (maxAllocatedTimestamp == maxTimestamp) {
+            // spin
+        }
+        assert (maxAllocatedTimestamp > maxTimestamp);
+        maxTimestamp = maxAllocatedTimestamp;
+        nextAllocationThreshold = maxTimestamp - TIMESTAMP_REMAINING_THRESHOLD;
+        assert (nextAllocationThreshold > lastTimestamp && nextAllocationThreshold < maxTimestamp);
+        assert (lastTimestamp < maxTimestamp);
+    }
+
     @Override
     public long getLast() {
         return lastTimestamp;
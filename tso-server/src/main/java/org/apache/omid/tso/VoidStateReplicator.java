@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+/**
+ * Used when there's no hot standby configured. Nothing is replicated and the TSO always takes over from scratch
+ */
+public class VoidStateReplicator implements StateReplicator {
+
+    @Override
+    public void replicateCommit(long commitTimestamp, long[] writeSet, int numCells) {
+        // Do nothing
+    }
+
+    @Override
+    public void replicateLowWatermark(long lowWatermark) {
+        // Do nothing
+    }
+
+    @Override
+    public void flush(long lastTimestamp) {
+        // Do nothing
+    }
+
+    @Override
+    public void sendPendingUpdates() {
+        // Do nothing
+    }
+
+    @Override
+    public void awaitReplicated(long commitTimestamp) {
+        // Do nothing
+    }
+
+    @Override
+    public void startFollowing(Lease lease) {
+        // Do nothing
+    }
+
+    @Override
+    public long takeOver() {
+        return -1L;
+    }
+
+    @Override
+    public void close() {
+        // Do nothing
+    }
+
+}
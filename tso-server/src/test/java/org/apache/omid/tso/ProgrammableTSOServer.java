@@ -40,7 +40,9 @@ import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Used in tests. Allows to program the set of responses returned by a TSO
@@ -54,6 +56,12 @@ public class ProgrammableTSOServer extends SimpleChannelHandler {
 
     private Queue<Response> responseQueue = new LinkedList<>();
 
+    // Whether the handshakes and the requests are answered, and the requests not answered yet
+    private volatile boolean ignoreHandshakes = false;
+    private volatile boolean holdResponses = false;
+    private final Queue<HeldRequest> heldRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger handshakesReceived = new AtomicInteger();
+
     @Inject
     public ProgrammableTSOServer(int port) {
         // Setup netty listener
@@ -87,12 +95,46 @@ public class ProgrammableTSOServer extends SimpleChannelHandler {
     }
 
     /**
-     * Removes all the current responses in the queue
+     * Removes all the current responses in the queue, and the requests held unanswered
      */
     public void cleanResponses() {
+        holdResponses = false;
+        heldRequests.clear();
         responseQueue.clear();
     }
 
+    /**
+     * Allows to leave the handshakes received unanswered, so the clients time them out
+     *
+     * @param ignore
+     *            whether to ignore the handshakes received from now on
+     */
+    public void ignoreHandshakes(boolean ignore) {
+        ignoreHandshakes = ignore;
+    }
+
+    /**
+     * Holds the responses to the requests received from now on, until releaseResponses() is called
+     */
+    public void holdResponses() {
+        holdResponses = true;
+    }
+
+    /**
+     * Sends the responses held, from the responses queued, and answers the requests received from now on again
+     */
+    public void releaseResponses() {
+        holdResponses = false;
+        HeldRequest held;
+        while ((held = heldRequests.poll()) != null) {
+            respond(held.channel, held.request);
+        }
+    }
+
+    public int getHandshakesReceived() {
+        return handshakesReceived.get();
+    }
+
     // ******************** End of Main interface for tests *******************
 
     @Override
@@ -123,38 +165,46 @@ public class ProgrammableTSOServer extends SimpleChannelHandler {
                 channel.close();
             }
 
-            Response resp = responseQueue.poll();
-            if (request.hasTimestampRequest()) {
-                if (resp == null || resp.type != ResponseType.TIMESTAMP) {
-                    throw new IllegalStateException("Expecting TS response to send but got " + resp);
-                }
-                TimestampResponse tsResp = (TimestampResponse) resp;
-                sendTimestampResponse(tsResp.startTS, channel);
-            } else if (request.hasCommitRequest()) {
-                if (resp == null) {
-                    throw new IllegalStateException("Expecting COMMIT response to send but got null");
-                }
-                switch (resp.type) {
-                    case COMMIT:
-                        CommitResponse commitResp = (CommitResponse) resp;
-                        sendCommitResponse(commitResp.startTS, commitResp.commitTS, channel);
-                        break;
-                    case ABORT:
-                        AbortResponse abortResp = (AbortResponse) resp;
-                        sendAbortResponse(abortResp.startTS, channel);
-                        break;
-                    default:
-                        throw new IllegalStateException("Expecting COMMIT response to send but got " + resp.type);
-                }
-            } else {
-                LOG.error("Invalid request {}", request);
-                ctx.getChannel().close();
+            if (holdResponses) {
+                heldRequests.add(new HeldRequest(channel, request));
+                return;
             }
+            respond(channel, request);
         } else {
             LOG.error("Unknown message type", msg);
         }
     }
 
+    private void respond(Channel channel, TSOProto.Request request) {
+        Response resp = responseQueue.poll();
+        if (request.hasTimestampRequest()) {
+            if (resp == null || resp.type != ResponseType.TIMESTAMP) {
+                throw new IllegalStateException("Expecting TS response to send but got " + resp);
+            }
+            TimestampResponse tsResp = (TimestampResponse) resp;
+            sendTimestampResponse(tsResp.startTS, channel);
+        } else if (request.hasCommitRequest()) {
+            if (resp == null) {
+                throw new IllegalStateException("Expecting COMMIT response to send but got null");
+            }
+            switch (resp.type) {
+                case COMMIT:
+                    CommitResponse commitResp = (CommitResponse) resp;
+                    sendCommitResponse(commitResp.startTS, commitResp.commitTS, channel);
+                    break;
+                case ABORT:
+                    AbortResponse abortResp = (AbortResponse) resp;
+                    sendAbortResponse(abortResp.startTS, channel);
+                    break;
+                default:
+                    throw new IllegalStateException("Expecting COMMIT response to send but got " + resp.type);
+            }
+        } else {
+            LOG.error("Invalid request {}", request);
+            channel.close();
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
         if (e.getCause() instanceof ClosedChannelException) {
@@ -165,6 +215,10 @@ public class ProgrammableTSOServer extends SimpleChannelHandler {
     }
 
     private void checkHandshake(final ChannelHandlerContext ctx, TSOProto.HandshakeRequest request) {
+        handshakesReceived.incrementAndGet();
+        if (ignoreHandshakes) {
+            return;
+        }
         TSOProto.HandshakeResponse.Builder response = TSOProto.HandshakeResponse.newBuilder();
         if (request.hasClientCapabilities()) {
 
@@ -211,6 +265,18 @@ public class ProgrammableTSOServer extends SimpleChannelHandler {
         c.write(builder.build());
     }
 
+    private static class HeldRequest {
+
+        final Channel channel;
+        final TSOProto.Request request;
+
+        HeldRequest(Channel channel, TSOProto.Request request) {
+            this.channel = channel;
+            this.request = request;
+        }
+
+    }
+
     private static class TSOChannelContext {
         boolean handshakeComplete;
 
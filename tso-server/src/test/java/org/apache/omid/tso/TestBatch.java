@@ -17,7 +17,6 @@
  */
 package org.apache.omid.tso;
 
-import org.apache.commons.pool2.PooledObject;
 import org.jboss.netty.channel.Channel;
 import org.mockito.Mock;
 import org.slf4j.Logger;
@@ -129,21 +128,17 @@ public class TestBatch {
     }
 
     @Test(timeOut = 10_000)
-    public void testBatchFactoryFunctionality() throws Exception {
+    public void testBatchPoolFunctionality() throws Exception {
 
         // Component to test
-        Batch.BatchFactory factory = new Batch.BatchFactory(BATCH_SIZE);
+        BatchPool pool = new BatchPool(1, BATCH_SIZE);
 
-        // Check the factory creates a new batch properly...
-        Batch batch = factory.create();
+        // Check the pool hands out a new batch properly...
+        Batch batch = pool.borrowObject();
         assertTrue(batch.isEmpty(), "Batch should be empty");
         assertFalse(batch.isFull(), "Batch shouldn't be full");
         assertEquals(batch.getNumEvents(), 0, "Num events should be 0");
 
-        // ...and is wrapped in to a pooled object
-        PooledObject<Batch> pooledBatch = factory.wrap(batch);
-        assertEquals(pooledBatch.getObject(), batch);
-
         // Put some elements in the batch...
         batch.addTimestamp(ANY_ST, channel, monCtx);
         batch.addCommit(ANY_ST, ANY_CT, channel, monCtx);
@@ -153,12 +148,13 @@ public class TestBatch {
         assertFalse(batch.isFull(), "Batch should NOT be full");
         assertEquals(batch.getNumEvents(), 4, "Num events should be 4");
 
-        // ... and passivate the object through the factory. It should reset the state of the batch
-        factory.passivateObject(pooledBatch);
+        // ... and return it to the pool. It should reset the state of the batch
+        pool.returnObject(batch);
         assertTrue(batch.isEmpty(), "Batch should NOT contain elements");
         assertFalse(batch.isFull(), "Batch should NOT be full");
         assertEquals(batch.getNumEvents(), 0, "Num events should be 0");
+        assertEquals(pool.borrowObject(), batch);
 
     }
 
-}
\ No newline at end of file
+}
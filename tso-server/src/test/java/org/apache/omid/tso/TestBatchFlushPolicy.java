@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestBatchFlushPolicy {
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int NUM_WRITERS = 2;
+    private static final long MAX_WAIT_IN_MS = 10;
+
+    @Test(timeOut = 10_000)
+    public void testWithoutLatencyTargetBatchesAreFlushedWhenFullOrAfterTheTimeout() {
+
+        long now = 1_000L;
+        BatchFlushPolicy policy = new BatchFlushPolicy(MAX_BATCH_SIZE, NUM_WRITERS, MAX_WAIT_IN_MS, 0, now);
+
+        assertFalse(policy.isAdaptive());
+        assertFalse(policy.isExpired(now), "No deadline until the batch gets its first event");
+
+        policy.batchOpened(now);
+        assertFalse(policy.isExpired(now + MILLISECONDS.toNanos(MAX_WAIT_IN_MS) - 1));
+        assertTrue(policy.isExpired(now + MILLISECONDS.toNanos(MAX_WAIT_IN_MS)));
+        assertFalse(policy.isComplete(MAX_BATCH_SIZE - 1));
+        assertTrue(policy.isComplete(MAX_BATCH_SIZE));
+
+        // Flushes don't change anything but clearing the deadline
+        policy.flushLatency(MILLISECONDS.toNanos(5));
+        policy.batchFlushed(1, now + MILLISECONDS.toNanos(MAX_WAIT_IN_MS));
+        assertFalse(policy.isExpired(Long.MAX_VALUE));
+        assertEquals(policy.getBatchSize(), MAX_BATCH_SIZE);
+        assertEquals(policy.getWaitInNs(), MILLISECONDS.toNanos(MAX_WAIT_IN_MS));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBatchesAdaptToTheLoad() {
+
+        final long LATENCY_TARGET_IN_MS = 5;
+        final long FLUSH_LATENCY_IN_NS = MILLISECONDS.toNanos(2);
+
+        long now = 0L;
+        BatchFlushPolicy policy =
+                new BatchFlushPolicy(MAX_BATCH_SIZE, NUM_WRITERS, MAX_WAIT_IN_MS, LATENCY_TARGET_IN_MS, now);
+        assertTrue(policy.isAdaptive());
+
+        // Light load: an event every 10ms. Batches end up with a single event
+        for (int i = 0; i < 50; i++) {
+            now += MILLISECONDS.toNanos(10);
+            policy.flushLatency(FLUSH_LATENCY_IN_NS);
+            policy.batchFlushed(1, now);
+        }
+        assertEquals(policy.getBatchSize(), 1);
+        // The batches wait for the part of the latency target the flushes don't use
+        assertEquals(policy.getWaitInNs(), MILLISECONDS.toNanos(LATENCY_TARGET_IN_MS) - FLUSH_LATENCY_IN_NS);
+
+        // Heavy load: 100 events every 10us. Batches grow to their capacity
+        for (int i = 0; i < 50; i++) {
+            now += 10_000L;
+            policy.flushLatency(FLUSH_LATENCY_IN_NS);
+            policy.batchFlushed(100, now);
+        }
+        assertEquals(policy.getBatchSize(), MAX_BATCH_SIZE);
+
+        // Moderate load: an event every 100us. Batches of the events arriving in the time they can wait
+        for (int i = 0; i < 200; i++) {
+            now += 100_000L;
+            policy.flushLatency(FLUSH_LATENCY_IN_NS);
+            policy.batchFlushed(1, now);
+        }
+        assertEquals(policy.getBatchSize(), 30.0, 1.0);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBatchesAreBigEnoughForTheWritersToKeepUp() {
+
+        final long LATENCY_TARGET_IN_MS = 5;
+
+        long now = 0L;
+        BatchFlushPolicy policy =
+                new BatchFlushPolicy(MAX_BATCH_SIZE, NUM_WRITERS, MAX_WAIT_IN_MS, LATENCY_TARGET_IN_MS, now);
+
+        // Flushes exceeding the latency target leave the minimum wait, but batches have to hold the events arriving
+        // while the writers are busy: an event every 100us during 10ms flushes between 2 writers makes 50 events
+        for (int i = 0; i < 200; i++) {
+            now += 100_000L;
+            policy.flushLatency(MILLISECONDS.toNanos(10));
+            policy.batchFlushed(1, now);
+        }
+        assertEquals(policy.getBatchSize(), 50.0, 1.0);
+        assertTrue(policy.getWaitInNs() < MILLISECONDS.toNanos(1));
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestBatchPool {
+
+    private static final int POOL_SIZE = 4;
+    private static final int BATCH_SIZE = 10;
+
+    @Test(timeOut = 10_000)
+    public void testBatchesAreRecycledInAnyOrder() throws Exception {
+
+        BatchPool pool = new BatchPool(POOL_SIZE, BATCH_SIZE);
+
+        List<Batch> batches = new ArrayList<>();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            batches.add(pool.borrowObject());
+        }
+        assertEquals(new HashSet<>(batches).size(), POOL_SIZE, "All the batches should be different");
+        assertEquals(pool.getNumActive(), POOL_SIZE);
+        assertEquals(pool.getNumIdle(), 0);
+
+        // Returned in the reverse order
+        for (int i = POOL_SIZE - 1; i >= 0; i--) {
+            pool.returnObject(batches.get(i));
+        }
+        assertEquals(pool.getNumActive(), 0);
+        assertEquals(pool.getNumIdle(), POOL_SIZE);
+
+        Set<Batch> borrowedAgain = new HashSet<>();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            borrowedAgain.add(pool.borrowObject());
+        }
+        assertEquals(borrowedAgain, new HashSet<>(batches));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBorrowerWaitsWhenAllBatchesAreInFlight() throws Exception {
+
+        final BatchPool pool = new BatchPool(1, BATCH_SIZE);
+        final Batch batch = pool.borrowObject();
+
+        final CountDownLatch borrowed = new CountDownLatch(1);
+        Thread borrower = new Thread("borrower") {
+            @Override
+            public void run() {
+                try {
+                    pool.borrowObject();
+                    borrowed.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        borrower.start();
+        assertFalse(borrowed.await(100, TimeUnit.MILLISECONDS), "Nothing to borrow until the batch is returned");
+
+        pool.returnObject(batch);
+        assertTrue(borrowed.await(1, TimeUnit.SECONDS));
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testBatchesReturnedFromSeveralThreadsAreNeverLost() throws Exception {
+
+        final BatchPool pool = new BatchPool(POOL_SIZE, BATCH_SIZE);
+        final BlockingQueue<Batch> inFlight = new ArrayBlockingQueue<>(POOL_SIZE);
+        final int numBorrows = 100_000;
+
+        List<Thread> returners = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread returner = new Thread("returner-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            pool.returnObject(inFlight.take());
+                        }
+                    } catch (InterruptedException e) {
+                        // Finished
+                    }
+                }
+            };
+            returner.start();
+            returners.add(returner);
+        }
+
+        for (int i = 0; i < numBorrows; i++) {
+            Batch batch = pool.borrowObject();
+            assertTrue(batch.isEmpty());
+            batch.addAbort(i, null, MonitoringContext.NOT_SAMPLED);
+            inFlight.put(batch);
+        }
+
+        while (pool.getNumIdle() < POOL_SIZE) {
+            Thread.sleep(10);
+        }
+        for (Thread returner : returners) {
+            returner.interrupt();
+        }
+
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import org.apache.omid.proto.TSOProto;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestCommitRequestReader {
+
+    private static final long START_TS = 1234567890L;
+    private static final List<Long> CELL_IDS = Arrays.asList(0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 300L);
+
+    @Test(timeOut = 10_000)
+    public void testReadsTheSameAsTheProtobufParser() throws Exception {
+
+        TSOProto.Request request = TSOProto.Request.newBuilder()
+                .setCommitRequest(TSOProto.CommitRequest.newBuilder()
+                                          .setStartTimestamp(START_TS)
+                                          .setIsRetry(true)
+                                          .addAllCellId(CELL_IDS))
+                .build();
+        ChannelBuffer frame = ChannelBuffers.wrappedBuffer(request.toByteArray());
+
+        checkFrame(frame, START_TS, true, CELL_IDS);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testEmptyWriteSet() throws Exception {
+
+        TSOProto.Request request = TSOProto.Request.newBuilder()
+                .setCommitRequest(TSOProto.CommitRequest.newBuilder().setStartTimestamp(START_TS))
+                .build();
+        ChannelBuffer frame = ChannelBuffers.wrappedBuffer(request.toByteArray());
+
+        checkFrame(frame, START_TS, false, Arrays.<Long>asList());
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testPackedCellIdsAndUnknownFieldsAreAccepted() throws Exception {
+
+        ByteArrayOutputStream commitRequest = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(commitRequest);
+        out.writeUInt64(TSOProto.CommitRequest.STARTTIMESTAMP_FIELD_NUMBER, START_TS);
+        // Packed cell ids
+        int packedSize = 0;
+        for (long cellId : CELL_IDS) {
+            packedSize += CodedOutputStream.computeInt64SizeNoTag(cellId);
+        }
+        out.writeRawVarint32((TSOProto.CommitRequest.CELLID_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(packedSize);
+        for (long cellId : CELL_IDS) {
+            out.writeInt64NoTag(cellId);
+        }
+        // Fields unknown to this server version
+        out.writeFixed64(100, 42L);
+        out.writeString(101, "unknown");
+        out.writeFixed32(102, 7);
+        out.flush();
+
+        ChannelBuffer frame = commitRequestFrame(commitRequest.toByteArray());
+        // Make sure the protobuf parser agrees on the content
+        TSOProto.Request parsed = TSOProto.Request.parseFrom(frame.array());
+        assertEquals(parsed.getCommitRequest().getCellIdList(), CELL_IDS);
+
+        checkFrame(frame, START_TS, false, CELL_IDS);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testPackedFixed64CellIds() throws Exception {
+
+        TSOProto.Request request = TSOProto.Request.newBuilder()
+                .setCommitRequest(TSOProto.CommitRequest.newBuilder()
+                                          .setStartTimestamp(START_TS)
+                                          .addAllPackedCellId(CELL_IDS))
+                .build();
+        ChannelBuffer frame = ChannelBuffers.wrappedBuffer(request.toByteArray());
+
+        checkFrame(frame, START_TS, false, CELL_IDS);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testVarintAndFixed64CellIdsAreReadInOrder() throws Exception {
+
+        ByteArrayOutputStream commitRequest = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(commitRequest);
+        out.writeUInt64(TSOProto.CommitRequest.STARTTIMESTAMP_FIELD_NUMBER, START_TS);
+        out.writeInt64(TSOProto.CommitRequest.CELLID_FIELD_NUMBER, CELL_IDS.get(0));
+        // Packed fixed64 cell ids
+        out.writeRawVarint32((TSOProto.CommitRequest.PACKEDCELLID_FIELD_NUMBER << 3)
+                                     | WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(8 * (CELL_IDS.size() - 2));
+        for (long cellId : CELL_IDS.subList(1, CELL_IDS.size() - 1)) {
+            out.writeFixed64NoTag(cellId);
+        }
+        // Unpacked fixed64 cell id
+        out.writeFixed64(TSOProto.CommitRequest.PACKEDCELLID_FIELD_NUMBER, CELL_IDS.get(CELL_IDS.size() - 1));
+        out.flush();
+
+        ChannelBuffer frame = commitRequestFrame(commitRequest.toByteArray());
+        // Make sure the protobuf parser agrees on the content
+        TSOProto.CommitRequest parsed = TSOProto.Request.parseFrom(frame.array()).getCommitRequest();
+        assertEquals(parsed.getCellIdList(), CELL_IDS.subList(0, 1));
+        assertEquals(parsed.getPackedCellIdList(), CELL_IDS.subList(1, CELL_IDS.size()));
+
+        checkFrame(frame, START_TS, false, CELL_IDS);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOtherRequestsAreNotRecognizedAsCommitRequests() throws Exception {
+
+        TSOProto.Request tsRequest = TSOProto.Request.newBuilder()
+                .setTimestampRequest(TSOProto.TimestampRequest.newBuilder())
+                .build();
+        assertFalse(CommitRequestReader.isCommitRequest(ChannelBuffers.wrappedBuffer(tsRequest.toByteArray())));
+
+        TSOProto.Request handshake = TSOProto.Request.newBuilder()
+                .setHandshakeRequest(TSOProto.HandshakeRequest.newBuilder()
+                                             .setClientCapabilities(TSOProto.Capabilities.newBuilder()))
+                .build();
+        assertFalse(CommitRequestReader.isCommitRequest(ChannelBuffers.wrappedBuffer(handshake.toByteArray())));
+
+        // A commit request followed by other fields must be left to the protobuf decoder
+        byte[] commit = TSOProto.Request.newBuilder()
+                .setCommitRequest(TSOProto.CommitRequest.newBuilder().setStartTimestamp(START_TS))
+                .build().toByteArray();
+        byte[] both = Arrays.copyOf(commit, commit.length + tsRequest.toByteArray().length);
+        System.arraycopy(tsRequest.toByteArray(), 0, both, commit.length, tsRequest.toByteArray().length);
+        assertFalse(CommitRequestReader.isCommitRequest(ChannelBuffers.wrappedBuffer(both)));
+
+        assertFalse(CommitRequestReader.isCommitRequest(ChannelBuffers.EMPTY_BUFFER));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testMalformedFramesAreRejected() throws Exception {
+
+        // Truncated varint in the start timestamp
+        byte[] truncated = new byte[]{(byte) ((TSOProto.CommitRequest.STARTTIMESTAMP_FIELD_NUMBER << 3)), (byte) 0x80};
+        ChannelBuffer frame = commitRequestFrame(truncated);
+        assertTrue(CommitRequestReader.isCommitRequest(frame));
+        try {
+            new CommitRequestReader().scan(frame);
+            fail();
+        } catch (InvalidProtocolBufferException e) {
+            // Expected
+        }
+
+        // Packed fixed64 cell ids whose length is not a multiple of 8
+        byte[] badLength = new byte[]{
+                (byte) ((TSOProto.CommitRequest.PACKEDCELLID_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED),
+                0x03, 0x01, 0x02, 0x03};
+        frame = commitRequestFrame(badLength);
+        try {
+            new CommitRequestReader().scan(frame);
+            fail();
+        } catch (InvalidProtocolBufferException e) {
+            // Expected
+        }
+
+        // Groups are not expected in commit requests
+        byte[] group = new byte[]{(byte) ((10 << 3) | WireFormat.WIRETYPE_START_GROUP), 0x06};
+        frame = commitRequestFrame(group);
+        try {
+            new CommitRequestReader().scan(frame);
+            fail();
+        } catch (InvalidProtocolBufferException e) {
+            // Expected
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void checkFrame(ChannelBuffer frame, long startTs, boolean isRetry, List<Long> cellIds) throws Exception {
+
+        int readerIndex = frame.readerIndex();
+        assertTrue(CommitRequestReader.isCommitRequest(frame));
+
+        CommitRequestReader reader = new CommitRequestReader();
+        reader.scan(frame);
+        assertEquals(reader.getStartTimestamp(), startTs);
+        assertEquals(reader.isRetry(), isRetry);
+        assertEquals(reader.getNumCellIds(), cellIds.size());
+
+        long[] read = new long[reader.getNumCellIds()];
+        assertEquals(CommitRequestReader.readCellIds(frame, read), cellIds.size());
+        for (int i = 0; i < read.length; i++) {
+            assertEquals(read[i], (long) cellIds.get(i));
+        }
+
+        assertEquals(frame.readerIndex(), readerIndex, "Reader must not consume the frame");
+
+    }
+
+    private ChannelBuffer commitRequestFrame(byte[] commitRequest) throws IOException {
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(request);
+        out.writeBytes(TSOProto.Request.COMMITREQUEST_FIELD_NUMBER, ByteString.copyFrom(commitRequest));
+        out.flush();
+        return ChannelBuffers.wrappedBuffer(request.toByteArray());
+
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.omid.committable.InMemoryCommitTable;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.NullMetricsProvider;
+import org.apache.omid.tso.TSOStateManager.TSOState;
+import org.jboss.netty.channel.Channel;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.net.ServerSocket;
+import java.util.Collections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestHotStandbyReplicator {
+
+    private static final int MASTER_LEASE_VERSION = 7;
+
+    private MetricsRegistry metrics = new NullMetricsProvider();
+
+    private TimestampOracleImpl.InMemoryTimestampStorage timestampStorage;
+
+    // Master
+    private TestLease masterLease;
+    private HotStandbyReplicator master;
+    private PersistenceProcessor masterPersist;
+    private ReplyProcessor masterReplyProc;
+    private RequestProcessor masterRequestProc;
+
+    // Standby
+    private TestLease standbyLease;
+    private HotStandbyReplicator standby;
+    private PersistenceProcessor standbyPersist;
+    private TimestampOracleImpl standbyOracle;
+    private RequestProcessor standbyRequestProc;
+    private TSOStateManager standbyStateManager;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        // Both TSOs share the timestamp storage, as they would when running in HA mode
+        timestampStorage = new TimestampOracleImpl.InMemoryTimestampStorage();
+        int port = getFreePort();
+
+        TSOServerConfig masterConfig = new TSOServerConfig();
+        masterConfig.setConflictMapSize(1000);
+        masterConfig.setHotStandbyPort(port);
+        masterConfig.setHotStandbyAckTimeoutInMs(5000);
+        masterLease = new TestLease(MASTER_LEASE_VERSION, StateReplicator.NO_LEASE_VERSION);
+        masterPersist = mockPersistenceProcessor();
+        masterReplyProc = mock(ReplyProcessor.class);
+        TimestampOracleImpl masterOracle = new TimestampOracleImpl(metrics, timestampStorage, new MockPanicker());
+        master = new HotStandbyReplicator(masterConfig, null, new InMemoryCommitTable());
+        masterRequestProc = new RequestProcessorImpl(metrics, masterOracle, masterPersist, masterReplyProc, master,
+                                                     new MockPanicker(), masterConfig);
+        TSOStateManager masterStateManager = new TSOStateManagerImpl(masterOracle, master);
+        masterStateManager.register(masterRequestProc);
+        master.startFollowing(masterLease);
+        masterStateManager.initialize();
+
+        TSOServerConfig standbyConfig = new TSOServerConfig();
+        standbyConfig.setConflictMapSize(1000);
+        standbyConfig.setHotStandbyPort(getFreePort());
+        standbyConfig.setHotStandbyPeer("localhost:" + port);
+        standbyConfig.setHotStandbyAckTimeoutInMs(5000);
+        standbyLease = new TestLease(MASTER_LEASE_VERSION + 1, MASTER_LEASE_VERSION);
+        standbyPersist = mockPersistenceProcessor();
+        standbyOracle = new TimestampOracleImpl(metrics, timestampStorage, new MockPanicker());
+        standby = new HotStandbyReplicator(standbyConfig, new Provider<RequestProcessor>() {
+            @Override
+            public RequestProcessor get() {
+                return standbyRequestProc;
+            }
+        }, new InMemoryCommitTable());
+        standbyRequestProc = new RequestProcessorImpl(metrics, standbyOracle, standbyPersist,
+                                                      mock(ReplyProcessor.class), standby, new MockPanicker(),
+                                                      standbyConfig);
+        standbyStateManager = new TSOStateManagerImpl(standbyOracle, standby);
+        standbyStateManager.register(standbyRequestProc);
+        standby.startFollowing(standbyLease);
+
+        // The standby gets subscribed at the end of a batch of requests of the master
+        while (!master.hasStandby()) {
+            masterRequestProc.timestampRequest(null, new MonitoringContext(metrics));
+            Thread.sleep(10);
+        }
+
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        standbyRequestProc.close();
+        standby.close();
+        masterRequestProc.close();
+        master.close();
+    }
+
+    @Test(timeOut = 30_000)
+    public void testStandbyTakesOverWithTheConflictMapOfTheMaster() throws Exception {
+
+        long startTimestamp = nextMasterTimestamp();
+        masterRequestProc.commitRequest(startTimestamp, Collections.singletonList(1L), false, null,
+                                        new MonitoringContext(metrics));
+        ArgumentCaptor<Long> commitTimestamp = ArgumentCaptor.forClass(Long.class);
+        verify(masterPersist, timeout(1000)).addCommitToBatch(eq(startTimestamp), commitTimestamp.capture(),
+                                                              any(Channel.class), any(MonitoringContext.class));
+
+        // The commit can be persisted once the standby acknowledges it
+        master.awaitReplicated(commitTimestamp.getValue());
+        assertTrue(master.hasStandby(), "The standby should have acknowledged the commit");
+        assertEquals(masterLease.renewals, 0, "The lease shouldn't have been renewed");
+
+        // The master dies and the standby takes over
+        masterRequestProc.close();
+        master.close();
+        TSOState state = standbyStateManager.initialize();
+        assertTrue(state.getLowWatermark() < startTimestamp, "The standby should take over warm");
+
+        // A concurrent transaction of the one committed in the master conflicts in the new master...
+        long concurrentTx = startTimestamp;
+        standbyRequestProc.commitRequest(concurrentTx, Collections.singletonList(1L), false, null,
+                                         new MonitoringContext(metrics));
+        verify(standbyPersist, timeout(1000)).addAbortToBatch(eq(concurrentTx), any(Channel.class),
+                                                              any(MonitoringContext.class));
+        // ...but it isn't aborted if it doesn't write the same cells
+        standbyRequestProc.commitRequest(concurrentTx, Collections.singletonList(2L), false, null,
+                                         new MonitoringContext(metrics));
+        verify(standbyPersist, timeout(1000)).addCommitToBatch(eq(concurrentTx), anyLong(), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testStandbyTakesOverFromScratchWhenItMissedTheLastLeaseVersion() throws Exception {
+
+        standbyLease.previousMasterVersion = MASTER_LEASE_VERSION + 1;
+        masterRequestProc.close();
+        master.close();
+        TSOState state = standbyStateManager.initialize();
+        assertEquals(state.getLowWatermark(), standbyOracle.getLast(), "The standby should take over from scratch");
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testMasterRenewsTheLeaseBeforePersistingWhenTheStandbyIsDropped() throws Exception {
+
+        standbyRequestProc.close();
+        standby.close();
+        while (master.hasStandby()) {
+            Thread.sleep(10);
+        }
+        assertFalse(master.hasStandby());
+
+        master.awaitReplicated(nextMasterTimestamp());
+        assertEquals(masterLease.renewals, 1, "The lease should have been renewed once");
+        master.awaitReplicated(nextMasterTimestamp());
+        assertEquals(masterLease.renewals, 1, "The lease should have been renewed once");
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private long nextMasterTimestamp() {
+        reset(masterReplyProc);
+        masterRequestProc.timestampRequest(null, new MonitoringContext(metrics));
+        ArgumentCaptor<Long> timestamp = ArgumentCaptor.forClass(Long.class);
+        verify(masterReplyProc, timeout(1000).atLeastOnce()).sendTimestampResponse(timestamp.capture(), anyInt(),
+                                                                                  any(Channel.class));
+        return timestamp.getValue();
+    }
+
+    private static PersistenceProcessor mockPersistenceProcessor() {
+        PersistenceProcessor persist = mock(PersistenceProcessor.class);
+        SettableFuture<Void> f = SettableFuture.create();
+        f.set(null);
+        doReturn(f).when(persist).persistLowWatermark(any(Long.class));
+        return persist;
+    }
+
+    private static int getFreePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class TestLease implements StateReplicator.Lease {
+
+        private volatile int version;
+        private volatile int previousMasterVersion;
+        private volatile int renewals = 0;
+
+        TestLease(int version, int previousMasterVersion) {
+            this.version = version;
+            this.previousMasterVersion = previousMasterVersion;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public int getPreviousMasterVersion() {
+            return previousMasterVersion;
+        }
+
+        @Override
+        public void renew() {
+            version++;
+            renewals++;
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestLowWatermarkSegments {
+
+    @Test(timeOut = 10_000)
+    public void testOnlyTheSegmentOfTheEvictedCellIsRaised() {
+
+        LowWatermarkSegments segments = new LowWatermarkSegments(1024);
+
+        long evictedCell = 1L;
+        long otherCell = findCellInOtherSegment(segments, evictedCell);
+
+        segments.evicted(evictedCell, 100L);
+        assertEquals(segments.get(evictedCell), 100L);
+        assertEquals(segments.get(otherCell), 0L);
+
+        // Low watermarks never go back
+        segments.evicted(evictedCell, 50L);
+        assertEquals(segments.get(evictedCell), 100L);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testMinimumMovesWhenAllSegmentsAreRaised() {
+
+        final int NUM_SEGMENTS = 4;
+        LowWatermarkSegments segments = new LowWatermarkSegments(NUM_SEGMENTS);
+
+        // Find a cell for each segment
+        long[] cellInSegment = new long[NUM_SEGMENTS];
+        int found = 0;
+        for (long cellId = 1; found < NUM_SEGMENTS; cellId++) {
+            int segment = segments.segmentOf(cellId);
+            if (cellInSegment[segment] == 0L) {
+                cellInSegment[segment] = cellId;
+                found++;
+            }
+        }
+
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            assertEquals(segments.getMinimum(), 0L);
+            segments.evicted(cellInSegment[i], 10L * (NUM_SEGMENTS - i));
+        }
+        assertEquals(segments.getMinimum(), 10L);
+
+        segments.evicted(cellInSegment[NUM_SEGMENTS - 1], 25L);
+        assertEquals(segments.getMinimum(), 20L);
+
+    }
+
+    @Test(timeOut = 10_000, expectedExceptions = IllegalArgumentException.class)
+    public void testNumberOfSegmentsMustBeAPowerOfTwo() {
+        new LowWatermarkSegments(1000);
+    }
+
+    private long findCellInOtherSegment(LowWatermarkSegments segments, long cellId) {
+
+        long other = cellId;
+        while (segments.segmentOf(++other) == segments.segmentOf(cellId)) ;
+        return other;
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_COMMIT;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestMonitoringContext {
+
+    private MetricsRegistry metrics;
+    private Timer timer;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        metrics = mock(MetricsRegistry.class);
+        timer = mock(Timer.class);
+        doReturn(timer).when(metrics).timer(anyString());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testStoppedStagesAreRecordedWhenPublished() throws Exception {
+
+        MonitoringContext monCtx = new MonitoringContext(metrics);
+        monCtx.timerStart(REQUEST_COMMIT);
+        monCtx.timerStop(REQUEST_COMMIT);
+        monCtx.timerStart(REPLY_COMMIT); // Never stopped
+        verify(timer, never()).update(anyLong());
+
+        monCtx.publish();
+        verify(timer, times(1)).update(anyLong());
+
+        // Measurements and publications after publishing are ignored
+        monCtx.timerStop(REPLY_COMMIT);
+        monCtx.publish();
+        verify(timer, times(1)).update(anyLong());
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testStoppingAStageNotStartedFails() throws Exception {
+
+        MonitoringContext monCtx = new MonitoringContext(metrics);
+        try {
+            monCtx.timerStop(REQUEST_COMMIT);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // Unless the request is not sampled
+        MonitoringContext.NOT_SAMPLED.timerStop(REQUEST_COMMIT);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOnlySampledRequestsAreMeasured() throws Exception {
+
+        MonitoringContextFactory noneSampled = new MonitoringContextFactory(metrics, 0.0);
+        MonitoringContextFactory allSampled = new MonitoringContextFactory(metrics, 1.0);
+        for (int i = 0; i < 100; i++) {
+            assertSame(noneSampled.newContext(), MonitoringContext.NOT_SAMPLED);
+            assertTrue(allSampled.newContext().isSampled());
+        }
+
+        MonitoringContext notSampled = noneSampled.newContext();
+        assertFalse(notSampled.isSampled());
+        notSampled.timerStart(REQUEST_COMMIT);
+        notSampled.timerStop(REQUEST_COMMIT);
+        notSampled.publish();
+        verify(timer, never()).update(anyLong());
+
+    }
+
+    @Test(timeOut = 10_000, expectedExceptions = IllegalArgumentException.class)
+    public void testSamplingRateMustBeAFraction() throws Exception {
+        new MonitoringContextFactory(metrics, 1.5);
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestOffHeapConflictMap {
+
+    private Random random = new Random(System.currentTimeMillis());
+
+    @Test(timeOut = 10_000)
+    public void testAddAndGetElems() {
+
+        OffHeapConflictMap map = new OffHeapConflictMap(1_000_000);
+
+        // After creation, map values should be the default
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.getLatestWriteForCell(random.nextLong()), 0L);
+        }
+
+        // Populate some of the values, including the corner cases
+        Map<Long, Long> expected = new HashMap<>();
+        long[] cornerCases = new long[]{0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE};
+        long commitTs = 1;
+        for (long cellId : cornerCases) {
+            assertEquals(map.putLatestWriteForCell(cellId, commitTs), 0L);
+            expected.put(cellId, commitTs++);
+        }
+        for (int i = 0; i < 1000; i++) {
+            long cellId = random.nextLong();
+            assertEquals(map.putLatestWriteForCell(cellId, commitTs), 0L);
+            expected.put(cellId, commitTs++);
+        }
+
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(map.getLatestWriteForCell(entry.getKey()), (long) entry.getValue());
+        }
+
+        // Updating a cell does not evict anything
+        assertEquals(map.putLatestWriteForCell(0L, commitTs), 0L);
+        assertEquals(map.getLatestWriteForCell(0L), commitTs);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testSizeIsRoundedToPowerOfTwoBuckets() {
+
+        assertEquals(new OffHeapConflictMap(1).getNumBuckets(), OffHeapConflictMap.PROBE_BUCKETS);
+        assertEquals(new OffHeapConflictMap(1000).getNumBuckets(), 256);
+        assertEquals(new OffHeapConflictMap(1024).getNumBuckets(), 256);
+        assertEquals(new OffHeapConflictMap(1025).getNumBuckets(), 512);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOldestEntryInProbingWindowIsEvicted() {
+
+        // Smallest map: all cells share the same probing window
+        OffHeapConflictMap map = new OffHeapConflictMap(1);
+        int capacity = OffHeapConflictMap.PROBE_BUCKETS * OffHeapConflictMap.SLOTS_PER_BUCKET;
+
+        for (int i = 1; i <= capacity; i++) {
+            assertEquals(map.putLatestWriteForCell(i, i), 0L);
+        }
+        // Refresh the first cell, so the second one becomes the oldest
+        map.putLatestWriteForCell(1, capacity + 1);
+
+        long evicted = map.putLatestWriteForCell(capacity + 1, capacity + 2);
+        assertEquals(evicted, 2L);
+        assertEquals(map.getLatestWriteForCell(2), 0L);
+        assertEquals(map.getLatestWriteForCell(1), capacity + 1);
+        assertEquals(map.getLatestWriteForCell(capacity + 1), capacity + 2);
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testEvictedEntriesAreOlderThanTheNewOnes() {
+
+        final int entries = 1000;
+        OffHeapConflictMap map = new OffHeapConflictMap(entries);
+
+        int evictions = 0;
+        for (long commitTs = 1; commitTs <= 100 * entries; commitTs++) {
+            long evicted = map.putLatestWriteForCell(random.nextLong(), commitTs);
+            assertTrue(evicted < commitTs);
+            if (evicted != 0) {
+                evictions++;
+            }
+        }
+        // Every new cell either takes an empty slot or evicts another one
+        long capacity = map.getNumBuckets() * OffHeapConflictMap.SLOTS_PER_BUCKET;
+        assertTrue(evictions >= 100 * entries - capacity, "Evictions " + evictions);
+
+    }
+
+}
@@ -17,7 +17,6 @@
  */
 package org.apache.omid.tso;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.timestamp.storage.TimestampStorage;
@@ -116,7 +115,7 @@ public class TestPanicker {
         LeaseManager leaseManager = mock(LeaseManager.class);
         doReturn(true).when(leaseManager).stillInLeasePeriod();
         TSOServerConfig config = new TSOServerConfig();
-        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool();
+        BatchPool batchPool = new BatchPoolModule(config).getBatchPool();
 
         PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[config.getNumConcurrentCTWriters()];
         for (int i = 0; i < config.getNumConcurrentCTWriters(); i++) {
@@ -139,7 +138,10 @@ public class TestPanicker {
 
         proc.addCommitToBatch(1, 2, null, new MonitoringContext(metrics));
 
-        new RequestProcessorImpl(metrics, mock(TimestampOracle.class), proc, panicker, mock(TSOServerConfig.class));
+        // The batch is flushed when its deadline expires
+        config.setConflictMapSize(1000);
+        new RequestProcessorImpl(metrics, mock(TimestampOracle.class), proc, mock(ReplyProcessor.class), panicker,
+                                 config);
 
         verify(panicker, timeout(1000).atLeastOnce()).panic(anyString(), any(Throwable.class));
 
@@ -169,7 +171,7 @@ public class TestPanicker {
             }
         };
         TSOServerConfig config = new TSOServerConfig();
-        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool();
+        BatchPool batchPool = new BatchPoolModule(config).getBatchPool();
 
         PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[config.getNumConcurrentCTWriters()];
         for (int i = 0; i < config.getNumConcurrentCTWriters(); i++) {
@@ -191,7 +193,10 @@ public class TestPanicker {
                                                                  metrics);
         proc.addCommitToBatch(1, 2, null, new MonitoringContext(metrics));
 
-        new RequestProcessorImpl(metrics, mock(TimestampOracle.class), proc, panicker, mock(TSOServerConfig.class));
+        // The batch is flushed when its deadline expires
+        config.setConflictMapSize(1000);
+        new RequestProcessorImpl(metrics, mock(TimestampOracle.class), proc, mock(ReplyProcessor.class), panicker,
+                                 config);
 
         verify(panicker, timeout(1000).atLeastOnce()).panic(anyString(), any(Throwable.class));
 
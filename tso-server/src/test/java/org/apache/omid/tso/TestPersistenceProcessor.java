@@ -17,15 +17,17 @@
  */
 package org.apache.omid.tso;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.NullMetricsProvider;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.AfterMethod;
@@ -35,10 +37,14 @@ import org.testng.annotations.Test;
 import com.lmax.disruptor.BlockingWaitStrategy;
 
 import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -47,6 +53,8 @@ import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 // TODO Refactor: Make visible currentBatch in PersistenceProcessorImpl to add proper verifications
 public class TestPersistenceProcessor {
@@ -118,7 +126,7 @@ public class TestPersistenceProcessor {
                 new PersistenceProcessorImpl(tsoConfig,
                                              new BlockingWaitStrategy(),
                                              commitTable,
-                                             mock(ObjectPool.class),
+                                             mock(BatchPool.class),
                                              panicker,
                                              handlers,
                                              metrics);
@@ -146,7 +154,7 @@ public class TestPersistenceProcessor {
         tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
         tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool);
 
@@ -166,15 +174,79 @@ public class TestPersistenceProcessor {
 
         verify(batchPool, times(1)).borrowObject(); // Called during initialization
 
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // Flush: batch full
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // Flush: batch full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // Flush: batch full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // Flush: batch full
 
         verify(batchPool, times(1 + BATCH_SIZE_PER_CT_WRITER)).borrowObject(); // 3: 1 in init + 2 when flushing
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testRepliesArePendingUntilTheirBatchIsReplied() throws Exception {
+
+        TSOServerConfig tsoConfig = new TSOServerConfig();
+
+        VoidLeaseManager leaseManager = spy(new VoidLeaseManager(mock(TSOChannelHandler.class),
+                                                                 mock(TSOStateManager.class)));
+        BatchPool batchPool = new BatchPoolModule(tsoConfig).getBatchPool();
+
+        // The replies of the batches are held until the test sends them
+        final BlockingQueue<Batch> batchesToReply = new LinkedBlockingQueue<>();
+        ReplyProcessor replyProcessor = mock(ReplyProcessor.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                batchesToReply.add((Batch) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(replyProcessor).manageResponsesBatch(anyLong(), any(Batch.class));
+
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
+        for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = new PersistenceProcessorHandler(metrics, "localhost:1234",
+                                                          leaseManager,
+                                                          commitTable,
+                                                          replyProcessor,
+                                                          retryProcessor,
+                                                          panicker);
+        }
+
+        // The commit table flush waits until the test lets it go
+        final CountDownLatch flushAllowed = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                flushAllowed.await();
+                return null;
+            }
+        }).when(mockWriter).flush();
+
+        // Component under test
+        PersistenceProcessorImpl proc = new PersistenceProcessorImpl(tsoConfig, new BlockingWaitStrategy(), commitTable,
+                                                                     batchPool, panicker, handlers, metrics);
+
+        assertFalse(proc.hasPendingReplies());
+        proc.addTimestampToBatch(ANY_ST, mockChannel(), mock(MonitoringContext.class));
+        assertTrue(proc.hasPendingReplies());
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.triggerCurrentBatchFlush();
+        assertTrue(proc.hasPendingReplies());
+
+        // Once persisted, the batch still has the reply to the timestamp request on its way to the client, which a
+        // timestamp replied immediately could overtake
+        flushAllowed.countDown();
+        Batch batch = batchesToReply.take();
+        verify(mockWriter, times(1)).flush();
+        assertTrue(proc.hasPendingReplies());
+
+        // The reply processor returns the batch to the pool once its replies are sent
+        batchPool.returnObject(batch);
+        assertFalse(proc.hasPendingReplies());
+
+    }
+
     @Test(timeOut = 30_000)
     public void testCommitPersistenceWithMultipleCommitTableWriters() throws Exception {
 
@@ -189,7 +261,7 @@ public class TestPersistenceProcessor {
         tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
         tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool);
 
@@ -211,11 +283,11 @@ public class TestPersistenceProcessor {
         verify(batchPool, times(1)).borrowObject(); // Called during initialization
 
         // Fill 1st handler Batches completely
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // 1st batch full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // 1st batch full
         verify(batchPool, times(2)).borrowObject();
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // 2nd batch full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // 2nd batch full
         verify(batchPool, times(3)).borrowObject();
 
         // Test empty flush does not trigger response in getting a new currentBatch
@@ -223,14 +295,14 @@ public class TestPersistenceProcessor {
         verify(batchPool, times(3)).borrowObject();
 
         // Fill 2nd handler Batches completely
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // 1st batch full
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // 2nd batch full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // 1st batch full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // 2nd batch full
         verify(batchPool, times(1 + (NUM_CT_WRITERS * BATCH_SIZE_PER_CT_WRITER))).borrowObject();
 
         // Start filling a new currentBatch and flush it immediately
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class)); // Batch not full
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class)); // Batch not full
         verify(batchPool, times(5)).borrowObject();
         proc.triggerCurrentBatchFlush(); // Flushing should provoke invocation of a new batch
         verify(batchPool, times(6)).borrowObject();
@@ -256,7 +328,7 @@ public class TestPersistenceProcessor {
         tsoConfig.setNumConcurrentCTWriters(BATCH_SIZE_PER_CT_WRITER);
         tsoConfig.setBatchPersistTimeoutInMs(100);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool);
 
@@ -281,7 +353,7 @@ public class TestPersistenceProcessor {
 
         // The non-ha lease manager always return true for
         // stillInLeasePeriod(), so verify the currentBatch sends replies as master
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
         proc.triggerCurrentBatchFlush();
         verify(leaseManager, timeout(1000).times(2)).stillInLeasePeriod();
         verify(batchPool, times(2)).borrowObject();
@@ -326,7 +398,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -336,7 +408,7 @@ public class TestPersistenceProcessor {
 
         // Test: Configure the lease manager to return true always
         doReturn(true).when(simulatedHALeaseManager).stillInLeasePeriod();
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
         proc.triggerCurrentBatchFlush();
         verify(simulatedHALeaseManager, timeout(1000).times(2)).stillInLeasePeriod();
         verify(batchPool, times(2)).borrowObject();
@@ -347,7 +419,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -357,7 +429,7 @@ public class TestPersistenceProcessor {
 
         // Test: Configure the lease manager to return true first and false later for stillInLeasePeriod
         doReturn(true).doReturn(false).when(simulatedHALeaseManager).stillInLeasePeriod();
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
         proc.triggerCurrentBatchFlush();
         verify(simulatedHALeaseManager, timeout(1000).times(2)).stillInLeasePeriod();
         verify(batchPool, times(2)).borrowObject();
@@ -368,7 +440,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -378,7 +450,7 @@ public class TestPersistenceProcessor {
 
         // Test: Configure the lease manager to return false for stillInLeasePeriod
         doReturn(false).when(simulatedHALeaseManager).stillInLeasePeriod();
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
         proc.triggerCurrentBatchFlush();
         verify(simulatedHALeaseManager, timeout(1000).times(1)).stillInLeasePeriod();
         verify(batchPool, times(2)).borrowObject();
@@ -389,7 +461,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -402,7 +474,7 @@ public class TestPersistenceProcessor {
         // Configure mock writer to flush unsuccessfully
         doThrow(new IOException("Unable to write")).when(mockWriter).flush();
         doReturn(true).doReturn(false).when(simulatedHALeaseManager).stillInLeasePeriod();
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContext.class));
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), mock(MonitoringContext.class));
         proc.triggerCurrentBatchFlush();
         verify(simulatedHALeaseManager, timeout(1000).times(1)).stillInLeasePeriod();
         verify(batchPool, times(2)).borrowObject();
@@ -411,7 +483,7 @@ public class TestPersistenceProcessor {
 
     private PersistenceProcessorHandler[] configureHandlers(TSOServerConfig tsoConfig,
                                                             LeaseManager leaseManager,
-                                                            ObjectPool<Batch> batchPool)
+                                                            BatchPool batchPool)
             throws Exception {
         PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
         for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
@@ -434,7 +506,7 @@ public class TestPersistenceProcessor {
 
         TSOServerConfig config = new TSOServerConfig();
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(config).getBatchPool());
+        BatchPool batchPool = spy(new BatchPoolModule(config).getBatchPool());
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool);
 
@@ -461,7 +533,7 @@ public class TestPersistenceProcessor {
         doThrow(new IOException("Unable to write@TestPersistenceProcessor2")).when(mockWriter).flush();
 
         // Check the panic is extended!
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), monCtx);
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), monCtx);
         proc.triggerCurrentBatchFlush();
         verify(panicker, timeout(1000).atLeastOnce()).panic(anyString(), any(Throwable.class));
 
@@ -472,7 +544,7 @@ public class TestPersistenceProcessor {
 
         TSOServerConfig config = new TSOServerConfig();
 
-        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool();
+        BatchPool batchPool = new BatchPoolModule(config).getBatchPool();
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool);
 
@@ -495,10 +567,93 @@ public class TestPersistenceProcessor {
         MonitoringContext monCtx = new MonitoringContext(metrics);
 
         // Check the panic is extended!
-        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), monCtx);
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mockChannel(), monCtx);
         proc.triggerCurrentBatchFlush();
         verify(panicker, timeout(1000).atLeastOnce()).panic(anyString(), any(Throwable.class));
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testReplicatedCommitsAreSentBeforePublishingEachBatch() throws Exception {
+
+        final int NUM_CT_WRITERS = 2;
+        final int BATCH_SIZE_PER_CT_WRITER = 2;
+        // More commits than fit in the batch pool, as in a batch of requests that never ends under load
+        final int NUM_COMMITS = 4 * NUM_CT_WRITERS * BATCH_SIZE_PER_CT_WRITER;
+
+        TSOServerConfig tsoConfig = new TSOServerConfig();
+        tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
+        tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
+
+        VoidLeaseManager leaseManager = new VoidLeaseManager(mock(TSOChannelHandler.class),
+                                                             mock(TSOStateManager.class));
+        BatchPool batchPool = new BatchPoolModule(tsoConfig).getBatchPool();
+        ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool);
+        AckingStateReplicator stateReplicator = new AckingStateReplicator();
+
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
+        for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = new PersistenceProcessorHandler(metrics, "localhost:1234",
+                                                          leaseManager,
+                                                          commitTable,
+                                                          replyProcessor,
+                                                          retryProcessor,
+                                                          stateReplicator,
+                                                          panicker);
+        }
+
+        // Component under test
+        PersistenceProcessorImpl proc = new PersistenceProcessorImpl(tsoConfig, new BlockingWaitStrategy(), commitTable,
+                                                                     batchPool, stateReplicator, panicker, handlers,
+                                                                     metrics);
+
+        // The request processor replicates each commit before adding it to a batch, and only flushes the replicator
+        // at the end of the batch of requests, which doesn't come here
+        for (int i = 1; i <= NUM_COMMITS; i++) {
+            stateReplicator.replicateCommit(2 * i, new long[0], 0);
+            proc.addCommitToBatch(2 * i - 1, 2 * i, mockChannel(), new MonitoringContext(metrics));
+        }
+
+        verify(mockWriter, timeout(1000).times(NUM_COMMITS)).addCommittedTransaction(anyLong(), anyLong());
+
+    }
+
+    private static Channel mockChannel() {
+        Channel c = mock(Channel.class);
+        doReturn(Channels.succeededFuture(c)).when(c).write(any());
+        return c;
+    }
+
+    /**
+     * Acknowledges the commits as soon as they are sent
+     */
+    private static class AckingStateReplicator extends VoidStateReplicator {
+
+        private long pendingCommitTimestamp = 0L; // Only accessed by the thread replicating the commits
+        private long sentCommitTimestamp = 0L; // Guarded by this
+
+        @Override
+        public void replicateCommit(long commitTimestamp, long[] writeSet, int numCells) {
+            pendingCommitTimestamp = commitTimestamp;
+        }
+
+        @Override
+        public synchronized void sendPendingUpdates() {
+            sentCommitTimestamp = pendingCommitTimestamp;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void awaitReplicated(long commitTimestamp) {
+            try {
+                while (sentCommitTimestamp < commitTimestamp) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
 }
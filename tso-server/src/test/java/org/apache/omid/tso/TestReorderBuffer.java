@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestReorderBuffer {
+
+    @Test(timeOut = 10_000)
+    public void testItemsArrivingInOrderAreNotKept() {
+
+        ReorderBuffer<String> buffer = new ReorderBuffer<>(2);
+        for (long seq = 0; seq < 10; seq++) {
+            assertTrue(buffer.isNext(seq));
+            buffer.advance();
+            assertNull(buffer.pollNext());
+        }
+        assertEquals(buffer.getNextSequence(), 10);
+        assertEquals(buffer.size(), 0);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testItemsArrivingOutOfOrderAreHandedOutInOrder() {
+
+        ReorderBuffer<String> buffer = new ReorderBuffer<>(2);
+
+        // Far ahead items make the buffer grow
+        buffer.put(5, "5");
+        buffer.put(2, "2");
+        buffer.put(1, "1");
+        buffer.put(3, "3");
+        assertEquals(buffer.size(), 4);
+        assertNull(buffer.pollNext());
+
+        assertTrue(buffer.isNext(0));
+        buffer.advance();
+        assertEquals(buffer.pollNext(), "1");
+        assertEquals(buffer.pollNext(), "2");
+        assertEquals(buffer.pollNext(), "3");
+        assertNull(buffer.pollNext());
+        assertEquals(buffer.getNextSequence(), 4);
+        assertEquals(buffer.size(), 1);
+
+        buffer.advance();
+        assertEquals(buffer.pollNext(), "5");
+        assertEquals(buffer.size(), 0);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testItemsNotAheadOfTheNextOneAreRejected() {
+
+        ReorderBuffer<String> buffer = new ReorderBuffer<>(4);
+        buffer.advance();
+        try {
+            buffer.put(1, "1");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected, the item of the next sequence has to be handled right away
+        }
+        buffer.put(2, "2");
+        try {
+            buffer.put(2, "2");
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected, sequences are unique
+        }
+
+    }
+
+}
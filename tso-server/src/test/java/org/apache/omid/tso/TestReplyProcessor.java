@@ -17,11 +17,15 @@
  */
 package org.apache.omid.tso;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.NullMetricsProvider;
 import org.apache.omid.tso.ReplyProcessorImpl.ReplyBatchEvent;
+import org.apache.omid.proto.TSOProto;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -33,16 +37,22 @@ import org.testng.annotations.Test;
 
 import com.lmax.disruptor.BlockingWaitStrategy;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -74,7 +84,7 @@ public class TestReplyProcessor {
 
     private MetricsRegistry metrics;
 
-    private ObjectPool<Batch> batchPool;
+    private BatchPool batchPool;
 
     // Component under test
     private ReplyProcessorImpl replyProcessor;
@@ -112,7 +122,7 @@ public class TestReplyProcessor {
         ReplyBatchEvent e = ReplyBatchEvent.EVENT_FACTORY.newInstance();
         ReplyBatchEvent.makeReplyBatch(e, batch, 0);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
@@ -124,7 +134,7 @@ public class TestReplyProcessor {
             // Expected
         }
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
@@ -141,14 +151,14 @@ public class TestReplyProcessor {
         ReplyBatchEvent e = ReplyBatchEvent.EVENT_FACTORY.newInstance();
         ReplyBatchEvent.makeReplyBatch(e, batch, HIGH_SEQUENCE_NUMBER);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
 
         replyProcessor.onEvent(e, ANY_DISRUPTOR_SEQUENCE, false);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 1);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
@@ -165,14 +175,14 @@ public class TestReplyProcessor {
         ReplyBatchEvent e = ReplyBatchEvent.EVENT_FACTORY.newInstance();
         ReplyBatchEvent.makeReplyBatch(e, batch, 0);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
 
         replyProcessor.onEvent(e, ANY_DISRUPTOR_SEQUENCE, false);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 1);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 1);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 0);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE);
@@ -188,19 +198,19 @@ public class TestReplyProcessor {
 
         // Prepare first a delayed batch (Batch #3)
         Batch thirdBatch = batchPool.borrowObject();
-        thirdBatch.addTimestamp(FIRST_ST, mock(Channel.class), monCtx);
-        thirdBatch.addCommit(SECOND_ST, SECOND_CT, mock(Channel.class), monCtx);
+        thirdBatch.addTimestamp(FIRST_ST, mockChannel(), monCtx);
+        thirdBatch.addCommit(SECOND_ST, SECOND_CT, mockChannel(), monCtx);
         ReplyBatchEvent thirdBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
         ReplyBatchEvent.makeReplyBatch(thirdBatchEvent, thirdBatch, 2); // Set a higher sequence than the initial one
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
 
         replyProcessor.onEvent(thirdBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 1);
         assertEquals(batchPool.getNumActive(), 1);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 1);
@@ -209,14 +219,14 @@ public class TestReplyProcessor {
 
         // Prepare another delayed batch (Batch #2)
         Batch secondBatch = batchPool.borrowObject();
-        secondBatch.addTimestamp(THIRD_ST, mock(Channel.class), monCtx);
-        secondBatch.addCommit(FOURTH_ST, FOURTH_CT, mock(Channel.class), monCtx);
+        secondBatch.addTimestamp(THIRD_ST, mockChannel(), monCtx);
+        secondBatch.addCommit(FOURTH_ST, FOURTH_CT, mockChannel(), monCtx);
         ReplyBatchEvent secondBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
         ReplyBatchEvent.makeReplyBatch(secondBatchEvent, secondBatch, 1); // Set another higher sequence
 
         replyProcessor.onEvent(secondBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 0);
         assertEquals(replyProcessor.futureEvents.size(), 2);
         assertEquals(batchPool.getNumActive(), 2);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE - 2);
@@ -225,13 +235,13 @@ public class TestReplyProcessor {
 
         // Finally, prepare the batch that should trigger the execution of the other two
         Batch firstBatch = batchPool.borrowObject();
-        firstBatch.addAbort(FIFTH_ST, mock(Channel.class), monCtx);
+        firstBatch.addAbort(FIFTH_ST, mockChannel(), monCtx);
         ReplyBatchEvent firstBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
         ReplyBatchEvent.makeReplyBatch(firstBatchEvent, firstBatch, 0); // Set the first batch with a higher sequence
 
         replyProcessor.onEvent(firstBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
 
-        assertEquals(replyProcessor.nextIDToHandle.get(), 3);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 3);
         assertEquals(replyProcessor.futureEvents.size(), 0);
         assertEquals(batchPool.getNumActive(), 0);
         assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE);
@@ -247,11 +257,175 @@ public class TestReplyProcessor {
         inOrderReplyBatchEvents.verify(replyProcessor, times(1)).handleReplyBatchEvent(eq(thirdBatchEvent));
 
         InOrder inOrderReplies = inOrder(replyProcessor, replyProcessor, replyProcessor, replyProcessor, replyProcessor);
-        inOrderReplies.verify(replyProcessor, times(1)).sendAbortResponse(eq(FIFTH_ST), any(Channel.class));
-        inOrderReplies.verify(replyProcessor, times(1)).sendTimestampResponse(eq(THIRD_ST), any(Channel.class));
-        inOrderReplies.verify(replyProcessor, times(1)).sendCommitResponse(eq(FOURTH_ST), eq(FOURTH_CT), any(Channel.class));
-        inOrderReplies.verify(replyProcessor, times(1)).sendTimestampResponse(eq(FIRST_ST), any(Channel.class));
-        inOrderReplies.verify(replyProcessor, times(1)).sendCommitResponse(eq(SECOND_ST), eq(SECOND_CT), any(Channel.class));
+        inOrderReplies.verify(replyProcessor, times(1)).addAbortResponse(eq(FIFTH_ST), any(ChannelBuffer.class));
+        inOrderReplies.verify(replyProcessor, times(1))
+                .addTimestampResponse(eq(THIRD_ST), eq(1), any(ChannelBuffer.class));
+        inOrderReplies.verify(replyProcessor, times(1))
+                .addCommitResponse(eq(FOURTH_ST), eq(FOURTH_CT), any(ChannelBuffer.class));
+        inOrderReplies.verify(replyProcessor, times(1))
+                .addTimestampResponse(eq(FIRST_ST), eq(1), any(ChannelBuffer.class));
+        inOrderReplies.verify(replyProcessor, times(1))
+                .addCommitResponse(eq(SECOND_ST), eq(SECOND_CT), any(ChannelBuffer.class));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testResponsesOfABatchAreCoalescedPerChannel() throws Exception {
+
+        Channel firstChannel = mockChannel();
+        Channel secondChannel = mockChannel();
+
+        Batch batch = batchPool.borrowObject();
+        batch.addTimestamp(FIRST_ST, firstChannel, monCtx);
+        batch.addCommit(SECOND_ST, SECOND_CT, secondChannel, monCtx);
+        batch.addAbort(THIRD_ST, firstChannel, monCtx);
+        batch.addCommit(FOURTH_ST, FOURTH_CT, firstChannel, monCtx);
+        ReplyBatchEvent e = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+        ReplyBatchEvent.makeReplyBatch(e, batch, 0);
+
+        replyProcessor.onEvent(e, ANY_DISRUPTOR_SEQUENCE, false);
+
+        // Each channel gets a single write with its responses framed in the order of the batch
+        ArgumentCaptor<ChannelBuffer> firstChannelReplies = ArgumentCaptor.forClass(ChannelBuffer.class);
+        verify(firstChannel, times(1)).write(firstChannelReplies.capture());
+        List<TSOProto.Response> responses = readFrames(firstChannelReplies.getValue());
+        assertEquals(responses.size(), 3);
+        assertEquals(responses.get(0).getTimestampResponse().getStartTimestamp(), FIRST_ST);
+        assertTrue(responses.get(1).getCommitResponse().getAborted());
+        assertEquals(responses.get(1).getCommitResponse().getStartTimestamp(), THIRD_ST);
+        assertFalse(responses.get(2).getCommitResponse().getAborted());
+        assertEquals(responses.get(2).getCommitResponse().getStartTimestamp(), FOURTH_ST);
+        assertEquals(responses.get(2).getCommitResponse().getCommitTimestamp(), FOURTH_CT);
+
+        ArgumentCaptor<ChannelBuffer> secondChannelReplies = ArgumentCaptor.forClass(ChannelBuffer.class);
+        verify(secondChannel, times(1)).write(secondChannelReplies.capture());
+        responses = readFrames(secondChannelReplies.getValue());
+        assertEquals(responses.size(), 1);
+        assertEquals(responses.get(0).getCommitResponse().getStartTimestamp(), SECOND_ST);
+        assertEquals(responses.get(0).getCommitResponse().getCommitTimestamp(), SECOND_CT);
+
+        assertEquals(batchPool.getNumIdle(), BATCH_POOL_SIZE);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testShardedRepliesAreSentInBatchOrderPerChannel() throws Exception {
+
+        replyProcessor = spy(new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, 2));
+
+        Channel[] channels = new Channel[4];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = mockChannel();
+        }
+
+        // Two batches, each one with a commit for every channel, arriving out of order
+        ReplyBatchEvent[] events = new ReplyBatchEvent[2];
+        for (int b = 0; b < events.length; b++) {
+            Batch batch = batchPool.borrowObject();
+            for (int i = 0; i < channels.length; i++) {
+                batch.addCommit(b * 100 + i, b * 100 + i + 1, channels[i], monCtx);
+            }
+            events[b] = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+            ReplyBatchEvent.makeReplyBatch(events[b], batch, b);
+        }
+        replyProcessor.onEvent(events[1], ANY_DISRUPTOR_SEQUENCE, false);
+        replyProcessor.onEvent(events[0], ANY_DISRUPTOR_SEQUENCE + 1, false);
+        assertEquals(replyProcessor.futureEvents.getNextSequence(), 2);
+
+        // Each channel gets a write per batch, in batch order
+        for (int i = 0; i < channels.length; i++) {
+            ArgumentCaptor<ChannelBuffer> replies = ArgumentCaptor.forClass(ChannelBuffer.class);
+            verify(channels[i], timeout(5_000).times(2)).write(replies.capture());
+            for (int b = 0; b < events.length; b++) {
+                List<TSOProto.Response> responses = readFrames(replies.getAllValues().get(b));
+                assertEquals(responses.size(), 1);
+                assertEquals(responses.get(0).getCommitResponse().getStartTimestamp(), b * 100 + i);
+            }
+        }
+
+        // The batches go back to the pool once all the shards are done with them
+        while (batchPool.getNumIdle() != BATCH_POOL_SIZE) {
+            Thread.sleep(10);
+        }
+        replyProcessor.close();
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testReplyBuffersAreReusedOnceWritten() throws Exception {
+
+        ReplyBufferPool replyBufferPool = replyProcessor.getReplyBufferPool();
+        Channel channel = mock(Channel.class);
+        ChannelFuture writeFuture = Channels.future(channel);
+        doReturn(writeFuture).when(channel).write(any());
+
+        replyProcessor.sendCommitResponse(FIRST_ST, FIRST_CT, channel);
+        assertEquals(replyBufferPool.getNumIdle(), 0, "The buffer can't be reused while it's being written");
+        writeFuture.setSuccess();
+        assertEquals(replyBufferPool.getNumIdle(), 1);
+
+        replyProcessor.sendAbortResponse(SECOND_ST, channel);
+        ArgumentCaptor<ChannelBuffer> replies = ArgumentCaptor.forClass(ChannelBuffer.class);
+        verify(channel, times(2)).write(replies.capture());
+        assertSame(replies.getAllValues().get(1), replies.getAllValues().get(0));
+        assertEquals(replyBufferPool.getNumIdle(), 1);
+
+        // Buffers grown too much by a big batch are not kept
+        ReplyBufferPool.ReplyBuffer buffer = replyBufferPool.borrowBuffer();
+        buffer.getBuffer().writeZero(ReplyBufferPool.MAX_RETAINED_BUFFER_SIZE + 1);
+        buffer.writeTo(channel);
+        assertEquals(replyBufferPool.getNumIdle(), 0);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCommitRetryResponsesAreGroupedPerChannel() throws Exception {
+
+        Channel firstChannel = mockChannel();
+        Channel secondChannel = mockChannel();
+
+        long[] startTimestamps = { FIRST_ST, SECOND_ST, THIRD_ST, FOURTH_ST };
+        long[] commitTimestamps = { FIRST_CT, ReplyProcessor.ABORTED, THIRD_CT, ReplyProcessor.ABORTED };
+        Channel[] channels = { firstChannel, secondChannel, firstChannel, firstChannel };
+        // The responses past the number given are not sent
+        replyProcessor.sendCommitRetryResponses(3, startTimestamps, commitTimestamps, channels);
+
+        ArgumentCaptor<ChannelBuffer> firstChannelReplies = ArgumentCaptor.forClass(ChannelBuffer.class);
+        verify(firstChannel, times(1)).write(firstChannelReplies.capture());
+        List<TSOProto.Response> responses = readFrames(firstChannelReplies.getValue());
+        assertEquals(responses.size(), 2);
+        assertEquals(responses.get(0).getCommitResponse().getStartTimestamp(), FIRST_ST);
+        assertEquals(responses.get(0).getCommitResponse().getCommitTimestamp(), FIRST_CT);
+        assertEquals(responses.get(1).getCommitResponse().getStartTimestamp(), THIRD_ST);
+        assertEquals(responses.get(1).getCommitResponse().getCommitTimestamp(), THIRD_CT);
+
+        ArgumentCaptor<ChannelBuffer> secondChannelReplies = ArgumentCaptor.forClass(ChannelBuffer.class);
+        verify(secondChannel, times(1)).write(secondChannelReplies.capture());
+        responses = readFrames(secondChannelReplies.getValue());
+        assertEquals(responses.size(), 1);
+        assertTrue(responses.get(0).getCommitResponse().getAborted());
+        assertEquals(responses.get(0).getCommitResponse().getStartTimestamp(), SECOND_ST);
+
+    }
+
+    /**
+     * The writes never complete, so the reply buffers captured are not reused while the test reads them
+     */
+    private static Channel mockChannel() {
+        Channel c = mock(Channel.class);
+        doReturn(Channels.future(c)).when(c).write(any());
+        return c;
+    }
+
+    private static List<TSOProto.Response> readFrames(ChannelBuffer replies) throws Exception {
+
+        List<TSOProto.Response> responses = new ArrayList<>();
+        while (replies.readable()) {
+            byte[] frame = new byte[replies.readInt()];
+            replies.readBytes(frame);
+            responses.add(TSOProto.Response.parseFrom(frame));
+        }
+        return responses;
 
     }
 
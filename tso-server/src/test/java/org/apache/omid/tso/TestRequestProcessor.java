@@ -19,24 +19,37 @@ package org.apache.omid.tso;
 
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.SettableFuture;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.committable.NullCommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.NullMetricsProvider;
 import org.jboss.netty.channel.Channel;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertTrue;
 
@@ -50,6 +63,7 @@ public class TestRequestProcessor {
     private MetricsRegistry metrics = new NullMetricsProvider();
 
     private PersistenceProcessor persist;
+    private ReplyProcessor replyProc;
 
     private TSOStateManager stateManager;
 
@@ -71,11 +85,15 @@ public class TestRequestProcessor {
         SettableFuture<Void> f = SettableFuture.create();
         f.set(null);
         doReturn(f).when(persist).persistLowWatermark(any(Long.class));
+        // Timestamps go through the batches unless a test says otherwise
+        doReturn(true).when(persist).hasPendingReplies();
+        replyProc = mock(ReplyProcessor.class);
 
         TSOServerConfig config = new TSOServerConfig();
         config.setConflictMapSize(CONFLICT_MAP_SIZE);
 
-        requestProc = new RequestProcessorImpl(metrics, timestampOracle, persist, new MockPanicker(), config);
+        requestProc = new RequestProcessorImpl(metrics, timestampOracle, persist, replyProc, new MockPanicker(),
+                                               config);
 
         // Initialize the state for the experiment
         stateManager.register(requestProc);
@@ -100,6 +118,126 @@ public class TestRequestProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testMultiTimestampRequestsAreAssignedConsecutiveTimestamps() throws Exception {
+
+        requestProc.timestampRequest(null, new MonitoringContext(metrics));
+        ArgumentCaptor<Long> firstTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                firstTScapture.capture(), any(Channel.class), any(MonitoringContext.class));
+        long firstTS = firstTScapture.getValue();
+
+        requestProc.timestampRequest(null, 10, new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampsToBatch(
+                eq(firstTS + 1), eq(10), any(Channel.class), any(MonitoringContext.class));
+
+        // The next timestamp follows the last one of the range
+        requestProc.timestampRequest(null, new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                eq(firstTS + 11), any(Channel.class), any(MonitoringContext.class));
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testTimestampsAreRepliedImmediatelyWhenNoRepliesArePending() throws Exception {
+
+        requestProc.timestampRequest(null, new MonitoringContext(metrics));
+        ArgumentCaptor<Long> firstTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                firstTScapture.capture(), any(Channel.class), any(MonitoringContext.class));
+        long firstTS = firstTScapture.getValue();
+
+        doReturn(false).when(persist).hasPendingReplies();
+        requestProc.timestampRequest(null, new MonitoringContext(metrics));
+        verify(replyProc, timeout(100).times(1)).sendTimestampResponse(eq(firstTS + 1), eq(1), any(Channel.class));
+        requestProc.timestampRequest(null, 5, new MonitoringContext(metrics));
+        verify(replyProc, timeout(100).times(1)).sendTimestampResponse(eq(firstTS + 2), eq(5), any(Channel.class));
+
+        // A reply still pending, like that of a commit not persisted yet, makes the next timestamps go through the
+        // batches again
+        doReturn(true).when(persist).hasPendingReplies();
+        requestProc.timestampRequest(null, new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                eq(firstTS + 7), any(Channel.class), any(MonitoringContext.class));
+        verify(persist, times(2)).addTimestampToBatch(anyLong(), any(Channel.class), any(MonitoringContext.class));
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testTimestampsAreNotRepliedImmediatelyAheadOfBatchedReplies() throws Exception {
+
+        // The replies of the batches are held until the test sends them
+        final BlockingQueue<Batch> batchesToReply = new LinkedBlockingQueue<>();
+        ReplyProcessor heldReplyProc = mock(ReplyProcessor.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                batchesToReply.add((Batch) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(heldReplyProc).manageResponsesBatch(anyLong(), any(Batch.class));
+
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        BatchPool batchPool = new BatchPoolModule(config).getBatchPool();
+        CommitTable commitTable = new NullCommitTable();
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[config.getNumConcurrentCTWriters()];
+        for (int i = 0; i < config.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = new PersistenceProcessorHandler(metrics,
+                                                          "localhost:1234",
+                                                          new VoidLeaseManager(mock(TSOChannelHandler.class),
+                                                                               mock(TSOStateManager.class)),
+                                                          commitTable,
+                                                          heldReplyProc,
+                                                          mock(RetryProcessor.class),
+                                                          new MockPanicker());
+        }
+        PersistenceProcessor batchingPersist = new PersistenceProcessorImpl(config,
+                                                                            new BlockingWaitStrategy(),
+                                                                            commitTable,
+                                                                            batchPool,
+                                                                            new MockPanicker(),
+                                                                            handlers,
+                                                                            metrics);
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOStateManager batchingStateManager = new TSOStateManagerImpl(timestampOracle);
+        RequestProcessorImpl batchingRequestProc = new RequestProcessorImpl(metrics, timestampOracle, batchingPersist,
+                                                                            heldReplyProc, new MockPanicker(), config);
+        batchingStateManager.register(batchingRequestProc);
+        batchingStateManager.initialize();
+        Channel channel = mock(Channel.class);
+
+        // Nothing is pending, so the timestamp is replied immediately...
+        batchingRequestProc.timestampRequest(channel, new MonitoringContext(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(heldReplyProc, timeout(1000).times(1)).sendTimestampResponse(TScapture.capture(), eq(1), eq(channel));
+        long startTS = TScapture.getValue();
+
+        // ...but not once a commit and a timestamp are batched...
+        batchingRequestProc.commitRequest(startTS, Lists.newArrayList(1L), false, channel,
+                                          new MonitoringContext(metrics));
+        batchingRequestProc.timestampRequest(channel, new MonitoringContext(metrics));
+        List<Batch> heldBatches = new ArrayList<>();
+        takeBatchesUpToATimestamp(batchesToReply, heldBatches);
+
+        // ...nor while their replies are still on their way, even if the commit is already persisted, as the
+        // batched start timestamp must reach the client before the later ones
+        batchingRequestProc.timestampRequest(channel, new MonitoringContext(metrics));
+        takeBatchesUpToATimestamp(batchesToReply, heldBatches);
+        verify(heldReplyProc, times(1)).sendTimestampResponse(anyLong(), anyInt(), any(Channel.class));
+
+        // Once the replies are sent, timestamps are replied immediately again
+        for (Batch batch : heldBatches) {
+            batchPool.returnObject(batch);
+        }
+        batchingRequestProc.timestampRequest(channel, new MonitoringContext(metrics));
+        verify(heldReplyProc, timeout(1000).times(2)).sendTimestampResponse(anyLong(), eq(1), eq(channel));
+
+        batchingRequestProc.close();
+
+    }
+
     @Test(timeOut = 30_000)
     public void testCommit() throws Exception {
 
@@ -187,4 +325,190 @@ public class TestRequestProcessor {
 
     }
 
-}
\ No newline at end of file
+    @Test(timeOut = 30_000)
+    public void testConflictDetectionIsCoordinatedAmongShards() throws Exception {
+
+        final int NUM_SHARDS = 4;
+
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOStateManager shardedStateManager = new TSOStateManagerImpl(timestampOracle);
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE * NUM_SHARDS);
+        config.setNumConflictDetectionThreads(NUM_SHARDS);
+        RequestProcessorImpl shardedRequestProc =
+                new RequestProcessorImpl(metrics, timestampOracle, persist, replyProc, new MockPanicker(), config);
+        shardedStateManager.register(shardedRequestProc);
+        shardedStateManager.initialize();
+
+        // Find cells that belong to different shards
+        long[] cellInShard = new long[NUM_SHARDS];
+        for (int shard = 0; shard < NUM_SHARDS; shard++) {
+            cellInShard[shard] = firstCellInShard(shard, NUM_SHARDS);
+        }
+
+        // Start the transactions. The last one is the first in committing
+        for (int i = 0; i < 4; i++) {
+            shardedRequestProc.timestampRequest(null, new MonitoringContext(metrics));
+        }
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(4)).addTimestampToBatch(
+                TScapture.capture(), any(Channel.class), any(MonitoringContext.class));
+        long startTS = TScapture.getAllValues().get(3);
+
+        // A transaction spanning shards 0 and 1 commits...
+        shardedRequestProc.commitRequest(startTS, Lists.newArrayList(cellInShard[0], cellInShard[1]), false, null,
+                                         new MonitoringContext(metrics));
+        ArgumentCaptor<Long> commitTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(startTS), commitTScapture.capture(),
+                                                                any(Channel.class), any(MonitoringContext.class));
+        assertTrue(commitTScapture.getValue() > startTS, "Commit TS must be greater than start TS");
+
+        // ...so a concurrent one conflicts in shard 1 only...
+        shardedRequestProc.commitRequest(startTS - 1, Lists.newArrayList(cellInShard[1]), false, null,
+                                         new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(startTS - 1), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // ...and a concurrent one spanning shards 0 and 2 aborts in both...
+        shardedRequestProc.commitRequest(startTS - 2, Lists.newArrayList(cellInShard[2], cellInShard[0]), false, null,
+                                         new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(startTS - 2), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // ...which means that shard 2 did not record its cell
+        shardedRequestProc.commitRequest(startTS - 3, Lists.newArrayList(cellInShard[2], cellInShard[3]), false, null,
+                                         new MonitoringContext(metrics));
+        ArgumentCaptor<Long> secondCommitTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(startTS - 3), secondCommitTScapture.capture(),
+                                                                any(Channel.class), any(MonitoringContext.class));
+        assertTrue(secondCommitTScapture.getValue() > commitTScapture.getValue(), "Commit TSs must be ordered");
+
+        shardedRequestProc.close();
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testSegmentedLowWatermarksOnlyAbortTransactionsInTheSegmentsEvicted() throws Exception {
+
+        final int NUM_SEGMENTS = 1024;
+
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOStateManager segmentedStateManager = new TSOStateManagerImpl(timestampOracle);
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(1); // All cells compete for the same CONFLICT_MAP_ASSOCIATIVITY slots
+        config.setNumLowWatermarkSegments(NUM_SEGMENTS);
+        RequestProcessorImpl segmentedRequestProc =
+                new RequestProcessorImpl(metrics, timestampOracle, persist, replyProc, new MockPanicker(), config);
+        segmentedStateManager.register(segmentedRequestProc);
+        segmentedStateManager.initialize();
+
+        LowWatermarkSegments segments = new LowWatermarkSegments(NUM_SEGMENTS);
+        final long FIRST_CELL = 1L;
+        long cellInOtherSegment = 1_000_000L;
+        while (segments.segmentOf(cellInOtherSegment) == segments.segmentOf(FIRST_CELL)) {
+            cellInOtherSegment++;
+        }
+
+        // Start two transactions before the rest
+        segmentedRequestProc.timestampRequest(null, new MonitoringContext(metrics));
+        segmentedRequestProc.timestampRequest(null, new MonitoringContext(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(2)).addTimestampToBatch(
+                TScapture.capture(), any(Channel.class), any(MonitoringContext.class));
+        long firstTS = TScapture.getAllValues().get(0);
+        long secondTS = TScapture.getAllValues().get(1);
+
+        // Fill the conflict map so the commit of FIRST_CELL is evicted
+        for (long cellId = FIRST_CELL; cellId <= CONFLICT_MAP_ASSOCIATIVITY + 1; cellId++) {
+            segmentedRequestProc.commitRequest(secondTS + 1, Lists.newArrayList(cellId), false, null,
+                                               new MonitoringContext(metrics));
+        }
+        verify(persist, timeout(1000).times(CONFLICT_MAP_ASSOCIATIVITY + 1))
+                .addCommitToBatch(eq(secondTS + 1), anyLong(), any(Channel.class), any(MonitoringContext.class));
+
+        // A transaction writing in the segment of the evicted cell is aborted...
+        segmentedRequestProc.commitRequest(firstTS, Lists.newArrayList(FIRST_CELL + 1_000L * NUM_SEGMENTS, FIRST_CELL),
+                                           false, null, new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(firstTS), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // ...but a transaction writing in other segments can still commit
+        segmentedRequestProc.commitRequest(secondTS, Lists.newArrayList(cellInOtherSegment), false, null,
+                                           new MonitoringContext(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(secondTS), anyLong(), any(Channel.class),
+                                                                any(MonitoringContext.class));
+
+        // The low watermark persisted is not moved until all the segments have evicted something
+        verify(persist, timeout(100).times(2)).persistLowWatermark(anyLong());
+
+        segmentedRequestProc.close();
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testExpiredBatchesAreFlushedFromTheRequestThread() throws Exception {
+
+        // Stubbed before the request processor starts polling the batch deadline
+        PersistenceProcessor deadlinePersist = mock(PersistenceProcessor.class);
+        final AtomicBoolean expired = new AtomicBoolean(false);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return expired.get();
+            }
+        }).when(deadlinePersist).isCurrentBatchExpired();
+        final String[] flushingThread = new String[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                flushingThread[0] = Thread.currentThread().getName();
+                return null;
+            }
+        }).when(deadlinePersist).triggerCurrentBatchFlush();
+
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        RequestProcessorImpl deadlineRequestProc = new RequestProcessorImpl(metrics,
+                                                                            mock(TimestampOracle.class),
+                                                                            deadlinePersist,
+                                                                            replyProc,
+                                                                            new MockPanicker(),
+                                                                            config);
+
+        // Nothing is flushed while the current batch has not expired...
+        Thread.sleep(100);
+        verify(deadlinePersist, never()).triggerCurrentBatchFlush();
+
+        // ...but it is as soon as it does, even if no more requests arrive
+        expired.set(true);
+        verify(deadlinePersist, timeout(1000).atLeastOnce()).triggerCurrentBatchFlush();
+        assertTrue(flushingThread[0].startsWith("request-"), "Flushed from " + flushingThread[0]);
+
+        deadlineRequestProc.close();
+
+    }
+
+    private static void takeBatchesUpToATimestamp(BlockingQueue<Batch> batches, List<Batch> taken)
+            throws InterruptedException {
+        while (true) {
+            Batch batch = batches.take();
+            taken.add(batch);
+            for (int i = 0; i < batch.getNumEvents(); i++) {
+                if (batch.get(i).getType() == PersistEvent.Type.TIMESTAMP) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long firstCellInShard(int shard, int numShards) {
+        long cellId = 1;
+        while (ConflictDetectionShard.shardOf(cellId, numShards) != shard) {
+            cellId++;
+        }
+        return cellId;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.proto.TSOProto;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestResponseEncoder {
+
+    @Test(timeOut = 10_000)
+    public void testHandRolledResponsesAreIdenticalToProtobufOnes() throws Exception {
+
+        for (long startTimestamp : interestingValues()) {
+
+            for (long commitTimestamp : interestingValues()) {
+                ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+                ResponseEncoder.writeFrame(expected, commitResponse(startTimestamp, commitTimestamp));
+                ChannelBuffer actual = ChannelBuffers.dynamicBuffer();
+                ResponseEncoder.writeCommitResponse(actual, startTimestamp, commitTimestamp);
+                assertEquals(actual, expected, "Commit response " + startTimestamp + "/" + commitTimestamp);
+                assertTrue(actual.readableBytes() <= ResponseEncoder.MAX_TRANSACTION_RESPONSE_FRAME_SIZE);
+            }
+
+            ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+            ResponseEncoder.writeFrame(expected, abortResponse(startTimestamp));
+            ChannelBuffer actual = ChannelBuffers.dynamicBuffer();
+            ResponseEncoder.writeAbortResponse(actual, startTimestamp);
+            assertEquals(actual, expected, "Abort response " + startTimestamp);
+
+            expected = ChannelBuffers.dynamicBuffer();
+            ResponseEncoder.writeFrame(expected, timestampResponse(startTimestamp));
+            actual = ChannelBuffers.dynamicBuffer();
+            ResponseEncoder.writeTimestampResponse(actual, startTimestamp);
+            assertEquals(actual, expected, "Timestamp response " + startTimestamp);
+
+        }
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testHandRolledResponsesCanBeAppendedToTheSameBuffer() throws Exception {
+
+        ChannelBuffer expected = ChannelBuffers.dynamicBuffer(16);
+        ResponseEncoder.writeFrame(expected, timestampResponse(1L));
+        ResponseEncoder.writeFrame(expected, commitResponse(2L, 3L));
+        ResponseEncoder.writeFrame(expected, abortResponse(Long.MAX_VALUE));
+
+        ChannelBuffer actual = ChannelBuffers.dynamicBuffer(16);
+        ResponseEncoder.writeTimestampResponse(actual, 1L);
+        ResponseEncoder.writeCommitResponse(actual, 2L, 3L);
+        ResponseEncoder.writeAbortResponse(actual, Long.MAX_VALUE);
+
+        assertEquals(actual, expected);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testHandRolledMultiTimestampResponsesAreIdenticalToProtobufOnes() throws Exception {
+
+        for (int numTimestamps : new int[] { 1, 2, 127, 128, Integer.MAX_VALUE }) {
+            TSOProto.TimestampResponse.Builder timestampResponse = TSOProto.TimestampResponse.newBuilder()
+                    .setStartTimestamp(Long.MAX_VALUE);
+            if (numTimestamps != 1) { // The default value is not sent
+                timestampResponse.setNumTimestamps(numTimestamps);
+            }
+            ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+            ResponseEncoder.writeFrame(expected, TSOProto.Response.newBuilder()
+                    .setTimestampResponse(timestampResponse).build());
+            ChannelBuffer actual = ChannelBuffers.dynamicBuffer();
+            ResponseEncoder.writeTimestampResponse(actual, Long.MAX_VALUE, numTimestamps);
+            assertEquals(actual, expected, "Timestamp response of " + numTimestamps + " timestamps");
+        }
+
+    }
+
+    private static List<Long> interestingValues() {
+
+        List<Long> values = new ArrayList<>();
+        values.add(0L);
+        values.add(-1L);
+        values.add(Long.MIN_VALUE);
+        values.add(Long.MAX_VALUE);
+        // Values around each varint length boundary
+        for (int bits = 7; bits < Long.SIZE - 1; bits += 7) {
+            values.add((1L << bits) - 1);
+            values.add(1L << bits);
+        }
+        Random random = new Random(1234);
+        for (int i = 0; i < 20; i++) {
+            values.add(random.nextLong() >>> random.nextInt(Long.SIZE));
+        }
+        return values;
+
+    }
+
+    private static TSOProto.Response commitResponse(long startTimestamp, long commitTimestamp) {
+        return TSOProto.Response.newBuilder()
+                .setCommitResponse(TSOProto.CommitResponse.newBuilder()
+                                           .setAborted(false)
+                                           .setStartTimestamp(startTimestamp)
+                                           .setCommitTimestamp(commitTimestamp))
+                .build();
+    }
+
+    private static TSOProto.Response abortResponse(long startTimestamp) {
+        return TSOProto.Response.newBuilder()
+                .setCommitResponse(TSOProto.CommitResponse.newBuilder()
+                                           .setAborted(true)
+                                           .setStartTimestamp(startTimestamp))
+                .build();
+    }
+
+    private static TSOProto.Response timestampResponse(long startTimestamp) {
+        return TSOProto.Response.newBuilder()
+                .setTimestampResponse(TSOProto.TimestampResponse.newBuilder().setStartTimestamp(startTimestamp))
+                .build();
+    }
+
+}
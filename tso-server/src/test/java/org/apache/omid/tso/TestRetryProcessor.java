@@ -20,24 +20,37 @@ package org.apache.omid.tso;
 import com.google.common.base.Optional;
 import com.lmax.disruptor.YieldingWaitStrategy;
 
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
 import org.apache.omid.committable.InMemoryCommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.NullMetricsProvider;
+import org.apache.omid.tso.RetryProcessorImpl.RetryEvent;
 import org.jboss.netty.channel.Channel;
-import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 
@@ -55,37 +68,57 @@ public class TestRetryProcessor {
     private ReplyProcessor replyProc;
     @Mock
     private Panicker panicker;
-    @Mock
-    private MetricsRegistry metrics;
+
+    private MetricsRegistry metrics = new NullMetricsProvider();
 
     private CommitTable commitTable;
 
+    // Outcome of the responses sent by start timestamp, copied as the arrays passed to the reply processor are reused
+    private final Map<Long, Long> sentOutcomes = new ConcurrentHashMap<>();
+
     @BeforeMethod(alwaysRun = true, timeOut = 30_000)
     public void initMocksAndComponents() {
         MockitoAnnotations.initMocks(this);
         // Init components
         commitTable = new InMemoryCommitTable();
+        sentOutcomes.clear();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                int numResponses = (Integer) invocation.getArguments()[0];
+                long[] startTimestamps = (long[]) invocation.getArguments()[1];
+                long[] commitTimestamps = (long[]) invocation.getArguments()[2];
+                Channel[] channels = (Channel[]) invocation.getArguments()[3];
+                for (int i = 0; i < numResponses; i++) {
+                    assertEquals(channels[i], channel);
+                    sentOutcomes.put(startTimestamps[i], commitTimestamps[i]);
+                }
+                return null;
+            }
+        }).when(replyProc).sendCommitRetryResponses(anyInt(), any(long[].class), any(long[].class),
+                                                    any(Channel[].class));
     }
 
     @Test(timeOut = 10_000)
     public void testRetriedRequestForANonExistingTxReturnsAbort() throws Exception {
-        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+        BatchPool batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
 
         // The element to test
         RetryProcessor retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), metrics, commitTable, replyProc, panicker, batchPool);
 
         // Test we'll reply with an abort for a retry request when the start timestamp IS NOT in the commit table
         retryProc.disambiguateRetryRequestHeuristically(NON_EXISTING_ST_TX, channel, new MonitoringContext(metrics));
-        ArgumentCaptor<Long> firstTSCapture = ArgumentCaptor.forClass(Long.class);
 
-        verify(replyProc, timeout(100).times(1)).sendAbortResponse(firstTSCapture.capture(), any(Channel.class));
-        long startTS = firstTSCapture.getValue();
-        assertEquals(startTS, NON_EXISTING_ST_TX, "Captured timestamp should be the same as NON_EXISTING_ST_TX");
+        verify(replyProc, timeout(100).times(1)).sendCommitRetryResponses(eq(1), any(long[].class),
+                                                                          any(long[].class), any(Channel[].class));
+        assertEquals(sentOutcomes.size(), 1);
+        assertEquals(sentOutcomes.get(NON_EXISTING_ST_TX), Long.valueOf(ReplyProcessor.ABORTED),
+                     "NON_EXISTING_ST_TX should be aborted");
     }
 
     @Test(timeOut = 10_000)
     public void testRetriedRequestForAnExistingTxReturnsCommit() throws Exception {
-        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+        BatchPool batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
 
         // The element to test
         RetryProcessor retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), metrics, commitTable, replyProc, panicker, batchPool);
@@ -93,17 +126,11 @@ public class TestRetryProcessor {
         // Test we'll reply with a commit for a retry request when the start timestamp IS in the commit table
         commitTable.getWriter().addCommittedTransaction(ST_TX_1, CT_TX_1);
         retryProc.disambiguateRetryRequestHeuristically(ST_TX_1, channel, new MonitoringContext(metrics));
-        ArgumentCaptor<Long> firstTSCapture = ArgumentCaptor.forClass(Long.class);
-        ArgumentCaptor<Long> secondTSCapture = ArgumentCaptor.forClass(Long.class);
 
-        verify(replyProc, timeout(100).times(1)).sendCommitResponse(firstTSCapture.capture(),
-                                                                    secondTSCapture.capture(),
-                                                                    any(Channel.class));
-
-        long startTS = firstTSCapture.getValue();
-        long commitTS = secondTSCapture.getValue();
-        assertEquals(startTS, ST_TX_1, "Captured timestamp should be the same as ST_TX_1");
-        assertEquals(commitTS, CT_TX_1, "Captured timestamp should be the same as CT_TX_1");
+        verify(replyProc, timeout(100).times(1)).sendCommitRetryResponses(eq(1), any(long[].class),
+                                                                          any(long[].class), any(Channel[].class));
+        assertEquals(sentOutcomes.size(), 1);
+        assertEquals(sentOutcomes.get(ST_TX_1), Long.valueOf(CT_TX_1), "ST_TX_1 should be committed at CT_TX_1");
 
     }
 
@@ -119,19 +146,54 @@ public class TestRetryProcessor {
         Assert.assertTrue(invalidTxMarker.isPresent());
         Assert.assertEquals(invalidTxMarker.get().getValue(), InMemoryCommitTable.INVALID_TRANSACTION_MARKER);
 
-        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+        BatchPool batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
 
         // The element to test
         RetryProcessor retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), metrics, commitTable, replyProc, panicker, batchPool);
 
         // Test we return an Abort to a retry request when the transaction id IS in the commit table BUT invalidated
         retryProc.disambiguateRetryRequestHeuristically(ST_TX_1, channel, new MonitoringContext(metrics));
-        ArgumentCaptor<Long> startTSCapture = ArgumentCaptor.forClass(Long.class);
-        verify(replyProc, timeout(100).times(1)).sendAbortResponse(startTSCapture.capture(), any(Channel.class));
-        long startTS = startTSCapture.getValue();
-        Assert.assertEquals(startTS, ST_TX_1, "Captured timestamp should be the same as NON_EXISTING_ST_TX");
+        verify(replyProc, timeout(100).times(1)).sendCommitRetryResponses(eq(1), any(long[].class),
+                                                                          any(long[].class), any(Channel[].class));
+        Assert.assertEquals(sentOutcomes.size(), 1);
+        Assert.assertEquals(sentOutcomes.get(ST_TX_1), Long.valueOf(ReplyProcessor.ABORTED),
+                            "ST_TX_1 should be aborted");
 
     }
 
-}
+    @Test(timeOut = 10_000)
+    public void testRetriesAreLookedUpInTheCommitTableInGroups() throws Exception {
+
+        CommitTable.Client commitTableClient = spy(commitTable.getClient());
+        CommitTable mockedCommitTable = mock(CommitTable.class);
+        doReturn(commitTableClient).when(mockedCommitTable).getClient();
 
+        BatchPool batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+
+        // The element to test
+        RetryProcessorImpl retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), new NullMetricsProvider(),
+                                                              mockedCommitTable, replyProc, panicker, batchPool);
+
+        // Three retries drained from the ring at once, one for a committed transaction
+        commitTable.getWriter().addCommittedTransaction(ST_TX_1, CT_TX_1);
+        long[] startTimestamps = { ST_TX_1, NON_EXISTING_ST_TX, NON_EXISTING_ST_TX + 1 };
+        for (int i = 0; i < startTimestamps.length; i++) {
+            RetryEvent e = RetryEvent.EVENT_FACTORY.newInstance();
+            RetryEvent.makeCommitRetry(e, startTimestamps[i], channel, mock(MonitoringContext.class));
+            retryProc.onEvent(e, i, i == startTimestamps.length - 1);
+        }
+
+        // All of them are resolved with a single lookup
+        verify(commitTableClient, times(1)).getCommitTimestamps(eq(startTimestamps));
+        verify(commitTableClient, never()).getCommitTimestamp(anyLong());
+        // And replied to at once
+        verify(replyProc, times(1)).sendCommitRetryResponses(eq(3), eq(startTimestamps), any(long[].class),
+                                                             any(Channel[].class));
+        assertEquals(sentOutcomes.size(), 3);
+        assertEquals(sentOutcomes.get(ST_TX_1), Long.valueOf(CT_TX_1));
+        assertEquals(sentOutcomes.get(NON_EXISTING_ST_TX), Long.valueOf(ReplyProcessor.ABORTED));
+        assertEquals(sentOutcomes.get(NON_EXISTING_ST_TX + 1), Long.valueOf(ReplyProcessor.ABORTED));
+
+    }
+
+}
@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.omid.metrics.NullMetricsProvider;
 import org.apache.omid.proto.TSOProto;
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelException;
 import org.jboss.netty.channel.ChannelFactory;
@@ -51,8 +52,10 @@ import java.util.concurrent.TimeUnit;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
@@ -248,6 +251,8 @@ public class TestTSOChannelHandlerNetty {
         testWritingTimestampRequest(channel);
 
         testWritingCommitRequest(channel);
+
+        testWritingTimestampRequestOfTooManyTimestamps(channel); // Must be the last one, as the channel gets closed
     }
 
     private void testWritingTimestampRequest(Channel channel) throws InterruptedException {
@@ -261,6 +266,8 @@ public class TestTSOChannelHandlerNetty {
         verify(requestProcessor, timeout(100).times(1)).timestampRequest(any(Channel.class), any(MonitoringContext.class));
         verify(requestProcessor, timeout(100).never())
                 .commitRequest(anyLong(), anyCollectionOf(Long.class), anyBoolean(), any(Channel.class), any(MonitoringContext.class));
+        verify(requestProcessor, timeout(100).never())
+                .commitRequest(anyLong(), any(ChannelBuffer.class), anyInt(), anyBoolean(), any(Channel.class), any(MonitoringContext.class));
     }
 
     private void testWritingCommitRequest(Channel channel) throws InterruptedException {
@@ -276,8 +283,24 @@ public class TestTSOChannelHandlerNetty {
         // Write into the channel
         channel.write(commitBuilder.build()).await();
         verify(requestProcessor, timeout(100).never()).timestampRequest(any(Channel.class), any(MonitoringContext.class));
+        // Commit requests are passed to the request processor as raw frames to avoid boxing their cell ids
         verify(requestProcessor, timeout(100).times(1))
-                .commitRequest(eq(666L), anyCollectionOf(Long.class), eq(false), any(Channel.class), any(MonitoringContext.class));
+                .commitRequest(eq(666L), any(ChannelBuffer.class), eq(1), eq(false), any(Channel.class), any(MonitoringContext.class));
+        verify(requestProcessor, timeout(100).never())
+                .commitRequest(anyLong(), anyCollectionOf(Long.class), anyBoolean(), any(Channel.class), any(MonitoringContext.class));
+    }
+
+    private void testWritingTimestampRequestOfTooManyTimestamps(Channel channel) throws InterruptedException {
+        // Reset mock
+        reset(requestProcessor);
+        TSOProto.TimestampRequest.Builder tsRequestBuilder = TSOProto.TimestampRequest.newBuilder();
+        tsRequestBuilder.setNumTimestamps(-1); // 2^32 - 1 in the uint32 received by the server
+        // Write into the channel
+        channel.write(TSOProto.Request.newBuilder().setTimestampRequest(tsRequestBuilder.build()).build()).await();
+        // The server closes the channel instead of passing the request to the request processor
+        channel.getCloseFuture().await();
+        verify(requestProcessor, never()).timestampRequest(any(Channel.class), any(MonitoringContext.class));
+        verify(requestProcessor, never()).timestampRequest(any(Channel.class), anyInt(), any(MonitoringContext.class));
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -77,6 +77,25 @@ public class TestTimestampOracle {
         LOG.info("Last timestamp: {}", last);
     }
 
+    @Test(timeOut = 10_000)
+    public void testMonotonicTimestampRangeGrowth() throws Exception {
+
+        // Intialize component under test
+        timestampOracle.initialize();
+
+        // Ranges of different sizes, so they cross the allocation thresholds at different points
+        long last = timestampOracle.next();
+        for (int i = 0; last < 3 * TimestampOracleImpl.TIMESTAMP_BATCH; i++) {
+            int numTimestamps = 1 + (i % 1000) * 100;
+            long first = timestampOracle.next(numTimestamps);
+            assertEquals(first, last + 1, "Not monotonic growth");
+            last = first + numTimestamps - 1;
+            assertEquals(timestampOracle.getLast(), last);
+        }
+        assertEquals(timestampOracle.next(), last + 1, "Not monotonic growth");
+        LOG.info("Last timestamp: {}", last + 1);
+    }
+
     @Test(timeOut = 10_000)
     public void testTimestampOraclePanicsWhenTheStorageHasProblems() throws Exception {
 
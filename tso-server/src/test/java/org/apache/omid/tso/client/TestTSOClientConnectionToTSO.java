@@ -37,6 +37,11 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import static org.testng.Assert.assertEquals;
@@ -262,6 +267,84 @@ public class TestTSOClientConnectionToTSO {
         LOG.info("Restarted TSO Server Stopped");
     }
 
+    @Test(timeOut = 30_000)
+    public void testSeveralConnectionsFollowTheCurrentTSOWithZKPublishing() throws Exception {
+
+        // Start a TSO with HA...
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(1000);
+        config.setPort(tsoPortForTest);
+        config.setLeaseModule(new HALeaseManagementModule(1000, TSO_LEASE_PATH, CURRENT_TSO_PATH, zkClusterForTest, "omid"));
+        injector = Guice.createInjector(new TSOMockModule(config));
+        LOG.info("Starting Initial TSO");
+        tsoServer = injector.getInstance(TSOServer.class);
+        tsoServer.startAndWait();
+        TestUtils.waitForSocketListening(TSO_HOST, tsoPortForTest, 100);
+        LOG.info("Finished loading TSO");
+
+        waitTillTsoRegisters(injector.getInstance(CuratorFramework.class));
+
+        // Then create the TSO Client under test, with several connections...
+        OmidClientConfiguration tsoClientConf = new OmidClientConfiguration();
+        tsoClientConf.setConnectionType(OmidClientConfiguration.ConnType.HA);
+        tsoClientConf.setConnectionString(zkClusterForTest);
+        tsoClientConf.setZkCurrentTsoPath(CURRENT_TSO_PATH);
+        tsoClientConf.setReconnectionDelayInSecs(1);
+        tsoClientConf.setNumConnections(4);
+        TSOClient tsoClient = TSOClient.newInstance(tsoClientConf);
+
+        // ... and check that the requests spread across them get unique timestamps and can commit
+        Set<Long> startTimestamps = getStartTimestamps(tsoClient, 64);
+        assertEquals(startTimestamps.size(), 64, "Start timestamps must be unique");
+        for (long startTS : startTimestamps) {
+            long commitTS = tsoClient.commit(startTS, Collections.<CellId>emptySet()).get();
+            assertTrue(commitTS > startTS);
+        }
+
+        // Then replace the server...
+        tsoServer.stopAndWait();
+        tsoServer = null;
+        TestUtils.waitForSocketNotListening(TSO_HOST, tsoPortForTest, 1000);
+        LOG.info("Initial TSO Server Stopped");
+        Injector newInjector = Guice.createInjector(new TSOMockModule(config));
+        LOG.info("Re-Starting again the TSO");
+        tsoServer = newInjector.getInstance(TSOServer.class);
+        tsoServer.startAndWait();
+        TestUtils.waitForSocketListening(TSO_HOST, tsoPortForTest, 100);
+        LOG.info("Finished loading restarted TSO");
+
+        // ... and check that, eventually, all the connections get to the new TSO
+        while (true) {
+            try {
+                startTimestamps = getStartTimestamps(tsoClient, 64);
+                break;
+            } catch (ExecutionException e) {
+                // Expected while the connections reconnect
+            }
+        }
+        assertEquals(startTimestamps.size(), 64, "Start timestamps must be unique");
+
+        // Close the tsoClient connections and stop the server
+        tsoClient.close().get();
+        tsoServer.stopAndWait();
+        tsoServer = null;
+        TestUtils.waitForSocketNotListening(TSO_HOST, tsoPortForTest, 1000);
+        LOG.info("Restarted TSO Server Stopped");
+
+    }
+
+    private Set<Long> getStartTimestamps(TSOClient tsoClient, int numTimestamps) throws Exception {
+        List<TSOFuture<Long>> futures = new ArrayList<>(numTimestamps);
+        for (int i = 0; i < numTimestamps; i++) {
+            futures.add(tsoClient.getNewStartTimestamp());
+        }
+        Set<Long> startTimestamps = new HashSet<>();
+        for (TSOFuture<Long> future : futures) {
+            startTimestamps.add(future.get());
+        }
+        return startTimestamps;
+    }
+
     private void waitTillTsoRegisters(CuratorFramework zkClient) throws Exception {
         while (true) {
             try {
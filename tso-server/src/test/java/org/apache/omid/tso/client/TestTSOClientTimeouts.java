@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso.client;
+
+import org.apache.omid.TestUtils;
+import org.apache.omid.tso.ProgrammableTSOServer;
+import org.apache.omid.tso.ProgrammableTSOServer.CommitResponse;
+import org.apache.omid.tso.ProgrammableTSOServer.TimestampResponse;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestTSOClientTimeouts {
+
+    private static final int REQUEST_TIMEOUT_IN_MS = 500;
+    private static final int HANDSHAKE_TIMEOUT_IN_MS = 500;
+
+    private static final long START_TS = 1L;
+    private static final long COMMIT_TS = 2L;
+    private static final long NEXT_START_TS = 3L;
+    private static final long NEXT_COMMIT_TS = 4L;
+
+    private int tsoPort;
+    private ProgrammableTSOServer tsoServer;
+
+    // Client under test
+    private TSOClient tsoClient;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        tsoPort = TestUtils.getFreeLocalPort();
+        tsoServer = new ProgrammableTSOServer(tsoPort);
+    }
+
+    @BeforeMethod
+    public void createClient() throws Exception {
+        tsoServer.cleanResponses();
+        tsoServer.ignoreHandshakes(false);
+
+        OmidClientConfiguration tsoClientConf = new OmidClientConfiguration();
+        tsoClientConf.setConnectionString("localhost:" + tsoPort);
+        tsoClientConf.setRequestTimeoutInMs(REQUEST_TIMEOUT_IN_MS);
+        tsoClientConf.setRequestMaxRetries(0);
+        tsoClientConf.setHandshakeTimeoutInMs(HANDSHAKE_TIMEOUT_IN_MS);
+        tsoClient = TSOClient.newInstance(tsoClientConf);
+    }
+
+    @AfterMethod
+    public void closeClient() throws Exception {
+        tsoServer.cleanResponses();
+        tsoClient.close().get();
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRequestsNotAnsweredInTimeFail() throws Exception {
+        // Connect first, so the requests below only wait for their responses
+        tsoServer.queueResponse(new TimestampResponse(START_TS));
+        assertEquals(tsoClient.getNewStartTimestamp().get().longValue(), START_TS);
+
+        tsoServer.holdResponses();
+        long startTimeInMs = System.currentTimeMillis();
+        TSOFuture<Long> timestamp = tsoClient.getNewStartTimestamp();
+        TSOFuture<Long> commit = tsoClient.commit(START_TS, Collections.<CellId>emptySet());
+        assertFailsWith(timestamp, ServiceUnavailableException.class);
+        assertFailsWith(commit, ServiceUnavailableException.class);
+        long elapsedTimeInMs = System.currentTimeMillis() - startTimeInMs;
+
+        // The timeouts are checked several times per timeout period, so they fire a fraction of it late at most
+        assertTrue(elapsedTimeInMs >= REQUEST_TIMEOUT_IN_MS, "Timed out after " + elapsedTimeInMs + " ms");
+        assertTrue(elapsedTimeInMs < 2 * REQUEST_TIMEOUT_IN_MS, "Timed out after " + elapsedTimeInMs + " ms");
+    }
+
+    @Test(timeOut = 10_000)
+    public void testHandshakeNotAnsweredInTimeIsRetriedOnANewConnection() throws Exception {
+        tsoServer.ignoreHandshakes(true);
+        tsoServer.queueResponse(new TimestampResponse(START_TS));
+
+        long startTimeInMs = System.currentTimeMillis();
+        TSOFuture<Long> timestamp = tsoClient.getNewStartTimestamp();
+        while (tsoServer.getHandshakesReceived() == 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        tsoServer.ignoreHandshakes(false);
+
+        // The request waits for the connection to be established, through a second handshake
+        assertEquals(timestamp.get().longValue(), START_TS);
+        long elapsedTimeInMs = System.currentTimeMillis() - startTimeInMs;
+        assertEquals(tsoServer.getHandshakesReceived(), 2);
+        assertTrue(elapsedTimeInMs >= HANDSHAKE_TIMEOUT_IN_MS, "Connected after " + elapsedTimeInMs + " ms");
+    }
+
+    @Test(timeOut = 10_000)
+    public void testResponsesArrivingAfterTheirRequestsTimedOutAreIgnored() throws Exception {
+        tsoServer.queueResponse(new TimestampResponse(START_TS));
+        assertEquals(tsoClient.getNewStartTimestamp().get().longValue(), START_TS);
+
+        tsoServer.holdResponses();
+        TSOFuture<Long> timestamp = tsoClient.getNewStartTimestamp();
+        TSOFuture<Long> commit = tsoClient.commit(START_TS, Collections.<CellId>emptySet());
+        assertFailsWith(timestamp, ServiceUnavailableException.class);
+        assertFailsWith(commit, ServiceUnavailableException.class);
+
+        // The late responses are sent before the ones of the next requests, and ignored by the client
+        tsoServer.queueResponse(new TimestampResponse(START_TS + 1));
+        tsoServer.queueResponse(new CommitResponse(START_TS, COMMIT_TS));
+        tsoServer.releaseResponses();
+
+        // The commit is matched by its start timestamp, so by the time it completes the late responses were handled
+        tsoServer.queueResponse(new CommitResponse(NEXT_START_TS, NEXT_COMMIT_TS));
+        assertEquals(tsoClient.commit(NEXT_START_TS, Collections.<CellId>emptySet()).get().longValue(),
+                     NEXT_COMMIT_TS);
+        tsoServer.queueResponse(new TimestampResponse(NEXT_START_TS));
+        assertEquals(tsoClient.getNewStartTimestamp().get().longValue(), NEXT_START_TS);
+    }
+
+    private static void assertFailsWith(TSOFuture<Long> f, Class<? extends Exception> exceptionClass)
+            throws InterruptedException {
+        try {
+            f.get();
+            fail("The request should have failed");
+        } catch (ExecutionException ee) {
+            assertEquals(ee.getCause().getClass(), exceptionClass);
+        }
+    }
+
+}